@@ -1,30 +1,132 @@
+import server.Bulkhead;
+import server.DatagramIngestServer;
 import server.HTTPServer;
+import server.IngestServer;
 import server.MyHTTPServer;
+import server.NioHTTPServer;
+import server.ResponseCacheFilter;
+import server.SingleFlight;
 import servlets.TopicDisplayer;
+import servlets.BulkPublishServlet;
 import servlets.ConfLoader;
+import servlets.EvalServlet;
+import servlets.GraphClusterServlet;
+import servlets.GraphJsonServlet;
+import servlets.GraphViewServlet;
 import servlets.HtmlLoader;
 import servlets.ResetServlet;
 import servlets.ResetTopicsServlet;
+import servlets.Servlet;
+import servlets.TopicEventsServlet;
+import servlets.TopicSocketServlet;
 import servlets.TopicsViewServlet;
 
+import java.nio.file.Path;
+
 public class Main {
     public static void main(String[] args) throws Exception {
-        HTTPServer server = new MyHTTPServer(8080, 5);
+        // By default every connection gets its own (virtual) thread, so open
+        // event streams and WebSockets do not take threads other clients need;
+        // -Dserver=pool serves connections on a fixed pool (no streams),
+        // -Dserver=nio selects the selector-based server (no streams),
+        // -Dsocket.dir=DIR also listens on Unix domain sockets in DIR for local clients
+        String socketDir = System.getProperty("socket.dir");
+        boolean threadPerConnection = false;
+        HTTPServer server;
+        if ("nio".equals(System.getProperty("server"))) {
+            server = new NioHTTPServer(8080, 2, 5);
+        } else {
+            MyHTTPServer threaded = new MyHTTPServer(8080, 5);
+            if ("pool".equals(System.getProperty("server"))) {
+                // Overload: refuse new connections with 503 rather than queue them without bound
+                threaded.setMaxQueuedConnections(200);
+            } else {
+                threaded.setThreadPerConnection(10000);
+                threadPerConnection = true;
+            }
+            if (socketDir != null) {
+                threaded.setUnixSocket(Path.of(socketDir, "http.sock"));
+            }
+            server = threaded;
+        }
+
+        // Bulkheads: configuration changes (one at a time) and graph layouts get
+        // threads of their own, so they cannot hold up publishing and static files
+        Bulkhead admin = new Bulkhead("admin", 1, 8);
+        Bulkhead views = new Bulkhead("views", 2, 64);
 
         server.addServlet("GET" , "/publish", new TopicDisplayer());
-        server.addServlet("POST", "/upload" , new ConfLoader());
+        server.addServlet("POST", "/publish", new BulkPublishServlet());
+        // Publish inputs and answer with the computed outputs once the graph is done
+        EvalServlet eval = new EvalServlet();
+        server.addServlet("GET" , "/eval"  , eval);
+        server.addServlet("POST", "/eval"  , eval);
+        addServlet(server, "POST", "/upload" , new ConfLoader(), admin);
         server.addServlet("GET" , "/app/"  , new HtmlLoader("files_html"));
         server.addServlet("GET" , "/"      , new HtmlLoader("files_html"));  // Also serve from root
-        server.addServlet("GET" , "/reset"  , new ResetServlet());
-        server.addServlet("GET" , "/reset-topics", new ResetTopicsServlet());
-        server.addServlet("GET" , "/topics", new TopicsViewServlet());
+        addServlet(server, "GET" , "/reset"  , new ResetServlet(), admin);
+        addServlet(server, "GET" , "/reset-topics", new ResetTopicsServlet(), admin);
+        // Dashboards refresh together: concurrent identical requests share one render
+        server.addServlet("GET" , "/topics", new SingleFlight(new TopicsViewServlet()));
+        // A stream holds its connection's thread: on a fixed pool the dashboard polls
+        // instead, and WebSocket clients are only served with a thread each
+        TopicEventsServlet topicEvents = new TopicEventsServlet();
+        topicEvents.setStreaming(threadPerConnection);
+        server.addServlet("GET" , "/topics/events", topicEvents);
+        if (threadPerConnection) {
+            server.addServlet("GET" , "/ws"    , new TopicSocketServlet());
+        }
+        addServlet(server, "GET" , "/graph/view", new SingleFlight(new GraphViewServlet()), views);
+        addServlet(server, "GET" , "/graph.json", new SingleFlight(new GraphJsonServlet()), views);
+        addServlet(server, "GET" , "/graph/cluster", new GraphClusterServlet(), views);
+
+        // Response caches: graph views change only when a configuration is loaded
+        // or reset, so both invalidate them once they are done; the topics table
+        // may lag by half a second
+        ResponseCacheFilter graphCache = new ResponseCacheFilter(60_000, 256, 16 << 20);
+        ResponseCacheFilter topicsCache = new ResponseCacheFilter(500, 64, 4 << 20);
+        server.addFilter("/graph", graphCache);
+        server.addFilter("/topics", (ri, toClient, chain) -> {
+            if (ri.getUri().equals("/topics")) {
+                topicsCache.filter(ri, toClient, chain);
+            } else {
+                chain.proceed(ri, toClient);   // /topics/events streams
+            }
+        });
+        server.addFilter("/upload", graphCache.invalidator());
+        server.addFilter("/reset", graphCache.invalidator());   // by prefix also /reset-topics
+        server.addFilter("/reset-topics", topicsCache.invalidator());
+
+        // Binary TCP ingest for high-rate feeders (see IngestClient)
+        IngestServer ingest = new IngestServer(9090, 2);
+        if (socketDir != null) {
+            ingest.setUnixSocket(Path.of(socketDir, "ingest.sock"));
+        }
+        // UDP telemetry: many updates per packet, no acknowledgements
+        DatagramIngestServer telemetry = new DatagramIngestServer(9091);
 
         server.start();
+        ingest.start();
+        telemetry.start();
         System.out.println("Server started on port 8080");
+        System.out.println("Binary ingest listening on port 9090 (TCP) and 9091 (UDP)");
         System.out.println("Open http://localhost:8080 in your browser");
         System.out.println("Press Enter to stop the server...");
         System.in.read();   // wait for key-press
+        ingest.close();
+        telemetry.close();
         server.close();
+        graphCache.close();
+        topicsCache.close();
         System.out.println("Server stopped");
     }
+
+    /** Registers a route on a bulkhead where the server supports them (MyHTTPServer) */
+    private static void addServlet(HTTPServer server, String httpCommand, String uri, Servlet servlet, Bulkhead bulkhead) {
+        if (server instanceof MyHTTPServer) {
+            ((MyHTTPServer) server).addServlet(httpCommand, uri, servlet, bulkhead);
+        } else {
+            server.addServlet(httpCommand, uri, servlet);
+        }
+    }
 }
\ No newline at end of file
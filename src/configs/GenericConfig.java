@@ -44,8 +44,15 @@ public class GenericConfig implements Config {
         }
         
         try {
-            // Read all lines from the configuration file
+            // Read all lines from the configuration file; blank lines at the
+            // start and end (e.g. a trailing newline in an upload) are ignored
             List<String> lines = Files.readAllLines(Paths.get(configFilePath));
+            while (!lines.isEmpty() && lines.get(lines.size() - 1).trim().isEmpty()) {
+                lines.remove(lines.size() - 1);
+            }
+            while (!lines.isEmpty() && lines.get(0).trim().isEmpty()) {
+                lines.remove(0);
+            }
             
             // Check if valid config file (lines divisible by 3)
             if (lines.size() % 3 != 0) {
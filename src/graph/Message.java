@@ -40,7 +40,12 @@ public final class Message {
      * @param value The numeric value of the message
      */
     public Message(double value) {
-        this(Double.toString(value).getBytes(StandardCharsets.UTF_8), Double.toString(value));
+        // Formatted once and not parsed back: Double.toString round-trips exactly
+        String text = Double.toString(value);
+        this.data = text.getBytes(StandardCharsets.US_ASCII);
+        this.asText = text;
+        this.asDouble = value;
+        this.date = new Date();
     }
 
     private Message(byte[] data, String asText) {
@@ -17,6 +17,8 @@ import java.util.concurrent.BlockingQueue;
  * - Dedicated worker thread for message processing
  * - Preserves message ordering (FIFO)
  * - Graceful shutdown with thread cleanup
+ * - Carries the Propagation of a queued message to the worker thread, so
+ *   callers can wait for the messages their publish caused
  * 
  * Use Case: Prevents slow agents from blocking the topic publishing thread
  * 
@@ -42,10 +44,12 @@ public class ParallelAgent implements Agent {
     private static class MessageWrapper {
         final String topic;
         final Message message;
+        final Propagation propagation;   // null if not tracked
         
-        MessageWrapper(String topic, Message message) {
+        MessageWrapper(String topic, Message message, Propagation propagation) {
             this.topic = topic;
             this.message = message;
+            this.propagation = propagation;
         }
     }
     
@@ -71,7 +75,7 @@ public class ParallelAgent implements Agent {
             while (running) {
                 try {
                     MessageWrapper wrapper = queue.take();
-                    agent.callback(wrapper.topic, wrapper.message);
+                    Propagation.runWithin(wrapper.propagation, () -> agent.callback(wrapper.topic, wrapper.message));
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     break;
@@ -116,10 +120,17 @@ public class ParallelAgent implements Agent {
      */
     @Override
     public void callback(String topic, Message msg) {
+        Propagation propagation = Propagation.current();
+        if (propagation != null) {
+            propagation.retain();
+        }
         try {
-            queue.put(new MessageWrapper(topic, msg));
+            queue.put(new MessageWrapper(topic, msg, propagation));
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+            if (propagation != null) {
+                propagation.release();   // message dropped
+            }
         }
     }
     
@@ -136,7 +147,8 @@ public class ParallelAgent implements Agent {
      * - volatile 'running' ensures visibility across threads
      * - join() ensures worker completes before agent cleanup
      * 
-     * Note: Any messages still in queue will be lost
+     * Note: Any messages still in queue will be lost; their propagations
+     * are released, so no caller waits for them
      */
     @Override
     public void close() {
@@ -147,6 +159,12 @@ public class ParallelAgent implements Agent {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        MessageWrapper dropped;
+        while ((dropped = queue.poll()) != null) {
+            if (dropped.propagation != null) {
+                dropped.propagation.release();
+            }
+        }
         agent.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package graph;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the messages caused by one publish through the graph, so a caller
+ * can tell exactly when the computation it started is complete.
+ * <pre>
+ * Propagation run = Propagation.start("req-42", () -&gt; {
+ *     manager.getTopic("A").publish(new Message(3));
+ *     manager.getTopic("B").publish(new Message(4));
+ * });
+ * run.quiesced().thenAccept(done -&gt; System.out.println(done.getPublished()));
+ * </pre>
+ *
+ * Algorithm (in-flight counting):
+ * - The propagation is bound to the publishing thread while start runs;
+ *   the running publish counts as one pending unit
+ * - A ParallelAgent that queues a message on a bound thread counts one more
+ *   unit and remembers the propagation with the message; its worker binds
+ *   the propagation while the agent handles the message, so the agent's
+ *   own publishes belong to it too, and then counts the unit down
+ * - Agents without their own thread run inside the publish that reached
+ *   them and need no counting
+ * - When the count reaches zero, nothing caused by the publish is queued or
+ *   running any more: quiesced() completes. A unit is counted before the
+ *   one that produced it is released, so the count cannot reach zero early.
+ *
+ * Messages dropped by a closing ParallelAgent are released as well. Work an
+ * agent hands to threads of its own (other than ParallelAgent) is not
+ * tracked. Unrelated publishes running at the same time are not counted.
+ *
+ * Design Pattern: Context Object (bound to threads, carried with messages)
+ *
+ * @author Advanced Programming Course
+ */
+public final class Propagation {
+    private static final ThreadLocal<Propagation> CURRENT = new ThreadLocal<>();
+
+    private final String id;
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final CompletableFuture<Propagation> quiesced = new CompletableFuture<>();
+    private final Map<String, Message> published = new LinkedHashMap<>();
+
+    private Propagation(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Runs publishing code as the root of a new propagation.
+     *
+     * @param id Correlation id, e.g. of the request that asked for it
+     * @param publish Publishes the inputs, on the current thread
+     * @return The propagation; quiesced() may already be complete
+     */
+    public static Propagation start(String id, Runnable publish) {
+        Propagation propagation = new Propagation(id);
+        Propagation outer = CURRENT.get();
+        CURRENT.set(propagation);
+        try {
+            publish.run();
+        } finally {
+            CURRENT.set(outer);
+            propagation.release();
+        }
+        return propagation;
+    }
+
+    /** @return The propagation bound to the current thread, or null */
+    static Propagation current() {
+        return CURRENT.get();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /** @return Completes with this propagation once it has quiesced */
+    public CompletableFuture<Propagation> quiesced() {
+        return quiesced;
+    }
+
+    /**
+     * @return The last message of each topic published within this
+     *         propagation, in order of first publication (a snapshot)
+     */
+    public synchronized Map<String, Message> getPublished() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(published));
+    }
+
+    /** Called by Topic.publish on a thread bound to this propagation */
+    synchronized void record(String topic, Message message) {
+        published.put(topic, message);
+    }
+
+    /** Counts a message queued for another thread */
+    void retain() {
+        pending.incrementAndGet();
+    }
+
+    /** Counts a unit of work as finished */
+    void release() {
+        if (pending.decrementAndGet() == 0) {
+            quiesced.complete(this);
+        }
+    }
+
+    /**
+     * Handles a queued message of this propagation (or of none) on the
+     * current thread with the propagation bound, then releases it.
+     */
+    static void runWithin(Propagation propagation, Runnable work) {
+        if (propagation == null) {
+            work.run();
+            return;
+        }
+        CURRENT.set(propagation);
+        try {
+            work.run();
+        } finally {
+            CURRENT.remove();
+            propagation.release();
+        }
+    }
+}
@@ -47,6 +47,9 @@ public class Topic {
      * - Stores message for future subscribers
      * - Notifies all current subscribers synchronously
      * - Order of notification matches subscription order
+     * - Reports the message to the TopicManager's publish listeners first,
+     *   so observers see values in the order they were produced
+     * - Records the message in the Propagation bound to the thread, if any
      * 
      * SOLID: Dependency Inversion - Calls abstract Agent.callback()
      * 
@@ -54,6 +57,11 @@ public class Topic {
      */
     public void publish(Message msg) {
         this.lastMessage = msg;
+        Propagation propagation = Propagation.current();
+        if (propagation != null) {
+            propagation.record(name, msg);
+        }
+        TopicManagerSingleton.get().firePublished(this, msg);
         for (Agent agent : subs) {
             agent.callback(name, msg);
         }
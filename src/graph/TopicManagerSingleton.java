@@ -2,7 +2,9 @@ package graph;
 
 import java.util.Map;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Thread-safe singleton implementation for global topic management.
@@ -35,6 +37,22 @@ public class TopicManagerSingleton {
      */
     public static class TopicManager {
         private final Map<String, Topic> topics = new ConcurrentHashMap<>();
+        private final List<PublishListener> listeners = new CopyOnWriteArrayList<>();
+
+        /**
+         * Observes every message published on any topic, e.g. to push
+         * values to a live view without polling the topics.
+         *
+         * Called on the publishing thread, before the topic's subscribers;
+         * implementations must return quickly and must not publish.
+         */
+        public interface PublishListener {
+            void published(Topic topic, Message message);
+
+            /** All topics were removed by {@link TopicManager#clear()} */
+            default void cleared() {
+            }
+        }
 
         private TopicManager() {}
 
@@ -51,12 +69,37 @@ public class TopicManagerSingleton {
             return topics.computeIfAbsent(name, Topic::new);
         }
 
+        /**
+         * @return The topic with this name, or null if it does not exist;
+         *         unlike getTopic, never creates one
+         */
+        public Topic findTopic(String name) {
+            return topics.get(name);
+        }
+
         public Collection<Topic> getTopics() {
             return topics.values();
         }
 
         public void clear() {
             topics.clear();
+            for (PublishListener listener : listeners) {
+                listener.cleared();
+            }
+        }
+
+        public void addPublishListener(PublishListener listener) {
+            listeners.add(listener);
+        }
+
+        public void removePublishListener(PublishListener listener) {
+            listeners.remove(listener);
+        }
+
+        void firePublished(Topic topic, Message message) {
+            for (PublishListener listener : listeners) {
+                listener.published(topic, message);
+            }
         }
     }
 }
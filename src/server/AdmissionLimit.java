@@ -0,0 +1,59 @@
+package server;
+
+import servlets.Servlet;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Admission control for an expensive, low-priority route (e.g. /upload):
+ * at most maxConcurrent requests run its servlet at once, and while the
+ * server is overloaded none are started at all. Requests that are not
+ * admitted are answered at once with 503 and Retry-After instead of
+ * waiting, so they hold a thread for microseconds and leave the threads to
+ * the cheap routes.
+ *
+ * Design Pattern: Decorator - wraps the route's servlet
+ *
+ * @author Advanced Programming Course
+ */
+final class AdmissionLimit implements Servlet {
+    private final Servlet servlet;
+    private final Semaphore permits;
+    private final BooleanSupplier overloaded;
+    private final MyHTTPServer server;
+
+    /**
+     * @param servlet The route's servlet
+     * @param maxConcurrent Requests served at once
+     * @param overloaded Tells whether the server is shedding low-priority work
+     * @param server Receives the rejections (Retry-After, counters)
+     */
+    AdmissionLimit(Servlet servlet, int maxConcurrent, BooleanSupplier overloaded, MyHTTPServer server) {
+        this.servlet = servlet;
+        this.permits = new Semaphore(maxConcurrent);
+        this.overloaded = overloaded;
+        this.server = server;
+    }
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        if (overloaded.getAsBoolean() || !permits.tryAcquire()) {
+            server.rejected(toClient);
+            return;
+        }
+        try {
+            servlet.handle(ri, toClient);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        servlet.close();
+    }
+}
@@ -0,0 +1,142 @@
+package server;
+
+import servlets.Servlet;
+import server.RequestParser.RequestInfo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A separate thread pool for a group of routes, so that a burst of one kind
+ * of traffic cannot take the threads of the others: slow configuration
+ * uploads wait for the "admin" threads while /publish and static files keep
+ * the server's own.
+ * <pre>
+ * Bulkhead admin = new Bulkhead("admin", 1, 8);
+ * server.addServlet("POST", "/upload", new ConfLoader(), admin);
+ * server.addServlet("GET", "/reset", new ResetServlet(), admin);
+ * </pre>
+ * MyHTTPServer parses a request on its own thread and hands the connection
+ * to the bulkhead of the request's route; when the response is complete,
+ * the connection goes back to the server's threads to wait for the next
+ * request. A request that finds the bulkhead's queue full is answered
+ * with 503 and Retry-After.
+ *
+ * The queue depth, active threads and counts of each bulkhead can be read
+ * for monitoring. A bulkhead may be shared by several routes and servers;
+ * a server closes the bulkheads of its routes when it closes.
+ *
+ * Design Pattern: Bulkhead (isolated resource pools)
+ *
+ * @author Advanced Programming Course
+ */
+public final class Bulkhead implements Closeable {
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param name Name for monitoring and thread names ("bulkhead-name-1")
+     * @param threads Requests of its routes served at once
+     * @param maxQueued Requests that may wait for a thread; further ones are refused
+     */
+    public Bulkhead(String name, int threads, int maxQueued) {
+        this.name = name;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, maxQueued)), task -> {
+                Thread thread = new Thread(task, "bulkhead-" + name + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** @return Requests waiting for a thread of this bulkhead */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /** @return Requests being served */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /** @return Requests served since the bulkhead was created */
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /** @return Requests refused because the queue was full */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return false if the task was refused (queue full or closed)
+     */
+    boolean execute(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return false;
+        }
+    }
+
+    /** Stops taking requests and waits up to 5 seconds for the running ones */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Bulkhead[" + name + ": active=" + getActiveCount() + ", queued=" + getQueueDepth()
+               + ", completed=" + getCompletedCount() + ", rejected=" + getRejectedCount() + "]";
+    }
+
+    /**
+     * Registry entry of a route served by a bulkhead; MyHTTPServer
+     * recognizes it and moves the connection to the bulkhead's threads.
+     */
+    static final class Route implements Servlet {
+        final Servlet servlet;
+        final Bulkhead bulkhead;
+
+        Route(Servlet servlet, Bulkhead bulkhead) {
+            this.servlet = servlet;
+            this.bulkhead = bulkhead;
+        }
+
+        /** Servers without bulkhead support call the servlet directly */
+        @Override
+        public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+            servlet.handle(ri, toClient);
+        }
+
+        @Override
+        public void close() throws IOException {
+            servlet.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Applies HTTP/1.1 chunked transfer encoding to a response body.
+ *
+ * Lets a servlet stream a body whose length is not known in advance: every
+ * write becomes one chunk ("size in hex CRLF data CRLF"), and
+ * {@link #finish()} writes the terminating zero-length chunk. Callers should
+ * write in reasonably large blocks, since each write carries its own framing.
+ *
+ * The response headers must include "Transfer-Encoding: chunked" and no
+ * Content-Length.
+ *
+ * Design Pattern: Decorator - wraps the connection's OutputStream
+ *
+ * @author Advanced Programming Course
+ */
+public class ChunkedOutputStream extends FilterOutputStream {
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+    private final byte[] sizeLine = new byte[10];
+    private boolean finished;
+
+    /**
+     * @param out The connection stream that receives the encoded body
+     */
+    public ChunkedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Chunked body already finished");
+        }
+        if (len == 0) {
+            return;   // a zero-length chunk would end the body
+        }
+        // Chunk size in hex, written right-aligned into the reusable line buffer
+        int pos = sizeLine.length - 2;
+        sizeLine[pos] = '\r';
+        sizeLine[pos + 1] = '\n';
+        int size = len;
+        do {
+            sizeLine[--pos] = (byte) Character.forDigit(size & 0xF, 16);
+            size >>>= 4;
+        } while (size != 0);
+        out.write(sizeLine, pos, sizeLine.length - pos);
+        out.write(b, off, len);
+        out.write(CRLF);
+    }
+
+    /**
+     * Writes the last chunk and flushes. The underlying stream stays open,
+     * so the connection can be used for another response.
+     *
+     * @throws IOException if writing fails
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            finished = true;
+            out.write(LAST_CHUNK);
+            out.flush();
+        }
+    }
+
+    /**
+     * Finishes the body but does not close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+}
@@ -0,0 +1,66 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A connection MyHTTPServer serves: a TCP socket, or a Unix domain socket
+ * channel (see UnixDomainConnection). Only what the request loop needs is
+ * exposed, named as on java.net.Socket.
+ *
+ * Design Pattern: Adapter
+ *
+ * @author Advanced Programming Course
+ */
+interface ClientConnection extends Closeable {
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * @return Channel that file bodies can be transferred to, or null to
+     *         copy them through the output stream
+     */
+    WritableByteChannel getChannel();
+
+    /**
+     * Bounds blocking reads like Socket.setSoTimeout: they fail with
+     * SocketTimeoutException after millis (0 waits forever).
+     */
+    void setSoTimeout(int millis) throws IOException;
+
+    /** Wraps an accepted TCP socket, with Nagle's algorithm off */
+    static ClientConnection of(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        return new ClientConnection() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return socket.getInputStream();
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                return socket.getOutputStream();
+            }
+
+            @Override
+            public WritableByteChannel getChannel() {
+                return socket.getChannel();
+            }
+
+            @Override
+            public void setSoTimeout(int millis) throws IOException {
+                socket.setSoTimeout(millis);
+            }
+
+            @Override
+            public void close() throws IOException {
+                socket.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,282 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * gzip and deflate content codings for HTTP responses (RFC 9110, section 8.4).
+ *
+ * - {@link #negotiate} picks the coding from the request's Accept-Encoding
+ * - {@link #encoder} compresses a body while it is written
+ * - {@link #compressShared} compresses a shared, immutable body once and
+ *   keeps the result for as long as the body itself is in use, so cached
+ *   pages and static files are not compressed again for every request
+ *
+ * A Deflater holds about 256 KB of native zlib state, which is expensive to
+ * set up; instances are therefore pooled and reset between bodies. The gzip
+ * framing (header, CRC-32 and length trailer) is written here around a raw
+ * deflate stream, since GZIPOutputStream cannot use a pooled Deflater.
+ *
+ * Design Pattern: Object Pool (Deflater instances)
+ *
+ * @author Advanced Programming Course
+ */
+public final class Compression {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    /** Bodies smaller than this are sent uncompressed; the saving is below a packet */
+    public static final int MIN_SIZE = 1024;
+
+    private static final int POOL_SIZE = 32;
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private static final ArrayBlockingQueue<Deflater> RAW_POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final ArrayBlockingQueue<Deflater> ZLIB_POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /** Compressed forms of shared bodies, keyed by array identity: {gzip, deflate} */
+    private static final Map<byte[], byte[][]> SHARED = new WeakHashMap<>();
+
+    private Compression() {
+    }
+
+    /**
+     * Chooses a content coding accepted by the client. gzip is preferred
+     * over deflate when both are acceptable; "*" counts as gzip, and a
+     * coding with q=0 is refused.
+     *
+     * @param acceptEncoding The Accept-Encoding request header, may be null
+     * @return GZIP, DEFLATE, or null to send the body uncompressed
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        boolean wildcard = false;
+        for (String entry : acceptEncoding.split(",")) {
+            String[] parts = entry.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        accepted = Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                gzip = accepted;
+            } else if (coding.equals(DEFLATE)) {
+                deflate = accepted;
+            } else if (coding.equals("*")) {
+                wildcard = accepted;
+            }
+        }
+        if (gzip || (wildcard && !acceptEncoding.toLowerCase().contains(GZIP))) {
+            return GZIP;
+        }
+        return deflate ? DEFLATE : null;
+    }
+
+    /**
+     * @return true for textual media types, which compress well; images
+     *         other than SVG and archives are already compressed
+     */
+    public static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/")
+               || type.startsWith("application/json")
+               || type.startsWith("application/javascript")
+               || type.startsWith("application/xml")
+               || type.startsWith("image/svg+xml");
+    }
+
+    /**
+     * Returns a stream that compresses everything written to it into out.
+     * {@link Encoder#finish()} writes the end of the compressed body and
+     * returns the Deflater to the pool; out stays open.
+     *
+     * @param coding GZIP or DEFLATE
+     */
+    public static Encoder encoder(String coding, OutputStream out, int level) throws IOException {
+        return new Encoder(coding, out, level);
+    }
+
+    /**
+     * Compresses a body in one step.
+     *
+     * @param coding GZIP or DEFLATE
+     * @return The compressed body
+     */
+    public static byte[] compress(String coding, byte[] data, int offset, int length, int level) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, length / 3));
+        try (Encoder encoder = new Encoder(coding, compressed, level)) {
+            encoder.write(data, offset, length);
+        } catch (IOException e) {
+            throw new IllegalStateException("In-memory compression failed", e);   // cannot happen
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Compresses a body that is shared and never modified, e.g. a cached
+     * page or file. The result is computed at best compression on first use
+     * and kept as long as the body array is reachable.
+     *
+     * @param coding GZIP or DEFLATE
+     * @return The compressed body; shared, must not be modified
+     */
+    public static byte[] compressShared(String coding, byte[] body) {
+        int index = GZIP.equals(coding) ? 0 : 1;
+        byte[][] forms;
+        synchronized (SHARED) {
+            forms = SHARED.get(body);
+            if (forms != null && forms[index] != null) {
+                return forms[index];
+            }
+        }
+        // Compress outside the lock; two threads may both compress the first time
+        byte[] compressed = compress(coding, body, 0, body.length, Deflater.BEST_COMPRESSION);
+        synchronized (SHARED) {
+            forms = SHARED.computeIfAbsent(body, b -> new byte[2][]);
+            forms[index] = compressed;
+        }
+        return compressed;
+    }
+
+    private static Deflater acquire(boolean raw, int level) {
+        Deflater deflater = (raw ? RAW_POOL : ZLIB_POOL).poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, raw);
+        } else {
+            deflater.setLevel(level);
+        }
+        return deflater;
+    }
+
+    private static void release(Deflater deflater, boolean raw) {
+        deflater.reset();
+        if (!(raw ? RAW_POOL : ZLIB_POOL).offer(deflater)) {
+            deflater.end();   // pool full: free the native memory now
+        }
+    }
+
+    /**
+     * Compressing stream around a pooled Deflater.
+     *
+     * flush() emits everything written so far (a zlib sync flush), so a
+     * streamed response, e.g. an event stream, reaches the client without
+     * waiting for more data; it costs a few bytes of compression ratio.
+     */
+    public static final class Encoder extends OutputStream {
+        private final OutputStream out;
+        private final boolean gzip;
+        private final CRC32 crc;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private Deflater deflater;
+        private long size;
+
+        private Encoder(String coding, OutputStream out, int level) throws IOException {
+            this.out = out;
+            this.gzip = GZIP.equals(coding);
+            this.crc = gzip ? new CRC32() : null;
+            this.deflater = acquire(gzip, level);
+            if (gzip) {
+                out.write(GZIP_HEADER);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (deflater == null) {
+                throw new IOException("Compressed body already finished");
+            }
+            if (len == 0) {
+                return;
+            }
+            if (gzip) {
+                crc.update(b, off, len);
+            }
+            size += len;
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (deflater != null) {
+                int n;
+                do {
+                    n = deflate(Deflater.SYNC_FLUSH);
+                } while (n == buffer.length);
+            }
+            out.flush();
+        }
+
+        /**
+         * Writes the rest of the compressed body and, for gzip, the trailer.
+         * The Deflater goes back to the pool; the underlying stream stays open.
+         */
+        public void finish() throws IOException {
+            if (deflater == null) {
+                return;
+            }
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate(Deflater.NO_FLUSH);
+                }
+                if (gzip) {
+                    writeIntLE(crc.getValue());
+                    writeIntLE(size);
+                }
+            } finally {
+                release(deflater, gzip);
+                deflater = null;
+            }
+        }
+
+        /** Finishes the body but does not close the underlying stream */
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+
+        private int deflate(int flush) throws IOException {
+            int n = deflater.deflate(buffer, 0, buffer.length, flush);
+            if (n > 0) {
+                out.write(buffer, 0, n);
+            }
+            return n;
+        }
+
+        private void writeIntLE(long value) throws IOException {
+            out.write((int) value & 0xff);
+            out.write((int) (value >> 8) & 0xff);
+            out.write((int) (value >> 16) & 0xff);
+            out.write((int) (value >> 24) & 0xff);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package server;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * UDP listener for fire-and-forget telemetry: each datagram carries many
+ * numeric topic updates, published without a connection, an ACK or any
+ * text parsing. Producers that cannot tolerate loss use IngestServer.
+ *
+ * Packet format (integers big-endian):
+ * <pre>
+ * u8 version (1) | u32 sequence | record...
+ * record: u8 tag (0x81) | u8 name length | name (UTF-8) | f64 value
+ * </pre>
+ * The records are those of IngestServer, numeric and by name only, so a
+ * 1472-byte packet (one Ethernet frame) holds about 80 updates of topics
+ * with 8-letter names. The sequence number counts the packets of one
+ * sender (address and port) and reveals lost ones.
+ *
+ * Counters:
+ * - lost: packets missing from a sender's sequence (dropped on the way or
+ *   by a full socket buffer)
+ * - late: packets that arrived after a later one of their sender; they are
+ *   discarded, as their values are older than the ones published
+ * - malformed: packets that do not follow the format; nothing of them is
+ *   published
+ * - rejected: updates of topics that are not part of the configuration
+ *
+ * Algorithm: one thread receives into a single direct buffer, checks the
+ * whole packet, then publishes its records. Topic names are looked up in
+ * an open-addressing table keyed by the name's bytes in the buffer, so a
+ * known topic costs no String; the table is emptied when the topics are
+ * cleared.
+ *
+ * @author Advanced Programming Course
+ */
+public class DatagramIngestServer extends Thread implements Closeable {
+    public static final int VERSION = 1;
+    /** Largest datagram accepted (larger ones are truncated and malformed) */
+    public static final int MAX_PACKET_SIZE = 65507;
+    /** Bytes before the first record */
+    static final int HEADER_SIZE = 5;
+    /** Tag of a numeric record by name */
+    static final int RECORD = IngestServer.DOUBLE | IngestServer.BY_NAME;
+
+    /** Backwards jump in sequence treated as a restarted sender, not a late packet */
+    private static final int RESTART_DISTANCE = 1024;
+    /** Senders tracked at once; the table is reset when full */
+    private static final int MAX_SENDERS = 4096;
+    private static final int CACHE_SIZE = 1024;   // power of two
+
+    private final int port;
+    private final TopicManager topicManager = TopicManagerSingleton.get();
+    private final TopicManager.PublishListener clearListener;
+    private final Map<SocketAddress, int[]> nextSequence = new HashMap<>();
+    private final byte[][] cachedNames = new byte[CACHE_SIZE][];
+    private final Topic[] cachedTopics = new Topic[CACHE_SIZE];
+    private int cached;
+    private volatile boolean cacheStale;
+
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder late = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile boolean running;
+    private volatile DatagramChannel channel;
+    private int receiveBufferSize = 4 * 1024 * 1024;
+
+    /**
+     * @param port UDP port to listen on
+     */
+    public DatagramIngestServer(int port) {
+        super("datagram-ingest");
+        this.port = port;
+        this.clearListener = new TopicManager.PublishListener() {
+            @Override
+            public void published(Topic topic, Message message) {
+            }
+
+            @Override
+            public void cleared() {
+                cacheStale = true;
+            }
+        };
+    }
+
+    /**
+     * @param bytes Socket receive buffer (SO_RCVBUF) absorbing bursts while
+     *              updates are published; the OS may cap it. Must be
+     *              called before {@link #start()}.
+     */
+    public void setReceiveBufferSize(int bytes) {
+        this.receiveBufferSize = bytes;
+    }
+
+    public long getPackets() {
+        return packets.sum();
+    }
+
+    public long getPublished() {
+        return published.sum();
+    }
+
+    public long getLost() {
+        return lost.sum();
+    }
+
+    public long getLate() {
+        return late.sum();
+    }
+
+    public long getMalformed() {
+        return malformed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        topicManager.addPublishListener(clearListener);
+        try {
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            channel.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            running = false;
+            topicManager.removePublishListener(clearListener);
+            throw new IllegalStateException("Cannot listen on UDP port " + port, e);
+        }
+        super.start();
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer packet = ByteBuffer.allocateDirect(MAX_PACKET_SIZE + 1);   // one more to detect truncation
+        try {
+            while (running) {
+                packet.clear();
+                SocketAddress sender = channel.receive(packet);
+                packet.flip();
+                packets.increment();
+                if (packet.limit() > MAX_PACKET_SIZE || !wellFormed(packet)) {
+                    malformed.increment();
+                } else if (inSequence(sender, packet.getInt(1))) {
+                    publish(packet);
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /** Stops receiving */
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        topicManager.removePublishListener(clearListener);
+        try {
+            channel.close();   // a blocked receive() fails with AsynchronousCloseException
+        } catch (IOException e) {
+            // Ignore errors during shutdown
+        }
+    }
+
+    /** Checks every record before any is published */
+    private static boolean wellFormed(ByteBuffer packet) {
+        int end = packet.limit();
+        if (end < HEADER_SIZE || packet.get(0) != VERSION) {
+            return false;
+        }
+        int position = HEADER_SIZE;
+        while (position < end) {
+            if (position + 2 > end || (packet.get(position) & 0xFF) != RECORD) {
+                return false;
+            }
+            position += 2 + (packet.get(position + 1) & 0xFF) + 8;
+        }
+        return position == end;
+    }
+
+    /**
+     * Tracks the sender's sequence numbers.
+     *
+     * @return false for a late packet, which is discarded
+     */
+    private boolean inSequence(SocketAddress sender, int sequence) {
+        int[] next = nextSequence.get(sender);
+        if (next == null) {
+            if (nextSequence.size() >= MAX_SENDERS) {
+                nextSequence.clear();
+            }
+            nextSequence.put(sender, new int[] { sequence + 1 });
+            return true;
+        }
+        int gap = sequence - next[0];   // wraps around like the u32 sequence
+        if (gap < 0 && gap > -RESTART_DISTANCE) {
+            late.increment();
+            return false;
+        }
+        if (gap > 0) {
+            lost.add(gap);
+        }
+        next[0] = sequence + 1;
+        return true;
+    }
+
+    private void publish(ByteBuffer packet) {
+        if (cacheStale) {
+            cacheStale = false;
+            Arrays.fill(cachedNames, null);
+            Arrays.fill(cachedTopics, null);
+            cached = 0;
+        }
+        int end = packet.limit();
+        int position = HEADER_SIZE;
+        long count = 0;
+        int unknown = 0;
+        while (position < end) {
+            int nameLength = packet.get(position + 1) & 0xFF;
+            int name = position + 2;
+            position = name + nameLength + 8;
+            Topic topic = topic(packet, name, nameLength);
+            if (topic != null) {
+                topic.publish(new Message(packet.getDouble(name + nameLength)));
+                count++;
+            } else {
+                unknown++;
+            }
+        }
+        published.add(count);
+        rejected.add(unknown);
+    }
+
+    /**
+     * Looks a name up in the cache by its bytes, falling back to the
+     * TopicManager (which caches the topic for the next packets).
+     */
+    private Topic topic(ByteBuffer packet, int offset, int length) {
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + packet.get(offset + i);
+        }
+        int mask = CACHE_SIZE - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (cachedNames[slot] != null) {
+            if (matches(cachedNames[slot], packet, offset, length)) {
+                return cachedTopics[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        byte[] bytes = new byte[length];
+        packet.get(offset, bytes);
+        Topic topic = topicManager.findTopic(new String(bytes, StandardCharsets.UTF_8));
+        if (topic != null && cached < CACHE_SIZE / 2) {   // unknown names are not cached: they may be configured later
+            cachedNames[slot] = bytes;
+            cachedTopics[slot] = topic;
+            cached++;
+        }
+        return topic;
+    }
+
+    private static boolean matches(byte[] name, ByteBuffer packet, int offset, int length) {
+        if (name.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name[i] != packet.get(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,10 +1,29 @@
 package server;
 
+import configs.Graph;
+import configs.Node;
+import graph.Agent;
+import graph.Message;
+import graph.ParallelAgent;
+import graph.TopicManagerSingleton;
+import servlets.AsyncServlet;
+import servlets.BulkPublishServlet;
+import servlets.ConfLoader;
+import servlets.EvalServlet;
+import servlets.GraphJsonServlet;
+import servlets.HtmlLoader;
+import servlets.TopicEventsServlet;
+import servlets.TopicSocketServlet;
 import servlets.Servlet;
 import server.RequestParser.RequestInfo;
+import views.GraphViewCache;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.util.*;
 
 public class Ex5Test {
@@ -154,6 +173,7 @@ public class Ex5Test {
             // Send HTTP request
             out.println("GET /echo?test=hello&value=123 HTTP/1.1");
             out.println("Host: localhost");
+            out.println("Connection: close");
             out.println();
             
             // Read response
@@ -313,6 +333,7 @@ public class Ex5Test {
             String content = "This is test content";
             out.println("POST /upload?filename=test.txt HTTP/1.1");
             out.println("Host: localhost");
+            out.println("Connection: close");
             out.println("Content-Length: " + content.length());
             out.println();
             out.println("metadata=test");
@@ -340,6 +361,2279 @@ public class Ex5Test {
         System.out.println();
     }
     
+    /** Reads one response with a Content-Length body; returns null at end of stream */
+    static String readResponse(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        int contentLength = 0;
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            head.append(line).append("\n");
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        if (line == null) {
+            return null;
+        }
+        byte[] body = in.readNBytes(contentLength);
+        return head + "\n" + new String(body);
+    }
+    
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') line.append((char) c);
+        }
+        return c == -1 && line.length() == 0 ? null : line.toString();
+    }
+    
+    public static void testKeepAlive() {
+        System.out.println("Test 6: Keep-Alive and Pipelining");
+        
+        int port = 8084;
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        server.setKeepAliveTimeout(500);
+        server.setMaxRequestsPerConnection(50_000);
+        server.addServlet("GET", "/calc", new CalculatorServlet());
+        server.addServlet("POST", "/upload", new EchoServlet());
+        server.start();
+        
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {}
+        
+        try (Socket client = new Socket("localhost", port)) {
+            client.setSoTimeout(5000);
+            OutputStream out = client.getOutputStream();
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            
+            // Sequential requests on one connection
+            boolean sequential = true;
+            for (int i = 0; i < 3; i++) {
+                out.write(("GET /calc?op=add&a=" + i + "&b=1 HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes());
+                out.flush();
+                String response = readResponse(in);
+                sequential &= response != null && response.contains("Connection: keep-alive")
+                              && response.endsWith("Result: " + (i + 1) + ".00");
+            }
+            System.out.println((sequential ? "[PASS]" : "[FAIL]") + " Three requests answered on one connection");
+            
+            // Body with non-ASCII bytes must not desynchronise the connection
+            byte[] body = "caf\u00e9".getBytes("UTF-8");
+            out.write(("POST /upload HTTP/1.1\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes());
+            out.write(body);
+            out.write("GET /calc?op=add&a=2&b=2 HTTP/1.1\r\n\r\n".getBytes());
+            out.flush();
+            String echoed = readResponse(in);
+            String after = readResponse(in);
+            boolean exact = echoed != null && after != null && after.endsWith("Result: 4.00");
+            System.out.println((exact ? "[PASS]" : "[FAIL]") + " UTF-8 body followed by another request");
+            
+            // Pipelining: send a burst without waiting, then read all responses
+            int burst = 20_000;
+            long start = System.nanoTime();
+            Thread writer = new Thread(() -> {
+                try {
+                    BufferedOutputStream pipelined = new BufferedOutputStream(out, 65536);
+                    for (int i = 0; i < burst; i++) {
+                        pipelined.write(("GET /calc?op=add&a=" + i + "&b=0 HTTP/1.1\r\n\r\n").getBytes());
+                    }
+                    pipelined.flush();
+                } catch (IOException e) {
+                    System.out.println("[FAIL] Pipelined write: " + e.getMessage());
+                }
+            });
+            writer.start();
+            int inOrder = 0;
+            for (int i = 0; i < burst; i++) {
+                String response = readResponse(in);
+                if (response != null && response.endsWith("Result: " + i + ".00")) {
+                    inOrder++;
+                }
+            }
+            writer.join();
+            long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            System.out.println((inOrder == burst ? "[PASS]" : "[FAIL]") + " " + inOrder + "/" + burst
+                               + " pipelined responses in order (" + (burst * 1000L / elapsedMs) + " req/s)");
+            
+            // Idle connections are closed after the keep-alive timeout
+            Thread.sleep(900);
+            boolean closedWhenIdle = in.read() == -1;
+            System.out.println((closedWhenIdle ? "[PASS]" : "[FAIL]") + " Idle connection closed after timeout");
+            
+        } catch (IOException | InterruptedException e) {
+            System.out.println("[FAIL] " + e.getMessage());
+        }
+        
+        // Request limit and HTTP/1.0 close the connection
+        server.setMaxRequestsPerConnection(2);
+        try (Socket client = new Socket("localhost", port)) {
+            client.setSoTimeout(5000);
+            OutputStream out = client.getOutputStream();
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            out.write("GET /calc?op=add HTTP/1.1\r\n\r\nGET /calc?op=add HTTP/1.1\r\n\r\nGET /calc?op=add HTTP/1.1\r\n\r\n".getBytes());
+            out.flush();
+            String first = readResponse(in);
+            String second = readResponse(in);
+            boolean limited = first != null && first.contains("Connection: keep-alive")
+                              && second != null && second.contains("Connection: close")
+                              && readResponse(in) == null;
+            System.out.println((limited ? "[PASS]" : "[FAIL]") + " Connection closed after the request limit");
+        } catch (IOException e) {
+            System.out.println("[FAIL] " + e.getMessage());
+        }
+        try (Socket client = new Socket("localhost", port)) {
+            client.setSoTimeout(5000);
+            client.getOutputStream().write("GET /calc?op=add HTTP/1.0\r\n\r\n".getBytes());
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            String response = readResponse(in);
+            boolean http10 = response != null && response.contains("Connection: close") && readResponse(in) == null;
+            System.out.println((http10 ? "[PASS]" : "[FAIL]") + " HTTP/1.0 request closes the connection");
+        } catch (IOException e) {
+            System.out.println("[FAIL] " + e.getMessage());
+        }
+        
+        server.close();
+        
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {}
+        
+        System.out.println();
+    }
+    
+    // Blocks until released, like a servlet waiting on slow I/O
+    static class BlockingServlet implements Servlet {
+        private final java.util.concurrent.CountDownLatch release = new java.util.concurrent.CountDownLatch(1);
+        
+        @Override
+        public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+            try {
+                release.await(10, java.util.concurrent.TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            toClient.write("HTTP/1.1 200 OK\r\nContent-Length: 8\r\n\r\nreleased".getBytes());
+            toClient.flush();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            release.countDown();
+        }
+    }
+    
+    public static void testThreadPerConnection() {
+        System.out.println("Test 7: Thread per Connection with a Concurrency Cap");
+        
+        int port = 8085;
+        MyHTTPServer server = new MyHTTPServer(port, 1);
+        server.setThreadPerConnection(3);
+        BlockingServlet blocking = new BlockingServlet();
+        server.addServlet("GET", "/block", blocking);
+        server.addServlet("GET", "/calc", new CalculatorServlet());
+        server.start();
+        
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {}
+        
+        boolean virtualExpected = Runtime.version().feature() >= 21;
+        System.out.println((server.isUsingVirtualThreads() == virtualExpected ? "[PASS]" : "[FAIL]")
+                           + " Virtual threads " + (server.isUsingVirtualThreads() ? "used" : "unavailable, platform threads used"));
+        
+        List<Socket> blocked = new ArrayList<>();
+        try {
+            // Two blocked servlets would starve a one-thread pool
+            for (int i = 0; i < 2; i++) {
+                Socket socket = new Socket("localhost", port);
+                socket.setSoTimeout(5000);
+                socket.getOutputStream().write("GET /block HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+                blocked.add(socket);
+            }
+            Thread.sleep(100);
+            try (Socket client = new Socket("localhost", port)) {
+                client.setSoTimeout(2000);
+                client.getOutputStream().write("GET /calc?op=add&a=1&b=2 HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+                String response = readResponse(new BufferedInputStream(client.getInputStream()));
+                System.out.println((response != null && response.endsWith("Result: 3.00") ? "[PASS]" : "[FAIL]")
+                                   + " Request served while two servlets block");
+            }
+            
+            // A third blocked connection reaches the cap: the next one waits
+            Socket third = new Socket("localhost", port);
+            third.setSoTimeout(5000);
+            third.getOutputStream().write("GET /block HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+            blocked.add(third);
+            Thread.sleep(100);
+            try (Socket client = new Socket("localhost", port)) {
+                client.setSoTimeout(300);
+                client.getOutputStream().write("GET /calc?op=add&a=2&b=2 HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+                InputStream in = new BufferedInputStream(client.getInputStream());
+                boolean waited = false;
+                try {
+                    in.read();
+                } catch (SocketTimeoutException e) {
+                    waited = true;   // no answer while all slots are taken
+                }
+                System.out.println((waited ? "[PASS]" : "[FAIL]") + " Connection beyond the cap waits");
+                
+                blocking.release.countDown();
+                client.setSoTimeout(5000);
+                String response = readResponse(in);
+                System.out.println((response != null && response.endsWith("Result: 4.00") ? "[PASS]" : "[FAIL]")
+                                   + " Waiting connection served once a slot frees up");
+            }
+            
+            int released = 0;
+            for (Socket socket : blocked) {
+                String response = readResponse(new BufferedInputStream(socket.getInputStream()));
+                if (response != null && response.endsWith("released")) {
+                    released++;
+                }
+            }
+            System.out.println((released == 3 ? "[PASS]" : "[FAIL]") + " " + released + "/3 blocked requests completed");
+        } catch (IOException | InterruptedException e) {
+            System.out.println("[FAIL] " + e.getMessage());
+        } finally {
+            blocking.release.countDown();
+            for (Socket socket : blocked) {
+                try {
+                    socket.close();
+                } catch (IOException e) {}
+            }
+        }
+        
+        try {
+            server.setThreadPerConnection(10);
+            System.out.println("[FAIL] Threading mode changed while running");
+        } catch (IllegalStateException e) {
+            System.out.println("[PASS] Threading mode fixed once the server runs");
+        }
+        
+        server.close();
+        
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {}
+        
+        System.out.println();
+    }
+    
+    public static void testRadixRouting() {
+        System.out.println("Test 8: Radix Trie Routing");
+        
+        ServletRegistry registry = new ServletRegistry();
+        Servlet root = new EchoServlet();
+        Servlet api = new EchoServlet();
+        Servlet users = new EchoServlet();
+        Servlet topic = new EchoServlet();
+        Servlet topicView = new EchoServlet();
+        Servlet literal = new EchoServlet();
+        registry.add("GET", "/", root);
+        registry.add("GET", "/api", api);
+        registry.add("GET", "/api/users/", users);
+        registry.add("GET", "/topics/:name", topic);
+        registry.add("GET", "/topics/:name/view", topicView);
+        registry.add("GET", "/topics/all", literal);
+        
+        boolean prefix = registry.find("GET", "/api/users/123") == users
+                         && registry.find("GET", "/api/other") == api
+                         && registry.find("GET", "/apix") == api
+                         && registry.find("GET", "/index.html") == root
+                         && registry.find("get", "/api") == api
+                         && registry.find("POST", "/api") == null
+                         && registry.find("PUT", "/api") == null;
+        System.out.println((prefix ? "[PASS]" : "[FAIL]") + " Longest prefix wins");
+        
+        Map<String, String> params = new HashMap<>();
+        params.put("name", "query");
+        RequestInfo ri = new RequestInfo("GET", "/topics/A/view/extra", new String[0], params, new byte[0]);
+        boolean routed = registry.route(ri) == topicView && "A".equals(params.get("name"));
+        params.clear();
+        ri = new RequestInfo("GET", "/topics/B", new String[0], params, new byte[0]);
+        routed &= registry.route(ri) == topic && "B".equals(params.get("name"));
+        System.out.println((routed ? "[PASS]" : "[FAIL]") + " Path parameters captured");
+        
+        // "/topics/all" is a prefix route too, so it also takes "/topics/alle"
+        boolean literalFirst = registry.find("GET", "/topics/all") == literal
+                               && registry.find("GET", "/topics/all/view") == literal
+                               && registry.find("GET", "/topics/alle") == literal
+                               && registry.find("GET", "/topics/al") == topic
+                               && registry.find("GET", "/topics/") == root;
+        System.out.println((literalFirst ? "[PASS]" : "[FAIL]") + " Literal segments preferred over parameters");
+        
+        registry.remove("GET", "/api/users/");
+        registry.remove("GET", "/topics/:name/view");
+        registry.remove("GET", "/never/added");
+        boolean removed = registry.find("GET", "/api/users/123") == api
+                          && registry.find("GET", "/topics/A/view") == topic
+                          && registry.find("GET", "/topics/all") == literal;
+        System.out.println((removed ? "[PASS]" : "[FAIL]") + " Removal falls back to shorter routes");
+        
+        // Same answers as a linear scan, with 5 and 5000 routes
+        for (int routes : new int[] { 5, 5000 }) {
+            ServletRegistry large = new ServletRegistry();
+            Map<String, Servlet> linear = new HashMap<>();
+            Random random = new Random(routes);
+            for (int i = 0; i < routes; i++) {
+                String uri = "/r" + random.nextInt(routes) + "/" + Integer.toString(i, 36);
+                Servlet s = new EchoServlet();
+                large.add("GET", uri, s);
+                linear.put(uri, s);
+            }
+            List<String> registered = new ArrayList<>(linear.keySet());
+            String[] paths = new String[1000];
+            for (int i = 0; i < paths.length; i++) {
+                // Half extend a registered route, half only share its first segment
+                String uri = registered.get(random.nextInt(registered.size()));
+                paths[i] = i % 2 == 0 ? uri + "/x" : uri.substring(0, uri.lastIndexOf('/') + 1) + "zz";
+            }
+            boolean same = true;
+            for (String path : paths) {
+                String best = "";
+                Servlet expected = null;
+                for (Map.Entry<String, Servlet> entry : linear.entrySet()) {
+                    if (path.startsWith(entry.getKey()) && entry.getKey().length() > best.length()) {
+                        best = entry.getKey();
+                        expected = entry.getValue();
+                    }
+                }
+                same &= large.find("GET", path) == expected;
+            }
+            long start = System.nanoTime();
+            int found = 0;
+            for (int round = 0; round < 200; round++) {
+                for (String path : paths) {
+                    if (large.find("GET", path) != null) found++;
+                }
+            }
+            long nanos = (System.nanoTime() - start) / (200L * paths.length);
+            System.out.println((same ? "[PASS]" : "[FAIL]") + " " + routes + " routes match a linear scan ("
+                               + nanos + " ns/lookup, " + found / 200 + " hits)");
+        }
+        
+        System.out.println();
+    }
+    
+    public static void testByteParser() {
+        System.out.println("Test 9: Byte-Level Request Parsing");
+        
+        try {
+            // Two pipelined requests; header names in mixed case; binary body
+            byte[] body = new byte[256];
+            for (int i = 0; i < body.length; i++) {
+                body[i] = (byte) i;
+            }
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            raw.write("\r\nPOST /upload?x=1 HTTP/1.1\r\ncOnTeNt-LeNgTh: 256\r\nX-Name:  caf\u00e9 \r\n\r\n".getBytes("ISO-8859-1"));
+            raw.write(body);
+            raw.write("GET /calc HTTP/1.0\n\n".getBytes());
+            java.nio.ByteBuffer buffer = java.nio.ByteBuffer.wrap(raw.toByteArray());
+            
+            RequestInfo first = RequestParser.parseRequest(buffer);
+            boolean parsed = first != null && first.getHttpCommand().equals("POST")
+                             && first.getUri().equals("/upload") && "1".equals(first.getParameters().get("x"))
+                             && "caf\u00e9".equals(first.getHeader("x-name"))
+                             && "256".equals(first.getHeaders().get("content-length"));
+            System.out.println((parsed ? "[PASS]" : "[FAIL]") + " Request line, parameters and headers parsed");
+            
+            java.nio.ByteBuffer view = first.getBody();
+            boolean binary = Arrays.equals(first.getContent(), body) && view.remaining() == 256
+                             && view.isReadOnly() && view.get(255) == (byte) 255;
+            System.out.println((binary ? "[PASS]" : "[FAIL]") + " Binary body exposed byte-exact without decoding");
+            
+            RequestInfo second = RequestParser.parseRequest(buffer);
+            boolean pipelined = second != null && second.getUri().equals("/calc") && !second.isKeepAlive()
+                                && !buffer.hasRemaining() && RequestParser.parseRequest(buffer) == null;
+            System.out.println((pipelined ? "[PASS]" : "[FAIL]") + " Pipelined request parsed from the same buffer");
+            
+            // Incomplete request: nothing consumed until the body is there
+            java.nio.ByteBuffer partial = java.nio.ByteBuffer.wrap("POST / HTTP/1.1\r\nContent-Length: 5\r\n\r\nab".getBytes());
+            boolean waits = RequestParser.parseRequest(partial) == null && partial.position() == 0
+                            && RequestParser.requestLength(partial) == partial.limit() + 3;
+            System.out.println((waits ? "[PASS]" : "[FAIL]") + " Incomplete request left in the buffer");
+            
+            String[][] bad = {
+                { "400", "GET / HTTP/1.1\r\nContent-Length: 1x\r\n\r\n" },
+                { "411", "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n" },
+                { "413", "POST / HTTP/1.1\r\nContent-Length: 999999999999\r\n\r\n" },
+                { "400", "NOSPACES\r\n\r\n" },
+            };
+            boolean rejected = true;
+            for (String[] c : bad) {
+                try {
+                    RequestParser.parseRequest(java.nio.ByteBuffer.wrap(c[1].getBytes()));
+                    rejected = false;
+                } catch (RequestParser.RequestException e) {
+                    rejected &= String.valueOf(e.getStatusCode()).equals(c[0]);
+                }
+            }
+            char[] header = new char[RequestParser.MAX_HEADER_SIZE];
+            Arrays.fill(header, 'a');
+            try {
+                RequestParser.parseRequest(java.nio.ByteBuffer.wrap(("GET / HTTP/1.1\r\nX: " + new String(header)).getBytes()));
+                rejected = false;
+            } catch (RequestParser.RequestException e) {
+                rejected &= e.getStatusCode() == 431;
+            }
+            System.out.println((rejected ? "[PASS]" : "[FAIL]") + " Malformed and oversized requests rejected with status");
+            
+            // Parsing cost compared with the reader-based parser
+            byte[] request = "GET /publish?topic=A&message=5 HTTP/1.1\r\nHost: localhost\r\nUser-Agent: test\r\nAccept: */*\r\nConnection: keep-alive\r\n\r\n".getBytes();
+            int rounds = 200_000;
+            long bytesNs = 0;
+            long readerNs = 0;
+            for (int pass = 0; pass < 2; pass++) {   // the first pass warms up the JIT
+                long start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    RequestParser.parseRequest(java.nio.ByteBuffer.wrap(request)).isKeepAlive();
+                }
+                bytesNs = (System.nanoTime() - start) / rounds;
+                start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    RequestParser.parseRequest(new BufferedReader(new InputStreamReader(
+                        new ByteArrayInputStream(request), "ISO-8859-1"))).isKeepAlive();
+                }
+                readerNs = (System.nanoTime() - start) / rounds;
+            }
+            // Timing only, not a check: one wall-clock measurement varies with load
+            System.out.println("  Byte parser " + bytesNs + " ns/request, reader parser " + readerNs + " ns/request");
+        } catch (IOException e) {
+            System.out.println("[FAIL] " + e.getMessage());
+        }
+        
+        // A binary upload through the server arrives intact
+        int port = 8086;
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        server.addServlet("POST", "/sum", new Servlet() {
+            @Override
+            public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+                long sum = 0;
+                for (byte b : ri.getContent()) {
+                    sum = sum * 31 + (b & 0xff);
+                }
+                String text = ri.getContent().length + ":" + sum;
+                toClient.write(("HTTP/1.1 200 OK\r\nContent-Length: " + text.length() + "\r\n\r\n" + text).getBytes());
+            }
+            
+            @Override
+            public void close() {}
+        });
+        server.start();
+        
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {}
+        
+        try (Socket client = new Socket("localhost", port)) {
+            client.setSoTimeout(5000);
+            byte[] data = new byte[100_000];
+            new Random(7).nextBytes(data);
+            long sum = 0;
+            for (byte b : data) {
+                sum = sum * 31 + (b & 0xff);
+            }
+            OutputStream out = client.getOutputStream();
+            out.write(("POST /sum HTTP/1.1\r\nContent-Length: " + data.length + "\r\n\r\n").getBytes());
+            out.write(data);
+            out.write("POST /sum HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes());
+            out.flush();
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            String response = readResponse(in);
+            System.out.println((response != null && response.endsWith(data.length + ":" + sum) ? "[PASS]" : "[FAIL]")
+                               + " 100 KB binary upload received byte-exact");
+            String refused = readResponse(in);
+            System.out.println((refused != null && refused.startsWith("HTTP/1.1 411") ? "[PASS]" : "[FAIL]")
+                               + " Chunked upload answered with 411");
+        } catch (IOException e) {
+            System.out.println("[FAIL] " + e.getMessage());
+        }
+        
+        server.close();
+        System.out.println();
+    }
+    
+    // Delivers at most a few bytes per read, like a slow network
+    static class TrickleInputStream extends FilterInputStream {
+        private final Random random = new Random(3);
+        
+        TrickleInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1 + random.nextInt(7)));
+        }
+    }
+    
+    public static void testStreamingMultipart() {
+        System.out.println("Test 10: Streaming Multipart Uploads");
+        
+        try {
+            // File content containing near-misses of the delimiter and all byte values
+            ByteArrayOutputStream file = new ByteArrayOutputStream();
+            file.write("line\r\n--xy not yet\r\n--x\r\n-\r\n--xyZ".getBytes());
+            for (int i = 0; i < 256; i++) {
+                file.write(i);
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            body.write(("preamble\r\n--xyz\r\nContent-Disposition: form-data; name=\"note\"\r\n\r\nhello"
+                        + "\r\n--xyz\r\nContent-Disposition: form-data; name=\"file\"; filename=\"a.conf\"\r\n"
+                        + "Content-Type: application/octet-stream\r\n\r\n").getBytes());
+            body.write(file.toByteArray());
+            body.write("\r\n--xyz--\r\nepilogue".getBytes());
+            
+            MultipartStream parts = new MultipartStream(
+                new TrickleInputStream(new ByteArrayInputStream(body.toByteArray())),
+                "multipart/form-data; boundary=\"xyz\"");
+            MultipartStream.Part note = parts.nextPart();
+            boolean field = note != null && "note".equals(note.getName()) && note.getFilename() == null
+                            && new String(note.getInputStream().readAllBytes()).equals("hello");
+            MultipartStream.Part upload = parts.nextPart();
+            boolean exact = upload != null && "a.conf".equals(upload.getFilename())
+                            && "application/octet-stream".equals(upload.getContentType())
+                            && Arrays.equals(upload.getInputStream().readAllBytes(), file.toByteArray())
+                            && parts.nextPart() == null;
+            System.out.println((field && exact ? "[PASS]" : "[FAIL]")
+                               + " Parts split exactly on the boundary, read in small pieces");
+            
+            // Unread parts are skipped; a body without closing boundary is rejected
+            parts = new MultipartStream(new ByteArrayInputStream(body.toByteArray()), "multipart/form-data; boundary=xyz");
+            boolean skipped = Arrays.equals(parts.readFirstFile(), file.toByteArray());
+            byte[] truncated = Arrays.copyOf(body.toByteArray(), body.size() - 20);
+            boolean rejected = false;
+            try {
+                new MultipartStream(new ByteArrayInputStream(truncated), "multipart/form-data; boundary=xyz").readFirstFile();
+            } catch (RequestParser.RequestException e) {
+                rejected = e.getStatusCode() == 400;
+            }
+            System.out.println((skipped && rejected ? "[PASS]" : "[FAIL]") + " Skipping parts and truncated bodies");
+        } catch (IOException e) {
+            System.out.println("[FAIL] " + e.getMessage());
+        }
+        
+        // A large upload is streamed through the servlet instead of buffered
+        int port = 8087;
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        server.addServlet("POST", "/upload", new Servlet() {
+            @Override
+            public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+                MultipartStream parts = new MultipartStream(ri.getBodyStream(), ri.getHeader("Content-Type"));
+                MultipartStream.Part part = parts.nextPart();
+                long size = 0;
+                long sum = 0;
+                byte[] buffer = new byte[8192];
+                int n;
+                InputStream in = part.getInputStream();
+                while ((n = in.read(buffer)) > 0) {
+                    for (int i = 0; i < n; i++) {
+                        sum = sum * 31 + (buffer[i] & 0xff);
+                    }
+                    size += n;
+                }
+                parts.nextPart();
+                String text = ri.isBodyStreamed() + ":" + size + ":" + sum;
+                toClient.write(("HTTP/1.1 200 OK\r\nContent-Length: " + text.length() + "\r\n\r\n" + text).getBytes());
+            }
+            
+            @Override
+            public void close() {}
+        });
+        server.addServlet("GET", "/calc", new CalculatorServlet());
+        server.start();
+        
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {}
+        
+        try (Socket client = new Socket("localhost", port)) {
+            client.setSoTimeout(30000);
+            int size = 64 * 1024 * 1024;
+            byte[] chunk = new byte[1 << 20];
+            new Random(11).nextBytes(chunk);
+            long sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum = sum * 31 + (chunk[i & (chunk.length - 1)] & 0xff);
+            }
+            String head = "--b0undary\r\nContent-Disposition: form-data; name=\"file\"; filename=\"big.conf\"\r\n\r\n";
+            String tail = "\r\n--b0undary--\r\n";
+            OutputStream out = new BufferedOutputStream(client.getOutputStream(), 65536);
+            out.write(("POST /upload HTTP/1.1\r\nContent-Type: multipart/form-data; boundary=b0undary\r\n"
+                       + "Content-Length: " + (head.length() + size + tail.length()) + "\r\n\r\n" + head).getBytes());
+            
+            System.gc();
+            Runtime runtime = Runtime.getRuntime();
+            long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+            for (int written = 0; written < size; written += chunk.length) {
+                out.write(chunk);
+            }
+            out.write(tail.getBytes());
+            out.write("GET /calc?op=add&a=1&b=1 HTTP/1.1\r\n\r\n".getBytes());
+            out.flush();
+            
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            String response = readResponse(in);
+            long grown = (runtime.totalMemory() - runtime.freeMemory() - usedBefore) / (1024 * 1024);
+            System.out.println((response != null && response.endsWith("true:" + size + ":" + sum) ? "[PASS]" : "[FAIL]")
+                               + " 64 MB upload streamed byte-exact (heap grew " + grown + " MB)");
+            String next = readResponse(in);
+            System.out.println((next != null && next.endsWith("Result: 2.00") ? "[PASS]" : "[FAIL]")
+                               + " Connection reused after the streamed upload");
+        } catch (IOException e) {
+            System.out.println("[FAIL] " + e.getMessage());
+        }
+        
+        server.close();
+        System.out.println();
+    }
+    
+    public static void testStreamingResponse() {
+        System.out.println("Test 11: Streaming Responses");
+        
+        // Writes n pattern bytes in small pieces, like a page rendered row by row
+        int port = 8088;
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        server.addServlet("GET", "/bytes", new Servlet() {
+            @Override
+            public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+                int n = Integer.parseInt(ri.getParameters().get("n"));
+                try (HttpResponse response = new HttpResponse(toClient)) {
+                    response.setStatus(201).setContentType("text/plain");
+                    for (int i = 0; i < n; i += 100) {
+                        for (int j = i; j < Math.min(n, i + 100); j++) {
+                            response.write('a' + j % 26);
+                        }
+                    }
+                }
+            }
+            
+            @Override
+            public void close() {}
+        });
+        server.start();
+        
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {}
+        
+        try (Socket client = new Socket("localhost", port)) {
+            client.setSoTimeout(5000);
+            OutputStream out = client.getOutputStream();
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            
+            out.write("GET /bytes?n=1000 HTTP/1.1\r\n\r\n".getBytes());
+            out.flush();
+            String small = readResponse(in);
+            boolean buffered = small != null && small.startsWith("HTTP/1.1 201 Created")
+                               && small.contains("Content-Length: 1000") && !small.contains("chunked")
+                               && small.endsWith(pattern(1000));
+            System.out.println((buffered ? "[PASS]" : "[FAIL]") + " Small body sent with Content-Length");
+            
+            int size = 1_000_000;
+            out.write(("GET /bytes?n=" + size + " HTTP/1.1\r\n\r\n").getBytes());
+            out.flush();
+            boolean chunkedHeader = false;
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                chunkedHeader |= line.equalsIgnoreCase("Transfer-Encoding: chunked");
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int chunks = 0;
+            int chunkSize;
+            while ((chunkSize = Integer.parseInt(readLine(in).trim(), 16)) > 0) {
+                body.write(in.readNBytes(chunkSize));
+                readLine(in);
+                chunks++;
+            }
+            readLine(in);
+            boolean exact = body.toString().equals(pattern(size));
+            System.out.println((chunkedHeader && exact ? "[PASS]" : "[FAIL]") + " 1 MB body streamed in "
+                               + chunks + " chunks of at most " + HttpResponse.BUFFER_SIZE + " bytes");
+            
+            out.write("GET /bytes?n=10 HTTP/1.1\r\n\r\n".getBytes());
+            out.flush();
+            String next = readResponse(in);
+            System.out.println((next != null && next.endsWith(pattern(10)) ? "[PASS]" : "[FAIL]")
+                               + " Connection reused after the chunked response");
+        } catch (IOException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        }
+        
+        // Headers cannot change once the response is committed
+        try {
+            HttpResponse response = new HttpResponse(new ByteArrayOutputStream());
+            response.flush();
+            boolean rejected = false;
+            try {
+                response.setHeader("X-Late", "1");
+            } catch (IllegalStateException e) {
+                rejected = true;
+            }
+            response.close();
+            System.out.println((rejected ? "[PASS]" : "[FAIL]") + " Header change after commit rejected");
+        } catch (IOException e) {
+            System.out.println("[FAIL] " + e.getMessage());
+        }
+        
+        server.close();
+        System.out.println();
+    }
+    
+    public static void testCompression() {
+        System.out.println("Test 12: gzip and deflate Responses");
+        
+        boolean negotiated = Compression.GZIP.equals(Compression.negotiate("gzip, deflate, br"))
+                             && Compression.DEFLATE.equals(Compression.negotiate("gzip;q=0, deflate"))
+                             && Compression.GZIP.equals(Compression.negotiate("*"))
+                             && Compression.negotiate("identity") == null
+                             && Compression.negotiate(null) == null;
+        System.out.println((negotiated ? "[PASS]" : "[FAIL]") + " Accept-Encoding negotiation");
+        
+        byte[] page = pattern(50_000).getBytes();
+        boolean shared = Compression.compressShared(Compression.GZIP, page)
+                         == Compression.compressShared(Compression.GZIP, page);
+        System.out.println((shared ? "[PASS]" : "[FAIL]") + " Shared body compressed once ("
+                           + page.length + " -> " + Compression.compressShared(Compression.GZIP, page).length + " bytes)");
+        
+        int port = 8089;
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        server.addServlet("GET", "/text", new Servlet() {
+            @Override
+            public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+                int n = Integer.parseInt(ri.getParameters().get("n"));
+                try (HttpResponse response = new HttpResponse(ri, toClient)) {
+                    response.setContentType("text/plain");
+                    response.print(pattern(n));
+                }
+            }
+            
+            @Override
+            public void close() {}
+        });
+        server.start();
+        
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {}
+        
+        try (Socket client = new Socket("localhost", port)) {
+            client.setSoTimeout(5000);
+            OutputStream out = client.getOutputStream();
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            
+            int[] sizes = { 100, 10_000, 1_000_000, 10_000 };
+            String[] codings = { "gzip", "gzip", "gzip", "deflate" };
+            boolean[] expectCompressed = { false, true, true, true };
+            boolean[] expectChunked = { false, false, true, false };
+            for (int i = 0; i < sizes.length; i++) {
+                out.write(("GET /text?n=" + sizes[i] + " HTTP/1.1\r\nAccept-Encoding: " + codings[i] + "\r\n\r\n").getBytes());
+                out.flush();
+                
+                String encoding = null;
+                int contentLength = -1;
+                boolean chunked = false;
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    String lower = line.toLowerCase();
+                    if (lower.startsWith("content-encoding:")) encoding = line.substring(17).trim();
+                    if (lower.startsWith("content-length:")) contentLength = Integer.parseInt(line.substring(15).trim());
+                    if (lower.equals("transfer-encoding: chunked")) chunked = true;
+                }
+                ByteArrayOutputStream raw = new ByteArrayOutputStream();
+                if (chunked) {
+                    int chunkSize;
+                    while ((chunkSize = Integer.parseInt(readLine(in).trim(), 16)) > 0) {
+                        raw.write(in.readNBytes(chunkSize));
+                        readLine(in);
+                    }
+                    readLine(in);
+                } else {
+                    raw.write(in.readNBytes(contentLength));
+                }
+                
+                InputStream decoded = new ByteArrayInputStream(raw.toByteArray());
+                if ("gzip".equals(encoding)) {
+                    decoded = new java.util.zip.GZIPInputStream(decoded);
+                } else if ("deflate".equals(encoding)) {
+                    decoded = new java.util.zip.InflaterInputStream(decoded);
+                }
+                boolean exact = new String(decoded.readAllBytes()).equals(pattern(sizes[i]));
+                boolean framing = (encoding != null) == expectCompressed[i] && chunked == expectChunked[i]
+                                  && (encoding == null || encoding.equals(codings[i]));
+                System.out.println((exact && framing ? "[PASS]" : "[FAIL]") + " " + sizes[i] + " bytes as "
+                                   + (encoding == null ? "identity" : encoding) + (chunked ? " (chunked)" : "")
+                                   + ": " + raw.size() + " bytes sent");
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        }
+        
+        server.close();
+        System.out.println();
+    }
+    
+    public static void testStaticFiles() {
+        System.out.println("Test 13: Static File Cache and Conditional GET");
+        
+        java.nio.file.Path dir = null;
+        MyHTTPServer server = null;
+        HtmlLoader loader = null;
+        HtmlLoader laterLoader = null;
+        try {
+            dir = java.nio.file.Files.createTempDirectory("static_test");
+            java.nio.file.Path page = dir.resolve("page.html");
+            java.nio.file.Files.writeString(page, "<html>version 1</html>");
+            byte[] large = new byte[5 * 1024 * 1024];
+            new Random(5).nextBytes(large);
+            java.nio.file.Files.write(dir.resolve("large.bin"), large);
+            
+            int port = 8094;
+            server = new MyHTTPServer(port, 2);
+            loader = new HtmlLoader(dir.toString());
+            server.addServlet("GET", "/app/", loader);
+            java.nio.file.Path later = dir.resolve("later");   // created after its loader
+            laterLoader = new HtmlLoader(later.toString());
+            server.addServlet("GET", "/", laterLoader);
+            server.start();
+            Thread.sleep(100);
+            
+            try (Socket client = new Socket("localhost", port)) {
+                client.setSoTimeout(5000);
+                OutputStream out = client.getOutputStream();
+                InputStream in = new BufferedInputStream(client.getInputStream());
+                
+                out.write("GET /app/page.html HTTP/1.1\r\n\r\n".getBytes());
+                Map<String, String> head = readHead(in);
+                String body = new String(in.readNBytes(Integer.parseInt(head.get("content-length"))));
+                String etag = head.get("etag");
+                String lastModified = head.get("last-modified");
+                System.out.println((body.equals("<html>version 1</html>") && etag != null && lastModified != null
+                                    ? "[PASS]" : "[FAIL]") + " File served with ETag and Last-Modified");
+                
+                out.write(("GET /app/page.html HTTP/1.1\r\nIf-None-Match: " + etag + "\r\n\r\n").getBytes());
+                boolean byTag = readHead(in).get("").contains(" 304 ");
+                out.write(("GET /app/page.html HTTP/1.1\r\nIf-Modified-Since: " + lastModified + "\r\n\r\n").getBytes());
+                boolean byDate = readHead(in).get("").contains(" 304 ");
+                System.out.println((byTag && byDate ? "[PASS]" : "[FAIL]") + " 304 for If-None-Match and If-Modified-Since");
+                
+                long start = System.nanoTime();
+                out.write("GET /app/large.bin HTTP/1.1\r\n\r\n".getBytes());
+                head = readHead(in);
+                byte[] received = in.readNBytes(Integer.parseInt(head.get("content-length")));
+                long ms = (System.nanoTime() - start) / 1_000_000;
+                System.out.println((Arrays.equals(received, large) ? "[PASS]" : "[FAIL]")
+                                   + " 5 MB file sent with transferTo (" + ms + " ms)");
+                
+                out.write("GET /app/../outside.html HTTP/1.1\r\n\r\n".getBytes());
+                head = readHead(in);
+                in.readNBytes(Integer.parseInt(head.get("content-length")));
+                System.out.println((head.get("").contains(" 403 ") ? "[PASS]" : "[FAIL]") + " Path outside the directory refused");
+                
+                out.write(("GET /app/x/../page.html HTTP/1.1\r\nIf-None-Match: " + etag + "\r\n\r\n").getBytes());
+                boolean alias = readHead(in).get("").contains(" 304 ");
+                System.out.println((alias ? "[PASS]" : "[FAIL]") + " Another spelling of the path finds the same file");
+                
+                // The watch service drops the entry when the file changes
+                java.nio.file.Files.writeString(page, "<html>version 2, longer</html>");
+                long changed = System.currentTimeMillis();
+                boolean updated = false;
+                while (!updated && System.currentTimeMillis() - changed < 5000) {
+                    out.write("GET /app/page.html HTTP/1.1\r\n\r\n".getBytes());
+                    head = readHead(in);
+                    body = new String(in.readNBytes(Integer.parseInt(head.get("content-length"))));
+                    updated = body.equals("<html>version 2, longer</html>") && !etag.equals(head.get("etag"));
+                    if (!updated) {
+                        Thread.sleep(20);
+                    }
+                }
+                System.out.println((updated ? "[PASS]" : "[FAIL]") + " Changed file served after "
+                                   + (System.currentTimeMillis() - changed) + " ms");
+                
+                // A directory that did not exist when the loader was created is watched once it does
+                java.nio.file.Files.createDirectory(later);
+                java.nio.file.Files.writeString(later.resolve("later.html"), "first");
+                out.write("GET /later.html HTTP/1.1\r\n\r\n".getBytes());
+                head = readHead(in);
+                boolean first = new String(in.readNBytes(Integer.parseInt(head.get("content-length")))).equals("first");
+                java.nio.file.Files.writeString(later.resolve("later.html"), "second version");
+                changed = System.currentTimeMillis();
+                updated = false;
+                while (!updated && System.currentTimeMillis() - changed < 5000) {
+                    out.write("GET /later.html HTTP/1.1\r\n\r\n".getBytes());
+                    head = readHead(in);
+                    updated = new String(in.readNBytes(Integer.parseInt(head.get("content-length")))).equals("second version");
+                    if (!updated) {
+                        Thread.sleep(20);
+                    }
+                }
+                System.out.println((first && updated ? "[PASS]" : "[FAIL]") + " Directory created after the loader is watched");
+            }
+            server.close();
+            server = null;
+            
+            // The NIO server sends the file region from its reactor
+            NioHTTPServer nio = new NioHTTPServer(8096, 1, 2);
+            nio.addServlet("GET", "/app/", loader);
+            nio.start();
+            Thread.sleep(200);
+            try (Socket client = new Socket("localhost", 8096)) {
+                client.setSoTimeout(5000);
+                client.getOutputStream().write("GET /app/large.bin HTTP/1.1\r\n\r\n".getBytes());
+                InputStream in = new BufferedInputStream(client.getInputStream());
+                Map<String, String> head = readHead(in);
+                byte[] received = in.readNBytes(Integer.parseInt(head.get("content-length")));
+                System.out.println((Arrays.equals(received, large) ? "[PASS]" : "[FAIL]") + " NIO server sends the file region");
+            } finally {
+                nio.close();
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+            try {
+                if (loader != null) {
+                    loader.close();
+                }
+                if (laterLoader != null) {
+                    laterLoader.close();
+                }
+                if (dir != null) {
+                    java.nio.file.Path[] files = java.nio.file.Files.walk(dir).toArray(java.nio.file.Path[]::new);
+                    for (int i = files.length - 1; i >= 0; i--) {
+                        java.nio.file.Files.delete(files[i]);   // children before their directory
+                    }
+                }
+            } catch (IOException e) {
+                // Leave the temporary files
+            }
+        }
+        System.out.println();
+    }
+    
+    public static void testTopicEvents() {
+        System.out.println("Test 14: Server-Sent Events Topic Stream");
+        
+        int port = 8097;
+        MyHTTPServer server = new MyHTTPServer(port, 5);   // a thread per stream
+        TopicEventsServlet events = new TopicEventsServlet();
+        events.setMaxRate(10);
+        server.addServlet("GET", "/topics/events", events);
+        TopicEventsServlet polled = new TopicEventsServlet();
+        polled.setStreaming(false);
+        server.addServlet("GET", "/topics/polled", polled);
+        var topics = TopicManagerSingleton.get();
+        topics.clear();
+        try {
+            server.start();
+            Thread.sleep(100);
+            topics.getTopic("sse_A").publish(new Message(1.0));
+            
+            try (Socket first = new Socket("localhost", port);
+                 Socket second = new Socket("localhost", port);
+                 Socket slow = new Socket("localhost", port);
+                 Socket again = new Socket("localhost", port)) {
+                EventReader[] readers = {
+                    new EventReader(first, "/topics/events"),
+                    new EventReader(second, "/topics/events"),
+                    new EventReader(slow, "/topics/events?rate=2")
+                };
+                boolean snapshots = true;
+                for (EventReader reader : readers) {
+                    String event = reader.next();
+                    snapshots &= reader.streamed && event.startsWith("event: snapshot")
+                                 && event.contains("\"sse_A\":\"1.0\"");
+                }
+                System.out.println((snapshots ? "[PASS]" : "[FAIL]") + " Every client starts with a snapshot");
+                
+                // Without streaming the response ends after the snapshot; the client polls
+                String snapshot = getAll(port, "/topics/polled");
+                System.out.println((snapshot.contains("retry: 5000") && snapshot.contains("event: snapshot")
+                                    && snapshot.contains("\"sse_A\":\"1.0\"") && !snapshot.contains("chunked")
+                                    ? "[PASS]" : "[FAIL]") + " Streaming off: snapshot only, thread released");
+                
+                // 1 s of publishing every 5 ms; clients see the latest values at their rate
+                long start = System.currentTimeMillis();
+                int published = 0;
+                while (System.currentTimeMillis() - start < 1000) {
+                    topics.getTopic("sse_A").publish(new Message(++published));
+                    Thread.sleep(5);
+                }
+                topics.getTopic("sse_B").publish(new Message("done"));
+                
+                int[] frames = new int[readers.length];
+                boolean complete = true;
+                for (int i = 0; i < readers.length; i++) {
+                    String event;
+                    do {
+                        event = readers[i].next();
+                        frames[i]++;
+                    } while (!event.contains("\"sse_B\":\"done\""));
+                    complete &= readers[i].last("sse_A").equals(String.valueOf((double) published));
+                }
+                System.out.println((complete ? "[PASS]" : "[FAIL]") + " All clients end with the latest values");
+                System.out.println((frames[0] <= 15 && frames[1] <= 15 ? "[PASS]" : "[FAIL]") + " " + published
+                                   + " publications coalesced into " + frames[0] + " and " + frames[1] + " frames at 10/s");
+                System.out.println((frames[2] <= 5 && frames[2] < frames[0] ? "[PASS]" : "[FAIL]")
+                                   + " Client asking for 2/s got " + frames[2] + " frames");
+                
+                // A reconnecting client resumes after the last event it received
+                EventReader resumed = new EventReader(again, "/topics/events", "Last-Event-ID: " + readers[0].lastId + "\r\n");
+                topics.getTopic("sse_B").publish(new Message("resumed"));
+                String event = resumed.next();
+                System.out.println((!event.startsWith("event: snapshot") && event.contains("\"sse_B\":\"resumed\"")
+                                    ? "[PASS]" : "[FAIL]") + " Reconnect with Last-Event-ID resumes without a snapshot");
+                for (EventReader reader : readers) {
+                    while (!reader.next().contains("\"sse_B\":\"resumed\"")) {
+                        // Skip to the frame the resumed client received
+                    }
+                }
+                
+                topics.clear();
+                boolean reset = true;
+                for (EventReader reader : readers) {
+                    reset &= reader.next().startsWith("event: reset");
+                }
+                System.out.println((reset ? "[PASS]" : "[FAIL]") + " Clearing the topics sends a reset event");
+                
+                events.close();
+                boolean ended = true;
+                for (EventReader reader : readers) {
+                    ended &= reader.next() == null;
+                }
+                System.out.println((ended ? "[PASS]" : "[FAIL]") + " Streams end when the servlet closes");
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            server.close();
+            topics.clear();
+        }
+        System.out.println();
+    }
+    
+    /** Reads the events of a chunked text/event-stream response */
+    private static class EventReader {
+        private final InputStream in;
+        private final StringBuilder pending = new StringBuilder();
+        private final Map<String, String> values = new HashMap<>();
+        final boolean streamed;
+        long lastId;
+        
+        EventReader(Socket socket, String uri) throws IOException {
+            this(socket, uri, "");
+        }
+        
+        EventReader(Socket socket, String uri, String headers) throws IOException {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("GET " + uri + " HTTP/1.1\r\n" + headers + "\r\n").getBytes());
+            in = new BufferedInputStream(socket.getInputStream());
+            Map<String, String> head = readHead(in);
+            streamed = head.get("content-type").startsWith("text/event-stream")
+                       && "chunked".equals(head.get("transfer-encoding"));
+        }
+        
+        /** @return The next event, without retry fields and comments, or null at the end of the stream */
+        String next() throws IOException {
+            while (true) {
+                int end = pending.indexOf("\n\n");
+                if (end >= 0) {
+                    String event = pending.substring(0, end);
+                    pending.delete(0, end + 2);
+                    if (event.startsWith("retry:") || event.startsWith(":")) {
+                        continue;
+                    }
+                    remember(event);
+                    return event;
+                }
+                int size = Integer.parseInt(readLine(in).trim(), 16);
+                if (size == 0) {
+                    return null;
+                }
+                pending.append(new String(in.readNBytes(size), "UTF-8"));
+                readLine(in);
+            }
+        }
+        
+        /** @return The last value received for a topic */
+        String last(String topic) {
+            return values.getOrDefault(topic, "");
+        }
+        
+        private void remember(String event) {
+            java.util.regex.Matcher id = java.util.regex.Pattern.compile("(?m)^id: (\\d+)$").matcher(event);
+            if (id.find()) {
+                lastId = Long.parseLong(id.group(1));
+            }
+            java.util.regex.Matcher member = java.util.regex.Pattern.compile("\"([^\"]*)\":\"([^\"]*)\"").matcher(event);
+            while (member.find()) {
+                values.put(member.group(1), member.group(2));
+            }
+        }
+    }
+    
+    public static void testWebSocket() {
+        System.out.println("Test 15: WebSocket Publish/Subscribe");
+        
+        System.out.println(("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=".equals(WebSocket.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="))
+                            ? "[PASS]" : "[FAIL]") + " Accept key of the RFC 6455 example");
+        
+        int port = 8098;
+        MyHTTPServer server = new MyHTTPServer(port, 4);
+        TopicSocketServlet servlet = new TopicSocketServlet();
+        server.addServlet("GET", "/ws", servlet);
+        var topics = TopicManagerSingleton.get();
+        topics.clear();
+        topics.getTopic("ws_A");
+        topics.getTopic("ws_B");
+        try {
+            server.start();
+            Thread.sleep(100);
+            
+            try (Socket plain = new Socket("localhost", port)) {
+                plain.setSoTimeout(5000);
+                plain.getOutputStream().write("GET /ws HTTP/1.1\r\n\r\n".getBytes());
+                String status = readHead(new BufferedInputStream(plain.getInputStream())).get("");
+                System.out.println((status.contains(" 426 ") ? "[PASS]" : "[FAIL]") + " Plain GET answered with 426");
+            }
+            
+            try (Socket publisher = new Socket("localhost", port);
+                 Socket subscriber = new Socket("localhost", port)) {
+                InputStream pubIn = openWebSocket(publisher);
+                InputStream subIn = openWebSocket(subscriber);
+                OutputStream pubOut = publisher.getOutputStream();
+                OutputStream subOut = subscriber.getOutputStream();
+                
+                sendFrame(subOut, 1, "subscribe ws_A ws_B".getBytes());
+                Thread.sleep(100);
+                sendFrame(pubOut, 1, "publish ws_B hello\npublish ws_B 2.5".getBytes());
+                byte[][] text = readFrame(subIn);
+                byte[][] binary = readFrame(subIn);
+                java.nio.ByteBuffer record = java.nio.ByteBuffer.wrap(binary[1]);
+                boolean textOk = text[0][0] == 1 && new String(text[1]).equals("message ws_B hello");
+                boolean binaryOk = binary[0][0] == 2 && record.get() == TopicSocketServlet.VALUE_RECORD
+                                   && record.getShort() == 4 && record.get() == 'w' && record.get() == 's'
+                                   && record.get() == '_' && record.get() == 'B' && record.getDouble() == 2.5;
+                System.out.println((textOk && binaryOk ? "[PASS]" : "[FAIL]") + " Text and numeric messages delivered");
+                
+                sendFrame(pubOut, 1, "publish nope 1".getBytes());
+                byte[][] error = readFrame(pubIn);
+                System.out.println((new String(error[1]).startsWith("error unknown topic") ? "[PASS]" : "[FAIL]")
+                                   + " Unknown topic reported");
+                
+                // Throughput: binary records in both directions
+                int count = 100_000;
+                int[] received = new int[1];
+                double[] last = new double[1];
+                Thread reader = new Thread(() -> {
+                    try {
+                        while (last[0] < count) {
+                            java.nio.ByteBuffer records = java.nio.ByteBuffer.wrap(readFrame(subIn)[1]);
+                            while (records.hasRemaining()) {
+                                records.get();
+                                int nameLength = records.getShort() & 0xFFFF;
+                                records.position(records.position() + nameLength);
+                                last[0] = records.getDouble();
+                                received[0]++;
+                            }
+                        }
+                    } catch (IOException e) {
+                        // counted below
+                    }
+                });
+                reader.start();
+                long start = System.nanoTime();
+                ByteArrayOutputStream batch = new ByteArrayOutputStream();
+                DataOutputStream records = new DataOutputStream(batch);
+                for (int i = 1; i <= count; i++) {
+                    records.writeByte(TopicSocketServlet.VALUE_RECORD);
+                    records.writeShort(4);
+                    records.writeBytes("ws_A");
+                    records.writeDouble(i);
+                    if (i % 1000 == 0) {
+                        sendFrame(pubOut, 2, batch.toByteArray());
+                        batch.reset();
+                    }
+                }
+                reader.join(10000);
+                long ms = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+                System.out.println((received[0] == count && last[0] == count ? "[PASS]" : "[FAIL]") + " " + received[0]
+                                   + " messages published and delivered in " + ms + " ms (" + (count * 1000L / ms) + "/s)");
+                
+                sendFrame(pubOut, 8, new byte[] { 0x03, (byte) 0xE8 });
+                byte[][] close = readFrame(pubIn);
+                System.out.println((close[0][0] == 8 && close[1].length == 2 && close[1][1] == (byte) 0xE8 ? "[PASS]" : "[FAIL]")
+                                   + " Closing handshake answered");
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            server.close();
+            topics.clear();
+        }
+        System.out.println();
+    }
+    
+    /** Sends the opening handshake and checks the 101 response */
+    private static InputStream openWebSocket(Socket socket) throws IOException {
+        socket.setSoTimeout(5000);
+        socket.getOutputStream().write(("GET /ws HTTP/1.1\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                                        + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n").getBytes());
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        Map<String, String> head = readHead(in);
+        if (!head.get("").contains(" 101 ") || !"s3pPLMBiTxaQ9kYGzzhZRbK+xOo=".equals(head.get("sec-websocket-accept"))) {
+            throw new IOException("Handshake failed: " + head);
+        }
+        return in;
+    }
+    
+    /** Sends one masked frame, as a client must */
+    private static void sendFrame(OutputStream out, int opcode, byte[] payload) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 14);
+        frame.write(0x80 | opcode);
+        if (payload.length < 126) {
+            frame.write(0x80 | payload.length);
+        } else if (payload.length <= 0xFFFF) {
+            frame.write(0x80 | 126);
+            frame.write(payload.length >> 8);
+            frame.write(payload.length);
+        } else {
+            frame.write(0x80 | 127);
+            new DataOutputStream(frame).writeLong(payload.length);
+        }
+        byte[] mask = { 0x12, 0x34, 0x56, 0x78 };
+        frame.write(mask);
+        for (int i = 0; i < payload.length; i++) {
+            frame.write(payload[i] ^ mask[i & 3]);
+        }
+        out.write(frame.toByteArray());
+        out.flush();
+    }
+    
+    /** @return {{opcode}, payload} of the next frame from the server */
+    private static byte[][] readFrame(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int b0 = data.readUnsignedByte();
+        long length = data.readUnsignedByte() & 0x7F;
+        if (length == 126) {
+            length = data.readUnsignedShort();
+        } else if (length == 127) {
+            length = data.readLong();
+        }
+        byte[] payload = new byte[(int) length];
+        data.readFully(payload);
+        return new byte[][] { { (byte) (b0 & 0x0F) }, payload };
+    }
+    
+    public static void testBulkPublish() {
+        System.out.println("Test 16: Bulk Publish");
+        
+        int port = 8099;
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        server.addServlet("POST", "/publish", new BulkPublishServlet());
+        var topics = TopicManagerSingleton.get();
+        topics.clear();
+        graph.Topic a = topics.getTopic("bulk_A");
+        graph.Topic b = topics.getTopic("bulk_B");
+        try {
+            server.start();
+            Thread.sleep(100);
+            
+            try (Socket client = new Socket("localhost", port)) {
+                client.setSoTimeout(10000);
+                OutputStream out = client.getOutputStream();
+                InputStream in = new BufferedInputStream(client.getInputStream());
+                
+                // 100,000 lines (over 1 MB, so the body is streamed), two of them bad
+                StringBuilder lines = new StringBuilder();
+                for (int i = 1; i <= 100_000; i++) {
+                    lines.append(i == 500 ? "no_equals_sign" : i == 700 ? "missing=1" : "bulk_A=" + i).append('\n');
+                }
+                lines.append("bulk_B=last text");
+                byte[] body = lines.toString().getBytes();
+                long start = System.nanoTime();
+                out.write(("POST /publish HTTP/1.1\r\nContent-Type: text/plain\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes());
+                out.write(body);
+                Map<String, String> head = readHead(in);
+                String reply = new String(in.readNBytes(Integer.parseInt(head.get("content-length"))));
+                long ms = (System.nanoTime() - start) / 1_000_000;
+                boolean counted = reply.startsWith("{\"published\":99999,\"rejected\":2,")
+                                  && reply.contains("line 500: expected topic=value") && reply.contains("line 700: unknown topic missing");
+                boolean inOrder = a.getLastMessage().asDouble == 100_000 && "last text".equals(b.getLastMessage().asText);
+                System.out.println((counted && inOrder ? "[PASS]" : "[FAIL]") + " " + body.length
+                                   + " byte text body published in order in " + ms + " ms: " + reply);
+                
+                ByteArrayOutputStream records = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(records);
+                for (int i = 1; i <= 50_000; i++) {
+                    data.writeByte(1);
+                    data.writeShort(6);
+                    data.writeBytes(i % 2 == 0 ? "bulk_A" : "bulk_B");
+                    data.writeDouble(i);
+                }
+                body = records.toByteArray();
+                out.write(("POST /publish HTTP/1.1\r\nContent-Type: application/octet-stream\r\nPrefer: return=minimal\r\n"
+                           + "Content-Length: " + body.length + "\r\n\r\n").getBytes());
+                out.write(body);
+                head = readHead(in);
+                System.out.println((head.get("").contains(" 204 ") && a.getLastMessage().asDouble == 50_000
+                                    && b.getLastMessage().asDouble == 49_999 ? "[PASS]" : "[FAIL]")
+                                   + " Binary records acknowledged with 204");
+                
+                out.write(("POST /publish HTTP/1.1\r\nContent-Type: application/octet-stream\r\nContent-Length: 20\r\n\r\n").getBytes());
+                out.write(Arrays.copyOf(body, 20));
+                head = readHead(in);
+                reply = new String(in.readNBytes(Integer.parseInt(head.get("content-length"))));
+                System.out.println((head.get("").contains(" 400 ") && reply.contains("\"published\":1,")
+                                    && reply.contains("Truncated record 2") ? "[PASS]" : "[FAIL]") + " Truncated record: " + reply);
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            server.close();
+            topics.clear();
+        }
+        System.out.println();
+    }
+    
+    public static void testBinaryIngest() {
+        System.out.println("Test 17: Binary TCP Ingest");
+        
+        int port = 8100;
+        IngestServer server = new IngestServer(port, 2);
+        var topics = TopicManagerSingleton.get();
+        topics.clear();
+        graph.Topic a = topics.getTopic("ingest_A");
+        graph.Topic b = topics.getTopic("ingest_B");
+        try {
+            server.start();
+            Thread.sleep(100);
+            
+            try (IngestClient client = new IngestClient("localhost", port)) {
+                int idA = client.define("ingest_A");
+                int idB = client.define("ingest_B");
+                int idMissing = client.define("ingest_missing");
+                int n = 2_000_000;
+                long start = System.nanoTime();
+                for (int i = 1; i <= n; i++) {
+                    client.publish((i & 1) == 0 ? idA : idB, i);
+                }
+                client.sync();
+                long ns = System.nanoTime() - start;
+                boolean inOrder = a.getLastMessage().asDouble == n && b.getLastMessage().asDouble == n - 1;
+                System.out.println((inOrder && server.getPublished() == n ? "[PASS]" : "[FAIL]") + " " + n
+                                   + " numeric updates published in " + ns / 1_000_000 + " ms ("
+                                   + (long) (n * 1e9 / ns) + " updates/s)");
+                
+                client.publish(idMissing, 1);
+                client.publish("ingest_B", "text value");
+                client.publish("ingest_A", 42.5);
+                client.sync();
+                System.out.println((client.getRejected() == 1 && server.getRejected() == 1
+                                    && "text value".equals(b.getLastMessage().asText)
+                                    && a.getLastMessage().asDouble == 42.5 ? "[PASS]" : "[FAIL]")
+                                   + " Unknown topic rejected, text and by-name updates published");
+                
+                // A topic id bound before the configuration changes resolves to the new topic
+                topics.clear();
+                graph.Topic replaced = topics.getTopic("ingest_A");
+                client.publish(idA, 7);
+                client.sync();
+                System.out.println((replaced.getLastMessage().asDouble == 7 ? "[PASS]" : "[FAIL]")
+                                   + " Defined topic re-resolved after the topics were cleared");
+            }
+            
+            try (SocketChannel raw = SocketChannel.open(new InetSocketAddress("localhost", port))) {
+                ByteBuffer frame = ByteBuffer.allocate(256);
+                raw.read(frame);   // HELLO
+                raw.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 1, 0x7F }));
+                frame.clear();
+                int n;
+                int total = 0;
+                while ((n = raw.read(frame)) > 0) {
+                    total += n;
+                }
+                frame.flip();
+                boolean error = total > 5 && (frame.get(4) & 0xFF) == 0x82 && n < 0;
+                System.out.println((error ? "[PASS]" : "[FAIL]") + " Unknown frame type answered with ERROR and closed: "
+                                   + new String(frame.array(), 5, Math.max(0, total - 5)));
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            server.close();
+            topics.clear();
+        }
+        System.out.println();
+    }
+    
+    public static void testDatagramIngest() {
+        System.out.println("Test 18: UDP Datagram Ingest");
+        
+        int port = 8101;
+        DatagramIngestServer server = new DatagramIngestServer(port);
+        var topics = TopicManagerSingleton.get();
+        topics.clear();
+        graph.Topic a = topics.getTopic("udp_A");
+        graph.Topic b = topics.getTopic("udp_B");
+        try (DatagramSocket sender = new DatagramSocket()) {
+            server.start();
+            InetSocketAddress target = new InetSocketAddress("localhost", port);
+            
+            // 100 updates per packet; pause now and then so the socket buffer is not overrun
+            int packetCount = 1000;
+            for (int p = 0; p < packetCount; p++) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(1500);
+                DataOutputStream data = new DataOutputStream(bytes);
+                data.writeByte(1);
+                data.writeInt(p);
+                for (int i = 0; i < 100; i++) {
+                    data.writeByte(0x81);
+                    data.writeByte(5);
+                    data.writeBytes(i % 2 == 0 ? "udp_A" : "udp_B");
+                    data.writeDouble(p * 100 + i);
+                }
+                sender.send(new DatagramPacket(bytes.toByteArray(), bytes.size(), target));
+                if (p % 50 == 49) {
+                    Thread.sleep(1);
+                }
+            }
+            waitFor(() -> server.getPackets() >= packetCount, 5000);
+            System.out.println((server.getPublished() == packetCount * 100 && server.getLost() == 0
+                                && a.getLastMessage().asDouble == 99_998 && b.getLastMessage().asDouble == 99_999
+                                ? "[PASS]" : "[FAIL]") + " " + server.getPublished() + " updates in "
+                               + server.getPackets() + " packets published");
+            
+            byte[] truncated = { 1, 0, 0, 4, 0, (byte) 0x81, 5, 'u', 'd', 'p', '_', 'A', 0, 0 };
+            byte[] unknown = { 1, 0, 0, 0x03, (byte) 0xE9, (byte) 0x81, 1, 'Z', 0, 0, 0, 0, 0, 0, 0, 0 };   // sequence 1001
+            byte[] skipAhead = { 1, 0, 0, 0x03, (byte) 0xF0 };                                              // sequence 1008
+            byte[] late = { 1, 0, 0, 0x03, (byte) 0xEC };                                                   // sequence 1004
+            for (byte[] packet : new byte[][] { truncated, unknown, skipAhead, late }) {
+                sender.send(new DatagramPacket(packet, packet.length, target));
+            }
+            waitFor(() -> server.getPackets() >= packetCount + 4, 5000);
+            System.out.println((server.getMalformed() == 1 && server.getRejected() == 1 && server.getLost() == 7
+                                && server.getLate() == 1 && a.getLastMessage().asDouble == 99_998 ? "[PASS]" : "[FAIL]")
+                               + " Counted malformed=" + server.getMalformed() + " rejected=" + server.getRejected()
+                               + " lost=" + server.getLost() + " late=" + server.getLate());
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            server.close();
+            topics.clear();
+        }
+        System.out.println();
+    }
+    
+    private static void waitFor(java.util.function.BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+    
+    public static void testUnixDomainSockets() {
+        System.out.println("Test 19: Unix Domain Sockets");
+        
+        int port = 8102;
+        Path dir;
+        try {
+            dir = java.nio.file.Files.createTempDirectory("ex5-unix");
+        } catch (IOException e) {
+            System.out.println("[FAIL] " + e);
+            return;
+        }
+        Path httpSocket = dir.resolve("http.sock");
+        Path ingestSocket = dir.resolve("ingest.sock");
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        server.setKeepAliveTimeout(500);
+        server.setUnixSocket(httpSocket);
+        server.addServlet("GET", "/calc", new CalculatorServlet());
+        IngestServer ingest = new IngestServer(port + 1, 1);
+        ingest.setUnixSocket(ingestSocket);
+        var topics = TopicManagerSingleton.get();
+        topics.clear();
+        graph.Topic a = topics.getTopic("unix_A");
+        try {
+            server.start();
+            ingest.start();
+            Thread.sleep(200);
+            
+            try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(httpSocket))) {
+                OutputStream out = Channels.newOutputStream(channel);
+                InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+                
+                // Pipelined burst, answered in order like on TCP
+                int burst = 2000;
+                StringBuilder requests = new StringBuilder();
+                for (int i = 0; i < burst; i++) {
+                    requests.append("GET /calc?op=add&a=").append(i).append("&b=1 HTTP/1.1\r\n\r\n");
+                }
+                out.write(requests.toString().getBytes());
+                int inOrder = 0;
+                for (int i = 0; i < burst; i++) {
+                    String response = readResponse(in);
+                    if (response != null && response.contains("keep-alive") && response.endsWith("Result: " + (i + 1) + ".00")) {
+                        inOrder++;
+                    }
+                }
+                System.out.println((inOrder == burst ? "[PASS]" : "[FAIL]") + " " + inOrder + "/" + burst
+                                   + " pipelined requests answered over the Unix socket");
+                
+                // Sequential round trips: Unix socket against loopback TCP
+                long unixNanos = roundTrips(out, in, 2000);
+                long tcpNanos;
+                try (Socket tcp = new Socket("localhost", port)) {
+                    tcp.setTcpNoDelay(true);
+                    tcpNanos = roundTrips(tcp.getOutputStream(), new BufferedInputStream(tcp.getInputStream()), 2000);
+                }
+                System.out.println("  Mean round trip of sequential requests: Unix " + unixNanos / 1000
+                                   + " us, TCP " + tcpNanos / 1000 + " us");
+                
+                // The idle timeout applies as on TCP
+                Thread.sleep(800);
+                boolean closed;
+                try {
+                    out.write("GET /calc?op=add&a=1&b=1 HTTP/1.1\r\n\r\n".getBytes());
+                    closed = readResponse(in) == null;
+                } catch (IOException e) {
+                    closed = true;   // broken pipe
+                }
+                System.out.println((closed ? "[PASS]" : "[FAIL]") + " Idle Unix connection closed after the keep-alive timeout");
+            }
+            
+            try (IngestClient client = new IngestClient(ingestSocket)) {
+                int id = client.define("unix_A");
+                int n = 1_000_000;
+                long start = System.nanoTime();
+                for (int i = 1; i <= n; i++) {
+                    client.publish(id, i);
+                }
+                client.sync();
+                long ns = System.nanoTime() - start;
+                System.out.println((a.getLastMessage().asDouble == n ? "[PASS]" : "[FAIL]") + " " + n
+                                   + " updates ingested over the Unix socket (" + (long) (n * 1e9 / ns) + " updates/s)");
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            ingest.close();
+            server.close();
+            topics.clear();
+        }
+        System.out.println((!java.nio.file.Files.exists(httpSocket) && !java.nio.file.Files.exists(ingestSocket)
+                            ? "[PASS]" : "[FAIL]") + " Socket files removed on close");
+        dir.toFile().delete();
+        System.out.println();
+    }
+    
+    /** @return Mean time of sequential keep-alive requests in nanoseconds */
+    private static long roundTrips(OutputStream out, InputStream in, int count) throws IOException {
+        byte[] request = "GET /calc?op=add&a=1&b=1 HTTP/1.1\r\n\r\n".getBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            out.write(request);
+            out.flush();
+            if (readResponse(in) == null) {
+                throw new IOException("Connection closed");
+            }
+        }
+        return (System.nanoTime() - start) / count;
+    }
+    
+    public static void testAdmissionControl() {
+        System.out.println("Test 20: Admission Control");
+        
+        int port = 8104;
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        server.setMaxQueuedConnections(1);
+        server.setRetryAfter(2);
+        BlockingServlet upload = new BlockingServlet();
+        BlockingServlet slow = new BlockingServlet();
+        server.addServlet("GET", "/upload", upload, 1);
+        server.addServlet("GET", "/block", slow);
+        server.addServlet("GET", "/calc", new CalculatorServlet());
+        server.start();
+        
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            Thread.sleep(100);
+            Socket first = open(sockets, port, "GET /upload HTTP/1.1\r\n\r\n");
+            Thread.sleep(200);   // admitted, holding the route's only slot
+            
+            Socket second = open(sockets, port, "GET /upload HTTP/1.1\r\n\r\n");
+            InputStream in = new BufferedInputStream(second.getInputStream());
+            long start = System.nanoTime();
+            String refused = readResponse(in);
+            long refusedMs = (System.nanoTime() - start) / 1_000_000;
+            second.getOutputStream().write("GET /calc?op=add&a=1&b=2 HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+            String calc = readResponse(in);
+            System.out.println((refused != null && refused.startsWith("HTTP/1.1 503") && refused.contains("Retry-After: 2")
+                                && refusedMs < 1000 && calc != null && calc.endsWith("Result: 3.00") ? "[PASS]" : "[FAIL]")
+                               + " Route at its limit refused in " + refusedMs + " ms; connection still served /calc");
+            
+            Socket blocked = open(sockets, port, "GET /block HTTP/1.1\r\n\r\n");   // both threads busy now
+            Thread.sleep(200);
+            Socket queued = open(sockets, port, "GET /calc?op=add&a=2&b=2 HTTP/1.1\r\nConnection: close\r\n\r\n");
+            Thread.sleep(200);
+            Socket shed = open(sockets, port, "GET /calc?op=add&a=3&b=3 HTTP/1.1\r\n\r\n");
+            start = System.nanoTime();
+            String shedResponse = readResponse(new BufferedInputStream(shed.getInputStream()));
+            long shedMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.println((shedResponse != null && shedResponse.startsWith("HTTP/1.1 503")
+                                && shedResponse.contains("Retry-After: 2") && shedMs < 1000 ? "[PASS]" : "[FAIL]")
+                               + " Connection beyond the queue bound answered 503 in " + shedMs + " ms");
+            
+            upload.close();
+            slow.close();
+            String served = readResponse(new BufferedInputStream(queued.getInputStream()));
+            System.out.println((served != null && served.endsWith("Result: 4.00") && server.getRejectedCount() == 2
+                                ? "[PASS]" : "[FAIL]") + " Queued connection served after the overload, "
+                               + server.getRejectedCount() + " rejected");
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            server.close();
+        }
+        System.out.println();
+    }
+    
+    public static void testBulkheads() {
+        System.out.println("Test 21: Bulkhead Executors per Route");
+        
+        int port = 8105;
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        Bulkhead admin = new Bulkhead("admin", 1, 1);
+        BlockingServlet upload = new BlockingServlet();
+        server.addServlet("GET", "/upload", upload, admin);
+        server.addServlet("GET", "/calc", new CalculatorServlet());
+        server.start();
+        
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            Thread.sleep(100);
+            Socket first = open(sockets, port, "GET /upload HTTP/1.1\r\n\r\n");
+            Thread.sleep(100);
+            Socket second = open(sockets, port, "GET /upload HTTP/1.1\r\nConnection: close\r\n\r\n");
+            Thread.sleep(100);
+            Socket third = open(sockets, port, "GET /upload HTTP/1.1\r\nConnection: close\r\n\r\n");
+            String refused = readResponse(new BufferedInputStream(third.getInputStream()));
+            String metrics = admin.toString();
+            System.out.println((refused != null && refused.startsWith("HTTP/1.1 503") && admin.getActiveCount() == 1
+                                && admin.getQueueDepth() == 1 && admin.getRejectedCount() == 1 ? "[PASS]" : "[FAIL]")
+                               + " Full bulkhead refuses with 503: " + metrics);
+            
+            // Slow uploads hold admin threads only: /calc keeps both server threads
+            long start = System.nanoTime();
+            int answered = 0;
+            for (int c = 0; c < 5; c++) {
+                try (Socket client = new Socket("localhost", port)) {
+                    client.setSoTimeout(2000);
+                    OutputStream out = client.getOutputStream();
+                    InputStream in = new BufferedInputStream(client.getInputStream());
+                    for (int i = 0; i < 4; i++) {
+                        out.write(("GET /calc?op=add&a=" + i + "&b=1 HTTP/1.1\r\n\r\n").getBytes());
+                        String response = readResponse(in);
+                        if (response != null && response.endsWith("Result: " + (i + 1) + ".00")) {
+                            answered++;
+                        }
+                    }
+                }
+            }
+            long ms = (System.nanoTime() - start) / 1_000_000;
+            System.out.println((answered == 20 && ms < 1000 ? "[PASS]" : "[FAIL]") + " " + answered
+                               + " /calc requests served in " + ms + " ms while uploads block");
+            
+            upload.close();   // release the uploads
+            InputStream firstIn = new BufferedInputStream(first.getInputStream());
+            String firstResponse = readResponse(firstIn);
+            String secondResponse = readResponse(new BufferedInputStream(second.getInputStream()));
+            first.getOutputStream().write("GET /calc?op=add&a=5&b=5 HTTP/1.1\r\n\r\n".getBytes());
+            String after = readResponse(firstIn);
+            waitFor(() -> admin.getCompletedCount() == 2, 2000);   // counted once the task returns
+            System.out.println((firstResponse != null && firstResponse.endsWith("released")
+                                && secondResponse != null && secondResponse.endsWith("released")
+                                && after != null && after.endsWith("Result: 10.00") && admin.getCompletedCount() == 2
+                                ? "[PASS]" : "[FAIL]") + " Queued upload served; connection returned to the server threads");
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            server.close();
+        }
+        System.out.println();
+    }
+    
+    public static void testSingleFlight() {
+        System.out.println("Test 22: Single-Flight Request Coalescing");
+        
+        int port = 8106;
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        server.setThreadPerConnection(500);
+        java.util.concurrent.atomic.AtomicInteger renders = new java.util.concurrent.atomic.AtomicInteger();
+        SingleFlight coalescing = new SingleFlight(new Servlet() {
+            @Override
+            public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+                int render = renders.incrementAndGet();
+                try {
+                    Thread.sleep(300);   // an expensive render
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                try (HttpResponse response = new HttpResponse(ri, toClient)) {
+                    response.setContentType("text/plain");
+                    response.print("render " + render + " of " + ri.getParameters().get("view"));
+                }
+            }
+            
+            @Override
+            public void close() {
+            }
+        });
+        server.addServlet("GET", "/slow", coalescing);
+        server.start();
+        
+        try {
+            Thread.sleep(100);
+            int clients = 200;
+            java.util.concurrent.CountDownLatch go = new java.util.concurrent.CountDownLatch(1);
+            List<java.util.concurrent.Future<String>> results = new ArrayList<>();
+            java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(clients);
+            for (int i = 0; i < clients; i++) {
+                String view = i % 20 == 0 ? "other" : "table";
+                results.add(pool.submit(() -> {
+                    try (Socket client = new Socket("localhost", port)) {
+                        client.setSoTimeout(10000);
+                        go.await();
+                        client.getOutputStream().write(("GET /slow?view=" + view + " HTTP/1.1\r\nConnection: close\r\n\r\n").getBytes());
+                        String response = readResponse(new BufferedInputStream(client.getInputStream()));
+                        return response == null ? null : response.substring(response.indexOf("\n\n") + 2);
+                    }
+                }));
+            }
+            long start = System.nanoTime();
+            go.countDown();
+            Set<String> bodies = new HashSet<>();
+            int answered = 0;
+            for (java.util.concurrent.Future<String> result : results) {
+                String body = result.get();
+                if (body != null) {
+                    answered++;
+                    bodies.add(body.replaceAll("render \\d+", "render"));
+                }
+            }
+            long ms = (System.nanoTime() - start) / 1_000_000;
+            pool.shutdown();
+            // Stragglers that arrive after a flight completed start a new one
+            System.out.println((answered == clients && renders.get() <= 6 && bodies.size() == 2 ? "[PASS]" : "[FAIL]")
+                               + " " + answered + " concurrent requests of 2 distinct keys in " + ms + " ms: "
+                               + renders.get() + " renders, " + coalescing.getCoalesced() + " coalesced");
+            
+            int before = renders.get();
+            try (Socket client = new Socket("localhost", port)) {
+                client.setSoTimeout(5000);
+                client.getOutputStream().write("GET /slow?view=table HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+                String response = readResponse(new BufferedInputStream(client.getInputStream()));
+                System.out.println((response != null && renders.get() == before + 1 ? "[PASS]" : "[FAIL]")
+                                   + " Request after the flight renders fresh data");
+            }
+        } catch (IOException | InterruptedException | java.util.concurrent.ExecutionException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            server.close();
+        }
+        System.out.println();
+    }
+    
+    public static void testResponseCacheFilter() {
+        System.out.println("Test 23: Filter Chain and Response Cache");
+        
+        int port = 8107;
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        java.util.concurrent.atomic.AtomicInteger renders = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.CountDownLatch slowStarted = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.CountDownLatch slowRelease = new java.util.concurrent.CountDownLatch(1);
+        server.addServlet("GET", "/view", new Servlet() {
+            @Override
+            public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+                if ("slow".equals(ri.getParameters().get("id")) && slowStarted.getCount() > 0) {
+                    slowStarted.countDown();
+                    try {
+                        slowRelease.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                try (HttpResponse response = new HttpResponse(ri, toClient)) {
+                    response.setContentType("text/plain");
+                    response.print("render " + renders.incrementAndGet() + " of " + ri.getParameters().get("id"));
+                }
+            }
+            
+            @Override
+            public void close() {
+            }
+        });
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        ResponseCacheFilter cache = new ResponseCacheFilter(300, 2, 1 << 20);
+        server.addFilter("/", (ri, toClient, chain) -> {
+            order.add("timing");
+            chain.proceed(ri, toClient);
+        });
+        server.addFilter("/view", cache);
+        server.addFilter("/other", (ri, toClient, chain) -> order.add("other"));
+        server.start();
+        
+        try {
+            Thread.sleep(100);
+            String first = get(port, "/view?id=1");
+            String second = get(port, "/view?id=1");
+            System.out.println((first.endsWith("render 1 of 1") && first.equals(second) && renders.get() == 1 ? "[PASS]" : "[FAIL]")
+                               + " Repeated GET answered from the cache (" + cache.getHits() + " hit, " + cache.getMisses() + " miss)");
+            System.out.println((order.equals(List.of("timing", "timing")) ? "[PASS]" : "[FAIL]")
+                               + " Filters run in registration order, only for matching prefixes: " + order);
+            
+            Thread.sleep(400);
+            System.out.println((get(port, "/view?id=1").endsWith("render 2 of 1") ? "[PASS]" : "[FAIL]")
+                               + " Entry expires after its TTL");
+            
+            get(port, "/view?id=2");
+            get(port, "/view?id=1");   // id=2 is now least recently used
+            get(port, "/view?id=3");
+            int before = renders.get();
+            get(port, "/view?id=1");
+            boolean kept = renders.get() == before;
+            get(port, "/view?id=2");
+            System.out.println((kept && renders.get() == before + 1 && cache.size() == 2 ? "[PASS]" : "[FAIL]")
+                               + " LRU eviction at maxEntries (" + cache.getEvictions() + " evictions)");
+            
+            TopicManagerSingleton.get().clear();
+            System.out.println((cache.size() == 0 ? "[PASS]" : "[FAIL]") + " Configuration reset invalidates the cache");
+            get(port, "/view?id=1");
+            cache.invalidate("/view");
+            before = renders.get();
+            get(port, "/view?id=1");
+            System.out.println((renders.get() == before + 1 ? "[PASS]" : "[FAIL]") + " Explicit invalidation by prefix");
+            
+            // A render that started before an invalidation is not stored after it
+            Thread slow = new Thread(() -> {
+                try {
+                    get(port, "/view?id=slow");
+                } catch (IOException e) {
+                    // Reported by the check below
+                }
+            });
+            slow.start();
+            slowStarted.await();
+            cache.invalidateAll();
+            slowRelease.countDown();
+            slow.join(5000);
+            before = renders.get();
+            get(port, "/view?id=slow");
+            System.out.println((renders.get() == before + 1 ? "[PASS]" : "[FAIL]")
+                               + " Response rendered across an invalidation is not cached");
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            server.close();
+            cache.close();
+        }
+        System.out.println();
+    }
+    
+    public static void testAsyncServlets() {
+        System.out.println("Test 24: Asynchronous Servlets");
+        
+        int port = 8108;
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        server.setAsyncTimeout(500);
+        int nioPort = 8109;
+        NioHTTPServer nio = new NioHTTPServer(nioPort, 1, 1);
+        List<java.util.concurrent.CompletableFuture<AsyncServlet.Response>> waiting = new java.util.concurrent.CopyOnWriteArrayList<>();
+        AsyncServlet poll = new AsyncServlet() {
+            @Override
+            public java.util.concurrent.CompletableFuture<Response> handleAsync(RequestInfo ri) {
+                if ("fail".equals(ri.getParameters().get("mode"))) {
+                    return java.util.concurrent.CompletableFuture.failedFuture(new IllegalStateException("test failure"));
+                }
+                java.util.concurrent.CompletableFuture<Response> response = new java.util.concurrent.CompletableFuture<>();
+                if (!"never".equals(ri.getParameters().get("mode"))) {
+                    waiting.add(response);
+                }
+                return response;
+            }
+            
+            @Override
+            public void close() {
+            }
+        };
+        for (HTTPServer s : List.<HTTPServer>of(server, nio)) {
+            s.addServlet("GET", "/poll", poll);
+            s.addServlet("GET", "/calc", new CalculatorServlet());
+            s.start();
+        }
+        
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            Thread.sleep(100);
+            int clients = 50;
+            List<Socket> polls = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                polls.add(open(sockets, port, "GET /poll?n=" + i + " HTTP/1.1\r\nConnection: close\r\n\r\n"));
+            }
+            waitFor(() -> server.getSuspendedCount() == clients, 5000);
+            boolean calc = get(port, "/calc?op=add&a=2&b=3").endsWith("Result: 5.00");
+            System.out.println((server.getSuspendedCount() == clients && calc ? "[PASS]" : "[FAIL]") + " " + server.getSuspendedCount()
+                               + " pending requests hold none of the 2 threads; /calc answered");
+            
+            int i = 0;
+            for (java.util.concurrent.CompletableFuture<AsyncServlet.Response> response : waiting) {
+                String text = "done " + i++;
+                response.complete((ri, toClient) -> {
+                    try (HttpResponse r = new HttpResponse(ri, toClient)) {
+                        r.setContentType("text/plain");
+                        r.print(text);
+                    }
+                });
+            }
+            int answered = 0;
+            for (Socket socket : polls) {
+                String response = readResponse(new BufferedInputStream(socket.getInputStream()));
+                if (response != null && response.startsWith("HTTP/1.1 200") && response.contains("done ")) {
+                    answered++;
+                }
+            }
+            System.out.println((answered == clients && server.getSuspendedCount() == 0 ? "[PASS]" : "[FAIL]")
+                               + " " + answered + " responses written on completion");
+            
+            Socket never = open(sockets, port, "GET /poll?mode=never HTTP/1.1\r\nConnection: close\r\n\r\n");
+            String timedOut = readResponse(new BufferedInputStream(never.getInputStream()));
+            Socket failing = open(sockets, port, "GET /poll?mode=fail HTTP/1.1\r\nConnection: close\r\n\r\n");
+            String failed = readResponse(new BufferedInputStream(failing.getInputStream()));
+            System.out.println((timedOut != null && timedOut.startsWith("HTTP/1.1 503") && failed != null && failed.startsWith("HTTP/1.1 500")
+                                ? "[PASS]" : "[FAIL]") + " Timed out answered 503, failed 500");
+            
+            // NioHTTPServer with a single worker
+            waiting.clear();
+            List<Socket> nioPolls = new ArrayList<>();
+            for (int n = 0; n < 10; n++) {
+                nioPolls.add(open(sockets, nioPort, "GET /poll HTTP/1.1\r\n\r\n"));
+            }
+            waitFor(() -> waiting.size() == 10, 5000);
+            calc = get(nioPort, "/calc?op=add&a=1&b=1").endsWith("Result: 2.00");
+            waiting.forEach(response -> response.complete((ri, toClient) -> {
+                try (HttpResponse r = new HttpResponse(ri, toClient)) {
+                    r.print("nio");
+                }
+            }));
+            answered = 0;
+            for (Socket socket : nioPolls) {
+                String response = readResponse(new BufferedInputStream(socket.getInputStream()));
+                if (response != null && response.endsWith("nio")) {
+                    answered++;
+                }
+            }
+            System.out.println((calc && answered == 10 ? "[PASS]" : "[FAIL]")
+                               + " NioHTTPServer: 10 pending requests on 1 worker, /calc answered, " + answered + " completed");
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            server.close();
+            nio.close();
+        }
+        System.out.println();
+    }
+    
+    public static void testEval() {
+        System.out.println("Test 25: Publish-and-Await Evaluation");
+        
+        int port = 8110;
+        TopicManagerSingleton.TopicManager topics = TopicManagerSingleton.get();
+        // EvA + EvB -> EvSum -> (slow) x10 -> EvTotal, each stage on its own thread
+        ParallelAgent adder = new ParallelAgent(new Agent() {
+            private double a = Double.NaN;
+            private double b = Double.NaN;
+            
+            @Override
+            public String getName() {
+                return "adder";
+            }
+            
+            @Override
+            public void reset() {
+            }
+            
+            @Override
+            public void close() {
+            }
+            
+            @Override
+            public void callback(String topic, Message msg) {
+                if (topic.equals("EvA")) {
+                    a = msg.asDouble;
+                } else {
+                    b = msg.asDouble;
+                }
+                if (!Double.isNaN(a) && !Double.isNaN(b)) {
+                    topics.getTopic("EvSum").publish(new Message(a + b));
+                }
+            }
+        }, 100);
+        ParallelAgent slow = new ParallelAgent(new Agent() {
+            @Override
+            public String getName() {
+                return "slow";
+            }
+            
+            @Override
+            public void reset() {
+            }
+            
+            @Override
+            public void close() {
+            }
+            
+            @Override
+            public void callback(String topic, Message msg) {
+                try {
+                    Thread.sleep(150);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                topics.getTopic("EvTotal").publish(new Message(msg.asDouble * 10));
+            }
+        }, 100);
+        topics.getTopic("EvA").subscribe(adder);
+        topics.getTopic("EvB").subscribe(adder);
+        topics.getTopic("EvSum").subscribe(slow);
+        topics.getTopic("EvTotal");
+        
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        server.addServlet("GET", "/eval", new EvalServlet());
+        server.start();
+        
+        try {
+            Thread.sleep(100);
+            String result = get(port, "/eval?EvA=3&EvB=4&id=req-1");
+            System.out.println((result.contains("\"id\":\"req-1\"") && result.contains("\"complete\":true")
+                                && result.contains("\"outputs\":{\"EvTotal\":\"70.0\"}") ? "[PASS]" : "[FAIL]")
+                               + " Answered once the slow stage finished: " + result);
+            
+            result = get(port, "/eval?EvA=1&timeout=50");
+            System.out.println((result.contains("\"complete\":false") && !result.contains("EvTotal") ? "[PASS]" : "[FAIL]")
+                               + " Deadline answers with the outputs so far: " + result);
+            
+            // Inputs may be inner topics: only what they cause downstream is awaited
+            Thread.sleep(300);
+            long start = System.nanoTime();
+            result = get(port, "/eval?EvSum=1");
+            long ms = (System.nanoTime() - start) / 1_000_000;
+            System.out.println((result.contains("\"EvTotal\":\"10.0\"") && ms < 1000 ? "[PASS]" : "[FAIL]")
+                               + " Downstream-only evaluation in " + ms + " ms: " + result);
+            
+            System.out.println((get(port, "/eval?Missing=1").startsWith("Topic 'Missing' does not exist") ? "[PASS]" : "[FAIL]")
+                               + " Unknown input topic refused");
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            server.close();
+            adder.close();
+            slow.close();
+            topics.clear();
+        }
+        System.out.println();
+    }
+    
+    public static void testCacheInvalidationOnUpload() {
+        System.out.println("Test 26: Graph Cache Invalidated by a Configuration Upload");
+        
+        int port = 8111;
+        GraphViewCache.get().clear();
+        MyHTTPServer server = new MyHTTPServer(port, 2);
+        ConfLoader loader = new ConfLoader();
+        ResponseCacheFilter graphCache = new ResponseCacheFilter(60_000, 16, 1 << 20);
+        server.addServlet("POST", "/upload", loader);
+        server.addServlet("GET", "/graph.json", new GraphJsonServlet());
+        server.addFilter("/graph", graphCache);
+        server.addFilter("/upload", graphCache.invalidator());
+        server.start();
+        
+        try {
+            // A graph shown before the first upload, which closes no configuration
+            Graph old = new Graph();
+            Node topic = new Node("TOldInput");
+            Node agent = new Node("AIncAgent_1");
+            topic.addEdge(agent);
+            old.add(topic);
+            old.add(agent);
+            GraphViewCache.get().render(old);
+            Thread.sleep(100);
+            getAll(port, "/graph.json");
+            boolean cached = getAll(port, "/graph.json").contains("OldInput") && graphCache.getHits() == 1;
+            
+            byte[] conf = java.nio.file.Files.readAllBytes(Path.of("test_conf", "simple_no_cycle.conf"));
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            body.write(("--xyz\r\nContent-Disposition: form-data; name=\"configFile\"; filename=\"simple.conf\"\r\n"
+                        + "Content-Type: application/octet-stream\r\n\r\n").getBytes());
+            body.write(conf);
+            body.write("\r\n--xyz--\r\n".getBytes());
+            String uploaded;
+            try (Socket client = new Socket("localhost", port)) {
+                client.setSoTimeout(5000);
+                OutputStream out = client.getOutputStream();
+                out.write(("POST /upload HTTP/1.1\r\nConnection: close\r\nContent-Type: multipart/form-data; boundary=xyz\r\n"
+                           + "Content-Length: " + body.size() + "\r\n\r\n").getBytes());
+                body.writeTo(out);
+                uploaded = readResponse(new BufferedInputStream(client.getInputStream()));
+            }
+            
+            String after = getAll(port, "/graph.json");
+            System.out.println((cached && uploaded != null && uploaded.startsWith("HTTP/1.1 200")
+                                && after.contains("Sum") && !after.contains("OldInput") ? "[PASS]" : "[FAIL]")
+                               + " First upload through ConfLoader replaces the cached graph ("
+                               + graphCache.getHits() + " hit before)");
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            server.close();
+            graphCache.close();
+            TopicManagerSingleton.get().clear();
+            GraphViewCache.get().clear();
+        }
+        System.out.println();
+    }
+    
+    public static void testFiltersBeforeAsyncServlets() {
+        System.out.println("Test 27: Filters Run Before an Asynchronous Servlet Starts");
+        
+        TopicManagerSingleton.TopicManager topics = TopicManagerSingleton.get();
+        graph.Topic input = topics.getTopic("GuardedInput");
+        // Only requests with the token reach /eval
+        servlets.Filter guard = (ri, toClient, chain) -> {
+            if ("secret".equals(ri.getHeader("X-Token"))) {
+                chain.proceed(ri, toClient);
+                return;
+            }
+            try (HttpResponse response = new HttpResponse(ri, toClient)) {
+                response.setStatus(403);
+                response.setContentType("text/plain");
+                response.print("Forbidden");
+            }
+        };
+        HTTPServer[] servers = { new MyHTTPServer(8112, 2), new NioHTTPServer(8113, 1, 2) };
+        for (HTTPServer server : servers) {
+            server.addServlet("GET", "/eval", new EvalServlet());
+            server.addFilter("/eval", guard);
+            server.start();
+        }
+        
+        try {
+            Thread.sleep(100);
+            // All refusals first: the topic has no message until a request passes
+            for (int port = 8112; port <= 8113; port++) {
+                String refused = get(port, "/eval?GuardedInput=1");
+                System.out.println((refused.equals("Forbidden") && input.getLastMessage() == null ? "[PASS]" : "[FAIL]")
+                                   + " " + serverName(port) + ": refused by the filter, nothing published");
+            }
+            for (int port = 8112; port <= 8113; port++) {
+                String allowed;
+                try (Socket client = new Socket("localhost", port)) {
+                    client.setSoTimeout(5000);
+                    client.getOutputStream().write(("GET /eval?GuardedInput=" + port + " HTTP/1.1\r\nX-Token: secret\r\n"
+                                                    + "Connection: close\r\n\r\n").getBytes());
+                    allowed = new String(client.getInputStream().readAllBytes());
+                }
+                Message published = input.getLastMessage();
+                System.out.println((allowed.startsWith("HTTP/1.1 200") && allowed.contains("\"complete\":true")
+                                    && published != null && published.asDouble == port ? "[PASS]" : "[FAIL]")
+                                   + " " + serverName(port) + ": passed by the filter, evaluated");
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.out.println("[FAIL] " + e);
+        } finally {
+            for (HTTPServer server : servers) {
+                server.close();
+            }
+            topics.clear();
+        }
+        System.out.println();
+    }
+    
+    private static String serverName(int port) {
+        return port == 8112 ? "MyHTTPServer" : "NioHTTPServer";
+    }
+    
+    /** GET with Connection: close; returns the whole response, also when chunked */
+    private static String getAll(int port, String uri) throws IOException {
+        try (Socket client = new Socket("localhost", port)) {
+            client.setSoTimeout(5000);
+            client.getOutputStream().write(("GET " + uri + " HTTP/1.1\r\nConnection: close\r\n\r\n").getBytes());
+            return new String(client.getInputStream().readAllBytes());
+        }
+    }
+    
+    /** GET with Connection: close; returns the response body */
+    private static String get(int port, String uri) throws IOException {
+        try (Socket client = new Socket("localhost", port)) {
+            client.setSoTimeout(5000);
+            client.getOutputStream().write(("GET " + uri + " HTTP/1.1\r\nConnection: close\r\n\r\n").getBytes());
+            String response = readResponse(new BufferedInputStream(client.getInputStream()));
+            return response == null ? "" : response.substring(response.indexOf("\n\n") + 2);
+        }
+    }
+    
+    private static Socket open(List<Socket> sockets, int port, String request) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        sockets.add(socket);
+        socket.setSoTimeout(5000);
+        socket.getOutputStream().write(request.getBytes());
+        return socket;
+    }
+    
+    /** Reads a response header block: lower-case names to values, status line under "" */
+    private static Map<String, String> readHead(InputStream in) throws IOException {
+        Map<String, String> head = new HashMap<>();
+        head.put("", readLine(in));
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            head.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+        }
+        return head;
+    }
+    
+    private static String pattern(int n) {
+        StringBuilder text = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        return text.toString();
+    }
+    
     public static void main(String[] args) {
         System.out.println("=== Exercise 5 Test Suite ===\n");
         
@@ -348,6 +2642,28 @@ public class Ex5Test {
         testLongestPrefixMatching();
         testMultipleClients();
         testPostRequest();
+        testKeepAlive();
+        testThreadPerConnection();
+        testRadixRouting();
+        testByteParser();
+        testStreamingMultipart();
+        testStreamingResponse();
+        testCompression();
+        testStaticFiles();
+        testTopicEvents();
+        testWebSocket();
+        testBulkPublish();
+        testBinaryIngest();
+        testDatagramIngest();
+        testUnixDomainSockets();
+        testAdmissionControl();
+        testBulkheads();
+        testSingleFlight();
+        testResponseCacheFilter();
+        testAsyncServlets();
+        testEval();
+        testCacheInvalidationOnUpload();
+        testFiltersBeforeAsyncServlets();
         
         System.out.println("=== All tests completed ===");
         
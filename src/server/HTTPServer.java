@@ -1,5 +1,6 @@
 package server;
 
+import servlets.Filter;
 import servlets.Servlet;
 
 /**
@@ -14,10 +15,12 @@ import servlets.Servlet;
 public interface HTTPServer extends Runnable {
     /**
      * Registers a servlet to handle requests for a specific HTTP method and URI pattern.
-     * Uses longest-prefix matching for URI patterns.
+     * Uses longest-prefix matching for URI patterns. A segment starting with
+     * ':' is a path parameter: "/topics/:name" matches "/topics/A" and
+     * passes name=A in the request parameters.
      * 
      * @param httpCommand The HTTP method (GET, POST, DELETE)
-     * @param uri The URI pattern to match (e.g., "/api/", "/")
+     * @param uri The URI pattern to match (e.g., "/api/", "/", "/topics/:name")
      * @param s The servlet instance to handle matching requests
      */
     void addServlet(String httpCommand, String uri, Servlet s);
@@ -30,6 +33,16 @@ public interface HTTPServer extends Runnable {
      */
     void removeServlet(String httpCommand, String uri);
     
+    /**
+     * Registers a filter that runs before the servlets of every route whose
+     * request URI starts with uriPrefix, for all methods. Filters run in
+     * registration order.
+     * 
+     * @param uriPrefix URI prefix, e.g. "/" for all requests or "/graph"
+     * @param filter The filter
+     */
+    void addFilter(String uriPrefix, Filter filter);
+    
     /**
      * Starts the HTTP server and begins accepting connections.
      * This method should return immediately after starting the server thread.
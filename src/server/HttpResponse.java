@@ -0,0 +1,481 @@
+package server;
+
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Streaming HTTP response for servlets.
+ *
+ * Instead of formatting the status line and headers by hand and building
+ * the whole body as one String, a servlet sets the status and headers and
+ * writes the body to this stream:
+ * <pre>
+ * try (HttpResponse response = new HttpResponse(toClient)) {
+ *     response.setContentType("text/html; charset=UTF-8");
+ *     response.print("&lt;html&gt;...");
+ * }
+ * </pre>
+ *
+ * The body is collected in a buffer taken from a shared pool. Nothing is
+ * sent until the buffer fills, flush() is called or the response is closed:
+ * - a body that fits the buffer is sent with a Content-Length header, in
+ *   one write after the header block
+ * - a larger body switches the response to chunked transfer encoding and
+ *   is sent buffer by buffer, so it is never held in memory as a whole
+ * - if the servlet sets Content-Length itself, the body is sent as is
+ * Once the header block has been sent the response is committed; status
+ * and headers can no longer change.
+ *
+ * A response created with the request compresses textual bodies of at
+ * least Compression.MIN_SIZE bytes with gzip or deflate, as negotiated from
+ * Accept-Encoding. A buffered body is compressed in one step and keeps its
+ * Content-Length; a streamed one is compressed on the fly inside the chunks.
+ * Bodies that are shared and immutable (cached pages, static files) should
+ * be sent with {@link #writeShared}, which compresses each of them only once.
+ * Files that are not compressed are sent with {@link #sendFile}, which lets
+ * the server hand them to the kernel (sendfile) instead of copying them.
+ *
+ * Closing the response finishes the body and flushes, but does not close
+ * the connection stream, which belongs to the server.
+ *
+ * Design Pattern: Decorator - wraps the connection's OutputStream;
+ * Object Pool - body buffers are reused across responses
+ *
+ * @author Advanced Programming Course
+ */
+public class HttpResponse extends OutputStream {
+    /** Size of a body buffer; larger bodies are sent in chunks of this size */
+    public static final int BUFFER_SIZE = 16 * 1024;
+    private static final int POOL_SIZE = 64;
+    private static final ArrayBlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * Implemented by server output streams that can send a file region to
+     * the socket themselves, with FileChannel.transferTo.
+     */
+    interface FileTransfer {
+        /**
+         * Sends count bytes of file from position, after everything written
+         * so far; must be the end of the response. Takes ownership of the
+         * file channel and closes it once the region is sent.
+         */
+        void transferFile(FileChannel file, long position, long count) throws IOException;
+    }
+
+    /**
+     * Implemented by server output streams that hold the whole response
+     * until the servlet returns, so flush() does not reach the client.
+     */
+    interface Buffered {
+    }
+
+    private final OutputStream out;
+    private final List<String[]> headers = new ArrayList<>();
+    private int status = 200;
+    private String reason = "OK";
+    private byte[] buffer;
+    private int count;
+    private final String coding;     // negotiated content coding, or null
+    private OutputStream body;       // set once committed: out, or the encoders writing to it
+    private ChunkedOutputStream chunked;
+    private Compression.Encoder encoder;
+    private boolean closed;
+
+    /**
+     * @param toClient The stream passed to Servlet.handle
+     */
+    public HttpResponse(OutputStream toClient) {
+        this(null, toClient);
+    }
+
+    /**
+     * Creates a response that is compressed if the request accepts it.
+     *
+     * @param request The request being answered; null for no compression
+     * @param toClient The stream passed to Servlet.handle
+     */
+    public HttpResponse(RequestInfo request, OutputStream toClient) {
+        this.out = toClient;
+        this.coding = request != null ? Compression.negotiate(request.getHeader("Accept-Encoding")) : null;
+        byte[] pooled = POOL.poll();
+        this.buffer = pooled != null ? pooled : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Sets the status code with its standard reason phrase.
+     *
+     * @throws IllegalStateException if the response is committed
+     */
+    public HttpResponse setStatus(int code) {
+        return setStatus(code, reasonPhrase(code));
+    }
+
+    /**
+     * @throws IllegalStateException if the response is committed
+     */
+    public HttpResponse setStatus(int code, String reasonPhrase) {
+        checkNotCommitted();
+        this.status = code;
+        this.reason = reasonPhrase;
+        return this;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Sets a header, replacing any value set before under the same name
+     * (compared case-insensitively).
+     *
+     * @throws IllegalStateException if the response is committed
+     */
+    public HttpResponse setHeader(String name, String value) {
+        checkNotCommitted();
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                header[1] = value;
+                return this;
+            }
+        }
+        headers.add(new String[] { name, value });
+        return this;
+    }
+
+    /**
+     * @return The value set for the header, or null
+     */
+    public String getHeader(String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+
+    public HttpResponse setContentType(String contentType) {
+        return setHeader("Content-Type", contentType);
+    }
+
+    /**
+     * Declares the body length up front, so that a large body is sent
+     * without chunked encoding. Exactly this many bytes must be written.
+     */
+    public HttpResponse setContentLength(long length) {
+        return setHeader("Content-Length", Long.toString(length));
+    }
+
+    /**
+     * @return true once the status line and headers have been sent
+     */
+    public boolean isCommitted() {
+        return body != null;
+    }
+
+    /**
+     * @return false if the server sends the response only after the servlet
+     *         returns; a servlet must not then keep the response open, e.g.
+     *         for an event stream, since flush() reaches no client
+     */
+    public boolean canStream() {
+        return !(out instanceof Buffered);
+    }
+
+    /**
+     * Discards the status, headers and buffered body, e.g. to send an error
+     * page instead of a half-written result.
+     *
+     * @throws IllegalStateException if the response is committed
+     */
+    public void reset() {
+        checkNotCommitted();
+        status = 200;
+        reason = "OK";
+        headers.clear();
+        count = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len >= buffer.length && count == 0) {
+            // Too large to buffer: send it straight through
+            drain();
+            body.write(b, off, len);
+            return;
+        }
+        while (len > 0) {
+            if (count == buffer.length) {
+                drain();
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes text as UTF-8. ASCII text is copied into the buffer directly,
+     * without encoding it into a temporary array first.
+     */
+    public HttpResponse print(CharSequence text) throws IOException {
+        ensureOpen();
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                write(text.subSequence(i, length).toString().getBytes(StandardCharsets.UTF_8));
+                return this;
+            }
+            if (count == buffer.length) {
+                drain();
+            }
+            buffer[count++] = (byte) c;
+        }
+        return this;
+    }
+
+    /**
+     * Writes a complete body that is shared and never modified, such as a
+     * cached page. If the response is compressed, the compressed form is
+     * computed once per body array and reused by later responses.
+     *
+     * @throws IllegalStateException if anything was written before
+     */
+    public void writeShared(byte[] content) throws IOException {
+        ensureOpen();
+        if (isCommitted() || count > 0) {
+            throw new IllegalStateException("Shared body must be the whole response");
+        }
+        if (compresses(content.length)) {
+            byte[] compressed = Compression.compressShared(coding, content);
+            setEncodingHeaders();
+            setContentLength(compressed.length);
+            commit(false);
+            out.write(compressed);
+        } else {
+            setContentLength(content.length);
+            commit(false);
+            out.write(content);
+        }
+    }
+
+    /**
+     * Sends a file as the whole body. Where the server supports it the file
+     * goes from the page cache to the socket without passing through the
+     * Java heap (FileChannel.transferTo); if the response is compressed, or
+     * the server cannot transfer files, it is copied through the buffer.
+     *
+     * @param file Open channel positioned at 0; closed once the file is sent
+     * @param length Number of bytes to send
+     * @throws IllegalStateException if anything was written before
+     */
+    public void sendFile(FileChannel file, long length) throws IOException {
+        boolean handedOver = false;
+        try {
+            ensureOpen();
+            if (isCommitted() || count > 0) {
+                throw new IllegalStateException("File must be the whole response");
+            }
+            setContentLength(length);
+            if (!compresses(length) && out instanceof FileTransfer) {
+                commit(false);
+                handedOver = true;
+                ((FileTransfer) out).transferFile(file, 0, length);
+            } else {
+                Channels.newInputStream(file).transferTo(this);
+            }
+        } finally {
+            if (!handedOver) {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Sends what has been written so far. Commits the response, so the rest
+     * of the body is sent in chunks unless Content-Length was set.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        drain();
+        body.flush();
+    }
+
+    /**
+     * Completes the response and returns the buffer to the pool. A response
+     * that was never committed goes out with a Content-Length header.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (body == null && compresses(count)) {
+                // Complete body: compress it in one step and keep Content-Length
+                byte[] compressed = Compression.compress(coding, buffer, 0, count, Deflater.DEFAULT_COMPRESSION);
+                setEncodingHeaders();
+                setContentLength(compressed.length);
+                commit(false);
+                out.write(compressed);
+            } else if (body == null) {
+                commit(true);
+                if (count > 0) {
+                    out.write(buffer, 0, count);
+                }
+            } else {
+                if (count > 0) {
+                    body.write(buffer, 0, count);
+                }
+                if (encoder != null) {
+                    encoder.finish();
+                }
+                if (chunked != null) {
+                    chunked.finish();
+                }
+            }
+            count = 0;
+            out.flush();
+        } finally {
+            closed = true;
+            POOL.offer(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * @return The standard reason phrase of a status code
+     */
+    public static String reasonPhrase(int code) {
+        switch (code) {
+            case 100: return "Continue";
+            case 101: return "Switching Protocols";
+            case 200: return "OK";
+            case 201: return "Created";
+            case 202: return "Accepted";
+            case 204: return "No Content";
+            case 206: return "Partial Content";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 408: return "Request Timeout";
+            case 411: return "Length Required";
+            case 413: return "Payload Too Large";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            default: return "Unknown";
+        }
+    }
+
+    /** Commits if needed and sends the buffered bytes as part of the body */
+    private void drain() throws IOException {
+        if (body == null) {
+            boolean compress = compresses(Integer.MAX_VALUE);
+            if (compress) {
+                // Streamed body: its compressed length is unknown until the end
+                setEncodingHeaders();
+                removeHeader("Content-Length");
+            }
+            commit(false);
+            if (compress) {
+                body = encoder = Compression.encoder(coding, body, Deflater.DEFAULT_COMPRESSION);
+            }
+        }
+        if (count > 0) {
+            body.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Sends the status line and headers.
+     *
+     * @param complete true if the buffer holds the whole body, so its length is known
+     */
+    private void commit(boolean complete) throws IOException {
+        boolean noBody = status == 204 || status == 304 || (status >= 100 && status < 200);
+        boolean chunked = false;
+        if (!noBody && getHeader("Content-Length") == null) {
+            if (complete) {
+                headers.add(new String[] { "Content-Length", Integer.toString(count) });
+            } else {
+                setHeader("Transfer-Encoding", "chunked");
+                chunked = true;
+            }
+        }
+
+        StringBuilder head = new StringBuilder(128 + headers.size() * 32);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        for (String[] header : headers) {
+            head.append(header[0]).append(": ").append(header[1]).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        body = out;
+        if (chunked) {
+            body = this.chunked = new ChunkedOutputStream(out);
+        }
+    }
+
+    /**
+     * @return true if a body of the given length should be compressed: the
+     *         client accepts a coding, the type is textual, the body is large
+     *         enough and the servlet did not encode it itself
+     */
+    private boolean compresses(long length) {
+        return coding != null && length >= Compression.MIN_SIZE
+               && Compression.isCompressible(getHeader("Content-Type"))
+               && getHeader("Content-Encoding") == null;
+    }
+
+    private void setEncodingHeaders() {
+        setHeader("Content-Encoding", coding);
+        setHeader("Vary", "Accept-Encoding");
+    }
+
+    private void removeHeader(String name) {
+        headers.removeIf(header -> header[0].equalsIgnoreCase(name));
+    }
+
+    private void checkNotCommitted() {
+        if (body != null) {
+            throw new IllegalStateException("Response already committed");
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Response closed");
+        }
+    }
+}
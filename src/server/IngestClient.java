@@ -0,0 +1,217 @@
+package server;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Client of IngestServer for feeders written in Java.
+ *
+ * Updates are collected into a batch that is sent when it is full or on
+ * flush(); the client waits for ACKs only when the server's window of
+ * unacknowledged batches is used up, so a steady feeder never waits for a
+ * round trip.
+ * <pre>
+ * try (IngestClient client = new IngestClient("localhost", 9090)) {
+ *     int temperature = client.define("Temperature");
+ *     for (double value : readings) {
+ *         client.publish(temperature, value);
+ *     }
+ *     client.sync();   // all published
+ * }
+ * </pre>
+ * Not thread-safe: use one client per feeding thread.
+ *
+ * @author Advanced Programming Course
+ */
+public class IngestClient implements Closeable {
+    private final SocketChannel channel;
+    private final ByteBuffer batch;
+    private final ByteBuffer in = ByteBuffer.allocate(1024);
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final int window;
+    private int sequence = -1;       // last batch started
+    private int acknowledged = -1;   // last batch acknowledged
+    private long rejected;
+
+    /**
+     * Connects and reads the server's HELLO.
+     */
+    public IngestClient(String host, int port) throws IOException {
+        this(SocketChannel.open(new InetSocketAddress(host, port)));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /**
+     * Connects to the Unix domain socket of a server on this host (see
+     * IngestServer.setUnixSocket) and reads its HELLO.
+     */
+    public IngestClient(Path socket) throws IOException {
+        this(SocketChannel.open(UnixDomainSocketAddress.of(socket)));
+    }
+
+    private IngestClient(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer hello = readFrame();
+        if (hello.remaining() < 8 || hello.get() != (byte) IngestServer.HELLO) {
+            channel.close();
+            throw new IOException("Not an ingest server");
+        }
+        hello.get();   // version
+        window = hello.getShort() & 0xFFFF;
+        int maxFrame = hello.getInt();
+        batch = ByteBuffer.allocate(4 + maxFrame);
+    }
+
+    /**
+     * Binds the next id to a topic for publish(int, double).
+     *
+     * @return The topic's id on this connection
+     */
+    public int define(String topic) throws IOException {
+        Integer existing = ids.get(topic);
+        if (existing != null) {
+            return existing;
+        }
+        int id = ids.size();
+        if (id > 0xFFFF) {
+            throw new IllegalStateException("Too many topics defined");
+        }
+        byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+        flush();
+        ByteBuffer frame = ByteBuffer.allocate(7 + name.length);
+        frame.putInt(3 + name.length).put((byte) IngestServer.DEFINE).putShort((short) id).put(name).flip();
+        writeFully(frame);
+        ids.put(topic, id);
+        return id;
+    }
+
+    /** Publishes a numeric value to a topic bound with define() */
+    public void publish(int id, double value) throws IOException {
+        ensureRoom(11);
+        batch.put((byte) IngestServer.DOUBLE).putShort((short) id).putDouble(value);
+    }
+
+    /** Publishes a numeric value to a topic given by name */
+    public void publish(String topic, double value) throws IOException {
+        byte[] name = name(topic);
+        ensureRoom(10 + name.length);
+        batch.put((byte) (IngestServer.DOUBLE | IngestServer.BY_NAME)).put((byte) name.length).put(name).putDouble(value);
+    }
+
+    /** Publishes a text value to a topic given by name */
+    public void publish(String topic, String text) throws IOException {
+        byte[] name = name(topic);
+        byte[] value = text.getBytes(StandardCharsets.UTF_8);
+        if (value.length > 0xFFFF || 4 + name.length + value.length > batch.capacity() - 9) {
+            throw new IllegalArgumentException("Text too long");
+        }
+        ensureRoom(4 + name.length + value.length);
+        batch.put((byte) (IngestServer.TEXT | IngestServer.BY_NAME)).put((byte) name.length).put(name)
+             .putShort((short) value.length).put(value);
+    }
+
+    /** Sends the current batch, waiting for an ACK first if the window is used up */
+    public void flush() throws IOException {
+        if (batch.position() <= 9) {
+            return;   // nothing but the frame header
+        }
+        while (sequence - 1 - acknowledged >= window) {   // batches in flight before this one
+            readAck();
+        }
+        batch.putInt(0, batch.position() - 4);
+        batch.flip();
+        writeFully(batch);
+        batch.clear();
+    }
+
+    /** Sends the current batch and waits until the server has published every update */
+    public void sync() throws IOException {
+        flush();
+        while (acknowledged != sequence) {
+            readAck();
+        }
+    }
+
+    /** @return Updates the server rejected (unknown topic) among those acknowledged */
+    public long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private byte[] name(String topic) {
+        byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xFF) {
+            throw new IllegalArgumentException("Topic name too long: " + topic);
+        }
+        return name;
+    }
+
+    /** Makes room for a record, starting a new batch if needed */
+    private void ensureRoom(int recordLength) throws IOException {
+        if (batch.position() > 0 && batch.remaining() < recordLength) {
+            flush();
+        }
+        if (batch.position() == 0) {
+            batch.putInt(0).put((byte) IngestServer.BATCH).putInt(++sequence);
+        }
+    }
+
+    private void readAck() throws IOException {
+        ByteBuffer frame = readFrame();
+        int type = frame.get() & 0xFF;
+        if (type == IngestServer.ACK) {
+            acknowledged = frame.getInt();
+            rejected += frame.getInt() & 0xFFFFFFFFL;
+        } else if (type == IngestServer.ERROR) {
+            byte[] reason = new byte[frame.remaining()];
+            frame.get(reason);
+            throw new IOException("Ingest server error: " + new String(reason, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Reads until one whole frame is buffered.
+     *
+     * @return The frame's type and body
+     */
+    private ByteBuffer readFrame() throws IOException {
+        in.flip();
+        while (in.remaining() < 4 || in.remaining() < 4 + in.getInt(in.position())) {
+            in.compact();
+            if (channel.read(in) < 0) {
+                throw new EOFException("Ingest server closed the connection");
+            }
+            in.flip();
+        }
+        int length = in.getInt();
+        ByteBuffer frame = in.slice(in.position(), length);
+        ByteBuffer copy = ByteBuffer.allocate(length).put(frame).flip();
+        in.position(in.position() + length);
+        in.compact();   // keep what follows the frame for the next call
+        return copy;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package server;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Binary TCP listener for sensor feeders: publishes numeric and text values
+ * straight into the topics of TopicManagerSingleton, without HTTP.
+ *
+ * Protocol (all integers big-endian). Every frame is
+ * <pre>
+ * u32 length (of type and body) | u8 type | body
+ * </pre>
+ * Server to client:
+ * - HELLO (0x80), sent on connect: u8 version | u16 window | u32 max frame length
+ * - ACK (0x81): u32 sequence | u32 rejected - every batch up to sequence
+ *   has been published; rejected counts the records of those batches that
+ *   named an unknown topic
+ * - ERROR (0x82): UTF-8 reason; the server then closes the connection
+ * Client to server:
+ * - DEFINE (0x01): u16 topic id | UTF-8 topic name - binds an id to a topic
+ *   for this connection, so records need not repeat the name
+ * - BATCH (0x02): u32 sequence | records until the end of the frame
+ *
+ * A record is u8 tag | topic | value:
+ * - tag bit 0x80 clear: topic is a u16 id; set: u8 name length and the name
+ * - tag low bits: 1 = f64 value, 2 = text (u16 length and UTF-8)
+ * so a numeric update of a defined topic costs 11 bytes.
+ *
+ * Flow control: a client may have at most `window` batches without an ACK
+ * in flight. ACKs are cumulative and sent once per read, covering every
+ * batch the read completed. A client that does not read its ACKs is not
+ * read from either, which stops it by TCP flow control.
+ *
+ * Implementation: reactor threads as in NioHTTPServer, but the frames are
+ * decoded and published on the reactor itself, in connection order, with
+ * no per-frame allocation. Each connection reads into a direct buffer taken
+ * from a shared pool and returned when it closes; a frame must fit into one
+ * buffer (MAX_FRAME_LENGTH).
+ *
+ * Feeders on the same host can connect to an additional Unix domain socket
+ * (setUnixSocket); the protocol is the same.
+ *
+ * Design Patterns: Reactor, Object Pool (read buffers)
+ *
+ * @author Advanced Programming Course
+ */
+public class IngestServer extends Thread implements Closeable {
+    public static final int VERSION = 1;
+    /** Size of a pooled read buffer; bounds the frame size */
+    public static final int BUFFER_SIZE = 64 * 1024;
+    /** Largest frame (type and body) a client may send */
+    public static final int MAX_FRAME_LENGTH = BUFFER_SIZE - 4;
+    /** Batches a client may send before it waits for an ACK */
+    public static final int DEFAULT_WINDOW = 64;
+
+    static final int DEFINE = 0x01;
+    static final int BATCH = 0x02;
+    static final int HELLO = 0x80;
+    static final int ACK = 0x81;
+    static final int ERROR = 0x82;
+    static final int BY_NAME = 0x80;
+    static final int DOUBLE = 1;
+    static final int TEXT = 2;
+
+    private static final int POOL_SIZE = 256;
+    private static final ArrayBlockingQueue<ByteBuffer> BUFFER_POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private final int port;
+    private final Reactor[] reactors;
+    private final AtomicInteger nextReactor = new AtomicInteger();
+    private final TopicManager topicManager = TopicManagerSingleton.get();
+    private final TopicManager.PublishListener clearListener;
+    private final LongAdder published = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile int topicGeneration;   // bumped when the topics are replaced
+    private volatile boolean running;
+    private volatile ServerSocketChannel serverChannel;
+    private Path unixSocketPath;
+    private volatile ServerSocketChannel unixChannel;
+    private int window = DEFAULT_WINDOW;
+
+    /**
+     * @param port Port to listen on
+     * @param nReactors Number of threads reading and publishing
+     */
+    public IngestServer(int port, int nReactors) {
+        super("ingest-acceptor");
+        this.port = port;
+        this.reactors = new Reactor[nReactors];
+        for (int i = 0; i < nReactors; i++) {
+            reactors[i] = new Reactor(i);
+        }
+        // Topics resolved by id must be looked up again after a new configuration
+        this.clearListener = new TopicManager.PublishListener() {
+            @Override
+            public void published(Topic topic, Message message) {
+            }
+
+            @Override
+            public void cleared() {
+                topicGeneration++;
+            }
+        };
+    }
+
+    /**
+     * @param window Batches a client may have unacknowledged; announced in
+     *               HELLO. Must be called before {@link #start()}.
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(1, Math.min(window, 0xFFFF));
+    }
+
+    /**
+     * @param path Unix domain socket to listen on as well (replaced if it
+     *             exists, removed on close). Must be called before {@link #start()}.
+     */
+    public void setUnixSocket(Path path) {
+        this.unixSocketPath = path;
+    }
+
+    /** @return Records published since the server started */
+    public long getPublished() {
+        return published.sum();
+    }
+
+    /** @return Records rejected for naming an unknown topic */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        topicManager.addPublishListener(clearListener);
+        super.start();
+    }
+
+    /** Accepts connections and assigns them to the reactors round-robin */
+    @Override
+    public void run() {
+        try {
+            for (Reactor reactor : reactors) {
+                reactor.thread.start();
+            }
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            if (unixSocketPath != null) {
+                unixChannel = UnixDomainConnection.listen(unixSocketPath);
+                Thread unixAcceptor = new Thread(() -> accept(unixChannel), "ingest-unix-acceptor");
+                unixAcceptor.setDaemon(true);
+                unixAcceptor.start();
+            }
+            accept(serverChannel);
+        } catch (IOException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void accept(ServerSocketChannel listener) {
+        try {
+            while (running) {
+                SocketChannel client = listener.accept();
+                int index = Math.floorMod(nextReactor.getAndIncrement(), reactors.length);
+                reactors[index].assign(client);
+            }
+        } catch (IOException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Stops accepting and closes all connections */
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        topicManager.removePublishListener(clearListener);
+        closeQuietly(serverChannel);
+        if (unixSocketPath != null) {
+            UnixDomainConnection.unlisten(unixChannel, unixSocketPath);
+        }
+        for (Reactor reactor : reactors) {
+            reactor.shutdown();
+        }
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = BUFFER_POOL.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        BUFFER_POOL.offer(buffer);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore errors during shutdown
+            }
+        }
+    }
+
+    /**
+     * Thrown for a frame that breaks the protocol; answered with ERROR.
+     */
+    private static final class ProtocolException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ProtocolException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * State of one feeder connection.
+     */
+    private final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = acquireBuffer();
+        final ByteBuffer out = ByteBuffer.allocate(64);   // HELLO, ACK or ERROR
+        String[] names = new String[16];                  // defined topics by id
+        Topic[] topics = new Topic[16];                   // resolved for generation
+        int generation;
+        long ackSequence = -1;                            // highest batch not yet acknowledged
+        int ackRejected;
+        boolean closing;                                  // ERROR queued, close once sent
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.generation = topicGeneration;
+        }
+
+        void define(int id, String name) {
+            if (id >= names.length) {
+                int size = Math.max(id + 1, names.length * 2);
+                names = Arrays.copyOf(names, size);
+                topics = Arrays.copyOf(topics, size);
+            }
+            names[id] = name;
+            topics[id] = topicManager.findTopic(name);
+        }
+
+        Topic topic(int id) {
+            if (generation != topicGeneration) {
+                generation = topicGeneration;
+                for (int i = 0; i < names.length; i++) {
+                    topics[i] = names[i] != null ? topicManager.findTopic(names[i]) : null;
+                }
+            }
+            Topic topic = id < topics.length ? topics[id] : null;
+            if (topic == null && id < names.length && names[id] != null) {
+                topic = topics[id] = topicManager.findTopic(names[id]);   // created since the DEFINE
+            }
+            return topic;
+        }
+    }
+
+    /**
+     * A selector thread reading, decoding and publishing for its connections.
+     */
+    private final class Reactor implements Runnable {
+        final Thread thread;
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        private final Selector selector;
+
+        Reactor(int index) {
+            this.thread = new Thread(this, "ingest-reactor-" + index);
+            try {
+                this.selector = Selector.open();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void assign(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            selector.wakeup();
+            try {
+                thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(1000);
+                    SocketChannel channel;
+                    while ((channel = newChannels.poll()) != null) {
+                        register(channel);
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        Connection conn = (Connection) key.attachment();
+                        try {
+                            if (key.isWritable()) {
+                                write(conn);
+                            } else if (key.isReadable()) {
+                                read(conn);
+                            }
+                        } catch (IOException e) {
+                            closeConnection(conn);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        closeConnection((Connection) key.attachment());
+                    }
+                }
+                SocketChannel pending;
+                while ((pending = newChannels.poll()) != null) {
+                    closeQuietly(pending);
+                }
+                closeQuietly(selector);
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                if (channel.getLocalAddress() instanceof InetSocketAddress) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                }
+                Connection conn = new Connection(channel);
+                conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+                conn.out.putInt(8).put((byte) HELLO).put((byte) VERSION).putShort((short) window).putInt(MAX_FRAME_LENGTH);
+                write(conn);
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        }
+
+        /**
+         * Reads what has arrived, publishes every complete frame and
+         * acknowledges the batches among them.
+         */
+        private void read(Connection conn) throws IOException {
+            ByteBuffer in = conn.in;
+            int n = conn.channel.read(in);
+            if (n < 0) {
+                closeConnection(conn);
+                return;
+            }
+            in.flip();
+            try {
+                while (in.remaining() >= 4) {
+                    int length = in.getInt(in.position());
+                    if (length < 1 || length > MAX_FRAME_LENGTH) {
+                        throw new ProtocolException("Frame length " + length + " outside 1.." + MAX_FRAME_LENGTH);
+                    }
+                    if (in.remaining() < 4 + length) {
+                        break;   // rest of the frame still to come
+                    }
+                    int start = in.position() + 4;
+                    int end = start + length;
+                    frame(conn, in, start, end);
+                    in.position(end);
+                }
+            } catch (ProtocolException e) {
+                in.clear();
+                fail(conn, e.getMessage());
+                return;
+            }
+            in.compact();
+            if (conn.ackSequence >= 0) {
+                conn.out.putInt(9).put((byte) ACK).putInt((int) conn.ackSequence).putInt(conn.ackRejected);
+                conn.ackSequence = -1;
+                conn.ackRejected = 0;
+                write(conn);
+            }
+        }
+
+        private void frame(Connection conn, ByteBuffer in, int start, int end) throws ProtocolException {
+            int type = in.get(start) & 0xFF;
+            if (type == BATCH) {
+                if (end - start < 5) {
+                    throw new ProtocolException("Batch without sequence number");
+                }
+                long sequence = in.getInt(start + 1) & 0xFFFFFFFFL;
+                batch(conn, in, start + 5, end);
+                conn.ackSequence = sequence;
+            } else if (type == DEFINE) {
+                if (end - start < 3) {
+                    throw new ProtocolException("DEFINE without topic id");
+                }
+                conn.define(in.getShort(start + 1) & 0xFFFF, string(in, start + 3, end));
+            } else {
+                throw new ProtocolException("Unknown frame type " + type);
+            }
+        }
+
+        private void batch(Connection conn, ByteBuffer in, int position, int end) throws ProtocolException {
+            long count = 0;
+            int unknown = 0;
+            try {
+                while (position < end) {
+                    int tag = in.get(position++) & 0xFF;
+                    Topic topic;
+                    if ((tag & BY_NAME) == 0) {
+                        topic = conn.topic(in.getShort(position) & 0xFFFF);
+                        position += 2;
+                    } else {
+                        int nameLength = in.get(position++) & 0xFF;
+                        topic = topicManager.findTopic(string(in, position, position + nameLength));
+                        position += nameLength;
+                    }
+                    Message message;
+                    switch (tag & ~BY_NAME) {
+                        case DOUBLE:
+                            message = topic != null ? new Message(in.getDouble(position)) : null;
+                            position += 8;
+                            break;
+                        case TEXT:
+                            int textLength = in.getShort(position) & 0xFFFF;
+                            message = topic != null ? new Message(string(in, position + 2, position + 2 + textLength)) : null;
+                            position += 2 + textLength;
+                            break;
+                        default:
+                            throw new ProtocolException("Unknown value type " + (tag & ~BY_NAME));
+                    }
+                    if (position > end) {
+                        throw new ProtocolException("Record crosses the end of its batch");
+                    }
+                    if (topic != null) {
+                        topic.publish(message);
+                        count++;
+                    } else {
+                        unknown++;
+                    }
+                }
+            } catch (IndexOutOfBoundsException e) {
+                throw new ProtocolException("Record crosses the end of its batch");
+            } finally {
+                published.add(count);
+                rejected.add(unknown);
+                conn.ackRejected += unknown;
+            }
+        }
+
+        private String string(ByteBuffer in, int start, int end) throws ProtocolException {
+            if (end > in.limit() || end < start) {
+                throw new ProtocolException("String crosses the end of its frame");
+            }
+            byte[] bytes = new byte[end - start];
+            in.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private void fail(Connection conn, String reason) throws IOException {
+            byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(text.length, conn.out.remaining() - 5);
+            conn.out.putInt(1 + length).put((byte) ERROR).put(text, 0, length);
+            conn.closing = true;
+            write(conn);
+        }
+
+        /**
+         * Sends the pending control frames. While they do not fit into the
+         * socket, the connection is not read from.
+         */
+        private void write(Connection conn) throws IOException {
+            ByteBuffer out = conn.out;
+            out.flip();
+            conn.channel.write(out);
+            boolean done = !out.hasRemaining();
+            out.compact();
+            if (done && conn.closing) {
+                closeConnection(conn);
+            } else if (conn.key.isValid()) {
+                conn.key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void closeConnection(Connection conn) {
+            if (conn.in != null) {
+                releaseBuffer(conn.in);
+                conn.in = null;
+            }
+            if (conn.key != null) {
+                conn.key.cancel();
+            }
+            closeQuietly(conn.channel);
+        }
+    }
+}
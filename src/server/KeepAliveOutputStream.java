@@ -0,0 +1,220 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Response stream of a persistent connection.
+ *
+ * Servlets write complete HTTP responses (status line, headers, body) and do
+ * not know whether the connection stays open. This filter holds back the
+ * header block of each response until it is complete, then:
+ * - adds "Connection: keep-alive" or "Connection: close" (or rewrites the
+ *   servlet's own Connection header when the server must close)
+ * - checks that the body is delimited (Content-Length, chunked encoding, or
+ *   a status without body); otherwise the client can only find the end of
+ *   the body when the connection closes, so it is closed
+ * The body is passed through unchanged.
+ *
+ * A 101 (Switching Protocols) response keeps the servlet's Connection and
+ * Upgrade headers; everything after it belongs to the new protocol and is
+ * flushed whenever the servlet flushes.
+ *
+ * Flushes are deferred while pipelined requests are waiting: their responses
+ * then leave in one write instead of one packet each.
+ *
+ * File bodies sent through HttpResponse.sendFile go straight from the file
+ * to the socket channel with FileChannel.transferTo (sendfile on Linux).
+ *
+ * Design Pattern: Decorator - wraps the buffered socket stream
+ *
+ * @author Advanced Programming Course
+ */
+class KeepAliveOutputStream extends FilterOutputStream implements HttpResponse.FileTransfer {
+    /** Tells whether more request data is already buffered on the connection */
+    interface PendingInput {
+        boolean hasPendingInput() throws IOException;
+    }
+
+    private final PendingInput pendingInput;
+    private final WritableByteChannel channel;
+    private final ByteArrayOutputStream header = new ByteArrayOutputStream(512);
+    private final String keepAliveHeader;
+    private boolean inHeader;
+    private boolean keepAlive;
+    private boolean reusable;
+    private boolean switched;   // a 101 response handed the connection to another protocol
+    private int newlines;   // consecutive line ends seen at the end of the header
+
+    /**
+     * @param out Buffered socket stream
+     * @param channel The socket's channel for file transfers, or null to
+     *                copy files through the stream
+     * @param pendingInput Source of the pipelining hint for flush()
+     * @param timeoutSeconds Idle timeout advertised in the Keep-Alive header
+     */
+    KeepAliveOutputStream(OutputStream out, WritableByteChannel channel, PendingInput pendingInput, int timeoutSeconds) {
+        super(out);
+        this.channel = channel;
+        this.pendingInput = pendingInput;
+        this.keepAliveHeader = "Connection: keep-alive\r\nKeep-Alive: timeout=" + timeoutSeconds + "\r\n";
+    }
+
+    /**
+     * Starts a new response.
+     *
+     * @param keepAlive true if the server intends to keep the connection open
+     */
+    void beginResponse(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        this.reusable = false;
+        this.inHeader = true;
+        this.newlines = 0;
+        header.reset();
+    }
+
+    /**
+     * Finishes the current response.
+     *
+     * @return true if the connection can carry another request: keep-alive
+     *         was announced and the response was complete and delimited
+     */
+    boolean endResponse() {
+        return !inHeader && reusable;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!inHeader) {
+            out.write(b);
+            return;
+        }
+        header.write(b);
+        if (b == '\n') {
+            if (++newlines == 2) {
+                writeHeader();
+            }
+        } else if (b != '\r') {
+            newlines = 0;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int i = off;
+        int end = off + len;
+        while (inHeader && i < end) {
+            write(b[i++]);
+        }
+        if (i < end) {
+            out.write(b, i, end - i);
+        }
+    }
+
+    /**
+     * Flushes to the socket unless further pipelined requests are already
+     * waiting; the server flushes after the last of them. After a protocol
+     * switch every flush goes out.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (switched || !pendingInput.hasPendingInput()) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Sends a file region after the buffered response bytes. The buffer is
+     * flushed first, so the region follows the header on the wire.
+     */
+    @Override
+    public void transferFile(FileChannel file, long position, long count) throws IOException {
+        try (FileChannel source = file) {
+            if (inHeader) {
+                throw new IOException("File transfer before the response header");
+            }
+            out.flush();
+            WritableByteChannel target = channel != null ? channel : Channels.newChannel(out);
+            long end = position + count;
+            while (position < end) {
+                long sent = source.transferTo(position, end - position, target);
+                if (sent <= 0 && position >= source.size()) {
+                    throw new EOFException("File shorter than its announced length");
+                }
+                position += sent;
+            }
+        }
+    }
+
+    /** Flushes to the socket unconditionally */
+    void flushNow() throws IOException {
+        out.flush();
+    }
+
+    /** Does not close the socket; the server owns it */
+    @Override
+    public void close() throws IOException {
+        flushNow();
+    }
+
+    private void writeHeader() throws IOException {
+        inHeader = false;
+        String text = header.toString(StandardCharsets.ISO_8859_1.name());
+        String[] lines = text.split("\r?\n");
+
+        int status = 0;
+        if (lines.length > 0) {
+            String[] statusLine = lines[0].split(" ");
+            if (statusLine.length > 1) {
+                try {
+                    status = Integer.parseInt(statusLine[1]);
+                } catch (NumberFormatException e) {
+                    status = 0;
+                }
+            }
+        }
+
+        if (status == 101) {
+            switched = true;
+            reusable = false;
+            out.write(header.toByteArray());
+            return;
+        }
+
+        boolean delimited = status == 204 || status == 304 || (status >= 100 && status < 200);
+        boolean servletCloses = false;
+        StringBuilder rewritten = new StringBuilder(text.length() + 64);
+        rewritten.append(lines.length > 0 ? lines[0] : "").append("\r\n");
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim().toLowerCase();
+            if (name.equalsIgnoreCase("Content-Length")
+                || (name.equalsIgnoreCase("Transfer-Encoding") && value.contains("chunked"))) {
+                delimited = true;
+            } else if (name.equalsIgnoreCase("Connection")) {
+                servletCloses = value.contains("close");
+                continue;   // replaced below
+            } else if (name.equalsIgnoreCase("Keep-Alive")) {
+                continue;
+            }
+            rewritten.append(line).append("\r\n");
+        }
+
+        reusable = keepAlive && delimited && !servletCloses && status > 0;
+        rewritten.append(reusable ? keepAliveHeader : "Connection: close\r\n");
+        rewritten.append("\r\n");
+        out.write(rewritten.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,359 @@
+package server;
+
+import server.RequestParser.RequestException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming parser for multipart/form-data bodies (RFC 7578).
+ *
+ * Parts are read one after the other straight from the body stream. The
+ * content of a part is itself a stream that ends at the next boundary, so an
+ * uploaded file can be copied to its destination while it arrives; memory
+ * use is one fixed window, whatever the size of the upload.
+ *
+ * Algorithm: the delimiter "CRLF--boundary" is searched in a rolling window.
+ * Bytes that cannot be the start of a delimiter are handed out; only the
+ * last (delimiter length - 1) bytes are held back until more data shows
+ * whether they start the delimiter. The body is treated as if it began with
+ * CRLF, so the first boundary line needs no special case.
+ *
+ * Usage:
+ * <pre>
+ * MultipartStream parts = new MultipartStream(ri.getBodyStream(), ri.getHeader("Content-Type"));
+ * MultipartStream.Part part;
+ * while ((part = parts.nextPart()) != null) {
+ *     if (part.getFilename() != null) {
+ *         Files.copy(part.getInputStream(), target);
+ *     }
+ * }
+ * </pre>
+ *
+ * @author Advanced Programming Course
+ */
+public class MultipartStream {
+    private static final int WINDOW_SIZE = 16 * 1024;
+    private static final int MAX_PART_HEADER_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] window;
+    private int pos;
+    private int limit;
+    private int searchFrom;     // no delimiter starts before this index
+    private boolean eof;
+    private boolean finished;
+    private PartInputStream current;
+
+    /**
+     * One part of the body: its headers and a stream of its content.
+     */
+    public static final class Part {
+        private final Map<String, String> headers;
+        private final InputStream content;
+        private final String name;
+        private final String filename;
+
+        Part(Map<String, String> headers, InputStream content) {
+            this.headers = headers;
+            this.content = content;
+            String disposition = headers.getOrDefault("content-disposition", "");
+            this.name = dispositionParameter(disposition, "name");
+            this.filename = dispositionParameter(disposition, "filename");
+        }
+
+        /** @return Part headers keyed by lower-case name */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        /** @return The form field name, or null */
+        public String getName() {
+            return name;
+        }
+
+        /** @return The uploaded file name, or null if the part is not a file */
+        public String getFilename() {
+            return filename;
+        }
+
+        public String getContentType() {
+            return headers.get("content-type");
+        }
+
+        /**
+         * @return The part content; it ends at the next boundary and is
+         *         skipped if the next part is requested before it is read
+         */
+        public InputStream getInputStream() {
+            return content;
+        }
+    }
+
+    /**
+     * @param body The request body
+     * @param contentType The request's Content-Type header, with the boundary
+     * @throws RequestException (400) if there is no boundary parameter
+     */
+    public MultipartStream(InputStream body, String contentType) throws RequestException {
+        String boundary = boundaryOf(contentType);
+        if (boundary == null) {
+            throw new RequestException(400, "Bad Request");
+        }
+        this.in = body;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.window = new byte[Math.max(WINDOW_SIZE, delimiter.length * 2)];
+        // Virtual CRLF before the body, so the first boundary matches the delimiter
+        window[0] = '\r';
+        window[1] = '\n';
+        limit = 2;
+    }
+
+    /**
+     * @return The boundary parameter of a multipart Content-Type, or null
+     */
+    public static String boundaryOf(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int index = contentType.toLowerCase().indexOf("boundary=");
+        if (index < 0) {
+            return null;
+        }
+        String boundary = contentType.substring(index + 9);
+        int end = boundary.indexOf(';');
+        if (end >= 0) {
+            boundary = boundary.substring(0, end);
+        }
+        boundary = boundary.trim();
+        if (boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+        return boundary.isEmpty() ? null : boundary;
+    }
+
+    /**
+     * Advances to the next part, skipping the unread rest of the current one
+     * (or the preamble before the first part).
+     *
+     * @return The next part, or null after the closing boundary
+     * @throws RequestException (400) if the body ends without a closing boundary
+     */
+    public Part nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (current == null) {
+            current = new PartInputStream();   // the preamble
+        }
+        current.skipToEnd();
+        current = null;
+
+        // After the delimiter: "--" closes the body, otherwise CRLF follows
+        if (!fill(2)) {
+            throw new RequestException(400, "Bad Request");
+        }
+        if (window[pos] == '-' && window[pos + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        String boundaryLine = readLine();
+        if (boundaryLine == null || !boundaryLine.trim().isEmpty()) {
+            throw new RequestException(400, "Bad Request");
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        int headerBytes = 0;
+        String line;
+        while ((line = readLine()) != null && !line.isEmpty()) {
+            headerBytes += line.length();
+            if (headerBytes > MAX_PART_HEADER_SIZE) {
+                throw new RequestException(431, "Request Header Fields Too Large");
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+        }
+        if (line == null) {
+            throw new RequestException(400, "Bad Request");
+        }
+        current = new PartInputStream();
+        return new Part(headers, current);
+    }
+
+    /**
+     * Reads the first file part completely.
+     *
+     * @return The file content, or an empty array if there is no file part
+     */
+    public byte[] readFirstFile() throws IOException {
+        Part part;
+        while ((part = nextPart()) != null) {
+            if (part.getFilename() != null) {
+                return part.getInputStream().readAllBytes();
+            }
+        }
+        return new byte[0];
+    }
+
+    /**
+     * Content of the current part: everything up to the next delimiter.
+     */
+    private final class PartInputStream extends InputStream {
+        private boolean ended;
+
+        @Override
+        public int read() throws IOException {
+            return readable() > 0 ? window[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = Math.min(len, readable());
+            if (n == 0) {
+                return -1;
+            }
+            System.arraycopy(window, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        /**
+         * Blocks until bytes of this part are in the window.
+         *
+         * @return Number of bytes from pos that belong to the part; 0 once the
+         *         delimiter is reached (it then starts at pos)
+         * @throws RequestException (400) if the body ends inside the part
+         */
+        int readable() throws IOException {
+            if (ended || current != this) {
+                return 0;
+            }
+            while (true) {
+                int found = delimiterAt();
+                if (found >= 0) {
+                    if (found > pos) {
+                        return found - pos;
+                    }
+                    ended = true;
+                    return 0;
+                }
+                // The last (delimiter length - 1) bytes may start a delimiter
+                int safe = limit - (delimiter.length - 1);
+                if (safe > pos) {
+                    return safe - pos;
+                }
+                if (eof) {
+                    throw new RequestException(400, "Bad Request");
+                }
+                readMore();
+            }
+        }
+
+        /** Discards the rest of the part and the delimiter after it */
+        void skipToEnd() throws IOException {
+            int n;
+            while ((n = readable()) > 0) {
+                pos += n;
+            }
+            pos += delimiter.length;
+        }
+    }
+
+    /**
+     * @return Index of the delimiter in the window from pos, or -1. Bytes
+     *         already known not to start a delimiter are not searched again.
+     */
+    private int delimiterAt() {
+        int last = limit - delimiter.length;
+        byte first = delimiter[0];
+        for (int i = Math.max(pos, searchFrom); i <= last; i++) {
+            if (window[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < delimiter.length && window[i + j] == delimiter[j]) {
+                j++;
+            }
+            if (j == delimiter.length) {
+                return i;
+            }
+        }
+        searchFrom = Math.max(pos, last + 1);
+        return -1;
+    }
+
+    /**
+     * Ensures at least n bytes are in the window from pos.
+     *
+     * @return false if the stream ends first
+     */
+    private boolean fill(int n) throws IOException {
+        while (limit - pos < n && !eof) {
+            readMore();
+        }
+        return limit - pos >= n;
+    }
+
+    /** Moves the unread bytes to the front of the window and reads once */
+    private void readMore() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(window, pos, window, 0, limit - pos);
+            limit -= pos;
+            searchFrom = Math.max(0, searchFrom - pos);
+            pos = 0;
+        }
+        int read = in.read(window, limit, window.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    /** Reads an ISO-8859-1 line ending in CRLF or LF; null at end of stream */
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            if (pos == limit && !fill(1)) {
+                return line.length() == 0 ? null : line.toString();
+            }
+            byte b = window[pos++];
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) (b & 0xff));
+            if (line.length() > MAX_PART_HEADER_SIZE) {
+                throw new RequestException(431, "Request Header Fields Too Large");
+            }
+        }
+    }
+
+    /** Extracts name="value" (or name=value) from a Content-Disposition header */
+    private static String dispositionParameter(String disposition, String parameter) {
+        for (String piece : disposition.split(";")) {
+            String trimmed = piece.trim();
+            int equals = trimmed.indexOf('=');
+            if (equals > 0 && trimmed.substring(0, equals).trim().equalsIgnoreCase(parameter)) {
+                String value = trimmed.substring(equals + 1).trim();
+                if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+}
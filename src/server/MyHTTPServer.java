@@ -1,22 +1,39 @@
 package server;
 
+import servlets.AsyncServlet;
+import servlets.Filter;
 import servlets.Servlet;
+import server.RequestParser.RequestException;
 import server.RequestParser.RequestInfo;
 
 import java.io.*;
+import java.lang.reflect.Method;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Multi-threaded HTTP server implementation with servlet support.
  * Handles concurrent client requests using a thread pool architecture.
  * 
  * Key Features:
- * - Concurrent request handling via ExecutorService
+ * - Concurrent request handling via ExecutorService (fixed pool, or one
+ *   virtual thread per connection with a concurrency cap)
  * - Servlet routing with longest-prefix matching algorithm
  * - Graceful shutdown with resource cleanup
  * - Support for GET, POST, DELETE HTTP methods
+ * - HTTP/1.1 persistent connections with pipelining
+ * - Optional Unix domain socket listener for clients on the same host
+ * - Admission control: a bounded connection queue and per-route limits,
+ *   answered with 503 and Retry-After instead of unbounded waiting
+ * - Bulkheads: routes can be served by thread pools of their own
+ * - Asynchronous servlets: a connection waiting for an AsyncServlet's
+ *   response gives its thread up and is resumed when the response is ready
  * 
  * SOLID Principles:
  * - Single Responsibility: Focuses on HTTP server operations only
@@ -36,10 +53,40 @@ public class MyHTTPServer extends Thread implements HTTPServer {
     private ExecutorService threadPool;
     private volatile boolean running = false;
     
-    // Thread-safe maps for servlets
-    private final ConcurrentHashMap<String, Servlet> getServlets = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Servlet> postServlets = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Servlet> deleteServlets = new ConcurrentHashMap<>();
+    // Thread-safe servlet registrations, shared routing with NioHTTPServer
+    private final ServletRegistry servlets = new ServletRegistry();
+    
+    /** Default time an idle persistent connection is kept open */
+    public static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 5000;
+    /** Default number of requests served on one connection before it is closed */
+    public static final int DEFAULT_MAX_REQUESTS = 10000;
+    /** Time allowed to receive the rest of a request once it has started */
+    private static final int REQUEST_TIMEOUT = 30000;
+    /** Slice in which idle connections re-check the timeout and the queue */
+    private static final int IDLE_POLL = 100;
+    /** Pending connections the OS queues before accept(); the Java default of 50 drops bursts */
+    private static final int ACCEPT_BACKLOG = 1024;
+    
+    private volatile int keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+    private volatile int maxRequestsPerConnection = DEFAULT_MAX_REQUESTS;
+    
+    /** Stack size of fallback connection threads when virtual threads are unavailable */
+    private static final long CONNECTION_THREAD_STACK = 256 * 1024;
+    
+    // Thread-per-connection mode: caps concurrent connections, null in pool mode
+    private Semaphore connectionLimit;
+    private boolean virtualThreads = false;
+    
+    // Optional second listener for local clients, see setUnixSocket
+    private Path unixSocketPath;
+    private volatile ServerSocketChannel unixServer;
+    
+    // Admission control, see setMaxQueuedConnections and addServlet with a limit
+    private volatile int retryAfterSeconds = 1;
+    private final LongAdder rejectedCount = new LongAdder();
+    private final Set<Bulkhead> bulkheads = ConcurrentHashMap.newKeySet();
+    private volatile int asyncTimeout = REQUEST_TIMEOUT;
+    private final AtomicInteger suspended = new AtomicInteger();
     
     public MyHTTPServer(int port, int nThreads) {
         this.port = port;
@@ -47,34 +94,188 @@ public class MyHTTPServer extends Thread implements HTTPServer {
         this.threadPool = Executors.newFixedThreadPool(nThreads);
     }
     
+    /**
+     * Sets how long an idle persistent connection is kept open.
+     * 
+     * @param millis Idle timeout in milliseconds
+     */
+    public void setKeepAliveTimeout(int millis) {
+        this.keepAliveTimeout = millis;
+    }
+    
+    /**
+     * Sets how many requests one connection may carry before it is closed.
+     * 1 restores one request per connection (HTTP/1.0 style).
+     * 
+     * @param maxRequests Maximum requests per connection
+     */
+    public void setMaxRequestsPerConnection(int maxRequests) {
+        this.maxRequestsPerConnection = maxRequests;
+    }
+    
+    /**
+     * Serves every accepted connection on its own thread instead of the fixed
+     * pool, so a servlet that blocks (a large upload, a publish waiting for a
+     * full agent queue) delays only its own connection.
+     * 
+     * Virtual threads are used when the runtime provides them (Java 21+);
+     * otherwise each connection gets a platform thread with a small stack.
+     * At most maxConnections connections are served at once; further ones
+     * wait in the accept backlog until a connection finishes.
+     * Must be called before {@link #start()}.
+     * 
+     * @param maxConnections Concurrency cap
+     */
+    public void setThreadPerConnection(int maxConnections) {
+        if (running) {
+            throw new IllegalStateException("Threading mode must be set before start()");
+        }
+        ExecutorService perConnection = newVirtualThreadExecutor();
+        virtualThreads = perConnection != null;
+        if (perConnection == null) {
+            AtomicInteger counter = new AtomicInteger();
+            perConnection = Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(null, task, "http-connection-" + counter.incrementAndGet(),
+                                           CONNECTION_THREAD_STACK);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        threadPool.shutdown();
+        threadPool = perConnection;
+        connectionLimit = new Semaphore(maxConnections);
+    }
+    
+    /**
+     * Bounds the queue of accepted connections waiting for a pool thread.
+     * When it is full, further connections are answered at once with
+     * 503 Service Unavailable and Retry-After, so that under overload the
+     * wait of admitted clients stays bounded instead of growing with the
+     * queue. Without a bound (the default) connections wait however long it
+     * takes. In thread-per-connection mode the connection cap plays this
+     * role. Must be called before {@link #start()}.
+     * 
+     * @param maxQueued Connections that may wait for a thread
+     */
+    public void setMaxQueuedConnections(int maxQueued) {
+        if (running) {
+            throw new IllegalStateException("Queue bound must be set before start()");
+        }
+        if (connectionLimit == null) {
+            threadPool.shutdown();
+            threadPool = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                                                new ArrayBlockingQueue<>(maxQueued));
+        }
+    }
+    
+    /**
+     * Sets the Retry-After value of 503 responses.
+     * 
+     * @param seconds Delay clients are asked to wait before retrying
+     */
+    public void setRetryAfter(int seconds) {
+        this.retryAfterSeconds = seconds;
+    }
+    
+    /**
+     * Sets how long a connection waits for an AsyncServlet's response
+     * before it is answered with 503.
+     * 
+     * @param millis Timeout in milliseconds (default 30000)
+     */
+    public void setAsyncTimeout(int millis) {
+        this.asyncTimeout = millis;
+    }
+    
+    /**
+     * @return Connections waiting for an AsyncServlet's response, holding no thread
+     */
+    public int getSuspendedCount() {
+        return suspended.get();
+    }
+    
+    /**
+     * @return Connections and requests answered with 503 by admission control
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+    
+    /**
+     * Also listens on a Unix domain socket at path. Local clients connected
+     * there skip the TCP/IP stack; requests are routed to the same servlets
+     * and served by the same threads. The file is replaced if it exists and
+     * removed on close(). Must be called before {@link #start()}.
+     * 
+     * @param path Socket file, e.g. /run/compute-graph/http.sock
+     */
+    public void setUnixSocket(Path path) {
+        if (running) {
+            throw new IllegalStateException("Unix socket must be set before start()");
+        }
+        this.unixSocketPath = path;
+    }
+    
+    /**
+     * @return true if connections run on virtual threads
+     */
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+    
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor() reflectively, so the
+     * server still compiles and runs on Java 17.
+     * 
+     * @return A virtual-thread-per-task executor, or null if not supported
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;   // before Java 21, or preview features disabled
+        }
+    }
+    
     @Override
     public void addServlet(String httpCommand, String uri, Servlet s) {
-        switch (httpCommand.toUpperCase()) {
-            case "GET":
-                getServlets.put(uri, s);
-                break;
-            case "POST":
-                postServlets.put(uri, s);
-                break;
-            case "DELETE":
-                deleteServlets.put(uri, s);
-                break;
-        }
+        servlets.add(httpCommand, uri, s);
+    }
+    
+    /**
+     * Registers an expensive, low-priority route (e.g. configuration
+     * upload). At most maxConcurrent of its requests run at once, and none
+     * start while connections are waiting for a thread; the others are
+     * answered at once with 503 and Retry-After. Routes registered without
+     * a limit keep being served, so cheap reads get priority under load.
+     * 
+     * @param maxConcurrent Requests of this route served at once
+     */
+    public void addServlet(String httpCommand, String uri, Servlet s, int maxConcurrent) {
+        servlets.add(httpCommand, uri, new AdmissionLimit(s, maxConcurrent, this::connectionsWaiting, this));
+    }
+    
+    /**
+     * Registers a route served by the threads of a bulkhead instead of the
+     * server's own, so that its traffic cannot hold up other routes (see
+     * Bulkhead). The bulkhead is closed when the server closes.
+     * 
+     * @param bulkhead Thread pool for this route, may be shared with other routes
+     */
+    public void addServlet(String httpCommand, String uri, Servlet s, Bulkhead bulkhead) {
+        bulkheads.add(bulkhead);
+        servlets.add(httpCommand, uri, new Bulkhead.Route(s, bulkhead));
     }
     
     @Override
     public void removeServlet(String httpCommand, String uri) {
-        switch (httpCommand.toUpperCase()) {
-            case "GET":
-                getServlets.remove(uri);
-                break;
-            case "POST":
-                postServlets.remove(uri);
-                break;
-            case "DELETE":
-                deleteServlets.remove(uri);
-                break;
-        }
+        servlets.remove(httpCommand, uri);
+    }
+    
+    @Override
+    public void addFilter(String uriPrefix, Filter filter) {
+        servlets.addFilter(uriPrefix, filter);
     }
     
     @Override
@@ -108,19 +309,8 @@ public class MyHTTPServer extends Thread implements HTTPServer {
     public void close() {
         running = false;
         
-        // Close all servlets (use Set to avoid closing the same servlet twice)
-        Set<Servlet> allServlets = new HashSet<>();
-        allServlets.addAll(getServlets.values());
-        allServlets.addAll(postServlets.values());
-        allServlets.addAll(deleteServlets.values());
-        
-        for (Servlet servlet : allServlets) {
-            try {
-                servlet.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+        // Close all servlets (each one once, even if registered twice)
+        servlets.closeAll();
         
         // Shutdown thread pool
         threadPool.shutdown();
@@ -131,6 +321,9 @@ public class MyHTTPServer extends Thread implements HTTPServer {
         } catch (InterruptedException e) {
             threadPool.shutdownNow();
         }
+        for (Bulkhead bulkhead : bulkheads) {
+            bulkhead.close();
+        }
         
         // Close server socket
         try {
@@ -140,6 +333,9 @@ public class MyHTTPServer extends Thread implements HTTPServer {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (unixSocketPath != null) {
+            UnixDomainConnection.unlisten(unixServer, unixSocketPath);
+        }
         
         // Interrupt this thread if it's waiting
         this.interrupt();
@@ -168,24 +364,60 @@ public class MyHTTPServer extends Thread implements HTTPServer {
     @Override
     public void run() {
         try {
-            serverSocket = new ServerSocket(port);
+            // Opened through a channel so that accepted sockets have one too:
+            // static files can then be sent with FileChannel.transferTo
+            serverSocket = ServerSocketChannel.open().socket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
             serverSocket.setSoTimeout(1000); // 1 second timeout
+            if (unixSocketPath != null) {
+                unixServer = UnixDomainConnection.listen(unixSocketPath);
+                Thread unixAcceptor = new Thread(this::acceptUnix, "http-unix-acceptor");
+                unixAcceptor.setDaemon(true);
+                unixAcceptor.start();
+            }
             
             while (running) {
                 try {
-                    Socket clientSocket = serverSocket.accept();
+                    // Thread-per-connection mode: wait for a free slot first,
+                    // leaving further clients in the accept backlog
+                    Semaphore limit = connectionLimit;
+                    if (limit != null && !limit.tryAcquire(1, TimeUnit.SECONDS)) {
+                        continue;
+                    }
+                    Socket clientSocket;
+                    try {
+                        clientSocket = serverSocket.accept();
+                    } catch (IOException e) {
+                        if (limit != null) limit.release();
+                        throw e;
+                    }
                     
                     // Handle client in thread pool
-                    threadPool.execute(() -> handleClient(clientSocket));
+                    ClientConnection connection;
+                    try {
+                        connection = ClientConnection.of(clientSocket);
+                    } catch (IOException e) {
+                        if (limit != null) limit.release();
+                        clientSocket.close();
+                        throw e;
+                    }
+                    dispatch(limit, connection);
                     
+                } catch (InterruptedException e) {
+                    break;
                 } catch (SocketTimeoutException e) {
                     // Timeout is normal, continue loop to check if still running
                 } catch (IOException e) {
                     if (running) {
                         e.printStackTrace();
+                        // e.g. out of file descriptors: give connections time to close
+                        Thread.sleep(IDLE_POLL);
                     }
                 }
             }
+        } catch (InterruptedException e) {
+            // Interrupted while backing off: stop serving
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
@@ -194,108 +426,392 @@ public class MyHTTPServer extends Thread implements HTTPServer {
     }
     
     /**
-     * Handles individual client HTTP requests in a separate thread.
-     * Implements the complete request-response cycle:
+     * Accept loop of the Unix domain socket, on its own thread; the
+     * connections are handed to the same pool (or connection cap) as TCP ones.
+     */
+    private void acceptUnix() {
+        while (running) {
+            Semaphore limit = connectionLimit;
+            try {
+                if (limit != null && !limit.tryAcquire(1, TimeUnit.SECONDS)) {
+                    continue;
+                }
+                SocketChannel channel;
+                try {
+                    channel = unixServer.accept();
+                } catch (IOException e) {
+                    if (limit != null) limit.release();
+                    throw e;
+                }
+                ClientConnection connection;
+                try {
+                    connection = new UnixDomainConnection(channel);
+                } catch (IOException e) {
+                    if (limit != null) limit.release();
+                    channel.close();
+                    throw e;
+                }
+                dispatch(limit, connection);
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                if (!running) {
+                    break;   // closed by close()
+                }
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    /**
+     * Hands an accepted connection to the pool, or in thread-per-connection
+     * mode, starts its thread, which gives the slot back when it ends.
+     */
+    private void dispatch(Semaphore limit, ClientConnection connection) throws IOException {
+        if (limit == null) {
+            try {
+                threadPool.execute(() -> handleClient(connection, () -> { }));
+            } catch (RejectedExecutionException e) {
+                if (running) {
+                    reject(connection);   // queue bound reached
+                } else {
+                    connection.close();
+                }
+            }
+            return;
+        }
+        try {
+            threadPool.execute(() -> handleClient(connection, limit::release));
+        } catch (RejectedExecutionException e) {
+            limit.release();
+            connection.close();
+        }
+    }
+    
+    /**
+     * Handles one client connection in a pool thread.
+     * Implements the request-response cycle for every request on the connection:
+     * 
+     * 1. Wait for the next request (idle timeout, see awaitNextRequest)
+     * 2. Parse the HTTP request
+     * 3. Route to appropriate servlet using longest-prefix matching
+     * 4. Execute servlet handler; the Connection header is added to its response
+     *    (on the threads of the route's bulkhead, if it has one, see serve)
+     * 5. Keep the connection for the next request, or close it
      * 
-     * 1. Parse incoming HTTP request
-     * 2. Route to appropriate servlet using longest-prefix matching
-     * 3. Execute servlet handler
-     * 4. Send response or error
-     * 5. Close connection (HTTP/1.0 style)
+     * Persistent connections (HTTP/1.1 keep-alive):
+     * - Kept open unless the client sends "Connection: close" (HTTP/1.0:
+     *   unless it sends "Connection: keep-alive"), the response has no
+     *   delimited body, or the per-connection request limit is reached
+     * - Pipelining: requests already sent by the client stay buffered in the
+     *   RequestBuffer and are answered in order; their responses are flushed together
+     * 
+     * Protocol upgrade:
+     * - A servlet may take the connection over with RequestInfo.upgrade()
+     *   after a 101 response (WebSocket); it is closed when the servlet returns
      * 
      * Error handling:
-     * - 400 Bad Request: Malformed HTTP request
+     * - 400 Bad Request: Malformed HTTP request (connection closed)
+     * - 411/413/431: Chunked, oversized body or headers (connection closed)
      * - 404 Not Found: No matching servlet for URI
      * 
      * Resource management:
-     * - Uses try-with-resources for automatic cleanup
+     * - Requests are parsed from the connection's byte buffer in place, so
+     *   bodies are byte-exact and not copied
      * - Ensures socket is closed even on exceptions
      * 
-     * @param clientSocket The client connection to handle
+     * @param clientSocket The client connection to handle (TCP or Unix domain)
+     * @param onClose Run once the connection is closed, on whichever thread
      */
-    private void handleClient(Socket clientSocket) {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             OutputStream output = clientSocket.getOutputStream()) {
-            
-            // Parse request
-            RequestInfo requestInfo = RequestParser.parseRequest(reader);
-            
-            if (requestInfo == null) {
-                sendErrorResponse(output, 400, "Bad Request");
-                return;
+    private void handleClient(ClientConnection clientSocket, Runnable onClose) {
+        Connection connection;
+        try {
+            connection = new Connection(clientSocket, onClose);
+        } catch (IOException e) {
+            closeConnection(clientSocket, onClose);
+            return;
+        }
+        serve(connection, null, null, null);
+    }
+    
+    /**
+     * A connection with its buffers, passed between the server's threads
+     * and those of bulkheads.
+     */
+    private final class Connection {
+        final ClientConnection socket;
+        final Runnable onClose;   // gives a thread-per-connection slot back
+        final RequestBuffer input;
+        final KeepAliveOutputStream output;
+        int served;
+        
+        Connection(ClientConnection socket, Runnable onClose) throws IOException {
+            this.socket = socket;
+            this.onClose = onClose;
+            this.input = new RequestBuffer(socket.getInputStream());
+            this.output = new KeepAliveOutputStream(
+                new BufferedOutputStream(socket.getOutputStream(), 8192), socket.getChannel(),
+                input::hasPendingInput, Math.max(1, keepAliveTimeout / 1000));
+        }
+    }
+    
+    /**
+     * Runs the request loop of a connection on the current thread until the
+     * connection closes or moves to another thread.
+     * 
+     * A request whose route is served by a bulkhead moves the connection to
+     * the bulkhead's threads, where this loop continues; after the response,
+     * the connection moves back to the server's threads to wait for the next
+     * request. If the bulkhead is full, the request is answered with 503.
+     * 
+     * @param pending A request parsed on the previous thread, or null
+     * @param routed The servlet pending was routed to
+     * @param bulkhead The bulkhead running this thread, or null for the server's threads
+     */
+    private void serve(Connection connection, RequestInfo pending, Servlet routed, Bulkhead bulkhead) {
+        ClientConnection clientSocket = connection.socket;
+        RequestBuffer input = connection.input;
+        KeepAliveOutputStream output = connection.output;
+        boolean movedOn = false;
+        try {
+            RequestInfo requestInfo = pending;
+            Servlet servlet = routed;
+            while (true) {
+                if (requestInfo == null) {
+                    if (bulkhead != null) {
+                        // Wait for the next request on the server's threads
+                        movedOn = moveTo(null, connection, null, null);
+                        break;
+                    }
+                    if (!awaitNextRequest(clientSocket, input, connection.served > 0)) {
+                        break;
+                    }
+                    clientSocket.setSoTimeout(REQUEST_TIMEOUT);
+                    
+                    // Parse request
+                    try {
+                        requestInfo = input.next();
+                    } catch (RequestException e) {
+                        output.beginResponse(false);
+                        sendErrorResponse(output, e.getStatusCode(), e.getMessage());
+                        break;
+                    }
+                    connection.served++;
+                    
+                    if (requestInfo == null) {
+                        output.beginResponse(false);
+                        sendErrorResponse(output, 400, "Bad Request");
+                        break;
+                    }
+                    
+                    // Keep the connection unless it has served its share or other
+                    // connections are waiting for a thread and nothing is pipelined
+                    boolean keepAlive = requestInfo.isKeepAlive() && running
+                                        && connection.served < maxRequestsPerConnection
+                                        && (input.hasPendingInput() || !connectionsWaiting());
+                    output.beginResponse(keepAlive);
+                    
+                    // Find matching servlet
+                    servlet = servlets.route(requestInfo);
+                }
+                
+                Bulkhead target = servlet instanceof Bulkhead.Route ? ((Bulkhead.Route) servlet).bulkhead : null;
+                if (target != bulkhead) {
+                    if (moveTo(target, connection, requestInfo, servlet)) {
+                        movedOn = true;
+                        break;
+                    }
+                    rejected(output);   // bulkhead full
+                } else if (servlet == null) {
+                    sendErrorResponse(output, 404, "Not Found");
+                } else {
+                    // Handle request with servlet; it may take the connection
+                    // over for another protocol (WebSocket)
+                    requestInfo.setUpgrader(() -> {
+                        clientSocket.setSoTimeout(0);
+                        return input.takeOver();
+                    });
+                    Servlet handler = target != null ? ((Bulkhead.Route) servlet).servlet : servlet;
+                    if (handler instanceof AsyncServlet) {
+                        CompletableFuture<Servlet> outcome =
+                            servlets.start((AsyncServlet) handler, requestInfo, output, asyncTimeout);
+                        if (outcome != null) {
+                            suspend(connection, requestInfo, outcome);
+                            movedOn = true;
+                            break;
+                        }
+                    } else {
+                        servlets.handle(handler, requestInfo, output);
+                    }
+                }
+                
+                boolean open = !requestInfo.isUpgraded() && output.endResponse() && input.finishRequest();
+                output.flush();
+                if (!open) {
+                    break;
+                }
+                requestInfo = null;
             }
-            
-            // Find matching servlet
-            Servlet servlet = findServlet(requestInfo.getHttpCommand(), requestInfo.getUri());
-            
-            if (servlet == null) {
-                sendErrorResponse(output, 404, "Not Found");
-                return;
+            if (!movedOn) {
+                output.flushNow();
             }
             
-            // Handle request with servlet
-            servlet.handle(requestInfo, output);
-            
+        } catch (SocketException | SocketTimeoutException e) {
+            // Client closed the connection or stopped sending mid-request
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
-            try {
-                clientSocket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (!movedOn) {
+                closeConnection(clientSocket, connection.onClose);
             }
         }
     }
     
     /**
-     * Implements longest-prefix matching algorithm for servlet routing.
-     * This allows flexible URL patterns like:
-     * - /api/users -> matches /api/users/123
-     * - /api -> matches /api/anything
-     * - / -> matches everything (default handler)
+     * Continues a connection on the threads of a bulkhead, or with a null
+     * bulkhead, on the server's threads.
      * 
-     * Algorithm complexity: O(n) where n is number of registered servlets
-     * 
-     * Example:
-     * If servlets are registered for "/api/", "/api/users/", and "/"
-     * URI "/api/users/123" will match "/api/users/" (longest prefix)
+     * @return false if the bulkhead refused it (queue full); the current
+     *         thread keeps the connection. Refused by the server's own pool
+     *         (bounded queue), a waiting connection is closed.
+     */
+    private boolean moveTo(Bulkhead target, Connection connection, RequestInfo pending, Servlet routed) {
+        Runnable task = () -> serve(connection, pending, routed, target);
+        if (target != null) {
+            return target.execute(task);
+        }
+        try {
+            threadPool.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (pending != null) {
+                return false;   // answer it here
+            }
+            closeConnection(connection.socket, connection.onClose);
+            return true;
+        }
+    }
+    
+    /**
+     * Parks a connection until an AsyncServlet's response is ready, then
+     * continues its request loop on the server's threads, starting with
+     * writing the response. If the server no longer takes tasks (closed or
+     * queue full), the connection is closed.
+     */
+    private void suspend(Connection connection, RequestInfo requestInfo, CompletableFuture<Servlet> outcome) throws IOException {
+        connection.output.flushNow();   // responses to earlier pipelined requests
+        suspended.incrementAndGet();
+        outcome.thenAccept(writer -> {
+            suspended.decrementAndGet();
+            try {
+                threadPool.execute(() -> serve(connection, requestInfo, writer, null));
+            } catch (RejectedExecutionException e) {
+                closeConnection(connection.socket, connection.onClose);
+            }
+        });
+    }
+    
+    private void closeConnection(ClientConnection clientSocket, Runnable onClose) {
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            onClose.run();
+        }
+    }
+    
+    /**
+     * Waits until the next request starts arriving on a connection.
      * 
-     * Thread safety: Uses ConcurrentHashMap for concurrent access
+     * The socket is polled in short slices so that an idle connection does not
+     * hold its pool thread for the whole keep-alive timeout when other
+     * connections are queued for a thread: after one quiet slice it gives the
+     * thread up. A new connection is never given up early, since its first
+     * request may still be in flight. Blank lines between requests are
+     * skipped (RFC 7230, section 3.5).
      * 
-     * @param httpCommand The HTTP method (GET, POST, DELETE)
-     * @param uri The requested URI path
-     * @return The servlet handling the longest matching prefix, or null
+     * @param reused true if the connection has already served a request
+     * @return true if request data is available; false on end of stream,
+     *         idle timeout, server shutdown, or when the thread is needed elsewhere
      */
-    private Servlet findServlet(String httpCommand, String uri) {
-        ConcurrentHashMap<String, Servlet> servletMap;
-        
-        switch (httpCommand.toUpperCase()) {
-            case "GET":
-                servletMap = getServlets;
-                break;
-            case "POST":
-                servletMap = postServlets;
-                break;
-            case "DELETE":
-                servletMap = deleteServlets;
-                break;
-            default:
-                return null;
-        }
-        
-        // Find longest prefix match
-        String longestMatch = "";
-        Servlet matchingServlet = null;
-        
-        for (Map.Entry<String, Servlet> entry : servletMap.entrySet()) {
-            String prefix = entry.getKey();
-            if (uri.startsWith(prefix) && prefix.length() > longestMatch.length()) {
-                longestMatch = prefix;
-                matchingServlet = entry.getValue();
+    private boolean awaitNextRequest(ClientConnection socket, RequestBuffer input, boolean reused) throws IOException {
+        long start = System.currentTimeMillis();
+        long deadline = start + keepAliveTimeout;
+        while (running) {
+            long now = System.currentTimeMillis();
+            long remaining = deadline - now;
+            boolean yield = reused && now - start >= IDLE_POLL && connectionsWaiting();
+            if (input.skipBlankLines()) {
+                return true;
+            }
+            if (remaining <= 0 || yield) {
+                return false;
+            }
+            socket.setSoTimeout((int) Math.max(1, Math.min(remaining, IDLE_POLL)));
+            try {
+                if (input.fill(0) < 0) {
+                    return false;
+                }
+            } catch (SocketTimeoutException e) {
+                // Nothing yet; check the deadline and the queue again
             }
         }
-        
-        return matchingServlet;
+        return false;
+    }
+    
+    /**
+     * @return true if accepted connections are queued for a pool thread, or
+     *         in thread-per-connection mode, if the cap is reached and the
+     *         acceptor is waiting for a slot
+     */
+    private boolean connectionsWaiting() {
+        Semaphore limit = connectionLimit;
+        if (limit != null) {
+            return limit.availablePermits() == 0 && limit.hasQueuedThreads();
+        }
+        return threadPool instanceof ThreadPoolExecutor
+               && !((ThreadPoolExecutor) threadPool).getQueue().isEmpty();
+    }
+    
+    /**
+     * Answers a connection that was not admitted with 503 on the accepting
+     * thread, without reading its request, and closes it. The response is
+     * small enough for the empty socket buffer, so this does not block.
+     */
+    private void reject(ClientConnection connection) {
+        rejectedCount.increment();
+        try (connection) {
+            String message = "Server busy";
+            String response = "HTTP/1.1 503 Service Unavailable\r\n"
+                              + "Retry-After: " + retryAfterSeconds + "\r\n"
+                              + "Content-Type: text/plain\r\n"
+                              + "Content-Length: " + message.length() + "\r\n"
+                              + "Connection: close\r\n"
+                              + "\r\n" + message;
+            OutputStream output = connection.getOutputStream();
+            output.write(response.getBytes());
+            output.flush();
+            // Drop what the request already sent, so closing does not reset the response away
+            InputStream input = connection.getInputStream();
+            input.skip(input.available());
+        } catch (IOException e) {
+            // Client gone
+        }
+    }
+    
+    /**
+     * Answers a request refused by an AdmissionLimit with 503; the
+     * connection stays usable.
+     */
+    void rejected(OutputStream toClient) throws IOException {
+        rejectedCount.increment();
+        try (HttpResponse response = new HttpResponse(toClient)) {
+            response.setStatus(503);
+            response.setHeader("Retry-After", Integer.toString(retryAfterSeconds));
+            response.setContentType("text/plain");
+            response.print("Server busy, retry later");
+        }
     }
     
     private void sendErrorResponse(OutputStream output, int code, String message) throws IOException {
@@ -0,0 +1,629 @@
+package server;
+
+import servlets.AsyncServlet;
+import servlets.Filter;
+import servlets.Servlet;
+import server.RequestParser.RequestException;
+import server.RequestParser.RequestInfo;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking HTTP server built on java.nio selectors.
+ * An alternative to MyHTTPServer for many concurrent or slow clients.
+ *
+ * Architecture (reactor pattern):
+ * - One acceptor thread accepts connections and hands them to the reactors
+ *   round-robin
+ * - N reactor threads each own a Selector and do all socket reads and writes
+ *   for their connections without blocking
+ * - A worker pool runs the servlets once a request has fully arrived
+ *
+ * A connection only occupies a worker while its servlet runs. Reading the
+ * request and writing the response happen on the reactors, so clients that
+ * send or receive slowly cost a buffer each instead of a thread, and
+ * thousands of open connections are served by a handful of threads.
+ *
+ * SO_REUSEPORT (see {@link #setReusePort(boolean)}): where the platform
+ * supports it (Linux), each reactor binds its own listening socket on the
+ * same port and the kernel spreads incoming connections across them, so
+ * accepting no longer goes through a single thread.
+ *
+ * Servlets keep their blocking OutputStream contract: each one writes into a
+ * response buffer that the reactor then sends. Connections are closed after
+ * the response, as in MyHTTPServer. An AsyncServlet holds no worker while
+ * its response is pending; the response is written on a worker when it is
+ * ready.
+ *
+ * Design Patterns:
+ * - Reactor Pattern for event-driven I/O
+ * - Thread Pool Pattern for servlet execution
+ * - Front Controller Pattern with servlet routing (shared ServletRegistry)
+ *
+ * @author Advanced Programming Course
+ */
+public class NioHTTPServer extends Thread implements HTTPServer {
+    /** Requests larger than this are rejected with 413 */
+    static final int MAX_REQUEST_SIZE = RequestParser.MAX_REQUEST_SIZE;
+    /** Connections with no socket activity for this long are closed */
+    static final long IDLE_TIMEOUT_MS = 30_000;
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final int port;
+    private final Reactor[] reactors;
+    private final ExecutorService workers;
+    private final ServletRegistry servlets = new ServletRegistry();
+    private final AtomicInteger nextReactor = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean running = false;
+    private boolean reusePort = false;
+    private volatile ServerSocketChannel serverChannel;
+    private volatile Selector acceptSelector;
+    private volatile int asyncTimeout = 30_000;
+
+    /**
+     * @param port Port to listen on
+     * @param nReactors Number of selector threads doing socket I/O
+     * @param nWorkers Number of threads running servlets
+     */
+    public NioHTTPServer(int port, int nReactors, int nWorkers) {
+        super("nio-acceptor");
+        this.port = port;
+        this.reactors = new Reactor[nReactors];
+        for (int i = 0; i < nReactors; i++) {
+            reactors[i] = new Reactor(i);
+        }
+        this.workers = Executors.newFixedThreadPool(nWorkers);
+    }
+
+    /**
+     * Lets every reactor accept on its own SO_REUSEPORT socket instead of
+     * receiving connections from the acceptor thread. Ignored where the
+     * option is not supported. Must be called before {@link #start()}.
+     *
+     * @param reusePort true to bind one listening socket per reactor
+     */
+    public void setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
+    /**
+     * Sets how long a request waits for an AsyncServlet's response before
+     * it is answered with 503.
+     *
+     * @param millis Timeout in milliseconds (default 30000)
+     */
+    public void setAsyncTimeout(int millis) {
+        this.asyncTimeout = millis;
+    }
+
+    @Override
+    public void addServlet(String httpCommand, String uri, Servlet s) {
+        servlets.add(httpCommand, uri, s);
+    }
+
+    @Override
+    public void removeServlet(String httpCommand, String uri) {
+        servlets.remove(httpCommand, uri);
+    }
+    
+    @Override
+    public void addFilter(String uriPrefix, Filter filter) {
+        servlets.addFilter(uriPrefix, filter);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        super.start(); // Start the acceptor thread
+    }
+
+    /**
+     * Shuts the server down: stops accepting, closes all connections and
+     * selectors, waits for running servlets and closes the servlets.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        running = false;
+        closeQuietly(acceptSelector);
+
+        for (Reactor reactor : reactors) {
+            reactor.shutdown();
+        }
+
+        // Shutdown worker pool
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+        }
+
+        // Close all servlets (each one once, even if registered twice)
+        servlets.closeAll();
+
+        closeQuietly(serverChannel);
+    }
+
+    /**
+     * Acceptor loop.
+     *
+     * Default mode: accepts on a single listening channel and assigns each
+     * connection to the next reactor. SO_REUSEPORT mode: the reactors accept
+     * by themselves and this thread only waits for shutdown.
+     */
+    @Override
+    public void run() {
+        try {
+            boolean perReactorSockets = reusePort && supportsReusePort();
+            for (Reactor reactor : reactors) {
+                if (perReactorSockets) {
+                    reactor.listen(port);
+                }
+                reactor.thread.start();
+            }
+
+            if (perReactorSockets) {
+                for (Reactor reactor : reactors) {
+                    reactor.thread.join();
+                }
+                return;
+            }
+
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            serverChannel.configureBlocking(false);
+            acceptSelector = Selector.open();
+            serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+            while (running) {
+                acceptSelector.select(1000); // periodic check of 'running'
+                acceptSelector.selectedKeys().clear();
+                SocketChannel client;
+                while ((client = serverChannel.accept()) != null) {
+                    int index = Math.floorMod(nextReactor.getAndIncrement(), reactors.length);
+                    reactors[index].assign(client);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private static boolean supportsReusePort() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs on a worker thread: parses a complete request, routes it and
+     * captures the servlet's output, then passes the response back to the
+     * connection's reactor for writing.
+     */
+    private void process(Connection conn) {
+        ResponseBuffer response = new ResponseBuffer();
+        try {
+            RequestInfo requestInfo = RequestParser.parseRequest(conn.received());
+
+            if (requestInfo == null) {
+                writeError(response, 400, "Bad Request");
+            } else {
+                Servlet servlet = servlets.route(requestInfo);
+                if (servlet == null) {
+                    writeError(response, 404, "Not Found");
+                } else if (servlet instanceof AsyncServlet) {
+                    CompletableFuture<Servlet> outcome =
+                        servlets.start((AsyncServlet) servlet, requestInfo, response, asyncTimeout);
+                    if (outcome != null) {
+                        outcome.thenAccept(writer -> resume(conn, requestInfo, writer));
+                        return;   // the worker is free while the response is pending
+                    }
+                } else {
+                    servlets.handle(servlet, requestInfo, response);
+                }
+            }
+        } catch (RequestException e) {
+            response.reset();
+            writeError(response, e.getStatusCode(), e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            if (response.size() == 0 || response.file != null) {
+                response.reset();
+                writeError(response, 500, "Internal Server Error");
+            }
+        }
+        conn.reactor.respond(conn, response);
+    }
+
+    /**
+     * Writes the response of an AsyncServlet on a worker once it is ready.
+     * While the server closes, the connection is left to the reactors.
+     */
+    private void resume(Connection conn, RequestInfo requestInfo, Servlet writer) {
+        try {
+            workers.execute(() -> {
+                ResponseBuffer response = new ResponseBuffer();
+                try {
+                    servlets.handle(writer, requestInfo, response);
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                    response.reset();
+                    writeError(response, 500, "Internal Server Error");
+                }
+                conn.reactor.respond(conn, response);
+            });
+        } catch (RejectedExecutionException e) {
+            // Closing: the reactors close their connections
+        }
+    }
+
+    private static void writeError(ResponseBuffer output, int code, String message) {
+        String response = String.format(
+            "HTTP/1.1 %d %s\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "Content-Length: %d\r\n" +
+            "\r\n" +
+            "%s",
+            code, message, message.length(), message
+        );
+        output.write(response.getBytes(StandardCharsets.ISO_8859_1), 0, response.length());
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore errors during shutdown
+            }
+        }
+    }
+
+    /**
+     * Response bytes written by a servlet, handed to the reactor without
+     * copying, and optionally a file region the reactor sends after them
+     * with FileChannel.transferTo.
+     */
+    private static final class ResponseBuffer extends ByteArrayOutputStream
+            implements HttpResponse.FileTransfer, HttpResponse.Buffered {
+        FileChannel file;
+        long filePosition;
+        long fileEnd;
+
+        ResponseBuffer() {
+            super(1024);
+        }
+
+        @Override
+        public void transferFile(FileChannel file, long position, long count) throws IOException {
+            if (this.file != null) {
+                closeQuietly(file);
+                throw new IOException("Only one file per response");
+            }
+            this.file = file;
+            this.filePosition = position;
+            this.fileEnd = position + count;
+        }
+
+        /** Also drops the file region, e.g. when an error response replaces the output */
+        @Override
+        public synchronized void reset() {
+            super.reset();
+            closeQuietly(file);
+            file = null;
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /**
+     * State of one client connection, owned by a single reactor.
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final Reactor reactor;
+        ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        ByteBuffer out;
+        FileChannel file;           // region still to send after out, or null
+        long filePosition;
+        long fileEnd;
+        SelectionKey key;
+        long lastActive = System.currentTimeMillis();
+        /** Total request size once the headers are known, -1 before */
+        long requestLength = -1;
+        boolean processing;
+
+        Connection(SocketChannel channel, Reactor reactor) {
+            this.channel = channel;
+            this.reactor = reactor;
+        }
+
+        /**
+         * Checks whether the whole request (headers and Content-Length bytes
+         * of body) has arrived. Once the headers are complete the request
+         * length is remembered, so the body is not rescanned.
+         *
+         * @return true when the request can be processed
+         */
+        boolean requestComplete() {
+            if (requestLength < 0) {
+                try {
+                    requestLength = RequestParser.requestLength(received());
+                } catch (RequestException e) {
+                    // Let the worker's parse report it with the right status
+                    requestLength = in.position();
+                }
+            }
+            return requestLength >= 0 && in.position() >= requestLength;
+        }
+
+        /** @return A view of the bytes received so far */
+        ByteBuffer received() {
+            return ByteBuffer.wrap(in.array(), 0, in.position());
+        }
+    }
+
+    /**
+     * A selector thread performing all I/O for its connections.
+     * Other threads talk to it only through the two queues and wakeup().
+     */
+    private final class Reactor implements Runnable {
+        final Thread thread;
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> responses = new ConcurrentLinkedQueue<>();
+        private final Selector selector;
+        private ServerSocketChannel listener;
+        private long lastIdleCheck = System.currentTimeMillis();
+
+        Reactor(int index) {
+            this.thread = new Thread(this, "nio-reactor-" + index);
+            try {
+                this.selector = Selector.open();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /** Binds this reactor's own SO_REUSEPORT listening socket */
+        void listen(int port) throws IOException {
+            listener = ServerSocketChannel.open();
+            listener.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            listener.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            listener.bind(new InetSocketAddress(port), 1024);
+            listener.configureBlocking(false);
+            listener.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        /** Called by the acceptor thread */
+        void assign(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        /** Called by a worker thread when the response is ready */
+        void respond(Connection conn, ResponseBuffer response) {
+            conn.out = response.toByteBuffer();
+            conn.file = response.file;
+            conn.filePosition = response.filePosition;
+            conn.fileEnd = response.fileEnd;
+            responses.add(conn);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            selector.wakeup();
+            try {
+                thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(1000);
+                    registerNewChannels();
+                    scheduleResponses();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            SocketChannel client;
+                            while ((client = listener.accept()) != null) {
+                                register(client);
+                            }
+                            continue;
+                        }
+                        Connection conn = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                read(conn);
+                            } else if (key.isWritable()) {
+                                write(conn);
+                            }
+                        } catch (IOException e) {
+                            closeConnection(conn);
+                        }
+                    }
+                    closeIdleConnections();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key.channel());
+                }
+                SocketChannel pending;
+                while ((pending = newChannels.poll()) != null) {
+                    closeQuietly(pending);
+                }
+                closeQuietly(listener);
+                closeQuietly(selector);
+            }
+        }
+
+        private void registerNewChannels() {
+            SocketChannel channel;
+            while ((channel = newChannels.poll()) != null) {
+                register(channel);
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection conn = new Connection(channel, this);
+                conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        }
+
+        private void scheduleResponses() {
+            Connection conn;
+            while ((conn = responses.poll()) != null) {
+                conn.processing = false;
+                conn.lastActive = System.currentTimeMillis();
+                try {
+                    // Try to send right away; most responses fit the socket buffer
+                    write(conn);
+                } catch (IOException e) {
+                    closeConnection(conn);
+                }
+            }
+        }
+
+        private void read(Connection conn) throws IOException {
+            if (!conn.in.hasRemaining() || conn.requestLength > conn.in.capacity()) {
+                if (conn.in.capacity() >= MAX_REQUEST_SIZE) {
+                    rejectTooLarge(conn);
+                    return;
+                }
+                // Grow to the announced request size at once, else double
+                long size = Math.max(conn.requestLength, conn.in.capacity() * 2L);
+                ByteBuffer larger = ByteBuffer.allocate((int) Math.min(MAX_REQUEST_SIZE, size));
+                conn.in.flip();
+                larger.put(conn.in);
+                conn.in = larger;
+            }
+            int n = conn.channel.read(conn.in);
+            if (n < 0) {
+                closeConnection(conn);
+                return;
+            }
+            conn.lastActive = System.currentTimeMillis();
+            if (conn.requestComplete()) {
+                if (conn.requestLength > MAX_REQUEST_SIZE) {
+                    rejectTooLarge(conn);
+                    return;
+                }
+                // Stop reading and let a worker run the servlet
+                conn.key.interestOps(0);
+                conn.processing = true;
+                workers.execute(() -> process(conn));
+            } else if (conn.requestLength > MAX_REQUEST_SIZE) {
+                rejectTooLarge(conn);
+            }
+        }
+
+        private void rejectTooLarge(Connection conn) throws IOException {
+            ResponseBuffer response = new ResponseBuffer();
+            writeError(response, 413, "Payload Too Large");
+            conn.out = response.toByteBuffer();
+            write(conn);
+        }
+
+        private void write(Connection conn) throws IOException {
+            if (conn.out.hasRemaining()) {
+                conn.channel.write(conn.out);
+            }
+            if (!conn.out.hasRemaining() && conn.file != null) {
+                transferFile(conn);
+            }
+            if (conn.out.hasRemaining() || conn.file != null) {
+                conn.key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                // One request per connection (HTTP/1.0 style)
+                closeConnection(conn);
+            }
+        }
+
+        /** Sends as much of the file region as the socket accepts (sendfile) */
+        private void transferFile(Connection conn) throws IOException {
+            while (conn.filePosition < conn.fileEnd) {
+                long sent = conn.file.transferTo(conn.filePosition, conn.fileEnd - conn.filePosition, conn.channel);
+                if (sent == 0) {
+                    if (conn.filePosition >= conn.file.size()) {
+                        throw new EOFException("File shorter than its announced length");
+                    }
+                    return;   // socket buffer full; continue on OP_WRITE
+                }
+                conn.filePosition += sent;
+            }
+            closeQuietly(conn.file);
+            conn.file = null;
+        }
+
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if (now - lastIdleCheck < 1000) {
+                return;
+            }
+            lastIdleCheck = now;
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof Connection) {
+                    Connection conn = (Connection) attachment;
+                    if (!conn.processing && now - conn.lastActive > IDLE_TIMEOUT_MS) {
+                        closeConnection(conn);
+                    }
+                }
+            }
+        }
+
+        private void closeConnection(Connection conn) {
+            if (conn.key != null) {
+                conn.key.cancel();
+            }
+            closeQuietly(conn.channel);
+            closeQuietly(conn.file);
+        }
+    }
+}
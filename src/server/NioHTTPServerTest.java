@@ -0,0 +1,227 @@
+package server;
+
+import servlets.Servlet;
+import server.RequestParser.RequestInfo;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class NioHTTPServerTest {
+
+    // Echoes the parameters and the size of the body
+    static class EchoServlet implements Servlet {
+        private volatile boolean closed = false;
+
+        @Override
+        public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+            String body = "uri=" + ri.getUri() + " params=" + new TreeMap<>(ri.getParameters())
+                          + " content=" + ri.getContent().length;
+            String httpResponse = "HTTP/1.1 200 OK\r\n" +
+                                  "Content-Type: text/plain\r\n" +
+                                  "Content-Length: " + body.length() + "\r\n" +
+                                  "\r\n" +
+                                  body;
+            toClient.write(httpResponse.getBytes());
+            toClient.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+    }
+
+    /** Sends a request and returns the whole response (headers and body) */
+    static String request(int port, String request) throws IOException {
+        try (Socket client = new Socket("localhost", port)) {
+            client.setSoTimeout(5000);
+            client.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+            client.getOutputStream().flush();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            client.getInputStream().transferTo(response);
+            return response.toString("ISO-8859-1");
+        }
+    }
+
+    static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {}
+    }
+
+    public static void testBasicRequests() {
+        System.out.println("Test 1: GET, POST and 404 over NIO");
+
+        int port = 8090;
+        NioHTTPServer server = new NioHTTPServer(port, 2, 2);
+        EchoServlet echo = new EchoServlet();
+        server.addServlet("GET", "/echo", echo);
+        server.addServlet("POST", "/echo", echo);
+        server.start();
+        sleep(200);
+
+        try {
+            String get = request(port, "GET /echo/x?a=1&b=2 HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            boolean getOk = get.startsWith("HTTP/1.1 200") && get.endsWith("uri=/echo/x params={a=1, b=2} content=0");
+            System.out.println((getOk ? "[PASS]" : "[FAIL]") + " GET routed with parameters");
+
+            // Bare LF line endings, as sent by PrintWriter.println
+            String lf = request(port, "GET /echo?lf=yes HTTP/1.1\nHost: localhost\n\n");
+            System.out.println((lf.endsWith("params={lf=yes} content=0") ? "[PASS]" : "[FAIL]")
+                               + " LF-only request accepted");
+
+            // A body larger than the initial read buffer
+            char[] body = new char[100_000];
+            Arrays.fill(body, 'x');
+            String post = request(port, "POST /echo HTTP/1.1\r\nContent-Length: " + body.length + "\r\n\r\n"
+                                        + new String(body));
+            System.out.println((post.endsWith("content=100000") ? "[PASS]" : "[FAIL]")
+                               + " 100 KB POST body received in full");
+
+            String missing = request(port, "GET /nothing HTTP/1.1\r\n\r\n");
+            System.out.println((missing.startsWith("HTTP/1.1 404") ? "[PASS]" : "[FAIL]") + " Unknown URI gives 404");
+        } catch (IOException e) {
+            System.out.println("[FAIL] " + e.getMessage());
+        }
+
+        server.close();
+        System.out.println((echo.closed ? "[PASS]" : "[FAIL]") + " Servlet closed with the server");
+        System.out.println();
+    }
+
+    public static void testSlowClientsDoNotStall() {
+        System.out.println("Test 2: Slow Clients Do Not Stall the Server");
+
+        int port = 8091;
+        NioHTTPServer server = new NioHTTPServer(port, 1, 2);
+        server.addServlet("GET", "/echo", new EchoServlet());
+        server.start();
+        sleep(200);
+
+        List<Socket> slow = new ArrayList<>();
+        try {
+            // More stalled clients than worker threads: each sends half a request
+            for (int i = 0; i < 20; i++) {
+                Socket socket = new Socket("localhost", port);
+                socket.getOutputStream().write("GET /echo HTTP/1.1\r\nHost: loc".getBytes());
+                socket.getOutputStream().flush();
+                slow.add(socket);
+            }
+
+            long start = System.nanoTime();
+            String response = request(port, "GET /echo?fast=1 HTTP/1.1\r\n\r\n");
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            boolean ok = response.startsWith("HTTP/1.1 200") && elapsedMs < 1000;
+            System.out.println((ok ? "[PASS]" : "[FAIL]") + " Request served in " + elapsedMs
+                               + "ms while 20 clients stall");
+
+            // The stalled clients can still finish their requests
+            Socket first = slow.get(0);
+            first.setSoTimeout(5000);
+            first.getOutputStream().write("alhost\r\n\r\n".getBytes());
+            first.getOutputStream().flush();
+            String late = new String(first.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+            System.out.println((late.startsWith("HTTP/1.1 200") ? "[PASS]" : "[FAIL]")
+                               + " Stalled client completes later");
+        } catch (IOException e) {
+            System.out.println("[FAIL] " + e.getMessage());
+        } finally {
+            for (Socket socket : slow) {
+                try {
+                    socket.close();
+                } catch (IOException e) {}
+            }
+        }
+
+        server.close();
+        System.out.println();
+    }
+
+    public static void testManyConnections() {
+        System.out.println("Test 3: Thousands of Concurrent Connections");
+
+        int port = 8092;
+        int connections = 2000;
+        NioHTTPServer server = new NioHTTPServer(port, 4, 4);
+        server.addServlet("GET", "/echo", new EchoServlet());
+        server.start();
+        sleep(200);
+
+        List<Socket> open = new ArrayList<>();
+        int threadsBefore = Thread.activeCount();
+        try {
+            for (int i = 0; i < connections; i++) {
+                Socket socket = new Socket("localhost", port);
+                socket.setSoTimeout(10000);
+                open.add(socket);
+            }
+            for (int i = 0; i < connections; i++) {
+                open.get(i).getOutputStream().write(("GET /echo?i=" + i + " HTTP/1.1\r\n\r\n").getBytes());
+            }
+            int ok = 0;
+            for (int i = 0; i < connections; i++) {
+                String response = new String(open.get(i).getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+                if (response.endsWith("params={i=" + i + "} content=0")) {
+                    ok++;
+                }
+            }
+            int threadsAfter = Thread.activeCount();
+            System.out.println((ok == connections ? "[PASS]" : "[FAIL]") + " " + ok + "/" + connections
+                               + " connections answered");
+            // Only the worker pool may have grown (its threads start lazily)
+            int added = threadsAfter - threadsBefore;
+            System.out.println((added <= 4 ? "[PASS]" : "[FAIL]")
+                               + " No thread per connection (" + added + " threads added)");
+        } catch (IOException e) {
+            System.out.println("[FAIL] " + e.getMessage());
+        } finally {
+            for (Socket socket : open) {
+                try {
+                    socket.close();
+                } catch (IOException e) {}
+            }
+        }
+
+        server.close();
+        System.out.println();
+    }
+
+    public static void testReusePort() {
+        System.out.println("Test 4: SO_REUSEPORT Listening Sockets");
+
+        int port = 8093;
+        NioHTTPServer server = new NioHTTPServer(port, 3, 2);
+        server.setReusePort(true);
+        server.addServlet("GET", "/echo", new EchoServlet());
+        server.start();
+        sleep(200);
+
+        try {
+            int ok = 0;
+            for (int i = 0; i < 30; i++) {
+                if (request(port, "GET /echo HTTP/1.1\r\n\r\n").startsWith("HTTP/1.1 200")) {
+                    ok++;
+                }
+            }
+            System.out.println((ok == 30 ? "[PASS]" : "[FAIL]") + " " + ok + "/30 requests answered");
+        } catch (IOException e) {
+            System.out.println("[FAIL] " + e.getMessage());
+        }
+
+        server.close();
+        System.out.println();
+    }
+
+    public static void main(String[] args) {
+        System.out.println("=== NioHTTPServer Test Suite ===\n");
+
+        testBasicRequests();
+        testSlowClientsDoNotStall();
+        testManyConnections();
+        testReusePort();
+
+        System.out.println("=== All tests completed ===");
+    }
+}
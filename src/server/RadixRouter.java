@@ -0,0 +1,331 @@
+package server;
+
+import servlets.Servlet;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable radix trie mapping URI patterns to servlets for one HTTP method.
+ *
+ * Each edge carries a run of characters shared by all patterns below it, so
+ * a lookup compares every character of the request path at most once:
+ * O(path length), independent of the number of routes, and without
+ * allocating unless the matched route has path parameters.
+ *
+ * Matching keeps the servers' longest-prefix semantics: a route matches
+ * every path that starts with it ("/api" matches "/api/users/1"), and the
+ * longest matching route wins. A pattern segment starting with ':' is a path
+ * parameter matching exactly one path segment, e.g. "/topics/:name/view"
+ * matches "/topics/A/view" with name=A. Literal characters are preferred
+ * over a parameter at the same position.
+ *
+ * Updates never modify a trie: {@link #with} and {@link #without} copy the
+ * nodes on the path to the change and share the rest (copy-on-write), so
+ * readers can keep using the old trie while a new one is published.
+ *
+ * Design Pattern: Immutable Object / Persistent Data Structure
+ *
+ * @author Advanced Programming Course
+ */
+final class RadixRouter {
+    static final RadixRouter EMPTY = new RadixRouter(Node.EMPTY_ROOT);
+
+    private final Node root;
+
+    private RadixRouter(Node root) {
+        this.root = root;
+    }
+
+    /** Trie node; the label is the literal text on the edge leading to it */
+    private static final class Node {
+        static final Node[] NO_CHILDREN = new Node[0];
+        static final char[] NO_KEYS = new char[0];
+        static final Node EMPTY_ROOT = new Node("", NO_KEYS, NO_CHILDREN, null, null, null);
+
+        final String label;
+        final char[] keys;          // first character of each child's label, sorted
+        final Node[] children;      // literal children, parallel to keys
+        final Node param;           // child matching one path segment, or null
+        final Servlet servlet;      // set if a route ends here
+        final Route route;          // pattern of the route ending here
+
+        Node(String label, char[] keys, Node[] children, Node param, Servlet servlet, Route route) {
+            this.label = label;
+            this.keys = keys;
+            this.children = children;
+            this.param = param;
+            this.servlet = servlet;
+            this.route = route;
+        }
+
+        Node withLabel(String newLabel) {
+            return new Node(newLabel, keys, children, param, servlet, route);
+        }
+
+        Node withServlet(Servlet newServlet, Route newRoute) {
+            return new Node(label, keys, children, param, newServlet, newRoute);
+        }
+
+        Node withParam(Node newParam) {
+            return new Node(label, keys, children, newParam, servlet, route);
+        }
+
+        /** Replaces, adds (child != null) or removes (child == null) the child for key */
+        Node withChild(char key, Node child) {
+            int index = Arrays.binarySearch(keys, key);
+            if (index >= 0 && child != null) {
+                Node[] newChildren = children.clone();
+                newChildren[index] = child;
+                return new Node(label, keys, newChildren, param, servlet, route);
+            }
+            if (index >= 0) {
+                char[] newKeys = new char[keys.length - 1];
+                Node[] newChildren = new Node[children.length - 1];
+                System.arraycopy(keys, 0, newKeys, 0, index);
+                System.arraycopy(keys, index + 1, newKeys, index, keys.length - index - 1);
+                System.arraycopy(children, 0, newChildren, 0, index);
+                System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+                return new Node(label, newKeys, newChildren, param, servlet, route);
+            }
+            if (child == null) {
+                return this;
+            }
+            int insert = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insert);
+            System.arraycopy(keys, insert, newKeys, insert + 1, keys.length - insert);
+            System.arraycopy(children, 0, newChildren, 0, insert);
+            System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+            newKeys[insert] = key;
+            newChildren[insert] = child;
+            return new Node(label, newKeys, newChildren, param, servlet, route);
+        }
+
+        Node child(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            return index >= 0 ? children[index] : null;
+        }
+
+        boolean isEmpty() {
+            return servlet == null && children.length == 0 && param == null;
+        }
+    }
+
+    /** A registered pattern and the segments holding its path parameters */
+    private static final class Route {
+        final String pattern;
+        final int[] paramSegments;  // indices of ':' segments, counted from the leading '/'
+        final String[] paramNames;
+
+        Route(String pattern) {
+            this.pattern = pattern;
+            String[] segments = pattern.split("/", -1);
+            int count = 0;
+            for (String segment : segments) {
+                if (segment.startsWith(":")) count++;
+            }
+            paramSegments = new int[count];
+            paramNames = new String[count];
+            for (int i = 0, p = 0; i < segments.length; i++) {
+                if (segments[i].startsWith(":")) {
+                    paramSegments[p] = i;
+                    paramNames[p++] = segments[i].substring(1);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return A router with pattern mapped to servlet, replacing any servlet
+     *         registered for the same pattern
+     */
+    RadixRouter with(String pattern, Servlet servlet) {
+        return new RadixRouter(insert(root, pattern, 0, servlet, new Route(pattern)));
+    }
+
+    /**
+     * @return A router without pattern; this router if it was not registered
+     */
+    RadixRouter without(String pattern) {
+        Node newRoot = delete(root, pattern, 0);
+        if (newRoot == root) {
+            return this;
+        }
+        return new RadixRouter(newRoot == null ? Node.EMPTY_ROOT : newRoot);
+    }
+
+    /**
+     * Finds the servlet of the longest route matching uri.
+     *
+     * @param uri The request path, without query string
+     * @param parameters Receives the path parameters of the matched route;
+     *                   may be null if they are not needed
+     * @return The matching servlet, or null
+     */
+    Servlet find(String uri, Map<String, String> parameters) {
+        Node match = match(root, uri, 0);
+        if (match == null) {
+            return null;
+        }
+        if (parameters != null && match.route.paramSegments.length > 0) {
+            extractParameters(match.route, uri, parameters);
+        }
+        return match.servlet;
+    }
+
+    /** Adds every registered servlet to the set */
+    void collectServlets(Set<Servlet> servlets) {
+        collect(root, servlets);
+    }
+
+    // ------------------------------------------------------------------
+    // Lookup
+    // ------------------------------------------------------------------
+
+    /**
+     * Deepest node with a servlet on the path matching uri from pos, where
+     * node's own label already matched up to pos. Literal children are tried
+     * before the parameter child; the parameter branch is only explored if
+     * the literal one has no route.
+     */
+    private static Node match(Node node, String uri, int pos) {
+        if (pos < uri.length()) {
+            Node child = node.child(uri.charAt(pos));
+            if (child != null && uri.startsWith(child.label, pos)) {
+                Node deeper = match(child, uri, pos + child.label.length());
+                if (deeper != null) {
+                    return deeper;
+                }
+            }
+            if (node.param != null && uri.charAt(pos) != '/') {
+                int end = uri.indexOf('/', pos);
+                Node deeper = match(node.param, uri, end < 0 ? uri.length() : end);
+                if (deeper != null) {
+                    return deeper;
+                }
+            }
+        }
+        return node.servlet != null ? node : null;
+    }
+
+    private static void extractParameters(Route route, String uri, Map<String, String> parameters) {
+        int segment = 0;
+        int start = 0;
+        int p = 0;
+        while (p < route.paramSegments.length && start <= uri.length()) {
+            int end = uri.indexOf('/', start);
+            if (end < 0) end = uri.length();
+            if (segment == route.paramSegments[p]) {
+                parameters.put(route.paramNames[p++], uri.substring(start, end));
+            }
+            segment++;
+            start = end + 1;
+        }
+    }
+
+    private static void collect(Node node, Set<Servlet> servlets) {
+        if (node.servlet != null) {
+            servlets.add(node.servlet);
+        }
+        for (Node child : node.children) {
+            collect(child, servlets);
+        }
+        if (node.param != null) {
+            collect(node.param, servlets);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Copy-on-write updates
+    // ------------------------------------------------------------------
+
+    /** True if pattern has a parameter starting at pos (':' right after '/') */
+    private static boolean isParamAt(String pattern, int pos) {
+        return pattern.charAt(pos) == ':' && pos > 0 && pattern.charAt(pos - 1) == '/';
+    }
+
+    /** End of the parameter name or literal run starting at pos */
+    private static int segmentEnd(String pattern, int pos) {
+        if (isParamAt(pattern, pos)) {
+            int end = pattern.indexOf('/', pos);
+            return end < 0 ? pattern.length() : end;
+        }
+        int end = pattern.indexOf("/:", pos);
+        return end < 0 ? pattern.length() : end + 1;
+    }
+
+    /** Returns a copy of node with the pattern suffix from pos inserted */
+    private static Node insert(Node node, String pattern, int pos, Servlet servlet, Route route) {
+        if (pos == pattern.length()) {
+            return node.withServlet(servlet, route);
+        }
+        int end = segmentEnd(pattern, pos);
+        if (isParamAt(pattern, pos)) {
+            Node param = node.param != null ? node.param : Node.EMPTY_ROOT;
+            return node.withParam(insert(param, pattern, end, servlet, route));
+        }
+
+        char key = pattern.charAt(pos);
+        Node child = node.child(key);
+        if (child == null) {
+            Node leaf = new Node(pattern.substring(pos, end), Node.NO_KEYS, Node.NO_CHILDREN, null, null, null);
+            return node.withChild(key, insert(leaf, pattern, end, servlet, route));
+        }
+
+        // Length of the common prefix of the child's label and the literal run
+        int common = 0;
+        int max = Math.min(child.label.length(), end - pos);
+        while (common < max && child.label.charAt(common) == pattern.charAt(pos + common)) {
+            common++;
+        }
+        if (common < child.label.length()) {
+            // Split the edge: the shared part becomes a new node above the child
+            Node rest = child.withLabel(child.label.substring(common));
+            child = new Node(child.label.substring(0, common), new char[] { rest.label.charAt(0) },
+                             new Node[] { rest }, null, null, null);
+        }
+        return node.withChild(key, insert(child, pattern, pos + common, servlet, route));
+    }
+
+    /**
+     * Returns a copy of node without the pattern suffix from pos, node itself
+     * if the pattern is not registered, or null if the copy would be empty.
+     * Emptied nodes are pruned; edges are not merged back, which only costs
+     * one extra node on the path.
+     */
+    private static Node delete(Node node, String pattern, int pos) {
+        if (pos == pattern.length()) {
+            if (node.servlet == null) {
+                return node;
+            }
+            Node cleared = node.withServlet(null, null);
+            return cleared.isEmpty() ? null : cleared;
+        }
+        Node updated;
+        if (isParamAt(pattern, pos)) {
+            if (node.param == null) {
+                return node;
+            }
+            Node param = delete(node.param, pattern, segmentEnd(pattern, pos));
+            if (param == node.param) {
+                return node;
+            }
+            updated = node.withParam(param);
+        } else {
+            char key = pattern.charAt(pos);
+            Node child = node.child(key);
+            if (child == null || !pattern.startsWith(child.label, pos)) {
+                return node;
+            }
+            Node newChild = delete(child, pattern, pos + child.label.length());
+            if (newChild == child) {
+                return node;
+            }
+            updated = node.withChild(key, newChild);
+        }
+        return updated.isEmpty() ? null : updated;
+    }
+}
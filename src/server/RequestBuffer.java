@@ -0,0 +1,142 @@
+package server;
+
+import server.RequestParser.RequestException;
+import server.RequestParser.RequestInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input side of a blocking connection: one reusable byte buffer that
+ * requests are read into and parsed from in place.
+ *
+ * The unconsumed bytes lie between the buffer's position and limit. Parsing
+ * a request moves the position past it, so bytes of pipelined requests stay
+ * buffered for the next call. The buffer is compacted only when more data
+ * must be read, i.e. after the previous request has been handled, since the
+ * RequestInfo refers to the buffer instead of copying its body.
+ *
+ * Bodies larger than STREAMING_THRESHOLD are not buffered: the servlet
+ * reads them from the socket through RequestInfo.getBodyStream(), so a
+ * large upload needs no more memory than a small one.
+ *
+ * @author Advanced Programming Course
+ */
+final class RequestBuffer {
+    private static final int INITIAL_SIZE = 8192;
+    /** Requests larger than this have their body streamed */
+    static final int STREAMING_THRESHOLD = 1024 * 1024;
+    /** Unread body bytes skipped to keep a connection; more closes it */
+    private static final long MAX_DISCARD = 64 * 1024;
+
+    private final InputStream in;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_SIZE);
+    private RequestInfo current;
+
+    RequestBuffer(InputStream in) {
+        this.in = in;
+        buffer.limit(0);
+    }
+
+    /**
+     * @return true if request bytes are buffered or can be read without blocking
+     */
+    boolean hasPendingInput() throws IOException {
+        return buffer.hasRemaining() || in.available() > 0;
+    }
+
+    /**
+     * Drops blank lines between requests (RFC 7230, section 3.5).
+     *
+     * @return true if bytes of a request are buffered
+     */
+    boolean skipBlankLines() {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get(buffer.position());
+            if (b != '\r' && b != '\n') {
+                return true;
+            }
+            buffer.position(buffer.position() + 1);
+        }
+        return false;
+    }
+
+    /**
+     * Reads the next complete request, blocking as the socket timeout allows.
+     *
+     * @return The request, or null if the stream ends before it is complete
+     * @throws RequestException if the request is malformed or too large
+     */
+    RequestInfo next() throws IOException {
+        current = null;
+        while (true) {
+            long length = RequestParser.requestLength(buffer);
+            if (length >= 0 && length <= buffer.remaining()) {
+                return current = RequestParser.parseRequest(buffer);
+            }
+            if (length > STREAMING_THRESHOLD) {
+                return current = RequestParser.parseRequest(buffer, in);
+            }
+            if (fill((int) Math.max(length, 0)) < 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Completes the current request after the servlet has handled it: skips
+     * a small unread rest of a streamed body.
+     *
+     * @return false if the connection cannot carry another request because
+     *         too much of the body is left unread
+     */
+    boolean finishRequest() throws IOException {
+        return current == null || current.discardBody(MAX_DISCARD);
+    }
+
+    /**
+     * Gives up the connection to another protocol (RequestInfo.upgrade()).
+     * The current request stays valid; the buffer is not compacted again.
+     *
+     * @return Stream of the buffered bytes after the current request,
+     *         followed by the rest of the connection's input
+     */
+    InputStream takeOver() {
+        if (!buffer.hasRemaining()) {
+            return in;
+        }
+        byte[] rest = new byte[buffer.remaining()];
+        buffer.get(rest);
+        return new SequenceInputStream(new ByteArrayInputStream(rest), in);
+    }
+
+    /**
+     * Reads whatever the stream delivers next into the buffer.
+     *
+     * @param needed Size of the request being received, if known, so that
+     *               the buffer grows to it at once
+     * @return Number of bytes read, or -1 at end of stream
+     */
+    int fill(int needed) throws IOException {
+        if (buffer.position() > 0) {
+            buffer.compact().flip();
+        }
+        if (buffer.limit() == buffer.capacity() || needed > buffer.capacity()) {
+            if (buffer.capacity() >= RequestParser.MAX_REQUEST_SIZE) {
+                throw new RequestException(413, "Payload Too Large");
+            }
+            int size = Math.min(RequestParser.MAX_REQUEST_SIZE, Math.max(needed, buffer.capacity() * 2));
+            ByteBuffer larger = ByteBuffer.allocate(size);
+            larger.put(buffer).flip();
+            buffer = larger;
+        }
+        int n = in.read(buffer.array(), buffer.limit(), buffer.capacity() - buffer.limit());
+        if (n > 0) {
+            buffer.limit(buffer.limit() + n);
+        }
+        return n;
+    }
+}
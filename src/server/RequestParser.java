@@ -1,27 +1,94 @@
 package server;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.Map;
 
 public class RequestParser {
     
+    /** Largest request (headers and body) the servers buffer in memory */
+    public static final int MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+    /** Largest body accepted when it is streamed to the servlet instead */
+    public static final long MAX_UPLOAD_SIZE = 1L << 30;
+    /** Largest header block; longer ones are rejected before the body is read */
+    public static final int MAX_HEADER_SIZE = 64 * 1024;
+    
+    /**
+     * Hands a server connection over to another protocol.
+     */
+    interface Upgrader {
+        /** @return The connection's remaining input */
+        InputStream upgrade() throws IOException;
+    }
+    
+    /**
+     * A request that cannot be served as sent, with the status to answer.
+     */
+    public static class RequestException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int statusCode;
+        
+        /**
+         * @param statusCode HTTP status code, e.g. 400 or 413
+         * @param reason Reason phrase for the status line
+         */
+        public RequestException(int statusCode, String reason) {
+            super(reason);
+            this.statusCode = statusCode;
+        }
+        
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+    
     public static class RequestInfo {
         private String httpCommand;
         private String uri;
         private String[] uriComponents;
         private Map<String, String> parameters;
         private byte[] content;
+        private Map<String, String> headers;
+        private String httpVersion = "HTTP/1.1";
+        
+        // Requests parsed from bytes keep views of the buffer instead of
+        // copies; content and headers are decoded from them on first use
+        private ByteBuffer raw;
+        private int headersStart, headersEnd, bodyStart, bodyEnd;
+        private String multipartType;
+        // Set if the body is read from the connection while it is handled
+        private BodyInputStream bodyStream;
+        // Set by servers that can hand the connection over to another protocol
+        private Upgrader upgrader;
+        private InputStream upgradedInput;
         
         public RequestInfo(String httpCommand, String uri, String[] uriComponents, 
                           Map<String, String> parameters, byte[] content) {
+            this(httpCommand, uri, uriComponents, parameters, content, new HashMap<>());
+        }
+        
+        /**
+         * @param headers Request headers keyed by lower-case header name
+         */
+        public RequestInfo(String httpCommand, String uri, String[] uriComponents, 
+                          Map<String, String> parameters, byte[] content, Map<String, String> headers) {
             this.httpCommand = httpCommand;
             this.uri = uri;
             this.uriComponents = uriComponents;
             this.parameters = parameters;
             this.content = content;
+            this.headers = headers;
         }
         
         public String getHttpCommand() {
@@ -44,11 +111,255 @@ public class RequestParser {
             return parameters;
         }
         
+        /**
+         * Returns the body in memory. For multipart uploads this is the
+         * first uploaded file. A streamed body is read completely; use
+         * {@link #getBodyStream()} to process large uploads in pieces.
+         * 
+         * @return The request body; for multipart uploads the uploaded file
+         */
         public byte[] getContent() {
+            if (content == null) {
+                try {
+                    if (multipartType != null) {
+                        content = new MultipartStream(getBodyStream(), multipartType).readFirstFile();
+                    } else if (bodyStream != null) {
+                        content = bodyStream.readAllBytes();
+                    } else {
+                        content = copy(raw, bodyStart, bodyEnd);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
             return content;
         }
+        
+        /**
+         * Returns the body as sent, without copying. For a request parsed
+         * from a buffer the view shares the connection's buffer: it is valid
+         * while the request is being handled, and must be copied to be kept.
+         * A streamed body is read into memory first (see getContent()).
+         * 
+         * @return Read-only view of the body bytes
+         */
+        public ByteBuffer getBody() {
+            if (raw == null || bodyStream != null) {
+                return ByteBuffer.wrap(getContent()).asReadOnlyBuffer();
+            }
+            ByteBuffer body = raw.duplicate();
+            body.limit(bodyEnd).position(bodyStart);
+            return body.slice().asReadOnlyBuffer();
+        }
+        
+        /**
+         * Returns the raw body (including multipart framing) as a stream.
+         * Large uploads are streamed from the connection as they arrive, so
+         * they can be processed without holding them in memory; such a body
+         * can be read only once, by this stream or by getContent().
+         * 
+         * @return Stream of the body bytes
+         */
+        public InputStream getBodyStream() {
+            if (bodyStream != null) {
+                return bodyStream;
+            }
+            if (raw == null) {
+                return new ByteArrayInputStream(content);
+            }
+            ByteBuffer body = raw.duplicate();
+            body.limit(bodyEnd).position(bodyStart);
+            return new BodyInputStream(body, null, bodyEnd - bodyStart);
+        }
+        
+        /** @return true if the body is read from the connection on demand */
+        public boolean isBodyStreamed() {
+            return bodyStream != null;
+        }
+        
+        /**
+         * Skips what the servlet left unread of a streamed body, so that the
+         * connection can carry the next request.
+         * 
+         * @param maxBytes Most bytes worth reading just to discard them
+         * @return true if the body has been consumed completely
+         */
+        boolean discardBody(long maxBytes) throws IOException {
+            return bodyStream == null || bodyStream.discard(maxBytes);
+        }
+        
+        /**
+         * @return true if the server can hand this request's connection
+         *         over to another protocol (see upgrade())
+         */
+        public boolean canUpgrade() {
+            return upgrader != null;
+        }
+        
+        /**
+         * Takes the connection over for another protocol, e.g. WebSocket,
+         * after the servlet has sent its 101 (Switching Protocols) response.
+         * The servlet then owns the connection until handle() returns; the
+         * server closes it afterwards instead of reading another request.
+         * 
+         * @return The connection's input, starting with any bytes the client
+         *         sent after this request; reads do not time out
+         * @throws UnsupportedOperationException if the server cannot hand
+         *         over connections (canUpgrade() is false)
+         */
+        public InputStream upgrade() throws IOException {
+            if (upgrader == null) {
+                throw new UnsupportedOperationException("Connection cannot be upgraded");
+            }
+            if (upgradedInput == null) {
+                upgradedInput = upgrader.upgrade();
+            }
+            return upgradedInput;
+        }
+        
+        /** @return true once the connection has been taken over by upgrade() */
+        public boolean isUpgraded() {
+            return upgradedInput != null;
+        }
+        
+        void setUpgrader(Upgrader upgrader) {
+            this.upgrader = upgrader;
+        }
+        
+        /**
+         * @return All request headers, keyed by lower-case header name
+         */
+        public Map<String, String> getHeaders() {
+            if (headers == null) {
+                headers = new HashMap<>();
+                for (int line = headersStart; line < headersEnd; ) {
+                    int end = lineEnd(raw, line, headersEnd);
+                    int colon = indexOf(raw, ':', line, end);
+                    if (colon > line) {
+                        headers.put(decode(raw, line, trimEnd(raw, line, colon)).toLowerCase(),
+                                    headerValue(raw, colon + 1, end));
+                    }
+                    line = end + 1;
+                }
+            }
+            return headers;
+        }
+        
+        /**
+         * @return Protocol version from the request line, e.g. "HTTP/1.1"
+         */
+        public String getHttpVersion() {
+            return httpVersion;
+        }
+        
+        void setHttpVersion(String httpVersion) {
+            this.httpVersion = httpVersion;
+        }
+        
+        /**
+         * Tells whether the client wants the connection kept open after the
+         * response: the default for HTTP/1.1 unless it sent "Connection: close",
+         * and for HTTP/1.0 only if it sent "Connection: keep-alive".
+         * 
+         * @return true if the connection may be reused for another request
+         */
+        public boolean isKeepAlive() {
+            String connection = getHeader("Connection");
+            if (connection != null) {
+                String value = connection.toLowerCase();
+                if (value.contains("close")) {
+                    return false;
+                }
+                if (value.contains("keep-alive")) {
+                    return true;
+                }
+            }
+            return "HTTP/1.1".equalsIgnoreCase(httpVersion);
+        }
+        
+        /**
+         * Looks up a request header; header names are case-insensitive.
+         * 
+         * @param name Header name
+         * @return The header value, or null if absent
+         */
+        public String getHeader(String name) {
+            if (headers != null) {
+                return headers.get(name.toLowerCase());
+            }
+            // Scan the raw header block; the last occurrence wins, as in the map
+            String value = null;
+            for (int line = headersStart; line < headersEnd; ) {
+                int end = lineEnd(raw, line, headersEnd);
+                int colon = indexOf(raw, ':', line, end);
+                if (colon > line && equalsIgnoreCase(raw, line, trimEnd(raw, line, colon), name)) {
+                    value = headerValue(raw, colon + 1, end);
+                }
+                line = end + 1;
+            }
+            return value;
+        }
+        
+        /**
+         * Checks a validator against the If-None-Match header (RFC 7232).
+         * Accepts a list of tags, weak tags (W/"...") and "*".
+         * 
+         * @param etag The current entity tag, including quotes
+         * @return true if the client's copy is current and a 304 can be sent
+         */
+        public boolean matchesIfNoneMatch(String etag) {
+            String header = getHeader("If-None-Match");
+            if (header == null || etag == null) {
+                return false;
+            }
+            for (String candidate : header.split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * Checks a modification time against the If-Modified-Since header
+         * (RFC 7232). The header is ignored when the request also carries
+         * If-None-Match, which takes precedence, or when its date is invalid.
+         * 
+         * @param lastModified Modification time of the resource in epoch milliseconds
+         * @return true if the client's copy is current and a 304 can be sent
+         */
+        public boolean notModifiedSince(long lastModified) {
+            String header = getHeader("If-Modified-Since");
+            if (header == null || getHeader("If-None-Match") != null) {
+                return false;
+            }
+            try {
+                long since = ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                                          .toInstant().toEpochMilli();
+                // HTTP dates have whole seconds
+                return lastModified / 1000 <= since / 1000;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
     }
     
+    /**
+     * Parses one HTTP request from the reader.
+     * 
+     * Exactly the request is consumed (headers, then Content-Length units of
+     * body), so further pipelined requests on a persistent connection remain
+     * in the reader. Servers should decode the socket as ISO-8859-1, so that
+     * one char is one byte and the body is reproduced byte for byte.
+     * 
+     * @param reader Reader positioned at the start of a request
+     * @return The parsed request, or null at end of stream or if malformed
+     * @throws IOException if reading fails
+     */
     public static RequestInfo parseRequest(BufferedReader reader) throws IOException {
         // Read the request line
         String requestLine = reader.readLine();
@@ -65,39 +376,23 @@ public class RequestParser {
         String httpCommand = parts[0];
         String fullUri = parts[1];
         
-        // Split URI and query string
-        String uri;
-        Map<String, String> parameters = new HashMap<>();
-        int queryIndex = fullUri.indexOf('?');
-        
-        if (queryIndex != -1) {
-            uri = fullUri.substring(0, queryIndex);
-            String queryString = fullUri.substring(queryIndex + 1);
-            parseQueryString(queryString, parameters);
-        } else {
-            uri = fullUri;
-        }
-        
-        // Parse URI components (remove leading slash if present)
-        String[] uriComponents;
-        if (uri.startsWith("/")) {
-            uri = uri.substring(1);
-        }
-        if (uri.isEmpty()) {
-            uriComponents = new String[0];
-        } else {
-            uriComponents = uri.split("/");
-        }
-        
         // Read headers
         String line;
         int contentLength = 0;
         String contentType = "";
+        Map<String, String> headers = new HashMap<>();
         while ((line = reader.readLine()) != null && !line.isEmpty()) {
-            if (line.toLowerCase().startsWith("content-length:")) {
-                contentLength = Integer.parseInt(line.substring(15).trim());
-            } else if (line.toLowerCase().startsWith("content-type:")) {
-                contentType = line.substring(13).trim();
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+            headers.put(name, value);
+            if (name.equals("content-length")) {
+                contentLength = Integer.parseInt(value);
+            } else if (name.equals("content-type")) {
+                contentType = value;
             }
         }
         
@@ -107,23 +402,25 @@ public class RequestParser {
             if (contentType.toLowerCase().contains("multipart/form-data")) {
                 content = parseMultipartContent(reader, contentLength, contentType);
             } else {
-                // Regular content reading
+                // Regular content reading; loop since a read may return less
                 char[] buffer = new char[contentLength];
-                int bytesRead = reader.read(buffer, 0, contentLength);
+                int bytesRead = 0;
+                while (bytesRead < contentLength) {
+                    int read = reader.read(buffer, bytesRead, contentLength - bytesRead);
+                    if (read == -1) break;
+                    bytesRead += read;
+                }
                 if (bytesRead > 0) {
-                    String contentStr = new String(buffer, 0, bytesRead);
-                    content = contentStr.getBytes();
+                    content = new String(buffer, 0, bytesRead).getBytes(StandardCharsets.ISO_8859_1);
                 }
             }
         }
         
-        // Restore the full URI path for the RequestInfo
-        String restoredUri = "/" + String.join("/", uriComponents);
-        if (queryIndex != -1) {
-            restoredUri = fullUri.substring(0, queryIndex);
+        RequestInfo info = newRequestInfo(httpCommand, fullUri, content, headers);
+        if (parts.length > 2) {
+            info.setHttpVersion(parts[2].trim());
         }
-        
-        return new RequestInfo(httpCommand, restoredUri, uriComponents, parameters, content);
+        return info;
     }
     
     private static void parseQueryString(String queryString, Map<String, String> parameters) {
@@ -145,16 +442,6 @@ public class RequestParser {
     }
     
     private static byte[] parseMultipartContent(BufferedReader reader, int contentLength, String contentType) throws IOException {
-        // Extract boundary from content type
-        String boundary = null;
-        if (contentType.contains("boundary=")) {
-            boundary = "--" + contentType.substring(contentType.indexOf("boundary=") + 9);
-        }
-        
-        if (boundary == null) {
-            return new byte[0];
-        }
-        
         // Read all content
         char[] buffer = new char[contentLength];
         int totalRead = 0;
@@ -164,23 +451,382 @@ public class RequestParser {
             totalRead += read;
         }
         
-        String content = new String(buffer, 0, totalRead);
+        byte[] body = new String(buffer, 0, totalRead).getBytes(StandardCharsets.ISO_8859_1);
+        try {
+            return new MultipartStream(new ByteArrayInputStream(body), contentType).readFirstFile();
+        } catch (RequestException e) {
+            return new byte[0];
+        }
+    }
+    
+    /**
+     * Splits the request target into path, path components and query
+     * parameters, and creates the RequestInfo.
+     */
+    private static RequestInfo newRequestInfo(String httpCommand, String fullUri, byte[] content,
+                                              Map<String, String> headers) {
+        // Split URI and query string
+        String uri;
+        Map<String, String> parameters = new HashMap<>();
+        int queryIndex = fullUri.indexOf('?');
         
-        // Find file content between boundaries
-        String[] parts = content.split(boundary);
-        for (String part : parts) {
-            if (part.contains("filename=")) {
-                // Find the actual file content after the headers
-                int doubleNewline = part.indexOf("\r\n\r\n");
-                if (doubleNewline != -1) {
-                    String fileContent = part.substring(doubleNewline + 4);
-                    // Remove trailing boundary markers
-                    fileContent = fileContent.replaceAll("--\\s*$", "").trim();
-                    return fileContent.getBytes("UTF-8");
+        if (queryIndex != -1) {
+            uri = fullUri.substring(0, queryIndex);
+            String queryString = fullUri.substring(queryIndex + 1);
+            parseQueryString(queryString, parameters);
+        } else {
+            uri = fullUri;
+        }
+        
+        // Parse URI components (remove leading slash if present)
+        String[] uriComponents;
+        if (uri.startsWith("/")) {
+            uri = uri.substring(1);
+        }
+        if (uri.isEmpty()) {
+            uriComponents = new String[0];
+        } else {
+            uriComponents = uri.split("/");
+        }
+        
+        // Restore the full URI path for the RequestInfo
+        String restoredUri = "/" + String.join("/", uriComponents);
+        if (queryIndex != -1) {
+            restoredUri = fullUri.substring(0, queryIndex);
+        }
+        
+        return new RequestInfo(httpCommand, restoredUri, uriComponents, parameters, content, headers);
+    }
+    
+    // ------------------------------------------------------------------
+    // Byte-level parsing
+    // ------------------------------------------------------------------
+    
+    /**
+     * Parses one HTTP request from the bytes between the buffer's position
+     * and limit, without decoding them to chars.
+     * 
+     * Header names are compared byte by byte, ignoring case, without
+     * allocating; only the method, target and version become Strings. The
+     * body is not copied: the RequestInfo keeps views of the buffer (see
+     * {@link RequestInfo#getBody()}), so the buffer must not be reused until
+     * the request has been handled. Blank lines before the request are
+     * skipped (RFC 7230, section 3.5); line ends may be CRLF or bare LF.
+     * 
+     * @param buffer Request bytes; on success its position is moved past
+     *               the request, so pipelined requests can follow
+     * @return The request, or null if it has not been received completely
+     *         (the position is then unchanged)
+     * @throws RequestException if the request is malformed or too large
+     */
+    public static RequestInfo parseRequest(ByteBuffer buffer) throws RequestException {
+        return parse(buffer, null);
+    }
+    
+    /**
+     * Parses the head of a request whose body is too large to buffer. The
+     * body bytes already in the buffer are consumed and the rest is read
+     * from source while the servlet reads {@link RequestInfo#getBodyStream()};
+     * memory use does not depend on the body size.
+     * 
+     * @param buffer Request bytes, containing at least the complete head
+     * @param source Connection stream the rest of the body is read from
+     * @return The request, or null if the head is incomplete
+     * @throws RequestException if the request is malformed or too large
+     */
+    public static RequestInfo parseRequest(ByteBuffer buffer, InputStream source) throws RequestException {
+        return parse(buffer, source);
+    }
+    
+    private static RequestInfo parse(ByteBuffer buffer, InputStream source) throws RequestException {
+        int start = skipBlankLines(buffer, buffer.position(), buffer.limit());
+        int headerEnd = headerEnd(buffer, start, buffer.limit());
+        if (headerEnd < 0) {
+            return null;
+        }
+        int requestLine = lineEnd(buffer, start, headerEnd);
+        int headersStart = requestLine + 1;
+        long contentLength = contentLength(buffer, headersStart, headerEnd);
+        if (source == null) {
+            if (contentLength > MAX_REQUEST_SIZE) {
+                throw new RequestException(413, "Payload Too Large");
+            }
+            if (headerEnd + contentLength > buffer.limit()) {
+                return null;
+            }
+        }
+        
+        // Request line: "GET /api/resource?id=123&name=test HTTP/1.1"
+        int lineEnd = trimEnd(buffer, start, requestLine);
+        int methodEnd = indexOf(buffer, ' ', start, lineEnd);
+        if (methodEnd <= start) {
+            throw new RequestException(400, "Bad Request");
+        }
+        int targetEnd = indexOf(buffer, ' ', methodEnd + 1, lineEnd);
+        if (targetEnd < 0) {
+            targetEnd = lineEnd;
+        }
+        if (targetEnd == methodEnd + 1) {
+            throw new RequestException(400, "Bad Request");
+        }
+        
+        RequestInfo info = newRequestInfo(decode(buffer, start, methodEnd),
+                                          decode(buffer, methodEnd + 1, targetEnd), null, null);
+        if (targetEnd < lineEnd) {
+            info.setHttpVersion(decode(buffer, targetEnd + 1, lineEnd).trim());
+        }
+        info.raw = buffer.duplicate();
+        info.headersStart = headersStart;
+        info.headersEnd = headerEnd;
+        info.bodyStart = headerEnd;
+        info.bodyEnd = (int) Math.min(buffer.limit(), headerEnd + contentLength);
+        if (source != null) {
+            ByteBuffer buffered = buffer.duplicate();
+            buffered.limit(info.bodyEnd).position(headerEnd);
+            info.bodyStream = new BodyInputStream(buffered, source, contentLength);
+        }
+        if (contentLength > 0) {
+            String contentType = info.getHeader("Content-Type");
+            if (contentType != null && contentType.toLowerCase().contains("multipart/form-data")) {
+                info.multipartType = contentType;
+            }
+        }
+        buffer.position(info.bodyEnd);
+        return info;
+    }
+    
+    /**
+     * Determines the size of the request at the buffer's position once its
+     * headers have arrived, without parsing it or allocating.
+     * 
+     * @return Bytes from the position to the end of the body (including
+     *         blank lines before the request), or -1 if the headers are
+     *         incomplete
+     * @throws RequestException if the header block is too large or the
+     *         body length is invalid or above MAX_UPLOAD_SIZE
+     */
+    public static long requestLength(ByteBuffer buffer) throws RequestException {
+        int start = skipBlankLines(buffer, buffer.position(), buffer.limit());
+        int headerEnd = headerEnd(buffer, start, buffer.limit());
+        if (headerEnd < 0) {
+            return -1;
+        }
+        long end = headerEnd + contentLength(buffer, lineEnd(buffer, start, headerEnd) + 1, headerEnd);
+        return end - buffer.position();
+    }
+    
+    private static int skipBlankLines(ByteBuffer buffer, int from, int limit) {
+        while (from < limit && (buffer.get(from) == '\r' || buffer.get(from) == '\n')) {
+            from++;
+        }
+        return from;
+    }
+    
+    /**
+     * Finds the empty line ending the headers: LF (CR) LF, since clients such
+     * as PrintWriter.println send bare LF line endings.
+     * 
+     * @return Index after the empty line, or -1 if not yet received
+     */
+    private static int headerEnd(ByteBuffer buffer, int from, int limit) throws RequestException {
+        int end = Math.min(limit, from + MAX_HEADER_SIZE);
+        for (int i = from; i < end - 1; i++) {
+            if (buffer.get(i) != '\n') {
+                continue;
+            }
+            byte next = buffer.get(i + 1);
+            if (next == '\n') {
+                return i + 2;
+            }
+            if (next == '\r' && i + 2 < limit && buffer.get(i + 2) == '\n') {
+                return i + 3;
+            }
+        }
+        if (end - from >= MAX_HEADER_SIZE) {
+            throw new RequestException(431, "Request Header Fields Too Large");
+        }
+        return -1;
+    }
+    
+    /**
+     * Reads the Content-Length header from the header block.
+     * Chunked request bodies are not supported and answered with 411.
+     */
+    private static long contentLength(ByteBuffer buffer, int from, int headerEnd) throws RequestException {
+        long length = -1;
+        for (int line = from; line < headerEnd; ) {
+            int end = lineEnd(buffer, line, headerEnd);
+            int colon = indexOf(buffer, ':', line, end);
+            if (colon > line) {
+                int nameEnd = trimEnd(buffer, line, colon);
+                if (equalsIgnoreCase(buffer, line, nameEnd, "Content-Length")) {
+                    long value = parseLength(buffer, colon + 1, end);
+                    if (length >= 0 && value != length) {
+                        throw new RequestException(400, "Bad Request");
+                    }
+                    length = value;
+                } else if (equalsIgnoreCase(buffer, line, nameEnd, "Transfer-Encoding")) {
+                    throw new RequestException(411, "Length Required");
                 }
             }
+            line = end + 1;
+        }
+        return Math.max(0, length);
+    }
+    
+    private static long parseLength(ByteBuffer buffer, int from, int end) throws RequestException {
+        int i = skipSpaces(buffer, from, end);
+        int last = trimEnd(buffer, i, end);
+        if (i == last) {
+            throw new RequestException(400, "Bad Request");
+        }
+        long value = 0;
+        for (; i < last; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                throw new RequestException(400, "Bad Request");
+            }
+            value = value * 10 + (b - '0');
+            if (value > MAX_UPLOAD_SIZE) {
+                throw new RequestException(413, "Payload Too Large");
+            }
+        }
+        return value;
+    }
+    
+    /** @return Index of the LF ending the line at from, or end */
+    private static int lineEnd(ByteBuffer buffer, int from, int end) {
+        int lf = indexOf(buffer, '\n', from, end);
+        return lf < 0 ? end : lf;
+    }
+    
+    private static int indexOf(ByteBuffer buffer, char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buffer.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static int skipSpaces(ByteBuffer buffer, int from, int end) {
+        while (from < end && (buffer.get(from) == ' ' || buffer.get(from) == '\t')) {
+            from++;
+        }
+        return from;
+    }
+    
+    /** @return end moved back over trailing spaces, tabs and CR */
+    private static int trimEnd(ByteBuffer buffer, int from, int end) {
+        while (end > from) {
+            byte b = buffer.get(end - 1);
+            if (b != ' ' && b != '\t' && b != '\r') {
+                break;
+            }
+            end--;
+        }
+        return end;
+    }
+    
+    /** Compares ASCII bytes with a name, ignoring case, without allocating */
+    private static boolean equalsIgnoreCase(ByteBuffer buffer, int from, int end, String name) {
+        if (end - from != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            int b = buffer.get(from + i);
+            int c = name.charAt(i);
+            if (b != c && toLower(b) != toLower(c)) {
+                return false;
+            }
         }
+        return true;
+    }
+    
+    private static int toLower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+    
+    private static String headerValue(ByteBuffer buffer, int from, int end) {
+        int start = skipSpaces(buffer, from, end);
+        return decode(buffer, start, trimEnd(buffer, start, end));
+    }
+    
+    /** Decodes bytes as ISO-8859-1, one char per byte */
+    private static String decode(ByteBuffer buffer, int from, int end) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + from, end - from, StandardCharsets.ISO_8859_1);
+        }
+        return new String(copy(buffer, from, end), StandardCharsets.ISO_8859_1);
+    }
+    
+    private static byte[] copy(ByteBuffer buffer, int from, int end) {
+        byte[] bytes = new byte[end - from];
+        buffer.get(from, bytes);
+        return bytes;
+    }
+    
+    /**
+     * Body of one request: the bytes already buffered, then the rest from
+     * the connection, never reading past the announced length.
+     */
+    static final class BodyInputStream extends InputStream {
+        private final ByteBuffer buffered;
+        private final InputStream source;
+        private long remaining;
         
-        return new byte[0];
+        BodyInputStream(ByteBuffer buffered, InputStream source, long length) {
+            this.buffered = buffered;
+            this.source = source;
+            this.remaining = length;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == 1 ? one[0] & 0xff : -1;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int n;
+            if (buffered.hasRemaining()) {
+                n = Math.min(len, buffered.remaining());
+                buffered.get(b, off, n);
+            } else if (source != null) {
+                n = source.read(b, off, (int) Math.min(len, remaining));
+                if (n < 0) {
+                    throw new EOFException("Request body ended after " + remaining + " missing bytes");
+                }
+            } else {
+                return -1;
+            }
+            remaining -= n;
+            return n;
+        }
+        
+        @Override
+        public int available() throws IOException {
+            long available = buffered.remaining() + (source != null ? source.available() : 0);
+            return (int) Math.min(remaining, available);
+        }
+        
+        /** Reads and drops the rest of the body if it is at most maxBytes */
+        boolean discard(long maxBytes) throws IOException {
+            if (remaining > maxBytes) {
+                return false;
+            }
+            byte[] scratch = new byte[8192];
+            while (remaining > 0) {
+                read(scratch, 0, scratch.length);
+            }
+            return true;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,290 @@
+package server;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import servlets.Filter;
+import server.RequestParser.RequestInfo;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Response cache for read-heavy GET routes: a successful response is kept
+ * for a time-to-live and written again for identical requests, without
+ * calling the servlet.
+ * <pre>
+ * ResponseCacheFilter graphCache = new ResponseCacheFilter(60_000, 256, 16 &lt;&lt; 20);
+ * server.addFilter("/graph", graphCache);
+ * </pre>
+ *
+ * Algorithm:
+ * - Requests are identical as defined by ResponseCapture.key, the same
+ *   rule SingleFlight uses
+ * - On a miss the rest of the chain writes into a buffer; a 200 response
+ *   without Set-Cookie or Cache-Control: no-store is stored, and every
+ *   response is copied to the client
+ * - Entries are kept in access order (LRU); when there are more than
+ *   maxEntries or their bytes exceed maxBytes, the least recently used
+ *   are evicted. Expired entries are dropped when they are looked up.
+ * - TopicManager.clear (a configuration replaced or reset) drops all
+ *   entries, since every cached view describes the old graph; invalidate
+ *   and invalidateAll do the same for other changes
+ * - The filter returned by invalidator() drops all entries after a request
+ *   that changes what is cached (e.g. /upload) has completed, so no
+ *   response rendered before or during the change is served after it
+ *   (the first upload replaces no configuration and clears no topics).
+ *   It drops them before that request's response is sent, too.
+ * - Every invalidation starts a new generation. A miss remembers the
+ *   generation it started in and does not store its response if the cache
+ *   was invalidated meanwhile: a slow render of the old graph that ends
+ *   after an upload must not be served for the whole TTL.
+ *
+ * Requests that cannot share a response (ResponseCapture.isShareable:
+ * other methods, streaming) are passed through.
+ *
+ * Thread safety: The map is guarded by the filter's lock, held only to
+ * look up, store or evict; servlets run outside it. Concurrent misses of
+ * the same key each run the servlet (combine with SingleFlight to collapse
+ * them).
+ *
+ * Design Patterns: Chain of Responsibility (Filter); Cache-Aside with LRU
+ * eviction
+ *
+ * @author Advanced Programming Course
+ */
+public final class ResponseCacheFilter implements Filter, Closeable {
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long generation;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final TopicManager topicManager = TopicManagerSingleton.get();
+    private final TopicManager.PublishListener clearListener;
+
+    /** A stored response */
+    private static final class Entry {
+        final byte[] response;
+        final long expires;
+
+        Entry(byte[] response, long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * @param ttlMillis How long a response is served from the cache
+     * @param maxEntries Responses kept at most
+     * @param maxBytes Total size of the kept responses at most; larger
+     *                 single responses are not cached
+     */
+    public ResponseCacheFilter(long ttlMillis, int maxEntries, long maxBytes) {
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.clearListener = new TopicManager.PublishListener() {
+            @Override
+            public void published(Topic topic, Message message) {
+            }
+
+            @Override
+            public void cleared() {
+                invalidateAll();
+            }
+        };
+        topicManager.addPublishListener(clearListener);
+    }
+
+    /** @return Requests answered from the cache */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** @return Cacheable requests that ran the servlet */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return Entries dropped to stay within maxEntries and maxBytes */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** @return Responses currently cached */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Drops all cached responses */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        bytes = 0;
+        generation++;
+    }
+
+    /**
+     * Drops the cached responses of the paths starting with uriPrefix.
+     *
+     * @param uriPrefix e.g. "/graph" for /graph/view and /graph.json
+     */
+    public synchronized void invalidate(String uriPrefix) {
+        generation++;
+        String prefix = "GET " + uriPrefix;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                bytes -= entry.getValue().response.length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return A filter for the routes that change the cached responses: it
+     *         runs the request, then invalidates the whole cache - before
+     *         the first byte of the response is sent, so a client that
+     *         reads it cannot be answered from the cache any more, and
+     *         once more when the request is done
+     */
+    public Filter invalidator() {
+        return (ri, toClient, chain) -> {
+            try {
+                chain.proceed(ri, new FilterOutputStream(toClient) {
+                    private boolean invalidated;
+
+                    private void invalidateOnce() {
+                        if (!invalidated) {
+                            invalidated = true;
+                            invalidateAll();
+                        }
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        invalidateOnce();
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        invalidateOnce();
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        invalidateOnce();
+                        out.flush();
+                    }
+                });
+            } finally {
+                invalidateAll();
+            }
+        };
+    }
+
+    @Override
+    public void filter(RequestInfo ri, OutputStream toClient, Chain chain) throws IOException {
+        if (!ResponseCapture.isShareable(ri)) {
+            chain.proceed(ri, toClient);
+            return;
+        }
+
+        String key = ResponseCapture.key(ri);
+        byte[] cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            toClient.write(cached);
+            toClient.flush();
+            return;
+        }
+
+        misses.increment();
+        long started = generation();
+        ResponseCapture capture = new ResponseCapture();
+        chain.proceed(ri, capture);
+        byte[] response = capture.toByteArray();
+        if (cacheable(response)) {
+            store(key, response, started);
+        }
+        toClient.write(response);
+        toClient.flush();
+    }
+
+    private synchronized byte[] lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expires >= 0) {
+            entries.remove(key);
+            bytes -= entry.response.length;
+            return null;
+        }
+        return entry.response;
+    }
+
+    private synchronized long generation() {
+        return generation;
+    }
+
+    /** Stores a response unless it is too large or was rendered before an invalidation */
+    private synchronized void store(String key, byte[] response, long started) {
+        if (response.length > maxBytes || generation != started) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(response, System.nanoTime() + ttlNanos));
+        if (previous != null) {
+            bytes -= previous.response.length;
+        }
+        bytes += response.length;
+        // Access order: the first entries are the least recently used
+        Iterator<Entry> it = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            bytes -= it.next().response.length;
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    /** 200 responses that do not set cookies or forbid storing */
+    private static boolean cacheable(byte[] response) {
+        int headEnd = headEnd(response);
+        if (headEnd < 0) {
+            return false;
+        }
+        String head = new String(response, 0, headEnd, StandardCharsets.ISO_8859_1).toLowerCase();
+        return (head.startsWith("http/1.1 200") || head.startsWith("http/1.0 200"))
+               && !head.contains("\nset-cookie:") && !head.contains("no-store");
+    }
+
+    private static int headEnd(byte[] response) {
+        for (int i = 3; i < response.length; i++) {
+            if (response[i] == '\n' && response[i - 1] == '\r' && response[i - 2] == '\n' && response[i - 3] == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Stops invalidating on configuration loads and drops all entries */
+    @Override
+    public void close() {
+        topicManager.removePublishListener(clearListener);
+        invalidateAll();
+    }
+}
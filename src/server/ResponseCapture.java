@@ -0,0 +1,60 @@
+package server;
+
+import server.RequestParser.RequestInfo;
+
+import java.io.ByteArrayOutputStream;
+import java.util.TreeMap;
+
+/**
+ * Buffer for a response that is written to more than one client, and the
+ * rules for which requests may share one. Used by SingleFlight (concurrent
+ * requests) and ResponseCacheFilter (later requests), so both agree on
+ * what an identical request is.
+ *
+ * - Requests are identical if method, path, parameters and the headers
+ *   the response may depend on (Accept-Encoding, conditional requests,
+ *   Range, Authorization, Cookie) are equal
+ * - Only GET requests are shared, and no streaming ones (Server-Sent
+ *   Events, WebSocket upgrades); the routes must answer with complete,
+ *   moderately sized responses, since the response is held in memory
+ *
+ * The buffer is marked Buffered, so servlets that would stream
+ * (HttpResponse.canStream()) answer in one piece instead.
+ *
+ * @author Advanced Programming Course
+ */
+final class ResponseCapture extends ByteArrayOutputStream implements HttpResponse.Buffered {
+    /** Headers that can change a response, so they are part of the key */
+    private static final String[] VARY = {
+        "Accept-Encoding", "If-None-Match", "If-Modified-Since", "Range", "Authorization", "Cookie"
+    };
+
+    ResponseCapture() {
+        super(8192);
+    }
+
+    /** @return true if the response to ri may be given to identical requests */
+    static boolean isShareable(RequestInfo ri) {
+        return ri.getHttpCommand().equalsIgnoreCase("GET") && ri.getHeader("Upgrade") == null
+               && !"text/event-stream".equals(ri.getHeader("Accept"));
+    }
+
+    /**
+     * @return Equal strings for identical requests; starts with the method
+     *         in upper case, a space and the path
+     */
+    static String key(RequestInfo ri) {
+        StringBuilder key = new StringBuilder(64);
+        key.append(ri.getHttpCommand().toUpperCase()).append(' ').append(ri.getUri());
+        if (!ri.getParameters().isEmpty()) {
+            key.append('?').append(new TreeMap<>(ri.getParameters()));
+        }
+        for (String header : VARY) {
+            String value = ri.getHeader(header);
+            if (value != null) {
+                key.append('\n').append(header).append(':').append(value);
+            }
+        }
+        return key.toString();
+    }
+}
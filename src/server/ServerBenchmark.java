@@ -0,0 +1,208 @@
+package server;
+
+import servlets.Servlet;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Compares MyHTTPServer's fixed thread pool with thread-per-connection mode.
+ *
+ * Every connection sends one request to a servlet that blocks for a short
+ * time, like an upload or a publish waiting on a full agent queue. All
+ * connections are opened at once by a single-threaded NIO client, so the
+ * client itself does not need thousands of threads. The client runs in a
+ * child JVM so that client and server sockets do not share one process's
+ * file descriptor limit.
+ *
+ * Reported per mode: wall time, throughput, median and 99th percentile
+ * latency, and failed connections.
+ *
+ * Usage: java server.ServerBenchmark [blockMillis] [connections...]
+ * Defaults: 10 ms, 1000 and 10000 connections. Each process needs a file
+ * descriptor per connection (ulimit -n).
+ *
+ * @author Advanced Programming Course
+ */
+public class ServerBenchmark {
+    private static final int PORT = 8095;
+    private static final int POOL_THREADS = 5;
+    private static final int CONNECTION_CAP = 20000;
+    private static final long CLIENT_TIMEOUT_MS = 180_000;
+
+    /** Simulates a servlet that blocks, e.g. on I/O or a full queue */
+    static class BlockingServlet implements Servlet {
+        private final long blockMillis;
+
+        BlockingServlet(long blockMillis) {
+            this.blockMillis = blockMillis;
+        }
+
+        @Override
+        public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+            try {
+                Thread.sleep(blockMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String body = "done";
+            String response = "HTTP/1.1 200 OK\r\n" +
+                              "Content-Type: text/plain\r\n" +
+                              "Content-Length: " + body.length() + "\r\n" +
+                              "\r\n" +
+                              body;
+            toClient.write(response.getBytes());
+            toClient.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // No resources to close
+        }
+    }
+
+    /** Per-connection state of the benchmark client */
+    private static final class BenchmarkConnection {
+        final ByteBuffer request;
+        final ByteBuffer response = ByteBuffer.allocate(512);
+        final long start = System.nanoTime();
+
+        BenchmarkConnection(byte[] request) {
+            this.request = ByteBuffer.wrap(request);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("--client")) {
+            runClients(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+        long blockMillis = args.length > 0 ? Long.parseLong(args[0]) : 10;
+        int[] connectionCounts = args.length > 1
+            ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+            : new int[] { 1000, 10000 };
+
+        System.out.println("=== MyHTTPServer Benchmark: fixed pool vs thread per connection ===");
+        System.out.println("Servlet blocks " + blockMillis + "ms per request\n");
+        System.out.printf("%-28s %8s %9s %10s %9s %9s %7s%n",
+                          "Mode", "Conns", "Wall ms", "Req/s", "p50 ms", "p99 ms", "Failed");
+
+        for (int connections : connectionCounts) {
+            for (int mode = 0; mode < 2; mode++) {
+                MyHTTPServer server = new MyHTTPServer(PORT, POOL_THREADS);
+                String label = "Fixed pool (" + POOL_THREADS + " threads)";
+                if (mode == 1) {
+                    server.setThreadPerConnection(CONNECTION_CAP);
+                    label = server.isUsingVirtualThreads() ? "Virtual thread/connection" : "Platform thread/connection";
+                }
+                server.addServlet("GET", "/work", new BlockingServlet(blockMillis));
+                server.start();
+                Thread.sleep(300);
+
+                runClientProcess(label, connections);
+
+                server.close();
+                server.join(10_000);
+                Thread.sleep(500);
+            }
+        }
+    }
+
+    /** Runs the client side in a separate JVM and waits for its result line */
+    private static void runClientProcess(String label, int connections) throws IOException, InterruptedException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process client = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                            ServerBenchmark.class.getName(), "--client",
+                                            label, String.valueOf(connections))
+            .inheritIO()
+            .start();
+        client.waitFor();
+    }
+
+    private static void runClients(String label, int connections) throws IOException {
+        byte[] request = "GET /work HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                         .getBytes(StandardCharsets.ISO_8859_1);
+        long[] latencies = new long[connections];
+        int completed = 0;
+        int failed = 0;
+        long start = System.nanoTime();
+
+        try (Selector selector = Selector.open()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", PORT);
+            for (int i = 0; i < connections; i++) {
+                try {
+                    SocketChannel channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    channel.connect(address);
+                    channel.register(selector, SelectionKey.OP_CONNECT, new BenchmarkConnection(request));
+                } catch (IOException e) {
+                    failed++;   // typically out of file descriptors
+                }
+            }
+
+            long deadline = System.currentTimeMillis() + CLIENT_TIMEOUT_MS;
+            while (completed + failed < connections && System.currentTimeMillis() < deadline) {
+                selector.select(1000);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    BenchmarkConnection conn = (BenchmarkConnection) key.attachment();
+                    try {
+                        if (key.isConnectable()) {
+                            channel.finishConnect();
+                            key.interestOps(SelectionKey.OP_WRITE);
+                        } else if (key.isWritable()) {
+                            channel.write(conn.request);
+                            if (!conn.request.hasRemaining()) {
+                                key.interestOps(SelectionKey.OP_READ);
+                            }
+                        } else if (key.isReadable()) {
+                            conn.response.clear();
+                            if (channel.read(conn.response) < 0) {
+                                // Response complete: the request asked for Connection: close
+                                latencies[completed++] = System.nanoTime() - conn.start;
+                                key.cancel();
+                                channel.close();
+                            }
+                        }
+                    } catch (IOException e) {
+                        failed++;
+                        key.cancel();
+                        channel.close();
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+
+        long wallMs = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        int timedOut = connections - completed - failed;
+        Arrays.sort(latencies, 0, completed);
+        System.out.printf("%-28s %8d %9d %10d %9.1f %9.1f %7d%n",
+                          label, connections, wallMs, completed * 1000L / wallMs,
+                          percentile(latencies, completed, 0.50), percentile(latencies, completed, 0.99),
+                          failed + timedOut);
+    }
+
+    private static double percentile(long[] sorted, int count, double p) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = Math.min(count - 1, (int) Math.ceil(p * count) - 1);
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+}
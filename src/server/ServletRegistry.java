@@ -0,0 +1,284 @@
+package server;
+
+import servlets.AsyncServlet;
+import servlets.Filter;
+import servlets.Servlet;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Servlet registrations shared by the HTTP server implementations.
+ * Keeps one radix trie per HTTP method and resolves request URIs by longest
+ * prefix, so every server routes the same registrations in the same way.
+ * URI patterns may contain path parameters (":name" segments, see
+ * RadixRouter), which are added to the request parameters when routed.
+ *
+ * Filters registered for a URI prefix run around the routed servlet, in
+ * registration order (see handle), and before an asynchronous servlet is
+ * started (see start).
+ *
+ * Thread safety: The tries are immutable. add/remove build a new trie
+ * (copy-on-write) and publish it through a volatile field, so routing never
+ * locks and servlets can be added or removed while requests are routed.
+ * The filter array is replaced the same way.
+ *
+ * SOLID: Single Responsibility - Routing is separated from connection handling
+ *
+ * @author Advanced Programming Course
+ */
+class ServletRegistry {
+    private volatile RadixRouter getServlets = RadixRouter.EMPTY;
+    private volatile RadixRouter postServlets = RadixRouter.EMPTY;
+    private volatile RadixRouter deleteServlets = RadixRouter.EMPTY;
+    private volatile FilterRegistration[] filters = new FilterRegistration[0];
+
+    /** A filter and the URI prefix it applies to */
+    private static final class FilterRegistration {
+        final String prefix;
+        final Filter filter;
+
+        FilterRegistration(String prefix, Filter filter) {
+            this.prefix = prefix;
+            this.filter = filter;
+        }
+    }
+
+    synchronized void add(String httpCommand, String uri, Servlet s) {
+        RadixRouter router = routerFor(httpCommand);
+        if (router != null) {
+            publish(httpCommand, router.with(uri, s));
+        }
+    }
+
+    synchronized void remove(String httpCommand, String uri) {
+        RadixRouter router = routerFor(httpCommand);
+        if (router != null) {
+            publish(httpCommand, router.without(uri));
+        }
+    }
+
+    /**
+     * Implements longest-prefix matching algorithm for servlet routing.
+     * This allows flexible URL patterns like:
+     * - /api/users -> matches /api/users/123
+     * - /api -> matches /api/anything
+     * - / -> matches everything (default handler)
+     * - /topics/:name -> matches /topics/A and /topics/A/more
+     *
+     * Algorithm complexity: O(k) where k is the length of the URI,
+     * independent of the number of registered servlets
+     *
+     * Example:
+     * If servlets are registered for "/api/", "/api/users/", and "/"
+     * URI "/api/users/123" will match "/api/users/" (longest prefix)
+     *
+     * @param httpCommand The HTTP method (GET, POST, DELETE)
+     * @param uri The requested URI path
+     * @return The servlet handling the longest matching prefix, or null
+     */
+    Servlet find(String httpCommand, String uri) {
+        RadixRouter router = routerFor(httpCommand);
+        return router == null ? null : router.find(uri, null);
+    }
+
+    /**
+     * Finds the servlet for a parsed request and adds the path parameters of
+     * the matched pattern to its parameters (overriding query parameters of
+     * the same name).
+     *
+     * @param ri The parsed request
+     * @return The servlet handling the longest matching prefix, or null
+     */
+    Servlet route(RequestInfo ri) {
+        RadixRouter router = routerFor(ri.getHttpCommand());
+        return router == null ? null : router.find(ri.getUri(), ri.getParameters());
+    }
+
+    synchronized void addFilter(String uriPrefix, Filter filter) {
+        FilterRegistration[] more = Arrays.copyOf(filters, filters.length + 1);
+        more[filters.length] = new FilterRegistration(uriPrefix, filter);
+        filters = more;
+    }
+
+    /**
+     * Runs a routed request through the filters whose prefix matches its
+     * URI, then the servlet. Without filters the servlet is called directly.
+     *
+     * @param servlet The servlet the request was routed to
+     */
+    void handle(Servlet servlet, RequestInfo ri, OutputStream toClient) throws IOException {
+        FilterRegistration[] all = filters;
+        if (all.length == 0 || servlet instanceof Outcome) {
+            servlet.handle(ri, toClient);   // an outcome's filters ran when it was started
+        } else {
+            new Invocation(all, servlet).proceed(ri, toClient);
+        }
+    }
+
+    /**
+     * Runs a request routed to an asynchronous servlet through the filters,
+     * with starting the servlet as the end of the chain: a filter that
+     * answers the request itself keeps handleAsync from running. An outcome
+     * that is ready at once is written within the chain, so the filters see
+     * the response.
+     *
+     * @return null if the response has been written; otherwise the pending
+     *         outcome, a servlet that writes the response, 503 if it did not
+     *         arrive within timeoutMillis, or 500 if it failed. It is passed
+     *         to handle, which writes it without running the filters again,
+     *         and never completes exceptionally.
+     */
+    CompletableFuture<Servlet> start(AsyncServlet servlet, RequestInfo ri, OutputStream toClient, long timeoutMillis)
+            throws IOException {
+        AsyncStart start = new AsyncStart(servlet, timeoutMillis);
+        handle(start, ri, toClient);
+        return start.pending;
+    }
+
+    /** End of the filter chain of an asynchronous servlet */
+    private static final class AsyncStart implements Servlet {
+        private final AsyncServlet servlet;
+        private final long timeoutMillis;
+        CompletableFuture<Servlet> pending;
+
+        AsyncStart(AsyncServlet servlet, long timeoutMillis) {
+            this.servlet = servlet;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+            CompletableFuture<Servlet> outcome = startAsync(servlet, ri, timeoutMillis);
+            if (outcome.isDone()) {
+                outcome.join().handle(ri, toClient);
+            } else {
+                pending = outcome;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** Calls handleAsync; the future completes with an Outcome */
+    private static CompletableFuture<Servlet> startAsync(AsyncServlet servlet, RequestInfo ri, long timeoutMillis) {
+        CompletableFuture<AsyncServlet.Response> response;
+        try {
+            response = Objects.requireNonNull(servlet.handleAsync(ri), "handleAsync returned null");
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        // A copy, so the timeout does not complete a future the servlet may share
+        return response.copy()
+            .orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+            .handle(Outcome::new);
+    }
+
+    /** Writes the outcome of an asynchronous servlet */
+    private static final class Outcome implements Servlet {
+        private final AsyncServlet.Response response;
+        private final Throwable failure;
+
+        Outcome(AsyncServlet.Response response, Throwable failure) {
+            this.response = response;
+            this.failure = failure instanceof CompletionException && failure.getCause() != null
+                           ? failure.getCause() : failure;
+        }
+
+        @Override
+        public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+            if (failure == null) {
+                response.writeTo(ri, toClient);
+                return;
+            }
+            boolean timedOut = failure instanceof TimeoutException;
+            if (!timedOut) {
+                failure.printStackTrace();
+            }
+            try (HttpResponse error = new HttpResponse(ri, toClient)) {
+                error.setStatus(timedOut ? 503 : 500);
+                error.setContentType("text/plain");
+                error.print(timedOut ? "Response timed out" : "Internal Server Error");
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** Position of one request in the filter chain */
+    private static final class Invocation implements Filter.Chain {
+        private final FilterRegistration[] filters;
+        private final Servlet servlet;
+        private int next;
+
+        Invocation(FilterRegistration[] filters, Servlet servlet) {
+            this.filters = filters;
+            this.servlet = servlet;
+        }
+
+        @Override
+        public void proceed(RequestInfo ri, OutputStream toClient) throws IOException {
+            while (next < filters.length) {
+                FilterRegistration registration = filters[next++];
+                if (ri.getUri().startsWith(registration.prefix)) {
+                    registration.filter.filter(ri, toClient, this);
+                    return;
+                }
+            }
+            servlet.handle(ri, toClient);
+        }
+    }
+
+    /**
+     * Closes every registered servlet once, even if it is registered for
+     * several methods or URIs.
+     */
+    void closeAll() {
+        Set<Servlet> allServlets = new HashSet<>();
+        getServlets.collectServlets(allServlets);
+        postServlets.collectServlets(allServlets);
+        deleteServlets.collectServlets(allServlets);
+
+        for (Servlet servlet : allServlets) {
+            try {
+                servlet.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Resolves the method without allocating (no toUpperCase) */
+    private RadixRouter routerFor(String httpCommand) {
+        if (httpCommand.equalsIgnoreCase("GET")) {
+            return getServlets;
+        }
+        if (httpCommand.equalsIgnoreCase("POST")) {
+            return postServlets;
+        }
+        if (httpCommand.equalsIgnoreCase("DELETE")) {
+            return deleteServlets;
+        }
+        return null;
+    }
+
+    private void publish(String httpCommand, RadixRouter router) {
+        if (httpCommand.equalsIgnoreCase("GET")) {
+            getServlets = router;
+        } else if (httpCommand.equalsIgnoreCase("POST")) {
+            postServlets = router;
+        } else {
+            deleteServlets = router;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package server;
+
+import servlets.Servlet;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request coalescing for an idempotent GET route: identical requests that
+ * arrive while one of them is being handled do not run the servlet again,
+ * but receive a copy of its response. When 200 dashboards refresh /topics
+ * at the same moment, the table is rendered once.
+ * <pre>
+ * server.addServlet("GET", "/topics", new SingleFlight(new TopicsViewServlet()));
+ * </pre>
+ *
+ * Algorithm:
+ * - Requests are identical as defined by ResponseCapture.key
+ * - The first request of a key becomes the leader: it registers a flight,
+ *   runs the servlet into a buffer and completes the flight with the bytes
+ * - Requests of the same key arriving meanwhile wait for the flight and
+ *   write its bytes; the flight is removed as soon as it completes, so
+ *   later requests see fresh data
+ * - If the leader fails, each waiter runs the servlet itself
+ *
+ * Requests that cannot share a response (ResponseCapture.isShareable:
+ * other methods, streaming) are passed through.
+ *
+ * Design Patterns: Decorator - wraps the route's servlet;
+ * Single Flight (request collapsing)
+ *
+ * @author Advanced Programming Course
+ */
+public final class SingleFlight implements Servlet {
+    /** Longest a waiter waits for the leader before running the servlet itself */
+    private static final long MAX_WAIT_SECONDS = 30;
+
+    private final Servlet servlet;
+    private final Map<String, CompletableFuture<byte[]>> flights = new ConcurrentHashMap<>();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param servlet Servlet of an idempotent route
+     */
+    public SingleFlight(Servlet servlet) {
+        this.servlet = servlet;
+    }
+
+    /** @return Times the servlet ran */
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    /** @return Requests answered with the response of another */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        if (!ResponseCapture.isShareable(ri)) {
+            executions.increment();
+            servlet.handle(ri, toClient);
+            return;
+        }
+
+        String key = ResponseCapture.key(ri);
+        CompletableFuture<byte[]> flight = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = flights.putIfAbsent(key, flight);
+        if (running == null) {
+            lead(ri, toClient, key, flight);
+            return;
+        }
+
+        byte[] response;
+        try {
+            response = running.get(MAX_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a coalesced response", e);
+        } catch (ExecutionException | TimeoutException e) {
+            executions.increment();   // leader failed or hangs: answer on our own
+            servlet.handle(ri, toClient);
+            return;
+        }
+        coalesced.increment();
+        toClient.write(response);
+        toClient.flush();
+    }
+
+    private void lead(RequestInfo ri, OutputStream toClient, String key, CompletableFuture<byte[]> flight) throws IOException {
+        ResponseCapture capture = new ResponseCapture();
+        try {
+            executions.increment();
+            servlet.handle(ri, capture);
+        } catch (IOException | RuntimeException e) {
+            flights.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        byte[] response = capture.toByteArray();
+        flights.remove(key, flight);
+        flight.complete(response);
+        toClient.write(response);
+        toClient.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        servlet.close();
+    }
+}
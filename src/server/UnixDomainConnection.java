@@ -0,0 +1,207 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A Unix domain socket connection served with blocking streams, for
+ * clients on the same host: no TCP/IP stack, checksums or loopback
+ * routing between them and the server.
+ *
+ * Unix domain channels have no socket adaptor, so read timeouts (which the
+ * keep-alive logic of MyHTTPServer relies on) are implemented here: the
+ * channel is non-blocking and a read that finds no data waits on a
+ * selector of its own. Writes wait on a second selector, so that one
+ * thread can read while another writes (WebSocket). Closing either stream
+ * closes the connection and wakes both.
+ *
+ * @author Advanced Programming Course
+ */
+final class UnixDomainConnection implements ClientConnection {
+    private final SocketChannel channel;
+    private final Selector readSelector;
+    private final Selector writeSelector;
+    private final ByteBuffer peeked = ByteBuffer.allocate(4096);   // read by available()
+    private final InputStream in = new In();
+    private final OutputStream out = new Out();
+    private volatile int timeout;
+
+    UnixDomainConnection(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+        this.readSelector = Selector.open();
+        this.writeSelector = Selector.open();
+        channel.register(readSelector, SelectionKey.OP_READ);
+        channel.register(writeSelector, SelectionKey.OP_WRITE);
+        peeked.limit(0);
+    }
+
+    /**
+     * Opens a listening Unix domain socket, replacing a file left over by
+     * a server that did not shut down.
+     */
+    static ServerSocketChannel listen(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(path), 1024);
+        return server;
+    }
+
+    /** Closes a listening socket and removes its file */
+    static void unlisten(ServerSocketChannel server, Path path) {
+        try {
+            if (server != null) {
+                server.close();
+            }
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Ignore errors during shutdown
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    /** File bodies go through the stream: transferTo cannot wait on a non-blocking channel */
+    @Override
+    public WritableByteChannel getChannel() {
+        return null;
+    }
+
+    @Override
+    public void setSoTimeout(int millis) {
+        this.timeout = millis;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            readSelector.wakeup();
+            writeSelector.wakeup();
+            readSelector.close();
+            writeSelector.close();
+        }
+    }
+
+    /** Channel errors surface as SocketException, as on a TCP socket */
+    private static SocketException socketException(IOException e) {
+        SocketException socketException = new SocketException(
+            e instanceof ClosedChannelException ? "Socket closed" : e.getMessage());
+        socketException.initCause(e);
+        return socketException;
+    }
+
+    private final class In extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (peeked.hasRemaining()) {
+                int n = Math.min(len, peeked.remaining());
+                peeked.get(b, off, n);
+                return n;
+            }
+            ByteBuffer target = ByteBuffer.wrap(b, off, len);
+            try {
+                while (true) {
+                    int n = channel.read(target);
+                    if (n != 0) {
+                        return n;
+                    }
+                    int wait = timeout;
+                    if (readSelector.select(wait) == 0 && wait > 0 && channel.isOpen()) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                    readSelector.selectedKeys().clear();
+                }
+            } catch (SocketTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                throw socketException(e);
+            } catch (ClosedSelectorException e) {
+                throw socketException(new ClosedChannelException());
+            }
+        }
+
+        /** Reads what has arrived without waiting, so that pipelining is detected */
+        @Override
+        public int available() throws IOException {
+            if (!peeked.hasRemaining()) {
+                peeked.clear();
+                try {
+                    channel.read(peeked);
+                } catch (IOException e) {
+                    throw socketException(e);
+                } finally {
+                    peeked.flip();
+                }
+            }
+            return peeked.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            UnixDomainConnection.this.close();
+        }
+    }
+
+    private final class Out extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer source = ByteBuffer.wrap(b, off, len);
+            try {
+                while (source.hasRemaining()) {
+                    if (channel.write(source) == 0) {
+                        writeSelector.select(1000);
+                        writeSelector.selectedKeys().clear();
+                    }
+                }
+            } catch (IOException e) {
+                throw socketException(e);
+            } catch (ClosedSelectorException e) {
+                throw socketException(new ClosedChannelException());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            UnixDomainConnection.this.close();
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package server;
+
+import server.RequestParser.RequestInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Server side of a WebSocket connection (RFC 6455).
+ *
+ * A servlet accepts the upgrade request and then exchanges messages over
+ * the connection until either side closes it:
+ * <pre>
+ * if (WebSocket.isUpgradeRequest(ri) &amp;&amp; ri.canUpgrade()) {
+ *     try (WebSocket socket = WebSocket.accept(ri, toClient)) {
+ *         WebSocket.Frame frame;
+ *         while ((frame = socket.read()) != null) {
+ *             socket.sendText("echo " + frame.text());
+ *         }
+ *     }
+ * }
+ * </pre>
+ *
+ * read() returns complete data messages (fragments are joined) and answers
+ * control frames itself: a ping gets its pong, a close gets the closing
+ * handshake. Sending is thread-safe, so one thread can read while others
+ * write. Frames from the client must be masked; messages larger than
+ * MAX_MESSAGE_SIZE close the connection with status 1009.
+ *
+ * Only servers that can hand their connection over support WebSocket
+ * (MyHTTPServer); see RequestInfo.canUpgrade().
+ *
+ * @author Advanced Programming Course
+ */
+public final class WebSocket implements Closeable {
+    /** Largest message accepted from a client */
+    public static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+
+    public static final int NORMAL_CLOSURE = 1000;
+    public static final int GOING_AWAY = 1001;
+    public static final int PROTOCOL_ERROR = 1002;
+    public static final int POLICY_VIOLATION = 1008;
+    public static final int MESSAGE_TOO_BIG = 1009;
+
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int CONTINUATION = 0x0;
+    private static final int TEXT = 0x1;
+    private static final int BINARY = 0x2;
+    private static final int CLOSE = 0x8;
+    private static final int PING = 0x9;
+    private static final int PONG = 0xA;
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final byte[] header = new byte[14];   // guarded by out
+    private boolean closeSent;                    // guarded by out
+    private volatile boolean closed;
+
+    /**
+     * A complete data message.
+     */
+    public static final class Frame {
+        private final boolean binary;
+        private final byte[] payload;
+
+        private Frame(boolean binary, byte[] payload) {
+            this.binary = binary;
+            this.payload = payload;
+        }
+
+        public boolean isBinary() {
+            return binary;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        /** @return The payload decoded as UTF-8 */
+        public String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    private WebSocket(InputStream in, OutputStream out) {
+        this.in = new BufferedInputStream(in, 8192);
+        this.out = new BufferedOutputStream(out, 8192);
+    }
+
+    /**
+     * @return true if the request asks for a WebSocket connection
+     */
+    public static boolean isUpgradeRequest(RequestInfo ri) {
+        String upgrade = ri.getHeader("Upgrade");
+        String connection = ri.getHeader("Connection");
+        return "GET".equals(ri.getHttpCommand())
+               && upgrade != null && upgrade.equalsIgnoreCase("websocket")
+               && connection != null && connection.toLowerCase().contains("upgrade")
+               && ri.getHeader("Sec-WebSocket-Key") != null;
+    }
+
+    /**
+     * Completes the opening handshake and takes the connection over.
+     *
+     * @param ri An upgrade request (see isUpgradeRequest) on a server that can hand over connections
+     * @param toClient The stream passed to Servlet.handle
+     * @return The open WebSocket, or null if the request was refused with
+     *         426 (unsupported version); the servlet should then return
+     */
+    public static WebSocket accept(RequestInfo ri, OutputStream toClient) throws IOException {
+        if (!"13".equals(ri.getHeader("Sec-WebSocket-Version"))) {
+            try (HttpResponse response = new HttpResponse(toClient)) {
+                response.setStatus(426);
+                response.setHeader("Sec-WebSocket-Version", "13");
+                response.setContentType("text/plain");
+                response.print("WebSocket version 13 required");
+            }
+            return null;
+        }
+        try (HttpResponse response = new HttpResponse(toClient)) {
+            response.setStatus(101);
+            response.setHeader("Upgrade", "websocket");
+            response.setHeader("Connection", "Upgrade");
+            response.setHeader("Sec-WebSocket-Accept", acceptKey(ri.getHeader("Sec-WebSocket-Key").trim()));
+        }
+        toClient.flush();
+        return new WebSocket(ri.upgrade(), toClient);
+    }
+
+    /**
+     * @return The Sec-WebSocket-Accept value for a client's key
+     */
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);   // required of every JVM
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Receiving
+    // ------------------------------------------------------------------
+
+    /**
+     * Reads the next data message, answering pings and the closing
+     * handshake on the way.
+     *
+     * @return The message, or null once the connection is closed
+     */
+    public Frame read() throws IOException {
+        ByteArrayOutputStream fragments = null;
+        int messageType = -1;
+        while (!closed) {
+            int b0 = in.read();
+            if (b0 < 0) {
+                closed = true;
+                return null;
+            }
+            int b1 = readByte();
+            boolean fin = (b0 & 0x80) != 0;
+            int opcode = b0 & 0x0F;
+            if ((b0 & 0x70) != 0 || (b1 & 0x80) == 0) {
+                fail(PROTOCOL_ERROR, "Unmasked frame or reserved bits set");
+                return null;
+            }
+            long length = b1 & 0x7F;
+            if (length == 126) {
+                length = (readByte() << 8) | readByte();
+            } else if (length == 127) {
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = (length << 8) | readByte();
+                }
+            }
+            boolean control = opcode >= CLOSE;
+            if (control && (length > 125 || !fin)) {
+                fail(PROTOCOL_ERROR, "Invalid control frame");
+                return null;
+            }
+            long buffered = fragments != null ? fragments.size() : 0;
+            if (length < 0 || buffered + length > MAX_MESSAGE_SIZE) {
+                fail(MESSAGE_TOO_BIG, "Message too big");
+                return null;
+            }
+            byte[] mask = in.readNBytes(4);
+            byte[] payload = in.readNBytes((int) length);
+            if (mask.length < 4 || payload.length < length) {
+                throw new EOFException("Connection closed inside a frame");
+            }
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= mask[i & 3];
+            }
+
+            switch (opcode) {
+                case PING:
+                    sendFrame(PONG, payload, 0, payload.length);
+                    break;
+                case PONG:
+                    break;
+                case CLOSE:
+                    closed = true;
+                    // Echo the status code, as the closing handshake asks
+                    sendFrame(CLOSE, payload, 0, Math.min(payload.length, 2));
+                    return null;
+                case TEXT:
+                case BINARY:
+                    if (messageType >= 0) {
+                        fail(PROTOCOL_ERROR, "Fragmented message interrupted");
+                        return null;
+                    }
+                    if (fin) {
+                        return new Frame(opcode == BINARY, payload);
+                    }
+                    messageType = opcode;
+                    fragments = new ByteArrayOutputStream(payload.length * 2);
+                    fragments.write(payload);
+                    break;
+                case CONTINUATION:
+                    if (messageType < 0) {
+                        fail(PROTOCOL_ERROR, "Continuation without a message");
+                        return null;
+                    }
+                    fragments.write(payload);
+                    if (fin) {
+                        return new Frame(messageType == BINARY, fragments.toByteArray());
+                    }
+                    break;
+                default:
+                    fail(PROTOCOL_ERROR, "Unknown opcode " + opcode);
+                    return null;
+            }
+        }
+        return null;
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Connection closed inside a frame");
+        }
+        return b;
+    }
+
+    private void fail(int status, String reason) throws IOException {
+        closed = true;
+        close(status, reason);
+    }
+
+    // ------------------------------------------------------------------
+    // Sending
+    // ------------------------------------------------------------------
+
+    public void sendText(String text) throws IOException {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        sendFrame(TEXT, payload, 0, payload.length);
+    }
+
+    public void sendBinary(byte[] payload, int offset, int length) throws IOException {
+        sendFrame(BINARY, payload, offset, length);
+    }
+
+    /** Sends a ping; the client answers with a pong, which read() consumes */
+    public void ping() throws IOException {
+        sendFrame(PING, new byte[0], 0, 0);
+    }
+
+    /**
+     * Starts the closing handshake; read() returns null once the client
+     * has answered. Later sends fail.
+     *
+     * @param status Close status code, e.g. NORMAL_CLOSURE
+     * @param reason Short explanation, at most 123 bytes in UTF-8
+     */
+    public void close(int status, String reason) throws IOException {
+        byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[2 + Math.min(text.length, 123)];
+        payload[0] = (byte) (status >> 8);
+        payload[1] = (byte) status;
+        System.arraycopy(text, 0, payload, 2, payload.length - 2);
+        sendFrame(CLOSE, payload, 0, payload.length);
+    }
+
+    /** Closes normally if no close frame was sent yet */
+    @Override
+    public void close() throws IOException {
+        synchronized (out) {
+            if (closeSent) {
+                return;
+            }
+        }
+        close(NORMAL_CLOSURE, "");
+    }
+
+    /**
+     * Drops the connection without a closing handshake, e.g. when the
+     * client stopped reading; a thread blocked in read() returns.
+     */
+    public void abort() {
+        closed = true;
+        try {
+            in.close();   // closes the socket
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /** @return true once the connection is closed or closing */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void sendFrame(int opcode, byte[] payload, int offset, int length) throws IOException {
+        synchronized (out) {
+            if (closeSent) {
+                if (opcode == CLOSE) {
+                    return;
+                }
+                throw new IOException("WebSocket closed");
+            }
+            int n = 0;
+            header[n++] = (byte) (0x80 | opcode);
+            if (length < 126) {
+                header[n++] = (byte) length;
+            } else if (length <= 0xFFFF) {
+                header[n++] = 126;
+                header[n++] = (byte) (length >> 8);
+                header[n++] = (byte) length;
+            } else {
+                header[n++] = 127;
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    header[n++] = (byte) ((long) length >> shift);
+                }
+            }
+            out.write(header, 0, n);
+            out.write(payload, offset, length);
+            out.flush();
+            if (opcode == CLOSE) {
+                closeSent = true;
+            }
+        }
+    }
+}
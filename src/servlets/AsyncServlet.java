@@ -0,0 +1,76 @@
+package servlets;
+
+import server.RequestParser.RequestInfo;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Servlet whose response becomes available later: handleAsync returns at
+ * once with a future, and the server writes the response when the future
+ * completes. No thread is held while the request waits, so long-polls and
+ * requests waiting for graph output scale to many open requests.
+ * <pre>
+ * public CompletableFuture&lt;Response&gt; handleAsync(RequestInfo ri) {
+ *     return valueOf(topic).thenApply(value -&gt; (request, toClient) -&gt; {
+ *         try (HttpResponse response = new HttpResponse(request, toClient)) {
+ *             response.print(value);
+ *         }
+ *     });
+ * }
+ * </pre>
+ *
+ * MyHTTPServer and NioHTTPServer give the connection's thread up while the
+ * future is pending and write the response on one of their own threads.
+ * Filters run before handleAsync is called, so one that answers the request
+ * itself (authentication, rate limits, a cache hit) keeps it from starting.
+ * A response that is ready at once passes back through the filters; one
+ * written later does not, so filters that capture the response (e.g. a
+ * cache) let it by. A future that does not complete within the server's
+ * async timeout is answered with 503, one that fails with 500.
+ *
+ * Decorators that only know Servlet (e.g. SingleFlight) and other callers
+ * use the blocking handle, which waits for the future.
+ *
+ * Design Pattern: Asynchronous Completion Token (the future)
+ *
+ * @author Advanced Programming Course
+ */
+public interface AsyncServlet extends Servlet {
+    /**
+     * A response ready to be written, called on a server thread.
+     */
+    @FunctionalInterface
+    interface Response {
+        void writeTo(RequestInfo ri, OutputStream toClient) throws IOException;
+    }
+
+    /**
+     * Starts handling a request. Must not block; the work continues on
+     * whatever thread completes the future.
+     *
+     * @param ri The routed request; its body must be read before returning
+     * @return The response, completed when it can be written
+     */
+    CompletableFuture<Response> handleAsync(RequestInfo ri);
+
+    /**
+     * Waits for the response and writes it, for callers without
+     * asynchronous support.
+     */
+    @Override
+    default void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        Response response;
+        try {
+            response = handleAsync(ri).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        } catch (ExecutionException e) {
+            throw new IOException("Asynchronous request failed", e.getCause());
+        }
+        response.writeTo(ri, toClient);
+    }
+}
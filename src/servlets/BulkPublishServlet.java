@@ -0,0 +1,188 @@
+package servlets;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.HttpResponse;
+import server.RequestParser.RequestInfo;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Publishes many topic values with one request (POST /publish), for
+ * backfills and high-rate feeders.
+ *
+ * The body is either text, one update per line:
+ * <pre>
+ * A=1.5
+ * B=hello
+ * </pre>
+ * or, with Content-Type application/octet-stream, binary value records
+ * (see ValueRecords). Updates are published in body order while the body is
+ * read, so a large body is never held in memory as a whole.
+ *
+ * Lines that are malformed or name a topic that is not part of the current
+ * configuration are skipped and counted; the reply is a small JSON object:
+ * <pre>
+ * {"published":9998,"rejected":2,"errors":["line 17: unknown topic X", ...]}
+ * </pre>
+ * A client that sends "Prefer: return=minimal" gets 204 with no body
+ * instead when every update was published.
+ *
+ * @author Advanced Programming Course
+ */
+public class BulkPublishServlet implements Servlet {
+    /** Most error descriptions listed in a reply */
+    static final int MAX_ERRORS = 10;
+    /** Longest line accepted in a text body */
+    private static final int MAX_LINE = 64 * 1024;
+
+    private final TopicManager topicManager = TopicManagerSingleton.get();
+
+    /** Counts and first errors of one request */
+    private static final class Result {
+        long published;
+        long rejected;
+        final List<String> errors = new ArrayList<>();
+
+        void reject(String error) {
+            rejected++;
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(error);
+            }
+        }
+    }
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        Result result = new Result();
+        int status = 200;
+        String contentType = ri.getHeader("Content-Type");
+        InputStream body = ri.getBodyStream();
+        try {
+            if (contentType != null && contentType.toLowerCase().startsWith("application/octet-stream")) {
+                DataInputStream records = new DataInputStream(new BufferedInputStream(body, 16 * 1024));
+                ValueRecords.read(records, (topic, value) -> publish(result, topic, new Message(value), null));
+            } else {
+                publishLines(body, result);
+            }
+        } catch (ValueRecords.RecordException e) {
+            status = 400;   // the updates before the broken record or line stay published
+            result.reject(e.getMessage());
+        }
+
+        try (HttpResponse response = new HttpResponse(ri, toClient)) {
+            String prefer = ri.getHeader("Prefer");
+            if (status == 200 && result.rejected == 0 && prefer != null && prefer.contains("return=minimal")) {
+                response.setStatus(204);
+                return;
+            }
+            response.setStatus(status);
+            response.setContentType("application/json");
+            response.print("{\"published\":").print(Long.toString(result.published))
+                    .print(",\"rejected\":").print(Long.toString(result.rejected))
+                    .print(",\"errors\":[");
+            for (int i = 0; i < result.errors.size(); i++) {
+                response.print(i > 0 ? ",\"" : "\"").print(escapeJson(result.errors.get(i))).print("\"");
+            }
+            response.print("]}");
+        }
+    }
+
+    /**
+     * Reads "topic=value" lines and publishes each as soon as it is complete.
+     */
+    private void publishLines(InputStream in, Result result) throws IOException {
+        byte[] buffer = new byte[16 * 1024];
+        ByteArrayOutputStream partial = new ByteArrayOutputStream(64);   // line continued in the next read
+        long lineNumber = 0;
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] != '\n') {
+                    continue;
+                }
+                String line;
+                if (partial.size() > 0) {
+                    partial.write(buffer, start, i - start);
+                    line = partial.toString(StandardCharsets.UTF_8);
+                    partial.reset();
+                } else {
+                    line = new String(buffer, start, i - start, StandardCharsets.UTF_8);
+                }
+                publishLine(line, ++lineNumber, result);
+                start = i + 1;
+            }
+            if (partial.size() + n - start > MAX_LINE) {
+                throw new ValueRecords.RecordException("Line " + (lineNumber + 1) + " too long");
+            }
+            partial.write(buffer, start, n - start);
+        }
+        if (partial.size() > 0) {
+            publishLine(partial.toString(StandardCharsets.UTF_8), ++lineNumber, result);
+        }
+    }
+
+    private void publishLine(String line, long lineNumber, Result result) {
+        String text = line.trim();
+        if (text.isEmpty()) {
+            return;
+        }
+        int equals = text.indexOf('=');
+        if (equals <= 0) {
+            result.reject("line " + lineNumber + ": expected topic=value");
+            return;
+        }
+        String value = text.substring(equals + 1).trim();
+        publish(result, text.substring(0, equals).trim(), parseMessage(value), "line " + lineNumber + ": ");
+    }
+
+    private void publish(Result result, String topicName, Message message, String where) {
+        Topic topic = topicManager.findTopic(topicName);
+        if (topic == null) {
+            result.reject((where != null ? where : "record " + (result.published + result.rejected + 1) + ": ")
+                          + "unknown topic " + topicName);
+            return;
+        }
+        topic.publish(message);
+        result.published++;
+    }
+
+    private static Message parseMessage(String value) {
+        try {
+            return new Message(Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            return new Message(value);
+        }
+    }
+
+    private static String escapeJson(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
@@ -1,44 +1,39 @@
 package servlets;
 
+import server.HttpResponse;
+import server.MultipartStream;
 import server.RequestParser.RequestInfo;
 import configs.GenericConfig;
 import configs.Graph;
+import views.GraphViewCache;
 import views.HtmlGraphWriter;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.List;
 
 public class ConfLoader implements Servlet {
     private GenericConfig currentConfig;
     
     @Override
     public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        Path tempConfigPath = null;
         try {
-            // Extract file content from request
-            byte[] content = ri.getContent();
+            // Stream the uploaded file into a temporary file; large
+            // configurations are never held in memory as a whole
+            tempConfigPath = Files.createTempFile("uploaded_config_", ".conf");
+            long[] stats = saveUpload(ri, tempConfigPath);
             
-            if (content == null || content.length == 0) {
+            if (stats[0] == 0) {
                 sendErrorResponse(toClient, "No file content received");
                 return;
             }
             
-            // Convert content to string (assuming text file)
-            String configContent = new String(content, "UTF-8").trim();
-            
-            if (configContent.isEmpty()) {
+            if (stats[1] == 0) {
                 sendErrorResponse(toClient, "Configuration file is empty");
                 return;
             }
             
-            // Generate a unique filename for the uploaded config
-            String timestamp = String.valueOf(System.currentTimeMillis());
-            String filename = "uploaded_config_" + timestamp + ".conf";
-            
-            // Save the configuration to a temporary file
-            Path tempConfigPath = Paths.get(filename);
-            Files.write(tempConfigPath, configContent.getBytes("UTF-8"));
+            String filename = tempConfigPath.toString();
             
             try {
                 // Close any existing configuration first
@@ -66,41 +61,87 @@ public class ConfLoader implements Servlet {
                     return;
                 }
                 
-                // Generate graph visualization HTML
-                List<String> graphHtml = HtmlGraphWriter.getGraphHTML(graph);
-                String htmlResponse = String.join("\n", graphHtml);
+                // Lay out the graph, reusing the cached view when the same
+                // structure was rendered before; the page loads it from /graph.json
+                GraphViewCache.get().render(graph);
                 
                 // Send successful response
-                sendHtmlResponse(toClient, htmlResponse);
+                sendGraphResponse(ri, toClient, HtmlGraphWriter.getGraphPage());
                 
             } catch (Exception e) {
                 sendErrorResponse(toClient, "Error loading configuration: " + e.getMessage());
-            } finally {
-                // Clean up temporary file
+            }
+            
+        } catch (Exception e) {
+            sendErrorResponse(toClient, "Error processing upload: " + e.getMessage());
+        } finally {
+            // Clean up temporary file
+            if (tempConfigPath != null) {
                 try {
                     Files.deleteIfExists(tempConfigPath);
                 } catch (IOException e) {
                     // Ignore cleanup errors
                 }
             }
-            
-        } catch (Exception e) {
-            sendErrorResponse(toClient, "Error processing upload: " + e.getMessage());
         }
     }
     
+    /**
+     * Copies the uploaded configuration to a file while it is received: the
+     * file part of a multipart form, or else the whole request body.
+     * 
+     * @return {bytes written, non-whitespace bytes}
+     */
+    private long[] saveUpload(RequestInfo ri, Path target) throws IOException {
+        InputStream upload = ri.getBodyStream();
+        String contentType = ri.getHeader("Content-Type");
+        if (contentType != null && contentType.toLowerCase().contains("multipart/form-data")) {
+            MultipartStream parts = new MultipartStream(upload, contentType);
+            MultipartStream.Part part;
+            while ((part = parts.nextPart()) != null && part.getFilename() == null) {
+                // Skip form fields before the file
+            }
+            if (part == null) {
+                return new long[] { 0, 0 };
+            }
+            upload = part.getInputStream();
+        }
+        
+        long written = 0;
+        long content = 0;
+        byte[] buffer = new byte[8192];
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int n;
+            while ((n = upload.read(buffer)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (!Character.isWhitespace(buffer[i])) {
+                        content++;
+                    }
+                }
+                out.write(buffer, 0, n);
+                written += n;
+            }
+        }
+        return new long[] { written, content };
+    }
+    
     private void sendHtmlResponse(OutputStream toClient, String html) throws IOException {
-        String response = String.format(
-            "HTTP/1.1 200 OK\r\n" +
-            "Content-Type: text/html; charset=UTF-8\r\n" +
-            "Content-Length: %d\r\n" +
-            "Cache-Control: no-cache\r\n" +
-            "\r\n" +
-            "%s",
-            html.getBytes("UTF-8").length, html
-        );
-        toClient.write(response.getBytes("UTF-8"));
-        toClient.flush();
+        try (HttpResponse response = new HttpResponse(toClient)) {
+            response.setContentType("text/html; charset=UTF-8");
+            response.setHeader("Cache-Control", "no-cache");
+            response.print(html);
+        }
+    }
+    
+    private void sendGraphResponse(RequestInfo ri, OutputStream toClient, HtmlGraphWriter.Page page) throws IOException {
+        // The page is already encoded and shared: it is written through
+        // without copying, and compressed at most once
+        try (HttpResponse response = new HttpResponse(ri, toClient)) {
+            response.setContentType("text/html; charset=UTF-8");
+            response.setHeader("ETag", page.getETag());
+            response.setHeader("Cache-Control", "no-cache");
+            response.writeShared(page.getBytes());
+        }
     }
     
     private void sendErrorResponse(OutputStream toClient, String error) throws IOException {
@@ -153,7 +194,10 @@ public class ConfLoader implements Servlet {
     public void close() throws IOException {
         if (currentConfig != null) {
             try {
+                // Once only: the server may close its servlets twice, and a
+                // second close would clear the topics of a later configuration
                 currentConfig.close();
+                currentConfig = null;
             } catch (Exception e) {
                 // Log error but don't throw
                 System.err.println("Error closing configuration: " + e.getMessage());
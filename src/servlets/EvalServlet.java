@@ -0,0 +1,157 @@
+package servlets;
+
+import graph.Message;
+import graph.Propagation;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.HttpResponse;
+import server.RequestParser.RequestInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request/response evaluation of the graph: publishes input values and
+ * answers with the values the graph computed from them, instead of
+ * publishing and then polling /topics.
+ *
+ * GET|POST /eval?A=3&amp;B=4[&amp;timeout=ms][&amp;id=correlation-id]
+ * <pre>
+ * {"id":"eval-17","complete":true,"elapsedMs":2,"outputs":{"Total":"7.0"}}
+ * </pre>
+ *
+ * Algorithm:
+ * - Every parameter except timeout and id names an input topic of the
+ *   current configuration; unknown topics are refused with 404 before
+ *   anything is published
+ * - The inputs are published within a Propagation carrying the
+ *   correlation id (the id parameter, the X-Correlation-Id header, or a
+ *   generated one), which counts the messages they cause while they are
+ *   queued at or handled by agents
+ * - The response is written as soon as that count reaches zero - the
+ *   computation is complete, with no polling or sleeping - or when the
+ *   deadline passes ("complete":false, outputs computed so far)
+ * - outputs are the sink topics (no subscribers) published by this
+ *   computation, with the values it produced, even if later publishes
+ *   have changed the topics since
+ *
+ * No thread waits for the graph (AsyncServlet): many evaluations can be
+ * pending at once.
+ *
+ * Design Pattern: Request-Reply over publish/subscribe, with a
+ * correlation id
+ *
+ * @author Advanced Programming Course
+ */
+public class EvalServlet implements AsyncServlet {
+    private static final long DEFAULT_TIMEOUT_MS = 2000;
+    private static final long MAX_TIMEOUT_MS = 10000;
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    @Override
+    public CompletableFuture<Response> handleAsync(RequestInfo ri) {
+        Map<String, String> params = ri.getParameters();
+        long timeout;
+        try {
+            String requested = params.get("timeout");
+            timeout = requested == null ? DEFAULT_TIMEOUT_MS
+                      : Math.max(0, Math.min(MAX_TIMEOUT_MS, Long.parseLong(requested)));
+        } catch (NumberFormatException e) {
+            return error(400, "Invalid timeout: " + params.get("timeout"));
+        }
+        String id = params.get("id");
+        if (id == null) {
+            id = ri.getHeader("X-Correlation-Id");
+        }
+        if (id == null) {
+            id = "eval-" + nextId.incrementAndGet();
+        } else if (!id.matches("[\\w.:-]{1,64}")) {
+            return error(400, "Invalid correlation id");   // echoed in a header
+        }
+
+        TopicManager topicManager = TopicManagerSingleton.get();
+        List<Topic> inputs = new ArrayList<>();
+        List<Message> values = new ArrayList<>();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (param.getKey().equals("timeout") || param.getKey().equals("id")) {
+                continue;
+            }
+            Topic topic = topicManager.findTopic(param.getKey());
+            if (topic == null) {
+                return error(404, "Topic '" + param.getKey() + "' does not exist in the current configuration");
+            }
+            inputs.add(topic);
+            values.add(parse(param.getValue()));
+        }
+        if (inputs.isEmpty()) {
+            return error(400, "No input topics given");
+        }
+
+        long start = System.nanoTime();
+        Propagation propagation = Propagation.start(id, () -> {
+            for (int i = 0; i < inputs.size(); i++) {
+                inputs.get(i).publish(values.get(i));
+            }
+        });
+        return propagation.quiesced().copy()
+            .completeOnTimeout(null, timeout, TimeUnit.MILLISECONDS)
+            .thenApply(done -> result(propagation, inputs, done != null, (System.nanoTime() - start) / 1_000_000));
+    }
+
+    /** Numbers as doubles, anything else as text - as /publish does */
+    private static Message parse(String value) {
+        try {
+            return new Message(Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            return new Message(value);
+        }
+    }
+
+    private static Response result(Propagation propagation, List<Topic> inputs, boolean complete, long elapsedMs) {
+        StringBuilder json = new StringBuilder(128);
+        json.append("{\"id\":");
+        TopicEventHub.appendString(json, propagation.getId());
+        json.append(",\"complete\":").append(complete);
+        json.append(",\"elapsedMs\":").append(elapsedMs);
+        json.append(",\"outputs\":{");
+        boolean first = true;
+        TopicManager topicManager = TopicManagerSingleton.get();
+        for (Map.Entry<String, Message> published : propagation.getPublished().entrySet()) {
+            Topic topic = topicManager.findTopic(published.getKey());
+            if (topic != null && topic.subs.isEmpty() && !inputs.contains(topic)) {
+                first = TopicEventHub.appendMember(json, first, published.getKey(),
+                                                   TopicEventHub.formatValue(published.getValue()));
+            }
+        }
+        json.append("}}");
+        String body = json.toString();
+        return (ri, toClient) -> {
+            try (HttpResponse response = new HttpResponse(ri, toClient)) {
+                response.setContentType("application/json; charset=UTF-8");
+                response.setHeader("Cache-Control", "no-store");
+                response.setHeader("X-Correlation-Id", propagation.getId());
+                response.print(body);
+            }
+        };
+    }
+
+    private static CompletableFuture<Response> error(int status, String message) {
+        return CompletableFuture.completedFuture((ri, toClient) -> {
+            try (HttpResponse response = new HttpResponse(ri, toClient)) {
+                response.setStatus(status);
+                response.setContentType("text/plain; charset=UTF-8");
+                response.print(message);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+    }
+}
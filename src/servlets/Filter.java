@@ -0,0 +1,46 @@
+package servlets;
+
+import server.RequestParser.RequestInfo;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Interceptor around servlets, for concerns shared by many routes (caching,
+ * timing, authentication) instead of repeating them in each servlet.
+ *
+ * Filters are registered on a server for a URI prefix (see
+ * HTTPServer.addFilter) and run in registration order before the routed
+ * servlet. A filter may act before and after the rest of the chain, pass
+ * it a different output stream (e.g. to capture the response), or answer
+ * the request itself by not calling proceed:
+ * <pre>
+ * server.addFilter("/", (ri, toClient, chain) -&gt; {
+ *     long start = System.nanoTime();
+ *     chain.proceed(ri, toClient);
+ *     log(ri.getUri(), System.nanoTime() - start);
+ * });
+ * </pre>
+ *
+ * Design Pattern: Chain of Responsibility
+ *
+ * @author Advanced Programming Course
+ */
+@FunctionalInterface
+public interface Filter {
+    /**
+     * The filters after this one, and the servlet.
+     */
+    interface Chain {
+        void proceed(RequestInfo ri, OutputStream toClient) throws IOException;
+    }
+
+    /**
+     * Handles a request, usually by calling chain.proceed.
+     *
+     * @param ri The routed request
+     * @param toClient Output stream for the HTTP response
+     * @param chain The rest of the chain
+     * @throws IOException if an I/O error occurs during request handling
+     */
+    void filter(RequestInfo ri, OutputStream toClient, Chain chain) throws IOException;
+}
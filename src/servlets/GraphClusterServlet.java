@@ -0,0 +1,53 @@
+package servlets;
+
+import server.HttpResponse;
+import server.RequestParser.RequestInfo;
+import views.GraphView;
+import views.GraphViewCache;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Drill-down endpoint for clustered graph views.
+ *
+ * GET /graph/cluster          - top level of the current hierarchy
+ * GET /graph/cluster?id=c12   - children of cluster c12 with aggregated edges
+ *
+ * Each response holds a single level of the hierarchy, so its size is
+ * bounded no matter how large the loaded configuration is. Levels are
+ * serialized once per graph version and tagged with the version's ETag, so
+ * revisiting a cluster costs a 304.
+ */
+public class GraphClusterServlet implements Servlet {
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        String clusterId = ri.getParameters().get("id");
+        GraphView view = GraphViewCache.get().current();
+        String json = view == null ? null : view.getClusterViewJson(clusterId);
+
+        try (HttpResponse response = new HttpResponse(ri, toClient)) {
+            response.setHeader("Cache-Control", "no-cache");
+
+            if (json == null) {
+                response.setStatus(404).setContentType("application/json; charset=UTF-8");
+                response.print("{\"error\":\"No clustered graph loaded or unknown cluster\"}");
+                return;
+            }
+
+            response.setHeader("ETag", view.getETag());
+            if (ri.matchesIfNoneMatch(view.getETag())) {
+                response.setStatus(304);
+                return;
+            }
+
+            response.setContentType("application/json; charset=UTF-8");
+            response.print(json);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
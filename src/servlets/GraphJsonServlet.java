@@ -0,0 +1,51 @@
+package servlets;
+
+import server.HttpResponse;
+import server.RequestParser.RequestInfo;
+import views.GraphView;
+import views.GraphViewCache;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streams the data of the currently loaded graph as JSON.
+ *
+ * GET /graph.json - top-level view: nodes, edges, canvas size and summary
+ *
+ * The body is encoded directly into the response, which streams it with
+ * chunked transfer encoding (compressed on the fly if the client accepts
+ * gzip or deflate), so no JSON String is ever built and memory stays flat
+ * however large the graph is. The response carries the view's ETag; a
+ * client that already holds the current version receives a 304 without a body.
+ */
+public class GraphJsonServlet implements Servlet {
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        GraphView view = GraphViewCache.get().current();
+
+        try (HttpResponse response = new HttpResponse(ri, toClient)) {
+            response.setHeader("Cache-Control", "no-cache");
+
+            if (view == null) {
+                response.setStatus(404).setContentType("application/json; charset=UTF-8");
+                response.print("{\"error\":\"No graph loaded\"}");
+                return;
+            }
+
+            response.setHeader("ETag", view.getETag());
+            if (ri.matchesIfNoneMatch(view.getETag())) {
+                response.setStatus(304);
+                return;
+            }
+
+            response.setContentType("application/json; charset=UTF-8");
+            view.writeJson(response);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
@@ -0,0 +1,43 @@
+package servlets;
+
+import server.HttpResponse;
+import server.RequestParser.RequestInfo;
+import views.HtmlGraphWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serves the graph page.
+ *
+ * GET /graph/view - the graph page, revalidated with ETag / If-None-Match
+ *
+ * The page is the same for every graph: it fetches the current data from
+ * /graph.json after loading. Clients therefore keep a single cached copy and
+ * receive a 304 until graph.html itself changes. The compressed form of
+ * the page is computed once and shared by all responses.
+ */
+public class GraphViewServlet implements Servlet {
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        HtmlGraphWriter.Page page = HtmlGraphWriter.getGraphPage();
+
+        try (HttpResponse response = new HttpResponse(ri, toClient)) {
+            response.setHeader("ETag", page.getETag());
+            response.setHeader("Cache-Control", "no-cache");
+
+            if (ri.matchesIfNoneMatch(page.getETag())) {
+                response.setStatus(304);
+                return;
+            }
+
+            response.setContentType("text/html; charset=UTF-8");
+            response.writeShared(page.getBytes());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
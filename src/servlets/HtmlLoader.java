@@ -1,16 +1,40 @@
 package servlets;
 
+import server.HttpResponse;
 import server.RequestParser.RequestInfo;
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
 
+/**
+ * Serves the static files of a directory (the dashboard pages).
+ *
+ * Files are looked up in a {@link StaticFileCache}, which is invalidated
+ * when files change, so a request normally touches neither the file system
+ * nor the disk. Responses carry ETag and Last-Modified; a client whose copy
+ * is current receives a 304 without a body. Cached contents are sent from
+ * memory (compressed once if the client accepts it), larger files straight
+ * from disk with FileChannel.transferTo.
+ */
 public class HtmlLoader implements Servlet {
     private final String htmlDirectory;
+    private final StaticFileCache cache;
+    private volatile String cacheControl = "no-cache";
     
     public HtmlLoader(String htmlDirectory) {
         this.htmlDirectory = htmlDirectory;
+        this.cache = new StaticFileCache(htmlDirectory);
+    }
+    
+    /**
+     * Sets how long clients may use a file without asking again.
+     * With 0 (the default) they revalidate on every use, which costs a 304
+     * while the file is unchanged.
+     * 
+     * @param seconds Cache lifetime in seconds
+     */
+    public void setMaxAge(int seconds) {
+        this.cacheControl = seconds > 0 ? "public, max-age=" + seconds : "no-cache";
     }
     
     @Override
@@ -41,29 +65,21 @@ public class HtmlLoader implements Servlet {
                 filename += ".html";
             }
             
-            // Construct file path
-            Path filePath = Paths.get(htmlDirectory, filename);
-            
-            // Security check: ensure the file is within the HTML directory
-            Path htmlDirPath = Paths.get(htmlDirectory).toAbsolutePath().normalize();
-            Path requestedPath = filePath.toAbsolutePath().normalize();
-            
-            if (!requestedPath.startsWith(htmlDirPath)) {
+            // Look the file up; the cache rejects paths leaving the directory
+            StaticFileCache.Entry file;
+            try {
+                file = cache.get(filename);
+            } catch (AccessDeniedException e) {
                 sendErrorResponse(toClient, 403, "Access denied");
                 return;
             }
             
-            // Check if file exists
-            if (!Files.exists(filePath) || Files.isDirectory(filePath)) {
+            if (file == null) {
                 sendFileNotFoundResponse(toClient, filename);
                 return;
             }
             
-            // Read and serve the file
-            byte[] fileContent = Files.readAllBytes(filePath);
-            String contentType = getContentType(filename);
-            
-            sendFileResponse(toClient, fileContent, contentType);
+            sendFileResponse(ri, toClient, file, getContentType(filename));
             
         } catch (Exception e) {
             sendErrorResponse(toClient, 500, "Internal server error: " + e.getMessage());
@@ -101,19 +117,26 @@ public class HtmlLoader implements Servlet {
         }
     }
     
-    private void sendFileResponse(OutputStream toClient, byte[] content, String contentType) throws IOException {
-        String headers = String.format(
-            "HTTP/1.1 200 OK\r\n" +
-            "Content-Type: %s\r\n" +
-            "Content-Length: %d\r\n" +
-            "Cache-Control: no-cache\r\n" +
-            "\r\n",
-            contentType, content.length
-        );
-        
-        toClient.write(headers.getBytes("UTF-8"));
-        toClient.write(content);
-        toClient.flush();
+    private void sendFileResponse(RequestInfo ri, OutputStream toClient, StaticFileCache.Entry file,
+                                  String contentType) throws IOException {
+        try (HttpResponse response = new HttpResponse(ri, toClient)) {
+            response.setHeader("ETag", file.getETag());
+            response.setHeader("Last-Modified", file.getLastModifiedHeader());
+            response.setHeader("Cache-Control", cacheControl);
+            
+            if (ri.matchesIfNoneMatch(file.getETag()) || ri.notModifiedSince(file.getLastModified())) {
+                response.setStatus(304);
+                return;
+            }
+            
+            response.setContentType(contentType);
+            if (file.getContent() != null) {
+                // Same array every time, so it is compressed only once
+                response.writeShared(file.getContent());
+            } else {
+                response.sendFile(FileChannel.open(file.getPath()), file.getSize());
+            }
+        }
     }
     
     private void sendFileNotFoundResponse(OutputStream toClient, String filename) throws IOException {
@@ -155,30 +178,11 @@ public class HtmlLoader implements Servlet {
     }
     
     private void sendErrorResponse(OutputStream toClient, int statusCode, String content) throws IOException {
-        String statusText = getStatusText(statusCode);
         boolean isHtml = content.trim().startsWith("<!DOCTYPE") || content.trim().startsWith("<html>");
-        String contentType = isHtml ? "text/html; charset=UTF-8" : "text/plain";
-        
-        String response = String.format(
-            "HTTP/1.1 %d %s\r\n" +
-            "Content-Type: %s\r\n" +
-            "Content-Length: %d\r\n" +
-            "\r\n" +
-            "%s",
-            statusCode, statusText, contentType, content.getBytes("UTF-8").length, content
-        );
-        
-        toClient.write(response.getBytes("UTF-8"));
-        toClient.flush();
-    }
-    
-    private String getStatusText(int statusCode) {
-        switch (statusCode) {
-            case 200: return "OK";
-            case 403: return "Forbidden";
-            case 404: return "Not Found";
-            case 500: return "Internal Server Error";
-            default: return "Unknown";
+        try (HttpResponse response = new HttpResponse(toClient)) {
+            response.setStatus(statusCode);
+            response.setContentType(isHtml ? "text/html; charset=UTF-8" : "text/plain");
+            response.print(content);
         }
     }
     
@@ -193,6 +197,6 @@ public class HtmlLoader implements Servlet {
     
     @Override
     public void close() throws IOException {
-        // No resources to close
+        cache.close();
     }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package servlets;
 
 import server.RequestParser.RequestInfo;
 import graph.TopicManagerSingleton;
+import views.GraphViewCache;
 import java.io.*;
 
 public class ResetServlet implements Servlet {
@@ -10,6 +11,7 @@ public class ResetServlet implements Servlet {
     public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
         // Clear all topics
         TopicManagerSingleton.get().clear();
+        GraphViewCache.get().clear();
         
         // Send success response
         String response = "<!DOCTYPE html><html><head>" +
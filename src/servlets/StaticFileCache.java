@@ -0,0 +1,335 @@
+package servlets;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of the static files below one directory.
+ *
+ * A request for a cached file costs one map lookup: no file system calls,
+ * no disk read, and no path normalization if the request names the file
+ * the way it is stored (its normalized path relative to the directory,
+ * e.g. "css/style.css"). Other spellings of that path ("./css/style.css",
+ * "a/../css/style.css") are normalized and find the same entry, so they
+ * cannot add entries of their own. Each entry holds the file's size,
+ * modification time and validators (ETag, Last-Modified) and, for files up
+ * to {@link #MAX_CACHED_SIZE}, the content itself. Larger files are sent from
+ * disk with FileChannel.transferTo, so they do not occupy the heap.
+ *
+ * Entries are invalidated by a WatchService on the directory tree instead of
+ * checking the file on every request. Every change event bumps a generation
+ * counter; a file loaded while an event arrived is not cached, so a change
+ * racing with a load cannot leave a stale entry. A directory that does not
+ * exist yet, or is deleted and created anew, is registered by the first
+ * lookup after it appears. If the file system cannot be watched, entries
+ * are revalidated against the file's size and modification time on each
+ * access instead.
+ *
+ * Only files that exist are cached, so requests for random missing paths do
+ * not fill the cache, and at most MAX_ENTRIES of them; further files are
+ * loaded on every request.
+ *
+ * @author Advanced Programming Course
+ */
+final class StaticFileCache implements Closeable {
+    /** Files up to this size are kept in memory */
+    static final long MAX_CACHED_SIZE = 1024 * 1024;
+    /** Total size of the file contents kept in memory */
+    static final long MAX_CACHED_BYTES = 64L * 1024 * 1024;
+    /** Files kept at most, with or without content */
+    static final int MAX_ENTRIES = 4096;
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final Path root;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong();
+    private final WatchService watcher;
+    private final Thread watchThread;
+    private volatile boolean rootWatched;
+
+    /**
+     * A cached file. Immutable; a changed file gets a new entry.
+     */
+    static final class Entry {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+        private final String etag;
+        private final String lastModifiedHeader;
+        private final byte[] content;
+
+        private Entry(Path path, long size, long lastModified, byte[] content) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+            this.lastModifiedHeader = HTTP_DATE.format(Instant.ofEpochMilli(lastModified));
+            this.content = content;
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        /** @return Modification time in epoch milliseconds */
+        long getLastModified() {
+            return lastModified;
+        }
+
+        /** @return Quoted entity tag derived from modification time and size */
+        String getETag() {
+            return etag;
+        }
+
+        /** @return Modification time formatted as an HTTP date */
+        String getLastModifiedHeader() {
+            return lastModifiedHeader;
+        }
+
+        /** @return The file content, or null if the file is too large to cache; shared, must not be modified */
+        byte[] getContent() {
+            return content;
+        }
+    }
+
+    /**
+     * @param directory The directory to serve; watched for changes
+     */
+    StaticFileCache(String directory) {
+        this.root = Path.of(directory).toAbsolutePath().normalize();
+        WatchService service = null;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            closeQuietly(service);
+            service = null;   // revalidate on access instead
+        }
+        this.watcher = service;
+        if (watcher != null) {
+            watchThread = new Thread(this::watch, "static-file-watcher");
+            watchThread.setDaemon(true);
+            watchThread.start();
+        } else {
+            watchThread = null;
+        }
+        watchRoot();
+    }
+
+    /**
+     * Looks up a file by its path relative to the directory.
+     *
+     * @param relativePath Path from the request, e.g. "css/style.css"
+     * @return The entry, or null if there is no such regular file
+     * @throws AccessDeniedException if the path leads outside the directory
+     */
+    Entry get(String relativePath) throws IOException {
+        Entry entry = entries.get(relativePath);
+        if (entry != null && (rootWatched || isCurrent(entry))) {
+            return entry;
+        }
+        Path file = root.resolve(relativePath).normalize();
+        if (!file.startsWith(root)) {
+            throw new AccessDeniedException(relativePath);
+        }
+        String key = root.relativize(file).toString().replace(File.separatorChar, '/');
+        if (!key.equals(relativePath)) {
+            entry = entries.get(key);   // another spelling of a stored path
+            if (entry != null && (rootWatched || isCurrent(entry))) {
+                return entry;
+            }
+        }
+        return load(key, file);
+    }
+
+    /**
+     * @return true if file changes are detected by the watch service
+     */
+    boolean isWatching() {
+        return rootWatched;
+    }
+
+    /**
+     * Registers the directory tree with the watch service if it exists and
+     * is not registered yet.
+     */
+    private void watchRoot() {
+        if (watcher == null || rootWatched) {
+            return;
+        }
+        synchronized (this) {
+            if (!rootWatched && Files.isDirectory(root)) {
+                try {
+                    registerTree(watcher, root);
+                    rootWatched = true;
+                } catch (IOException | ClosedWatchServiceException e) {
+                    // Not watched: entries are revalidated on access
+                }
+            }
+        }
+    }
+
+    /**
+     * @param key The normalized path relative to the directory
+     * @param file The file it names
+     */
+    private Entry load(String key, Path file) throws IOException {
+        watchRoot();   // before reading, so a change from now on is seen
+        long loadedGeneration = generation.get();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            remove(key);
+            return null;   // missing or unreadable
+        }
+        if (!attributes.isRegularFile()) {
+            remove(key);
+            return null;
+        }
+
+        long size = attributes.size();
+        byte[] content = null;
+        if (size <= MAX_CACHED_SIZE && cachedBytes.get() + size <= MAX_CACHED_BYTES) {
+            content = Files.readAllBytes(file);
+            size = content.length;
+        }
+        Entry entry = new Entry(file, size, attributes.lastModifiedTime().toMillis(), content);
+
+        // Not cached if the tree changed meanwhile; the next request loads it again
+        if (generation.get() == loadedGeneration && (entries.size() < MAX_ENTRIES || entries.containsKey(key))) {
+            Entry previous = entries.put(key, entry);
+            account(entry, 1);
+            if (previous != null) {
+                account(previous, -1);
+            }
+            if (generation.get() != loadedGeneration && entries.remove(key, entry)) {
+                account(entry, -1);   // an event arrived during the put
+            }
+        }
+        return entry;
+    }
+
+    private boolean isCurrent(Entry entry) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(entry.path, BasicFileAttributes.class);
+            return attributes.size() == entry.size && attributes.lastModifiedTime().toMillis() == entry.lastModified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void remove(String relativePath) {
+        Entry removed = entries.remove(relativePath);
+        if (removed != null) {
+            account(removed, -1);
+        }
+    }
+
+    private void account(Entry entry, int sign) {
+        if (entry.content != null) {
+            cachedBytes.addAndGet(sign * (long) entry.content.length);
+        }
+    }
+
+    /** Drops the entries of a changed file, or of everything below a changed directory */
+    private void invalidate(Path changed) {
+        for (Map.Entry<String, Entry> cached : entries.entrySet()) {
+            if (cached.getValue().path.startsWith(changed) && entries.remove(cached.getKey(), cached.getValue())) {
+                account(cached.getValue(), -1);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Watching
+    // ------------------------------------------------------------------
+
+    private static void registerTree(WatchService service, Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                             StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                generation.incrementAndGet();
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    invalidate(root);   // events were lost
+                    continue;
+                }
+                Path changed = dir.resolve((Path) event.context());
+                invalidate(changed);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(changed, LinkOption.NOFOLLOW_LINKS)) {
+                    try {
+                        registerTree(watcher, changed);
+                    } catch (IOException | ClosedWatchServiceException e) {
+                        // Directory vanished again, or the cache is closing
+                    }
+                }
+            }
+            if (!key.reset()) {
+                generation.incrementAndGet();
+                invalidate(dir);   // directory deleted
+                if (dir.equals(root)) {
+                    rootWatched = false;   // registered again once it exists
+                }
+            }
+        }
+    }
+
+    /** Stops watching the directory */
+    @Override
+    public void close() {
+        closeQuietly(watcher);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore errors during shutdown
+            }
+        }
+    }
+}
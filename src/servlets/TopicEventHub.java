@@ -0,0 +1,427 @@
+package servlets;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Turns topic publications into Server-Sent Events frames shared by all
+ * connected viewers.
+ *
+ * Algorithm:
+ * 1. Every publication gets a sequence number and replaces the topic's
+ *    pending value, so a topic that changes many times between two frames
+ *    is sent once, with its latest value
+ * 2. At most once per interval a single scheduler thread encodes the
+ *    pending values into one frame (bytes ready to write) and wakes the
+ *    waiting clients
+ * 3. A client that has seen everything up to the frame's start writes the
+ *    shared bytes as they are; one that fell behind (it is slow, or limited
+ *    to a lower rate) gets a catch-up frame with the latest value of every
+ *    topic that changed since the last event it received
+ * So the cost of an update is one encoding plus one write per client, no
+ * matter how many clients there are, and a slow client never queues up
+ * frames: it skips straight to the current values.
+ *
+ * Publishing runs on the publisher's thread (including the ingest
+ * servers'), so it does little: the message is kept as it is and
+ * formatted only when a frame is encoded, and while no client is
+ * streaming a publication returns without taking the lock. A client that
+ * connects after such an idle period gets a snapshot instead of resuming.
+ *
+ * Events:
+ * - "snapshot": all topics, sent when a client connects
+ * - "reset": all topics were removed; the view should be emptied
+ * - message (unnamed): the changed topics, as {"name": "value", ...}
+ * Each frame carries the sequence number as its id, so a reconnecting
+ * EventSource resumes with only the values it missed.
+ *
+ * Clients wait on a ReentrantLock condition rather than Object.wait, which
+ * would pin the carrier of a virtual thread for the life of the stream.
+ *
+ * Design Pattern: Observer (publish listener), Publish-Subscribe fan-out
+ *
+ * @author Advanced Programming Course
+ */
+final class TopicEventHub implements TopicManager.PublishListener, Closeable {
+    /** Minimum time between two frames, i.e. a maximum of 4 updates per second */
+    static final long DEFAULT_INTERVAL_MILLIS = 250;
+
+    private static final byte[] NO_EVENTS = new byte[0];
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition frameBuilt = lock.newCondition();
+    private final ScheduledExecutorService scheduler;
+
+    // All guarded by lock
+    private final Map<String, Update> latest = new HashMap<>();          // every topic's last value
+    private final Map<String, Update> changed = new LinkedHashMap<>();   // changed since the last frame
+    private long sequence;
+    private long resetSequence;
+    private boolean resetPending;
+    private Frame current = new Frame(0, 0, NO_EVENTS);
+    private boolean frameScheduled;
+    private long lastFrameNanos;
+    private long intervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INTERVAL_MILLIS);
+    private boolean closed;
+    private int clients;              // streaming clients, written with the lock held
+    private volatile boolean idle = true;
+    private long resumeFloor;         // no resuming from events before it (an idle period)
+
+    /** The latest message of one topic and the sequence number it was published with */
+    private static final class Update {
+        final String topic;
+        final Message message;
+        final long sequence;
+
+        Update(String topic, Message message, long sequence) {
+            this.topic = topic;
+            this.message = message;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Encoded events covering the sequence numbers after from up to and
+     * including to. Immutable; the bytes are shared by all clients.
+     */
+    static final class Frame {
+        final long from;
+        final long to;
+        final byte[] bytes;
+
+        Frame(long from, long to, byte[] bytes) {
+            this.from = from;
+            this.to = to;
+            this.bytes = bytes;
+        }
+    }
+
+    TopicEventHub() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "topic-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lastFrameNanos = System.nanoTime() - intervalNanos;
+        TopicManagerSingleton.get().addPublishListener(this);
+    }
+
+    /**
+     * @param millis Minimum time between two frames; 0 sends every change at once
+     */
+    void setInterval(long millis) {
+        lock.lock();
+        try {
+            intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getIntervalMillis() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Publisher side
+    // ------------------------------------------------------------------
+
+    @Override
+    public void published(Topic topic, Message message) {
+        if (idle) {
+            return;   // nobody to tell; the next client starts with a snapshot
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            Update update = new Update(topic.name, message, ++sequence);
+            latest.put(topic.name, update);
+            changed.put(topic.name, update);
+            scheduleFrame();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void cleared() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            resetSequence = ++sequence;
+            latest.clear();
+            changed.clear();
+            resetPending = true;
+            scheduleFrame();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Called with the lock held */
+    private void scheduleFrame() {
+        if (frameScheduled) {
+            return;   // the pending frame will include this change
+        }
+        frameScheduled = true;
+        long delay = Math.max(0, lastFrameNanos + intervalNanos - System.nanoTime());
+        scheduler.schedule(this::buildFrame, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void buildFrame() {
+        lock.lock();
+        try {
+            frameScheduled = false;
+            if (closed || (changed.isEmpty() && !resetPending)) {
+                return;
+            }
+            current = new Frame(current.to, sequence, encode(resetPending, changed.values(), sequence));
+            changed.clear();
+            resetPending = false;
+            lastFrameNanos = System.nanoTime();
+            frameBuilt.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Client side
+    // ------------------------------------------------------------------
+
+    /**
+     * Registers a streaming client, before it takes its snapshot. The first
+     * client after an idle period ends resuming from older events, since
+     * publications were not recorded meanwhile.
+     */
+    void subscribe() {
+        lock.lock();
+        try {
+            if (clients++ == 0) {
+                resumeFloor = ++sequence;
+                idle = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Ends a streaming client's registration */
+    void unsubscribe() {
+        lock.lock();
+        try {
+            if (--clients == 0) {
+                idle = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Sequence number of the newest frame; a client that connects
+     *         now has seen everything up to it once it got the snapshot
+     */
+    long currentSequence() {
+        lock.lock();
+        try {
+            return current.to;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a frame the client has not seen yet.
+     *
+     * @param seen Sequence number of the last event the client received
+     * @return The newest frame, or null on timeout or when the hub is closed
+     */
+    Frame awaitFrame(long seen, long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (!closed && current.to <= seen) {
+                if (remaining <= 0) {
+                    return null;
+                }
+                remaining = frameBuilt.awaitNanos(remaining);
+            }
+            return closed ? null : current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The bytes that bring a client from seen up to frame.to: the
+     *         shared frame if the client is up to date, otherwise a
+     *         catch-up frame with the latest value of each changed topic
+     */
+    byte[] eventsSince(long seen, Frame frame) {
+        if (frame.from == seen) {
+            return frame.bytes;
+        }
+        lock.lock();
+        try {
+            boolean reset = resetSequence > seen && resetSequence <= frame.to;
+            Map<String, Update> missed = new LinkedHashMap<>();
+            for (Update update : latest.values()) {
+                // Newer values are not in this frame yet; the next one brings them
+                if (update.sequence > seen && update.sequence <= frame.to) {
+                    missed.put(update.topic, update);
+                }
+            }
+            return encode(reset, missed.values(), frame.to);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if a client that received the event with this id can be
+     *         resumed with {@link #eventsSince} instead of a snapshot
+     */
+    boolean canResume(long lastEventId) {
+        lock.lock();
+        try {
+            return lastEventId > 0 && lastEventId >= resumeFloor && lastEventId <= current.to;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Encodes the current value of every topic, including topics that have
+     * no value yet (null).
+     *
+     * @param sequence The id of the snapshot; take it from currentSequence()
+     *                 before calling, so no change can fall between the two
+     */
+    static byte[] snapshot(long sequence) {
+        StringBuilder event = new StringBuilder(256);
+        event.append("event: snapshot\nid: ").append(sequence).append("\ndata: {");
+        boolean first = true;
+        for (Topic topic : TopicManagerSingleton.get().getTopics()) {
+            Message message = topic.getLastMessage();
+            first = appendMember(event, first, topic.name, message != null ? formatValue(message) : null);
+        }
+        event.append("}\n\n");
+        return event.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Stops listening and releases all waiting clients */
+    @Override
+    public void close() {
+        TopicManagerSingleton.get().removePublishListener(this);
+        lock.lock();
+        try {
+            closed = true;
+            frameBuilt.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        scheduler.shutdownNow();
+    }
+
+    // ------------------------------------------------------------------
+    // Encoding
+    // ------------------------------------------------------------------
+
+    private static byte[] encode(boolean reset, Collection<Update> updates, long id) {
+        StringBuilder events = new StringBuilder(128);
+        if (reset) {
+            if (updates.isEmpty()) {
+                return events.append("event: reset\nid: ").append(id).append("\ndata: {}\n\n")
+                             .toString().getBytes(StandardCharsets.UTF_8);
+            }
+            events.append("event: reset\ndata: {}\n\n");
+        }
+        events.append("id: ").append(id).append("\ndata: {");
+        boolean first = true;
+        for (Update update : updates) {
+            first = appendMember(events, first, update.topic, formatValue(update.message));
+        }
+        events.append("}\n\n");
+        return events.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static boolean appendMember(StringBuilder json, boolean first, String name, String value) {
+        if (!first) {
+            json.append(',');
+        }
+        appendString(json, name);
+        json.append(':');
+        if (value == null) {
+            json.append("null");
+        } else {
+            appendString(json, value);
+        }
+        return false;
+    }
+
+    /** Appends a JSON string; line breaks are escaped, so the event stays on one data line */
+    static void appendString(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':  json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    /** Same text as the topics table shows */
+    static String formatValue(Message message) {
+        if (!Double.isNaN(message.asDouble)) {
+            return String.valueOf(message.asDouble);
+        } else if (message.asText != null && !message.asText.isEmpty()) {
+            return message.asText;
+        } else {
+            return "Binary data";
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package servlets;
+
+import server.HttpResponse;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Server-Sent Events stream of topic values (GET /topics/events).
+ *
+ * The response stays open and receives the changed topic values as they
+ * are published, instead of the page reloading the whole topics table:
+ * <pre>
+ * const events = new EventSource('/topics/events?rate=2');
+ * events.addEventListener('snapshot', e =&gt; render(JSON.parse(e.data), true));
+ * events.onmessage = e =&gt; render(JSON.parse(e.data), false);
+ * </pre>
+ *
+ * Updates are coalesced: a client receives at most maxRate frames per
+ * second, each with the latest value of every topic that changed since the
+ * previous one. The optional rate parameter lowers the rate for one client
+ * (e.g. a dashboard on a slow link); it cannot raise it. All clients that
+ * keep up share the same encoded frame (see TopicEventHub), so a publish
+ * costs one encoding however many viewers are connected.
+ *
+ * Each open stream occupies its connection's thread, so stream only where
+ * every connection has a thread of its own (MyHTTPServer in
+ * thread-per-connection mode): on a fixed pool, a few viewers would take
+ * all the threads. With streaming turned off (setStreaming), and on a
+ * server that buffers whole responses (NioHTTPServer), the client receives
+ * the snapshot and reconnects after RETRY_POLLING_MILLIS, i.e. it polls.
+ *
+ * Frames are not compressed: each client would have to compress the shared
+ * bytes separately, and the frames are small.
+ *
+ * @author Advanced Programming Course
+ */
+public class TopicEventsServlet implements Servlet {
+    /** Comment line sent on an idle stream, so dead clients are detected and proxies keep the connection */
+    static final long KEEP_ALIVE_MILLIS = 15_000;
+    /** Reconnection delay suggested to the EventSource after a dropped stream */
+    private static final long RETRY_MILLIS = 2_000;
+    /** Reconnection delay when the server cannot stream or streaming is off */
+    private static final long RETRY_POLLING_MILLIS = 5_000;
+
+    private final TopicEventHub hub = new TopicEventHub();
+    private volatile boolean streaming = true;
+
+    /**
+     * Sets the maximum number of frames per second a client receives;
+     * changes published in between are merged into the next frame.
+     *
+     * @param framesPerSecond Positive rate; default 4
+     */
+    public void setMaxRate(double framesPerSecond) {
+        if (framesPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + framesPerSecond);
+        }
+        hub.setInterval(Math.round(1000 / framesPerSecond));
+    }
+
+    /**
+     * @param streaming false answers every request with the snapshot only,
+     *        so no request holds a thread (e.g. on a fixed thread pool);
+     *        default true
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        try (HttpResponse response = new HttpResponse(toClient)) {
+            response.setContentType("text/event-stream; charset=UTF-8");
+            response.setHeader("Cache-Control", "no-cache");
+
+            if (!streaming || !response.canStream()) {
+                response.print("retry: " + RETRY_POLLING_MILLIS + "\n\n");
+                response.write(TopicEventHub.snapshot(hub.currentSequence()));
+                return;
+            }
+
+            response.print("retry: " + RETRY_MILLIS + "\n\n");
+            hub.subscribe();
+            try {
+                long seen;
+                long lastEventId = parseLong(ri.getHeader("Last-Event-ID"), -1);
+                if (hub.canResume(lastEventId)) {
+                    seen = lastEventId;   // reconnected: the next frame brings what was missed
+                } else {
+                    seen = hub.currentSequence();
+                    response.write(TopicEventHub.snapshot(seen));
+                }
+                response.flush();
+
+                stream(response, seen, clientInterval(ri));
+            } finally {
+                hub.unsubscribe();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Event stream interrupted");
+        }
+    }
+
+    /**
+     * Writes frames until the client goes away (the write fails) or the
+     * servlet is closed.
+     */
+    private void stream(HttpResponse response, long seen, long intervalMillis)
+            throws IOException, InterruptedException {
+        while (true) {
+            TopicEventHub.Frame frame = hub.awaitFrame(seen, KEEP_ALIVE_MILLIS);
+            if (hub.isClosed()) {
+                return;
+            }
+            if (frame == null) {
+                response.print(": keep-alive\n\n");
+                response.flush();
+                continue;
+            }
+            response.write(hub.eventsSince(seen, frame));
+            response.flush();
+            seen = frame.to;
+            if (intervalMillis > 0) {
+                // Frames built meanwhile are merged into one catch-up frame
+                Thread.sleep(intervalMillis);
+            }
+        }
+    }
+
+    /**
+     * @return Extra pause after each frame for a client that asked for a
+     *         lower rate than the hub's, 0 otherwise
+     */
+    private long clientInterval(RequestInfo ri) {
+        String rate = ri.getParameters().get("rate");
+        if (rate == null) {
+            return 0;
+        }
+        try {
+            double framesPerSecond = Double.parseDouble(rate);
+            if (framesPerSecond <= 0 || Double.isNaN(framesPerSecond)) {
+                return 0;
+            }
+            return Math.max(0, Math.round(1000 / framesPerSecond) - hub.getIntervalMillis());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /** Ends all open streams */
+    @Override
+    public void close() throws IOException {
+        hub.close();
+    }
+}
@@ -0,0 +1,320 @@
+package servlets;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.HttpResponse;
+import server.RequestParser.RequestInfo;
+import server.WebSocket;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * WebSocket endpoint for machine clients (GET /ws): publish to topics and
+ * receive the messages of subscribed topics over one connection, instead of
+ * one /publish request (answered with a rendered HTML table) per message.
+ *
+ * Text messages carry commands, one per line:
+ * <pre>
+ * subscribe A B C      receive the messages of these topics ("*": all topics)
+ * unsubscribe A        stop receiving them
+ * publish A 3.5        publish a value; numbers become numeric messages
+ * </pre>
+ * Errors are answered with a text message "error &lt;reason&gt;".
+ *
+ * Binary messages carry numeric values, any number of records per message
+ * (see ValueRecords):
+ * <pre>
+ * u8 type (1 = value) | u16 name length | name (UTF-8) | f64 value (big-endian)
+ * </pre>
+ * A client publishes by sending such records; the server sends the messages
+ * of subscribed topics the same way. Text values published on a subscribed
+ * topic arrive as text messages "message &lt;topic&gt; &lt;text&gt;".
+ *
+ * Each connection has a bounded outbox drained by its own writer thread, so
+ * a publisher never waits for a subscriber's socket; the writer puts
+ * everything that queued up meanwhile into one frame. A subscriber that
+ * falls OUTBOX_CAPACITY messages behind is disconnected.
+ *
+ * Requires a server that can hand over connections (MyHTTPServer). Each
+ * connection occupies its connection's thread for as long as it is open,
+ * so register it only where every connection has a thread of its own
+ * (thread-per-connection mode, as Main does): on a fixed pool a few
+ * clients would take all the threads.
+ *
+ * @author Advanced Programming Course
+ */
+public class TopicSocketServlet implements Servlet, TopicManager.PublishListener {
+    /** Record type of a numeric value in binary messages */
+    public static final int VALUE_RECORD = ValueRecords.VALUE_RECORD;
+    /** Messages queued for one subscriber before it is considered too slow */
+    static final int OUTBOX_CAPACITY = 64 * 1024;
+    /** Most messages put into one frame */
+    private static final int MAX_BATCH = 4096;
+    private static final String ALL_TOPICS = "*";
+
+    private final TopicManager topicManager = TopicManagerSingleton.get();
+    private final Map<String, Set<Session>> subscribers = new ConcurrentHashMap<>();
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+
+    public TopicSocketServlet() {
+        topicManager.addPublishListener(this);
+    }
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        if (!WebSocket.isUpgradeRequest(ri) || !ri.canUpgrade()) {
+            try (HttpResponse response = new HttpResponse(toClient)) {
+                if (ri.canUpgrade()) {
+                    response.setStatus(426).setHeader("Upgrade", "websocket");
+                } else {
+                    response.setStatus(501);   // e.g. NioHTTPServer
+                }
+                response.setContentType("text/plain");
+                response.print("WebSocket endpoint; connect with a WebSocket client to a threaded server");
+            }
+            return;
+        }
+
+        WebSocket socket = WebSocket.accept(ri, toClient);
+        if (socket == null) {
+            return;   // unsupported version, refused
+        }
+        Session session = new Session(socket);
+        sessions.add(session);
+        try {
+            WebSocket.Frame frame;
+            while ((frame = socket.read()) != null) {
+                if (frame.isBinary()) {
+                    publishRecords(session, frame.getPayload());
+                } else {
+                    for (String line : frame.text().split("\n")) {
+                        execute(session, line.trim());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                throw e;
+            }
+            // Aborted: subscriber too slow, or the servlet is closing
+        } finally {
+            session.end();
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Commands from the client
+    // ------------------------------------------------------------------
+
+    private void execute(Session session, String line) throws IOException {
+        if (line.isEmpty()) {
+            return;
+        }
+        int space = line.indexOf(' ');
+        String command = space < 0 ? line : line.substring(0, space);
+        String arguments = space < 0 ? "" : line.substring(space + 1).trim();
+        switch (command) {
+            case "subscribe":
+                for (String topic : arguments.split("\\s+")) {
+                    if (!topic.isEmpty()) {
+                        subscribe(session, topic);
+                    }
+                }
+                break;
+            case "unsubscribe":
+                for (String topic : arguments.split("\\s+")) {
+                    unsubscribe(session, topic);
+                }
+                break;
+            case "publish":
+                String[] topicAndValue = arguments.split("\\s+", 2);
+                if (topicAndValue.length < 2) {
+                    session.socket.sendText("error usage: publish <topic> <value>");
+                } else {
+                    publish(session, topicAndValue[0], parseMessage(topicAndValue[1]));
+                }
+                break;
+            default:
+                session.socket.sendText("error unknown command: " + command);
+        }
+    }
+
+    private void publishRecords(Session session, byte[] payload) throws IOException {
+        try {
+            ValueRecords.read(new DataInputStream(new ByteArrayInputStream(payload)),
+                              (topic, value) -> publish(session, topic, new Message(value)));
+        } catch (ValueRecords.RecordException e) {
+            session.socket.sendText("error " + e.getMessage());
+        }
+    }
+
+    private void publish(Session session, String topicName, Message message) throws IOException {
+        // Like /publish, only topics of the current configuration
+        Topic topic = topicManager.findTopic(topicName);
+        if (topic == null) {
+            session.socket.sendText("error unknown topic: " + topicName);
+            return;
+        }
+        topic.publish(message);
+    }
+
+    private static Message parseMessage(String value) {
+        try {
+            return new Message(Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            return new Message(value);
+        }
+    }
+
+    private void subscribe(Session session, String topic) {
+        if (session.topics.add(topic)) {
+            subscribers.compute(topic, (t, set) -> {
+                Set<Session> subscribed = set != null ? set : ConcurrentHashMap.newKeySet();
+                subscribed.add(session);
+                return subscribed;
+            });
+        }
+    }
+
+    private void unsubscribe(Session session, String topic) {
+        if (session.topics.remove(topic)) {
+            subscribers.computeIfPresent(topic, (t, set) -> {
+                set.remove(session);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Messages to subscribers
+    // ------------------------------------------------------------------
+
+    @Override
+    public void published(Topic topic, Message message) {
+        Set<Session> direct = subscribers.get(topic.name);
+        if (direct != null) {
+            for (Session session : direct) {
+                session.deliver(topic.name, message);
+            }
+        }
+        Set<Session> all = subscribers.get(ALL_TOPICS);
+        if (all != null) {
+            for (Session session : all) {
+                if (direct == null || !direct.contains(session)) {
+                    session.deliver(topic.name, message);
+                }
+            }
+        }
+    }
+
+    /** Closes all connections */
+    @Override
+    public void close() throws IOException {
+        topicManager.removePublishListener(this);
+        for (Session session : sessions) {
+            try {
+                session.socket.close(WebSocket.GOING_AWAY, "Server shutting down");
+            } catch (IOException e) {
+                // Connection already broken
+            }
+            session.socket.abort();
+        }
+    }
+
+    private static final class Delivery {
+        final String topic;
+        final Message message;
+
+        Delivery(String topic, Message message) {
+            this.topic = topic;
+            this.message = message;
+        }
+    }
+
+    /**
+     * One client connection: its subscriptions and the writer that sends
+     * their messages.
+     */
+    private final class Session {
+        final WebSocket socket;
+        final Set<String> topics = ConcurrentHashMap.newKeySet();
+        private final BlockingQueue<Delivery> outbox = new ArrayBlockingQueue<>(OUTBOX_CAPACITY);
+        private final Thread writer;
+
+        Session(WebSocket socket) {
+            this.socket = socket;
+            this.writer = new Thread(this::write, "websocket-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        /** Called on the publishing thread; never blocks */
+        void deliver(String topic, Message message) {
+            if (!outbox.offer(new Delivery(topic, message))) {
+                socket.abort();   // too slow: drop it rather than stall publishers or grow without bound
+            }
+        }
+
+        private void write() {
+            List<Delivery> batch = new ArrayList<>(MAX_BATCH);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+            DataOutputStream records = new DataOutputStream(bytes);
+            try {
+                while (true) {
+                    batch.add(outbox.take());
+                    outbox.drainTo(batch, MAX_BATCH - 1);
+                    for (Delivery delivery : batch) {
+                        String topic = delivery.topic;
+                        Message message = delivery.message;
+                        if (!Double.isNaN(message.asDouble)) {
+                            ValueRecords.write(records, topic, message.asDouble);
+                        } else {
+                            flushRecords(bytes);   // keep the order of the messages
+                            socket.sendText("message " + topic + " " + message.asText);
+                        }
+                    }
+                    flushRecords(bytes);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                // Session ended
+            } catch (IOException e) {
+                socket.abort();   // the reader sees the broken connection and ends the session
+            }
+        }
+
+        private void flushRecords(ByteArrayOutputStream bytes) throws IOException {
+            if (bytes.size() > 0) {
+                socket.sendBinary(bytes.toByteArray(), 0, bytes.size());
+                bytes.reset();
+            }
+        }
+
+        void end() {
+            for (String topic : topics) {
+                unsubscribe(this, topic);
+            }
+            sessions.remove(this);
+            writer.interrupt();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Connection already broken
+            }
+        }
+    }
+}
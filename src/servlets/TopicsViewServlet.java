@@ -1,5 +1,6 @@
 package servlets;
 
+import server.HttpResponse;
 import server.RequestParser.RequestInfo;
 import graph.TopicManagerSingleton;
 import graph.Topic;
@@ -12,86 +13,86 @@ public class TopicsViewServlet implements Servlet {
     
     @Override
     public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
-        try {
-            // Get TopicManager
-            var topicManager = TopicManagerSingleton.get();
-            
-            // Check if this is a reset request
-            boolean showResetMessage = ri.getParameters().containsKey("reset");
-            
-            // Generate HTML response with topics table
-            String htmlResponse = generateTopicsTable(topicManager.getTopics(), showResetMessage);
-            
-            // Send HTTP response
-            sendHtmlResponse(toClient, htmlResponse);
-            
-        } catch (Exception e) {
-            sendErrorResponse(toClient, "Error displaying topics: " + e.getMessage());
+        try (HttpResponse response = new HttpResponse(ri, toClient)) {
+            try {
+                // Get TopicManager
+                var topicManager = TopicManagerSingleton.get();
+                
+                // Check if this is a reset request
+                boolean showResetMessage = ri.getParameters().containsKey("reset");
+                
+                // Stream the topics table into the response
+                writeTopicsTable(response, topicManager.getTopics(), showResetMessage);
+            } catch (Exception e) {
+                if (response.isCommitted()) {
+                    throw e;   // part of the page is already sent
+                }
+                response.reset();
+                sendErrorResponse(response, "Error displaying topics: " + e.getMessage());
+            }
         }
     }
     
-    private String generateTopicsTable(Collection<Topic> topics, boolean showResetMessage) {
-        StringBuilder html = new StringBuilder();
+    private void writeTopicsTable(HttpResponse response, Collection<Topic> topics, boolean showResetMessage) throws IOException {
+        response.setContentType("text/html; charset=UTF-8");
         
-        html.append("<!DOCTYPE html>\n");
-        html.append("<html lang=\"en\">\n");
-        html.append("<head>\n");
-        html.append("    <meta charset=\"UTF-8\">\n");
-        html.append("    <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n");
-        html.append("    <title>Topics Monitor</title>\n");
-        html.append("    <style>\n");
-        html.append("        body { font-family: Arial, sans-serif; padding: 10px; margin: 0; background-color: #f8f9fa; height: 100vh; overflow: hidden; box-sizing: border-box; }\n");
-        html.append("        .table-container { background-color: white; border-radius: 8px; padding: 15px; box-shadow: 0 2px 4px rgba(0,0,0,0.1); height: calc(100vh - 20px); box-sizing: border-box; display: flex; flex-direction: column; }\n");
-        html.append("        .table-title { color: #333; margin-bottom: 10px; font-size: 16px; font-weight: bold; text-align: center; }\n");
-        html.append("        table { width: 100%; border-collapse: collapse; flex-grow: 1; }\n");
-        html.append("        th, td { padding: 10px; text-align: left; border-bottom: 1px solid #ddd; }\n");
-        html.append("        th { background-color: #f8f9fa; font-weight: bold; color: #333; }\n");
-        html.append("        tr:hover { background-color: #f5f5f5; }\n");
-        html.append("        .topic-name { font-weight: bold; color: #1976d2; }\n");
-        html.append("        .topic-value { font-family: monospace; color: #2e7d32; }\n");
-        html.append("        .no-data { text-align: center; color: #666; font-style: italic; padding: 20px; }\n");
-        html.append("        .timestamp { font-size: 12px; color: #666; }\n");
-        html.append("        .reset-message { background-color: #e8f5e9; color: #2e7d32; padding: 10px; margin-bottom: 10px; border-radius: 4px; text-align: center; }\n");
-        html.append("    </style>\n");
-        html.append("</head>\n");
-        html.append("<body>\n");
-        html.append("    <div class=\"table-container\">\n");
-        html.append("        <div class=\"table-title\">Topic Values</div>\n");
+        response.print("<!DOCTYPE html>\n");
+        response.print("<html lang=\"en\">\n");
+        response.print("<head>\n");
+        response.print("    <meta charset=\"UTF-8\">\n");
+        response.print("    <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n");
+        response.print("    <title>Topics Monitor</title>\n");
+        response.print("    <style>\n");
+        response.print("        body { font-family: Arial, sans-serif; padding: 10px; margin: 0; background-color: #f8f9fa; height: 100vh; overflow: hidden; box-sizing: border-box; }\n");
+        response.print("        .table-container { background-color: white; border-radius: 8px; padding: 15px; box-shadow: 0 2px 4px rgba(0,0,0,0.1); height: calc(100vh - 20px); box-sizing: border-box; display: flex; flex-direction: column; }\n");
+        response.print("        .table-title { color: #333; margin-bottom: 10px; font-size: 16px; font-weight: bold; text-align: center; }\n");
+        response.print("        table { width: 100%; border-collapse: collapse; flex-grow: 1; }\n");
+        response.print("        th, td { padding: 10px; text-align: left; border-bottom: 1px solid #ddd; }\n");
+        response.print("        th { background-color: #f8f9fa; font-weight: bold; color: #333; }\n");
+        response.print("        tr:hover { background-color: #f5f5f5; }\n");
+        response.print("        .topic-name { font-weight: bold; color: #1976d2; }\n");
+        response.print("        .topic-value { font-family: monospace; color: #2e7d32; }\n");
+        response.print("        .no-data { text-align: center; color: #666; font-style: italic; padding: 20px; }\n");
+        response.print("        .timestamp { font-size: 12px; color: #666; }\n");
+        response.print("        .reset-message { background-color: #e8f5e9; color: #2e7d32; padding: 10px; margin-bottom: 10px; border-radius: 4px; text-align: center; }\n");
+        response.print("    </style>\n");
+        response.print("</head>\n");
+        response.print("<body>\n");
+        response.print("    <div class=\"table-container\">\n");
+        response.print("        <div class=\"table-title\">Topic Values</div>\n");
         
         // Show reset message if requested
         if (showResetMessage) {
-            html.append("        <div class=\"reset-message\">Topics have been reset successfully!</div>\n");
+            response.print("        <div class=\"reset-message\">Topics have been reset successfully!</div>\n");
         }
         
         if (topics.isEmpty()) {
-            html.append("        <div class=\"no-data\">No topics available</div>\n");
+            response.print("        <div class=\"no-data\">No topics available</div>\n");
         } else {
-            html.append("        <table>\n");
-            html.append("            <thead>\n");
-            html.append("                <tr>\n");
-            html.append("                    <th>Topic Name</th>\n");
-            html.append("                    <th>Latest Value</th>\n");
-            html.append("                </tr>\n");
-            html.append("            </thead>\n");
-            html.append("            <tbody>\n");
+            response.print("        <table>\n");
+            response.print("            <thead>\n");
+            response.print("                <tr>\n");
+            response.print("                    <th>Topic Name</th>\n");
+            response.print("                    <th>Latest Value</th>\n");
+            response.print("                </tr>\n");
+            response.print("            </thead>\n");
+            response.print("            <tbody>\n");
             
             for (Topic topic : topics) {
-                html.append("                <tr>\n");
-                html.append("                    <td class=\"topic-name\">").append(escapeHtml(topic.name)).append("</td>\n");
-                html.append("                    <td class=\"topic-value\">").append(getTopicValue(topic)).append("</td>\n");
-                html.append("                </tr>\n");
+                response.print("                <tr>\n");
+                response.print("                    <td class=\"topic-name\">").print(escapeHtml(topic.name)).print("</td>\n");
+                response.print("                    <td class=\"topic-value\">").print(getTopicValue(topic)).print("</td>\n");
+                response.print("                </tr>\n");
             }
             
-            html.append("            </tbody>\n");
-            html.append("        </table>\n");
+            response.print("            </tbody>\n");
+            response.print("        </table>\n");
         }
         
-        html.append("        <div class=\"timestamp\">Last updated: ").append(new java.util.Date()).append("</div>\n");
-        html.append("    </div>\n");
-        html.append("</body>\n");
-        html.append("</html>\n");
-        
-        return html.toString();
+        response.print("        <div class=\"timestamp\">Last updated: ").print(new java.util.Date().toString()).print("</div>\n");
+        response.print("    </div>\n");
+        response.print("</body>\n");
+        response.print("</html>\n");
     }
     
     private String getTopicValue(Topic topic) {
@@ -119,26 +120,11 @@ public class TopicsViewServlet implements Servlet {
                   .replace("'", "&#39;");
     }
     
-    private void sendHtmlResponse(OutputStream toClient, String html) throws IOException {
-        String response = String.format(
-            "HTTP/1.1 200 OK\r\n" +
-            "Content-Type: text/html; charset=UTF-8\r\n" +
-            "Content-Length: %d\r\n" +
-            "\r\n" +
-            "%s",
-            html.getBytes("UTF-8").length, html
-        );
-        toClient.write(response.getBytes("UTF-8"));
-        toClient.flush();
-    }
-    
-    private void sendErrorResponse(OutputStream toClient, String error) throws IOException {
-        String html = String.format(
-            "<!DOCTYPE html><html><head><title>Error</title></head>" +
-            "<body><h1>Error</h1><p>%s</p></body></html>",
-            escapeHtml(error)
-        );
-        sendHtmlResponse(toClient, html);
+    private void sendErrorResponse(HttpResponse response, String error) throws IOException {
+        response.setContentType("text/html; charset=UTF-8");
+        response.print("<!DOCTYPE html><html><head><title>Error</title></head><body><h1>Error</h1><p>")
+                .print(escapeHtml(error))
+                .print("</p></body></html>");
     }
     
     @Override
@@ -0,0 +1,89 @@
+package servlets;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of numeric topic values, shared by the WebSocket
+ * endpoint and bulk publishing. A body or message is a sequence of records:
+ * <pre>
+ * u8 type (1 = value) | u16 name length | name (UTF-8) | f64 value (big-endian)
+ * </pre>
+ * i.e. 15 bytes for a value of a four-letter topic, with no parsing of
+ * numbers from text.
+ *
+ * @author Advanced Programming Course
+ */
+final class ValueRecords {
+    /** Record type of a numeric value */
+    static final int VALUE_RECORD = 1;
+
+    /** Receives the decoded records in order */
+    interface Handler {
+        void value(String topic, double value) throws IOException;
+    }
+
+    /**
+     * Thrown for a record that cannot be decoded; the records before it
+     * have been handled.
+     */
+    static final class RecordException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RecordException(String message) {
+            super(message);
+        }
+    }
+
+    private ValueRecords() {
+    }
+
+    /**
+     * Decodes records until the input ends.
+     *
+     * @return Number of records decoded
+     * @throws RecordException for an unknown record type or a truncated record
+     */
+    static long read(DataInput in, Handler handler) throws IOException {
+        long count = 0;
+        String lastName = null;
+        byte[] lastBytes = null;
+        while (true) {
+            int type;
+            try {
+                type = in.readUnsignedByte();
+            } catch (EOFException e) {
+                return count;   // end at a record boundary
+            }
+            if (type != VALUE_RECORD) {
+                throw new RecordException("Unknown record type " + type + " in record " + (count + 1));
+            }
+            try {
+                byte[] name = new byte[in.readUnsignedShort()];
+                in.readFully(name);
+                double value = in.readDouble();
+                // Feeds mostly repeat a topic: decode its name once
+                if (!Arrays.equals(name, lastBytes)) {
+                    lastBytes = name;
+                    lastName = new String(name, StandardCharsets.UTF_8);
+                }
+                handler.value(lastName, value);
+            } catch (EOFException e) {
+                throw new RecordException("Truncated record " + (count + 1));
+            }
+            count++;
+        }
+    }
+
+    static void write(DataOutput out, String topic, double value) throws IOException {
+        byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(VALUE_RECORD);
+        out.writeShort(name.length);
+        out.write(name);
+        out.writeDouble(value);
+    }
+}
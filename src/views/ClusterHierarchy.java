@@ -0,0 +1,393 @@
+package views;
+
+import java.util.*;
+
+/**
+ * Hierarchical clustering of a laid-out graph for level-of-detail rendering.
+ * Large graphs are never sent to the browser in full: the page receives the
+ * top level of this hierarchy and expands one cluster at a time.
+ *
+ * Construction:
+ * 1. Chain collapse - maximal paths whose inner links have a single
+ *    successor and a single predecessor (e.g. IncAgent pipelines) become
+ *    one "chain" cluster
+ * 2. Ordering - units are ordered by connected component, then by their
+ *    position in the full layered layout, so neighbouring units stay together
+ * 3. Grouping - while a level holds more than {@link #MAX_VIEW_NODES}
+ *    elements, consecutive runs of {@link #FANOUT} elements are merged
+ *    into "group" clusters (long chains are split the same way)
+ *
+ * Every cluster therefore has at most FANOUT children (the top level at most
+ * MAX_VIEW_NODES), and any view - top level or drill-down - is bounded in size
+ * whatever the size of the graph. Nodes are numbered in hierarchy order, so
+ * each cluster covers a contiguous range of that numbering and membership
+ * tests are O(1).
+ *
+ * Complexity: O(V log V + E) to build; expanding a cluster costs
+ * O((members + their edges) * depth), and depth is logarithmic in V.
+ *
+ * @author Advanced Programming Course
+ */
+final class ClusterHierarchy {
+    /** Largest number of elements shown in one view */
+    static final int MAX_VIEW_NODES = 300;
+    /** Largest number of children of a cluster */
+    static final int FANOUT = 40;
+    /** Shortest path collapsed into a chain cluster */
+    private static final int MIN_CHAIN = 3;
+
+    private final HtmlGraphWriter.GraphData full;
+    private final int n;
+    private final int[] outStart, outAdj;
+
+    // Element ids: 0..n-1 are graph nodes, n + k is cluster k
+    private final List<Cluster> clusters = new ArrayList<>();
+    private int[] parent;         // parent element of each element, -1 at top level
+    private int[] rootChildren;
+    private final int[] seqIndex; // position of each node in hierarchy order
+    private final int[] seqOrder; // node at each position (inverse of seqIndex)
+    private final HtmlGraphWriter.GraphData rootView;
+
+    /** A collapsed set of nodes, covering seq positions [lo, hi) */
+    private static final class Cluster {
+        String kind;
+        String label;
+        int[] children;
+        int lo, hi;
+    }
+
+    private ClusterHierarchy(HtmlGraphWriter.GraphData full) {
+        this.full = full;
+        this.n = full.nodes.size();
+        this.seqIndex = new int[n];
+        this.seqOrder = new int[n];
+
+        outStart = new int[n + 1];
+        for (HtmlGraphWriter.GraphEdge edge : full.edges) {
+            outStart[edge.fromIndex + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            outStart[i + 1] += outStart[i];
+        }
+        outAdj = new int[full.edges.size()];
+        int[] fill = Arrays.copyOf(outStart, n);
+        for (HtmlGraphWriter.GraphEdge edge : full.edges) {
+            outAdj[fill[edge.fromIndex]++] = edge.toIndex;
+        }
+
+        build();
+        rootView = createView(-1);
+    }
+
+    /**
+     * Builds the hierarchy for a fully analyzed and laid-out graph.
+     *
+     * @param full Graph data with node positions from the full layout
+     * @return The cluster hierarchy
+     */
+    static ClusterHierarchy build(HtmlGraphWriter.GraphData full) {
+        return new ClusterHierarchy(full);
+    }
+
+    /** Returns true when a graph is too large to be shown in one view. */
+    static boolean needsClustering(HtmlGraphWriter.GraphData data) {
+        return data.nodes.size() > MAX_VIEW_NODES;
+    }
+
+    /** @return The top-level view, computed once at construction */
+    HtmlGraphWriter.GraphData getRootView() {
+        return rootView;
+    }
+
+    /**
+     * Returns the view obtained by expanding one cluster: its children plus
+     * the aggregated edges between them, laid out on their own canvas.
+     *
+     * @param clusterId Cluster id as it appears in the views ("c" + number)
+     * @return The expanded view, or null if the id is unknown
+     */
+    HtmlGraphWriter.GraphData expand(String clusterId) {
+        if (clusterId == null || clusterId.isEmpty()) {
+            return rootView;
+        }
+        if (!clusterId.startsWith("c")) {
+            return null;
+        }
+        try {
+            int k = Integer.parseInt(clusterId.substring(1));
+            if (k < 0 || k >= clusters.size()) {
+                return null;
+            }
+            return createView(n + k);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void build() {
+        int[] indeg = new int[n];
+        for (int i = 0; i < outAdj.length; i++) {
+            indeg[outAdj[i]]++;
+        }
+
+        // Phase 1: chain collapse. A node continues a chain when it has one
+        // predecessor and that predecessor has one successor.
+        boolean[] continues = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            if (outStart[v + 1] - outStart[v] == 1) {
+                int w = outAdj[outStart[v]];
+                if (w != v && indeg[w] == 1) {
+                    continues[w] = true;
+                }
+            }
+        }
+
+        List<int[]> units = new ArrayList<>();   // members of each unit
+        boolean[] visited = new boolean[n];
+        int[] path = new int[n];
+        for (int pass = 0; pass < 2; pass++) {
+            for (int v = 0; v < n; v++) {
+                // First pass starts at chain heads; the second picks up
+                // nodes on pure cycles, which have no head
+                if (visited[v] || (pass == 0 && continues[v])) continue;
+                int length = 0;
+                int cur = v;
+                while (true) {
+                    visited[cur] = true;
+                    path[length++] = cur;
+                    if (outStart[cur + 1] - outStart[cur] != 1) break;
+                    int next = outAdj[outStart[cur]];
+                    if (!continues[next] || visited[next]) break;
+                    cur = next;
+                }
+                if (length >= MIN_CHAIN) {
+                    units.add(Arrays.copyOf(path, length));
+                } else {
+                    for (int i = 0; i < length; i++) {
+                        units.add(new int[] { path[i] });
+                    }
+                }
+            }
+        }
+
+        // Phase 2: order units by component, then by layout position
+        int[] component = connectedComponents();
+        units.sort((a, b) -> {
+            HtmlGraphWriter.GraphNode na = full.nodes.get(a[0]);
+            HtmlGraphWriter.GraphNode nb = full.nodes.get(b[0]);
+            if (component[a[0]] != component[b[0]]) {
+                return Integer.compare(component[a[0]], component[b[0]]);
+            }
+            if (na.x != nb.x) {
+                return Integer.compare(na.x, nb.x);
+            }
+            return Integer.compare(na.y, nb.y);
+        });
+
+        // Phase 3: turn units into elements, then group levels
+        parent = new int[n + n / 2 + 16];
+        Arrays.fill(parent, -1);
+        int[] level = new int[units.size()];
+        for (int u = 0; u < units.size(); u++) {
+            int[] members = units.get(u);
+            if (members.length == 1) {
+                level[u] = members[0];
+            } else {
+                int[] children = members;
+                while (children.length > FANOUT) {
+                    children = group(children, "chain");
+                }
+                level[u] = newCluster("chain", children);
+            }
+        }
+        while (level.length > MAX_VIEW_NODES) {
+            level = group(level, "group");
+        }
+        rootChildren = level;
+
+        // Number nodes in hierarchy order and record the range of each cluster
+        int next = 0;
+        for (int element : rootChildren) {
+            next = number(element, next);
+        }
+        for (Cluster cluster : clusters) {
+            cluster.label = label(cluster);
+        }
+    }
+
+    /** Merges consecutive runs of FANOUT elements into new clusters. */
+    private int[] group(int[] elements, String kind) {
+        int count = (elements.length + FANOUT - 1) / FANOUT;
+        int[] grouped = new int[count];
+        for (int g = 0; g < count; g++) {
+            int from = g * FANOUT;
+            int to = Math.min(elements.length, from + FANOUT);
+            grouped[g] = newCluster(kind, Arrays.copyOfRange(elements, from, to));
+        }
+        return grouped;
+    }
+
+    private int newCluster(String kind, int[] children) {
+        Cluster cluster = new Cluster();
+        cluster.kind = kind;
+        cluster.children = children;
+        clusters.add(cluster);
+        int id = n + clusters.size() - 1;
+        if (id >= parent.length) {
+            int old = parent.length;
+            parent = Arrays.copyOf(parent, old * 2);
+            Arrays.fill(parent, old, parent.length, -1);
+        }
+        for (int child : children) {
+            parent[child] = id;
+        }
+        return id;
+    }
+
+    private int number(int element, int next) {
+        if (element < n) {
+            seqIndex[element] = next;
+            seqOrder[next] = element;
+            return next + 1;
+        }
+        Cluster cluster = clusters.get(element - n);
+        cluster.lo = next;
+        for (int child : cluster.children) {
+            next = number(child, next);
+        }
+        cluster.hi = next;
+        return next;
+    }
+
+    private String label(Cluster cluster) {
+        int first = firstNode(cluster);
+        int last = lastNode(cluster);
+        int size = cluster.hi - cluster.lo;
+        if ("chain".equals(cluster.kind)) {
+            return full.nodes.get(first).name + " .. " + full.nodes.get(last).name;
+        }
+        return size + " nodes";
+    }
+
+    private int firstNode(Cluster cluster) {
+        int element = cluster.children[0];
+        while (element >= n) {
+            element = clusters.get(element - n).children[0];
+        }
+        return element;
+    }
+
+    private int lastNode(Cluster cluster) {
+        int element = cluster.children[cluster.children.length - 1];
+        while (element >= n) {
+            int[] children = clusters.get(element - n).children;
+            element = children[children.length - 1];
+        }
+        return element;
+    }
+
+    /** Union-find over the undirected edges; returns a representative per node. */
+    private int[] connectedComponents() {
+        int[] root = new int[n];
+        for (int v = 0; v < n; v++) root[v] = v;
+        for (int v = 0; v < n; v++) {
+            for (int i = outStart[v]; i < outStart[v + 1]; i++) {
+                int a = find(root, v), b = find(root, outAdj[i]);
+                if (a != b) root[Math.max(a, b)] = Math.min(a, b);
+            }
+        }
+        for (int v = 0; v < n; v++) root[v] = find(root, v);
+        return root;
+    }
+
+    private static int find(int[] root, int v) {
+        while (root[v] != v) {
+            root[v] = root[root[v]];
+            v = root[v];
+        }
+        return v;
+    }
+
+    /**
+     * Creates the view of one level: the children of a cluster (or the top
+     * level for -1), with edges aggregated between them. Edges leaving the
+     * expanded cluster are not drawn; their count is reported instead.
+     */
+    private HtmlGraphWriter.GraphData createView(int element) {
+        int[] children = element < 0 ? rootChildren : clusters.get(element - n).children;
+        int lo = element < 0 ? 0 : clusters.get(element - n).lo;
+        int hi = element < 0 ? n : clusters.get(element - n).hi;
+
+        HtmlGraphWriter.GraphData view = new HtmlGraphWriter.GraphData();
+        view.totalNodes = n;
+        view.clusterId = element < 0 ? null : elementId(element);
+        view.parentId = element < 0 || parent[element] < 0 ? null : elementId(parent[element]);
+
+        Map<Integer, HtmlGraphWriter.GraphNode> viewNodes = new HashMap<>();
+        for (int child : children) {
+            HtmlGraphWriter.GraphNode node = new HtmlGraphWriter.GraphNode();
+            node.index = view.nodes.size();
+            node.id = elementId(child);
+            if (child < n) {
+                HtmlGraphWriter.GraphNode original = full.nodes.get(child);
+                node.name = original.name;
+                node.type = original.type;
+            } else {
+                Cluster cluster = clusters.get(child - n);
+                node.name = cluster.label;
+                node.type = "cluster";
+                node.kind = cluster.kind;
+                node.count = cluster.hi - cluster.lo;
+            }
+            view.nodes.add(node);
+            viewNodes.put(child, node);
+        }
+
+        // Aggregate edges between the children; members are found by range
+        Map<Long, HtmlGraphWriter.GraphEdge> edges = new LinkedHashMap<>();
+        for (int s = lo; s < hi; s++) {
+            int v = seqOrder[s];
+            int a = childOf(v, element);
+            for (int i = outStart[v]; i < outStart[v + 1]; i++) {
+                int w = outAdj[i];
+                if (seqIndex[w] < lo || seqIndex[w] >= hi) {
+                    view.externalEdges++;
+                    continue;
+                }
+                int b = childOf(w, element);
+                if (a == b) continue;
+                long key = ((long) a << 32) | (b & 0xffffffffL);
+                HtmlGraphWriter.GraphEdge edge = edges.get(key);
+                if (edge == null) {
+                    edge = new HtmlGraphWriter.GraphEdge();
+                    HtmlGraphWriter.GraphNode from = viewNodes.get(a);
+                    HtmlGraphWriter.GraphNode to = viewNodes.get(b);
+                    edge.from = from.id;
+                    edge.to = to.id;
+                    edge.fromIndex = from.index;
+                    edge.toIndex = to.index;
+                    edges.put(key, edge);
+                }
+                edge.weight++;
+            }
+        }
+        view.edges.addAll(edges.values());
+
+        HtmlGraphWriter.layoutNodesInLayers(view);
+        view.layout = "Layered (clustered)";
+        return view;
+    }
+
+    /** Walks up from a node to the child of 'element' that contains it. */
+    private int childOf(int node, int element) {
+        int current = node;
+        while (parent[current] != element) {
+            current = parent[current];
+        }
+        return current;
+    }
+
+    private String elementId(int element) {
+        return element < n ? full.nodes.get(element).id : "c" + (element - n);
+    }
+}
@@ -0,0 +1,220 @@
+package views;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Streams graph data as JSON directly to an OutputStream.
+ *
+ * The previous implementation built one String per node and edge with
+ * String.format and joined them into a single document before sending it.
+ * This writer encodes every value straight into a byte buffer and hands full
+ * buffers to the stream, so serializing a view allocates nothing per node
+ * and memory use does not grow with the size of the graph.
+ *
+ * Algorithm:
+ * - ASCII is copied byte by byte, other characters are UTF-8 encoded inline
+ * - Integers are written digit by digit (no Integer.toString)
+ * - Buffers come from a small shared pool and go back to it when the view
+ *   is written, so requests reuse them however the server runs servlets
+ *   (a fixed pool, a thread per connection, bulkheads); a buffer per
+ *   thread would be allocated once per connection with virtual threads
+ *
+ * Output format (one level of the graph):
+ * {"cluster":..,"parent":..,"width":..,"height":..,"totalNodes":..,
+ *  "externalEdges":..,"layout":"..",["topics":..,"agents":..,"connections":..,]
+ *  "nodes":[{"id","name","type","x","y"[,"kind","count"]}..],
+ *  "edges":[{"from","to"[,"weight"]}..]}
+ *
+ * @author Advanced Programming Course
+ */
+final class GraphJsonWriter {
+    /** Size of the reusable output buffer */
+    static final int BUFFER_SIZE = 8192;
+
+    private static final int POOL_SIZE = 16;
+    private static final ArrayBlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int pos;
+
+    private GraphJsonWriter(OutputStream out, byte[] buffer) {
+        this.out = out;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Writes one graph view as JSON. The stream is flushed but not closed.
+     *
+     * @param data Positioned graph data (a full graph or one cluster level)
+     * @param out Destination stream
+     * @throws IOException if writing to the stream fails
+     */
+    static void write(HtmlGraphWriter.GraphData data, OutputStream out) throws IOException {
+        byte[] pooled = POOL.poll();
+        GraphJsonWriter json = new GraphJsonWriter(out, pooled != null ? pooled : new byte[BUFFER_SIZE]);
+        try {
+            json.writeData(data);
+            json.flush();
+            out.flush();
+        } finally {
+            POOL.offer(json.buffer);   // dropped if the pool is full
+        }
+    }
+
+    private void writeData(HtmlGraphWriter.GraphData data) throws IOException {
+        raw("{\"cluster\":");
+        nullableString(data.clusterId);
+        raw(",\"parent\":");
+        nullableString(data.parentId);
+        raw(",\"width\":");
+        number(data.width);
+        raw(",\"height\":");
+        number(data.height);
+        raw(",\"totalNodes\":");
+        number(data.totalNodes > 0 ? data.totalNodes : data.nodes.size());
+        raw(",\"externalEdges\":");
+        number(data.externalEdges);
+        raw(",\"layout\":");
+        string(data.layout);
+        if (data.topics >= 0) {
+            raw(",\"topics\":");
+            number(data.topics);
+            raw(",\"agents\":");
+            number(data.agents);
+            raw(",\"connections\":");
+            number(data.connections);
+        }
+
+        raw(",\"nodes\":[");
+        for (int i = 0; i < data.nodes.size(); i++) {
+            HtmlGraphWriter.GraphNode node = data.nodes.get(i);
+            raw(i > 0 ? ",{\"id\":" : "{\"id\":");
+            string(node.id);
+            raw(",\"name\":");
+            string(node.name);
+            raw(",\"type\":");
+            string(node.type);
+            raw(",\"x\":");
+            number(node.x);
+            raw(",\"y\":");
+            number(node.y);
+            if (node.kind != null) {
+                raw(",\"kind\":");
+                string(node.kind);
+                raw(",\"count\":");
+                number(node.count);
+            }
+            put('}');
+        }
+
+        raw("],\"edges\":[");
+        for (int i = 0; i < data.edges.size(); i++) {
+            HtmlGraphWriter.GraphEdge edge = data.edges.get(i);
+            raw(i > 0 ? ",{\"from\":" : "{\"from\":");
+            string(edge.from);
+            raw(",\"to\":");
+            string(edge.to);
+            if (edge.weight > 1) {
+                raw(",\"weight\":");
+                number(edge.weight);
+            }
+            put('}');
+        }
+        raw("]}");
+    }
+
+    /** Writes a constant ASCII fragment */
+    private void raw(String ascii) throws IOException {
+        for (int i = 0; i < ascii.length(); i++) {
+            put(ascii.charAt(i));
+        }
+    }
+
+    private void nullableString(String text) throws IOException {
+        if (text == null) {
+            raw("null");
+        } else {
+            string(text);
+        }
+    }
+
+    /**
+     * Writes a quoted, escaped JSON string.
+     * '<' is escaped as well, so the output can be embedded in a script tag.
+     */
+    private void string(String text) throws IOException {
+        put('"');
+        if (text != null) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"' || c == '\\') {
+                    put('\\');
+                    put(c);
+                } else if (c == '\n') {
+                    raw("\\n");
+                } else if (c == '\r') {
+                    raw("\\r");
+                } else if (c == '\t') {
+                    raw("\\t");
+                } else if (c < 0x20 || c == '<') {
+                    raw("\\u00");
+                    put(HEX[c >> 4]);
+                    put(HEX[c & 0xF]);
+                } else if (c < 0x80) {
+                    put(c);
+                } else if (c < 0x800) {
+                    put(0xC0 | (c >> 6));
+                    put(0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                           && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, text.charAt(++i));
+                    put(0xF0 | (cp >> 18));
+                    put(0x80 | ((cp >> 12) & 0x3F));
+                    put(0x80 | ((cp >> 6) & 0x3F));
+                    put(0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    put('?');
+                } else {
+                    put(0xE0 | (c >> 12));
+                    put(0x80 | ((c >> 6) & 0x3F));
+                    put(0x80 | (c & 0x3F));
+                }
+            }
+        }
+        put('"');
+    }
+
+    /** Writes a decimal integer without allocating */
+    private void number(long value) throws IOException {
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            put((int) ('0' + value / divisor % 10));
+            divisor /= 10;
+        }
+    }
+
+    private void put(int b) throws IOException {
+        if (pos == buffer.length) {
+            flush();
+        }
+        buffer[pos++] = (byte) b;
+    }
+
+    private void flush() throws IOException {
+        if (pos > 0) {
+            out.write(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package views;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Canonical form of everything that affects the rendering of a graph:
+ * node display names, types and edges. Two graphs with equal structures
+ * render to the same page, even if agent instance names differ (e.g.
+ * IncAgent_1 and IncAgent_7 both display as "+1").
+ *
+ * Used as the key of {@link GraphViewCache}: equality compares the full
+ * encoding, so graphs whose hashes collide never share a view. The entity
+ * tag is a SHA-256 digest of the same encoding.
+ *
+ * Complexity: O(V + E) to build; equals is O(V + E) only when the digests
+ * are equal.
+ *
+ * Design Pattern: Value Object
+ *
+ * @author Advanced Programming Course
+ */
+final class GraphStructure {
+    private final byte[] encoding;
+    private final byte[] digest;
+    private final int hashCode;
+
+    private GraphStructure(byte[] encoding) {
+        this.encoding = encoding;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256").digest(encoding);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required on every Java platform", e);
+        }
+        this.hashCode = Arrays.hashCode(Arrays.copyOf(digest, 8));
+    }
+
+    /**
+     * @param data Analyzed graph data
+     * @return The structure of the data
+     */
+    static GraphStructure of(HtmlGraphWriter.GraphData data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + data.nodes.size() * 24 + data.edges.size() * 8);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(data.nodes.size());
+            for (HtmlGraphWriter.GraphNode node : data.nodes) {
+                writeString(out, node.name);
+                writeString(out, node.type);
+            }
+            out.writeInt(data.edges.size());
+            for (HtmlGraphWriter.GraphEdge edge : data.edges) {
+                out.writeInt(edge.fromIndex);
+                out.writeInt(edge.toIndex);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);   // not thrown by a byte array
+        }
+        return new GraphStructure(bytes.toByteArray());
+    }
+
+    /** Length-prefixed, so adjacent strings cannot run into each other */
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    /** @return The first 64 bits of the digest */
+    long hash64() {
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (digest[i] & 0xff);
+        }
+        return hash;
+    }
+
+    /** @return Quoted strong entity tag: 128 bits of the digest in hex */
+    String etag() {
+        StringBuilder tag = new StringBuilder(35).append("\"g");
+        for (int i = 0; i < 16; i++) {
+            tag.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+        }
+        return tag.append('"').toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof GraphStructure)) {
+            return false;
+        }
+        GraphStructure that = (GraphStructure) other;
+        return hashCode == that.hashCode && Arrays.equals(digest, that.digest) && Arrays.equals(encoding, that.encoding);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
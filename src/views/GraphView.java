@@ -0,0 +1,105 @@
+package views;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable, fully rendered view of one graph structure.
+ *
+ * Holds everything the graph data endpoints serve: the positioned top-level
+ * view, the cluster hierarchy for drill-down, and the JSON of every cluster
+ * level that has been requested so far. Views are produced by
+ * {@link GraphViewCache} and shared by all requests, so a graph is laid out
+ * once per structure rather than once per request. The HTML page itself does
+ * not depend on the graph (see {@link HtmlGraphWriter#getGraphPage()}).
+ *
+ * The entity tag is a digest of the graph structure, so clients that already
+ * hold the data can revalidate with If-None-Match and receive a 304.
+ *
+ * Design Pattern: Value Object - never modified after construction (the
+ * cluster JSON memo only caches deterministic results).
+ *
+ * @author Advanced Programming Course
+ */
+public final class GraphView {
+    private final long version;
+    private final long hash;
+    private final String etag;
+    private final HtmlGraphWriter.GraphData rootView;
+    private final ClusterHierarchy hierarchy;
+    private final ConcurrentMap<String, String> clusterJson = new ConcurrentHashMap<>();
+
+    GraphView(long version, GraphStructure structure, HtmlGraphWriter.GraphData rootView, ClusterHierarchy hierarchy) {
+        this.version = version;
+        this.hash = structure.hash64();
+        this.etag = structure.etag();
+        this.rootView = rootView;
+        this.hierarchy = hierarchy;
+    }
+
+    /** @return Cache version at which this view was rendered */
+    public long getVersion() {
+        return version;
+    }
+
+    /** @return 64-bit structural hash of the rendered graph (may collide; see getETag) */
+    public long getHash() {
+        return hash;
+    }
+
+    /** @return Quoted strong entity tag for HTTP caching */
+    public String getETag() {
+        return etag;
+    }
+
+    /** @return Positioned top-level view: the full graph or its top clusters */
+    HtmlGraphWriter.GraphData getRootView() {
+        return rootView;
+    }
+
+    /**
+     * Streams the top-level view as JSON without building it in memory.
+     * The stream is flushed but not closed.
+     *
+     * @param out Destination stream
+     * @throws IOException if writing fails
+     */
+    public void writeJson(OutputStream out) throws IOException {
+        GraphJsonWriter.write(rootView, out);
+    }
+
+    /** @return true if the page shows clusters instead of the full graph */
+    public boolean isClustered() {
+        return hierarchy != null;
+    }
+
+    /**
+     * Returns one level of the cluster hierarchy as JSON.
+     * Each level is serialized once and then served from memory.
+     *
+     * @param clusterId Cluster to expand, or null for the top level
+     * @return The JSON view, or null if the graph is not clustered or the
+     *         cluster id is unknown
+     */
+    public String getClusterViewJson(String clusterId) {
+        if (hierarchy == null) {
+            return null;
+        }
+        String key = clusterId == null ? "" : clusterId;
+        String json = clusterJson.get(key);
+        if (json == null) {
+            HtmlGraphWriter.GraphData view = hierarchy.expand(clusterId);
+            if (view == null) {
+                return null;
+            }
+            json = HtmlGraphWriter.generateGraphDataJson(view);
+            String previous = clusterJson.putIfAbsent(key, json);
+            if (previous != null) {
+                json = previous;
+            }
+        }
+        return json;
+    }
+}
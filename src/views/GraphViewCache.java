@@ -0,0 +1,104 @@
+package views;
+
+import configs.Graph;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Versioned cache of rendered graph views.
+ *
+ * Rendering a large graph (layout, clustering, JSON and HTML generation) is
+ * far more expensive than analyzing its structure, so views are keyed by the
+ * canonical structure of the analyzed graph (see GraphStructure), compared
+ * in full, so graphs whose hashes collide never share a view. Uploading the
+ * same configuration again, or viewing it repeatedly, reuses the existing
+ * view.
+ *
+ * Algorithm:
+ * 1. Analyze the graph (O(V + E), no layout) and encode its structure
+ * 2. On a hit, make that view current and return it
+ * 3. On a miss, render it, store it under a new version number, and evict
+ *    the least recently used view beyond {@link #MAX_VIEWS}
+ *
+ * The current view is what the graph endpoints serve. It is published through
+ * a volatile field, so readers never lock; only rendering is synchronized.
+ *
+ * Design Pattern: Singleton (holder idiom, like TopicManagerSingleton)
+ *
+ * @author Advanced Programming Course
+ */
+public final class GraphViewCache {
+    /** Number of distinct graph structures kept in memory */
+    static final int MAX_VIEWS = 4;
+
+    private final Map<GraphStructure, GraphView> views = new LinkedHashMap<GraphStructure, GraphView>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<GraphStructure, GraphView> eldest) {
+            return size() > MAX_VIEWS;
+        }
+    };
+    private volatile GraphView current;
+    private long nextVersion = 1;
+    private long hits;
+    private long misses;
+
+    private GraphViewCache() {
+    }
+
+    private static class Holder {
+        private static final GraphViewCache INSTANCE = new GraphViewCache();
+    }
+
+    /** @return The process-wide view cache */
+    public static GraphViewCache get() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Returns the rendered view of a graph, rendering it only if no view of
+     * an identical structure is cached. The result becomes the current view.
+     *
+     * @param graph The graph to render
+     * @return The cached or newly rendered view
+     * @throws IOException if the page template cannot be read
+     */
+    public synchronized GraphView render(Graph graph) throws IOException {
+        HtmlGraphWriter.GraphData data = HtmlGraphWriter.analyzeGraph(graph);
+        GraphStructure structure = GraphStructure.of(data);
+        GraphView view = views.get(structure);
+        if (view != null) {
+            hits++;
+        } else {
+            misses++;
+            view = HtmlGraphWriter.renderView(data, structure, nextVersion++);
+            views.put(structure, view);
+        }
+        current = view;
+        return view;
+    }
+
+    /** @return The view of the currently loaded graph, or null if none */
+    public GraphView current() {
+        return current;
+    }
+
+    /**
+     * Drops the current view and all cached renderings.
+     * Called when the graph is reset so that stale views are not served.
+     */
+    public synchronized void clear() {
+        views.clear();
+        current = null;
+    }
+
+    /** @return Number of render calls served from the cache */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return Number of render calls that had to render */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -4,7 +4,9 @@ import configs.Graph;
 import configs.Node;
 import java.io.*;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
 
 /**
@@ -12,7 +14,7 @@ import java.util.*;
  * Responsible for graph layout algorithms and HTML generation.
  * 
  * Key features:
- * - Multiple layout strategies (bipartite, circular, grid)
+ * - Multiple layout strategies (layered, circular, grid)
  * - Automatic node type detection and visualization
  * - Space-efficient node labeling (operation symbols instead of full names)
  * - Fallback mechanisms for robustness
@@ -27,24 +29,61 @@ import java.util.*;
  * @author Advanced Programming Course
  */
 public class HtmlGraphWriter {
+    private static final int DEFAULT_CANVAS_WIDTH = 700;
+    private static final int DEFAULT_CANVAS_HEIGHT = 500;
     
+    /** Placeholder in graph.html replaced by embedded JSON, or null when served */
+    private static final String DATA_PLACEHOLDER = "{{GRAPH_DATA}}";
+    
+    /** Template cache: reloaded only when graph.html changes on disk */
+    private static final Path TEMPLATE_PATH = Paths.get("files_html/graph.html");
+    private static volatile String cachedTemplate;
+    private static volatile FileTime cachedTemplateTime;
+    private static volatile Page cachedPage;
+    
+    /**
+     * The graph page as served by the server: identical for every graph,
+     * because it fetches its data from /graph.json after loading.
+     */
+    public static final class Page {
+        private final String template;
+        private final byte[] bytes;
+        private final String etag;
+        
+        private Page(String template) throws UnsupportedEncodingException {
+            this.template = template;
+            this.bytes = template.replace(DATA_PLACEHOLDER, "null").getBytes("UTF-8");
+            this.etag = "\"p" + Integer.toHexString(Arrays.hashCode(bytes)) + "\"";
+        }
+        
+        /** @return The UTF-8 encoded page; shared, must not be modified */
+        public byte[] getBytes() {
+            return bytes;
+        }
+        
+        /** @return Quoted entity tag of the page */
+        public String getETag() {
+            return etag;
+        }
+    }
+    
+    /**
+     * Renders a graph as a complete, self-contained HTML page.
+     * The graph data is embedded in the page, so it can be saved and opened
+     * without the server. Graphs larger than one view embed only the top
+     * level of their cluster hierarchy.
+     * 
+     * The server does not use this method: it serves {@link #getGraphPage()}
+     * and streams the data separately through {@link GraphView#writeJson}.
+     * 
+     * @param graph The computational graph to render
+     * @return The HTML page as a single-element list
+     */
     public static List<String> getGraphHTML(Graph graph) {
         try {
-            // Load the graph template
-            String template = loadTemplate();
-            
-            // Generate graph data
             GraphData graphData = analyzeGraph(graph);
-            
-            // Replace placeholders in template
-            String html = template
-                .replace("{{GRAPH_TITLE}}", escapeHtml("Computational Graph - " + graphData.nodes.size() + " nodes"))
-                .replace("{{CANVAS_WIDTH}}", "700")
-                .replace("{{CANVAS_HEIGHT}}", "500")
-                .replace("{{GRAPH_DATA}}", generateGraphDataJson(graphData))
-                .replace("{{GRAPH_INFO}}", generateGraphInfo(graphData));
-            
-            return Arrays.asList(html);
+            GraphView view = renderView(graphData, GraphStructure.of(graphData), 0);
+            return Arrays.asList(loadTemplate().replace(DATA_PLACEHOLDER, generateGraphDataJson(view.getRootView())));
             
         } catch (Exception e) {
             // Fallback to simple HTML if template loading fails
@@ -52,10 +91,70 @@ public class HtmlGraphWriter {
         }
     }
     
+    /**
+     * Returns the static graph page.
+     * The page is built once per template version and can be cached by
+     * clients; only the data behind /graph.json changes between graphs.
+     * 
+     * @return The page and its entity tag
+     * @throws IOException if the page cannot be encoded
+     */
+    public static Page getGraphPage() throws IOException {
+        String template = loadTemplate();
+        Page page = cachedPage;
+        if (page == null || page.template != template) {
+            page = new Page(template);
+            cachedPage = page;
+        }
+        return page;
+    }
+    
+    /**
+     * Lays out analyzed graph data and wraps it into a cacheable view.
+     * 
+     * @param graphData Output of {@link #analyzeGraph(Graph)}
+     * @param structure Structure of the data, used for the entity tag
+     * @param version Version number assigned by the cache
+     * @return The rendered view
+     */
+    static GraphView renderView(GraphData graphData, GraphStructure structure, long version) {
+        // Position nodes, clustering graphs too large for one view
+        layoutNodes(graphData);
+        GraphData shown = graphData;
+        ClusterHierarchy hierarchy = null;
+        if (ClusterHierarchy.needsClustering(graphData)) {
+            hierarchy = ClusterHierarchy.build(graphData);
+            shown = hierarchy.getRootView();
+        }
+        
+        // Summary of the whole graph, shown by the page under the canvas
+        int topics = 0;
+        for (GraphNode node : graphData.nodes) {
+            if ("topic".equals(node.type)) topics++;
+        }
+        shown.topics = topics;
+        shown.agents = graphData.nodes.size() - topics;
+        shown.connections = graphData.edges.size();
+        
+        return new GraphView(version, structure, shown, hierarchy);
+    }
+    
+    /**
+     * Returns the graph page template.
+     * The file is read once and kept in memory; only its modification time is
+     * checked on later calls, so edits to graph.html are still picked up.
+     */
     private static String loadTemplate() throws IOException {
         // Try to load the graph template
         try {
-            return new String(Files.readAllBytes(Paths.get("files_html/graph.html")), "UTF-8");
+            FileTime modified = Files.getLastModifiedTime(TEMPLATE_PATH);
+            String template = cachedTemplate;
+            if (template == null || !modified.equals(cachedTemplateTime)) {
+                template = new String(Files.readAllBytes(TEMPLATE_PATH), "UTF-8");
+                cachedTemplate = template;
+                cachedTemplateTime = modified;
+            }
+            return template;
         } catch (IOException e) {
             // Fallback template if file not found
             return generateBuiltInTemplate();
@@ -68,12 +167,13 @@ public class HtmlGraphWriter {
                "<head>\n" +
                "    <meta charset=\"UTF-8\">\n" +
                "    <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n" +
-               "    <title>{{GRAPH_TITLE}}</title>\n" +
+               "    <title>Computational Graph</title>\n" +
                "    <style>\n" +
                "        body { font-family: Arial, sans-serif; margin: 0; padding: 10px; background-color: #f8f9fa; height: 100vh; overflow: hidden; box-sizing: border-box; }\n" +
                "        .graph-container { background-color: white; border-radius: 8px; padding: 15px; box-shadow: 0 2px 4px rgba(0,0,0,0.1); height: calc(100vh - 20px); box-sizing: border-box; display: flex; flex-direction: column; }\n" +
                "        .graph-title { text-align: center; margin-bottom: 20px; color: #333; }\n" +
-               "        #graphCanvas { border: 1px solid #ddd; border-radius: 4px; display: block; margin: 0 auto; flex-grow: 1; max-width: 100%; }\n" +
+               "        .canvas-scroll { flex-grow: 1; overflow: auto; min-height: 0; }\n" +
+               "        #graphCanvas { border: 1px solid #ddd; border-radius: 4px; display: block; margin: 0 auto; }\n" +
                "        .legend { display: flex; justify-content: center; gap: 30px; margin-top: 15px; font-size: 14px; }\n" +
                "        .legend-item { display: flex; align-items: center; gap: 8px; }\n" +
                "        .legend-shape { width: 20px; height: 20px; border: 2px solid #333; }\n" +
@@ -84,16 +184,16 @@ public class HtmlGraphWriter {
                "</head>\n" +
                "<body>\n" +
                "    <div class=\"graph-container\">\n" +
-               "        <h2 class=\"graph-title\">{{GRAPH_TITLE}}</h2>\n" +
-               "        <canvas id=\"graphCanvas\" width=\"{{CANVAS_WIDTH}}\" height=\"{{CANVAS_HEIGHT}}\"></canvas>\n" +
+               "        <h2 class=\"graph-title\" id=\"graphTitle\">Computational Graph</h2>\n" +
+               "        <div class=\"canvas-scroll\"><canvas id=\"graphCanvas\" width=\"700\" height=\"500\"></canvas></div>\n" +
                "        <div class=\"legend\">\n" +
                "            <div class=\"legend-item\"><div class=\"legend-shape topic-shape\"></div><span>Topics</span></div>\n" +
                "            <div class=\"legend-item\"><div class=\"legend-shape agent-shape\"></div><span>Agents</span></div>\n" +
                "        </div>\n" +
-               "        <div class=\"graph-info\"><strong>Graph Information:</strong><br>{{GRAPH_INFO}}</div>\n" +
+               "        <div class=\"graph-info\"><strong>Graph Information:</strong><br><span id=\"graphInfo\">Loading...</span></div>\n" +
                "    </div>\n" +
                "    <script>\n" +
-               "        const graphData = {{GRAPH_DATA}};\n" +
+               "        let graphData = {{GRAPH_DATA}};\n" +
                "        const canvas = document.getElementById('graphCanvas');\n" +
                "        const ctx = canvas.getContext('2d');\n" +
                "        \n" +
@@ -107,9 +207,26 @@ public class HtmlGraphWriter {
                "            graphData.nodes.forEach(node => {\n" +
                "                if (node.type === 'topic') drawTopic(node);\n" +
                "                else if (node.type === 'agent') drawAgent(node);\n" +
+               "                else if (node.type === 'cluster') drawCluster(node);\n" +
                "            });\n" +
                "        }\n" +
                "        \n" +
+               "        function drawCluster(node) {\n" +
+               "            ctx.fillStyle = '#ede7f6'; ctx.strokeStyle = '#5e35b1'; ctx.lineWidth = 2;\n" +
+               "            ctx.fillRect(node.x - 33, node.y - 15, 66, 30);\n" +
+               "            ctx.strokeRect(node.x - 33, node.y - 15, 66, 30);\n" +
+               "            ctx.fillStyle = '#5e35b1'; ctx.font = '11px Arial'; ctx.textAlign = 'center';\n" +
+               "            ctx.fillText(node.count + ' nodes', node.x, node.y + 4);\n" +
+               "        }\n" +
+               "        \n" +
+               "        canvas.addEventListener('click', event => {\n" +
+               "            const rect = canvas.getBoundingClientRect();\n" +
+               "            const x = event.clientX - rect.left, y = event.clientY - rect.top;\n" +
+               "            const hit = graphData.nodes.find(n => n.type === 'cluster' && Math.abs(n.x - x) <= 35 && Math.abs(n.y - y) <= 18);\n" +
+               "            if (!hit) return;\n" +
+               "            fetch('/graph/cluster?id=' + encodeURIComponent(hit.id)).then(r => r.json()).then(showView);\n" +
+               "        });\n" +
+               "        \n" +
                "        function drawTopic(node) {\n" +
                "            ctx.fillStyle = '#e3f2fd'; ctx.strokeStyle = '#1976d2'; ctx.lineWidth = 2;\n" +
                "            ctx.fillRect(node.x - 40, node.y - 15, 80, 30);\n" +
@@ -146,9 +263,11 @@ public class HtmlGraphWriter {
                "        \n" +
                "        function drawConnections() {\n" +
                "            ctx.strokeStyle = '#666'; ctx.lineWidth = 2;\n" +
+               "            const nodesById = {};\n" +
+               "            graphData.nodes.forEach(node => { nodesById[node.id] = node; });\n" +
                "            graphData.edges.forEach(edge => {\n" +
-               "                const fromNode = graphData.nodes.find(n => n.id === edge.from);\n" +
-               "                const toNode = graphData.nodes.find(n => n.id === edge.to);\n" +
+               "                const fromNode = nodesById[edge.from];\n" +
+               "                const toNode = nodesById[edge.to];\n" +
                "                if (fromNode && toNode) drawArrow(fromNode.x, fromNode.y, toNode.x, toNode.y);\n" +
                "            });\n" +
                "        }\n" +
@@ -169,7 +288,21 @@ public class HtmlGraphWriter {
                "            ctx.stroke();\n" +
                "        }\n" +
                "        \n" +
-               "        window.onload = function() { drawGraph(); };\n" +
+               "        function showView(view) {\n" +
+               "            graphData = view; canvas.width = view.width; canvas.height = view.height;\n" +
+               "            if (view.topics !== undefined) {\n" +
+               "                document.title = document.getElementById('graphTitle').textContent = 'Computational Graph - ' + view.totalNodes + ' nodes';\n" +
+               "                document.getElementById('graphInfo').textContent = 'Topics: ' + view.topics + ' | Agents: ' + view.agents\n" +
+               "                    + ' | Connections: ' + view.connections + ' | Layout: ' + view.layout;\n" +
+               "            }\n" +
+               "            drawGraph();\n" +
+               "        }\n" +
+               "        \n" +
+               "        window.onload = function() {\n" +
+               "            if (graphData) { showView(graphData); return; }\n" +
+               "            fetch('/graph.json').then(r => r.ok ? r.json() : Promise.reject())\n" +
+               "                .then(showView, () => { document.getElementById('graphInfo').textContent = 'No graph loaded'; });\n" +
+               "        };\n" +
                "    </script>\n" +
                "</body>\n" +
                "</html>";
@@ -182,13 +315,15 @@ public class HtmlGraphWriter {
      * Processing steps:
      * 1. Node classification (Topics vs Agents)
      * 2. Name simplification (operation symbols for agents)
-     * 3. Layout calculation based on graph characteristics
-     * 4. Edge creation from node relationships
+     * 3. Edge creation from node relationships
+     * 
+     * Positions are assigned later by {@link #renderView}, so a cache hit on
+     * the structural hash skips the layout entirely.
      * 
      * @param graph The computational graph to analyze
-     * @return GraphData containing positioned nodes and edges
+     * @return GraphData containing nodes and edges, not yet positioned
      */
-    private static GraphData analyzeGraph(Graph graph) {
+    static GraphData analyzeGraph(Graph graph) {
         GraphData data = new GraphData();
         Map<String, GraphNode> nodeMap = new HashMap<>();
         
@@ -196,6 +331,7 @@ public class HtmlGraphWriter {
         int nodeIndex = 0;
         for (Node node : graph) {
             GraphNode graphNode = new GraphNode();
+            graphNode.index = nodeIndex;
             graphNode.id = "node_" + nodeIndex++;
             graphNode.name = node.getName();
             
@@ -237,9 +373,6 @@ public class HtmlGraphWriter {
             nodeMap.put(node.getName(), graphNode);
         }
         
-        // Position nodes in a layout
-        layoutNodes(data.nodes);
-        
         // Create edges from the graph
         for (Node node : graph) {
             GraphNode fromNode = nodeMap.get(node.getName());
@@ -250,6 +383,8 @@ public class HtmlGraphWriter {
                         GraphEdge graphEdge = new GraphEdge();
                         graphEdge.from = fromNode.id;
                         graphEdge.to = toNode.id;
+                        graphEdge.fromIndex = fromNode.index;
+                        graphEdge.toIndex = toNode.index;
                         data.edges.add(graphEdge);
                     }
                 }
@@ -263,20 +398,24 @@ public class HtmlGraphWriter {
      * Intelligently positions nodes on the canvas based on their type and quantity.
      * Uses different layout algorithms for optimal visualization:
      * - Single node: Centered
-     * - Mixed (topics + agents): Bipartite layout (topics left, agents right)
+     * - Mixed (topics + agents): Layered layout following the data flow
      * - Homogeneous small (≤6): Circular layout for clear connections
      * - Homogeneous large (>6): Grid layout for space efficiency
      * 
+     * The layered layout grows the canvas beyond the default size when the
+     * graph needs more room; the other layouts fit the default canvas.
+     * 
      * SOLID: Strategy Pattern - Different layout strategies based on graph characteristics
      * 
-     * @param nodes List of graph nodes to position
+     * @param data Graph whose nodes are positioned and whose canvas size is set
      */
-    private static void layoutNodes(List<GraphNode> nodes) {
+    private static void layoutNodes(GraphData data) {
+        List<GraphNode> nodes = data.nodes;
         if (nodes.isEmpty()) return;
         
         // Canvas dimensions with margin for edge visibility
-        int canvasWidth = 700;
-        int canvasHeight = 500;
+        int canvasWidth = DEFAULT_CANVAS_WIDTH;
+        int canvasHeight = DEFAULT_CANVAS_HEIGHT;
         int margin = 80;  // Prevents nodes from being too close to edges
         
         // Calculate usable drawing area
@@ -300,17 +439,10 @@ public class HtmlGraphWriter {
             return;
         }
         
-        // Bipartite layout for mixed graphs (most common case)
+        // Layered layout for mixed graphs (most common case)
         if (!topics.isEmpty() && !agents.isEmpty()) {
-            // Topics on left half - inputs to the computation
-            int topicStartX = minX + 20;
-            int topicEndX = canvasWidth / 2 - 40;
-            layoutNodesInColumns(topics, topicStartX, topicEndX, minY, maxY);
-            
-            // Agents on right half - processors of the computation
-            int agentStartX = canvasWidth / 2 + 40;
-            int agentEndX = maxX - 20;
-            layoutNodesInColumns(agents, agentStartX, agentEndX, minY, maxY);
+            layoutNodesInLayers(data);
+            data.layout = "Layered";
         }
         // Homogeneous graphs (only topics or only agents)
         else {
@@ -319,56 +451,43 @@ public class HtmlGraphWriter {
             if (allNodes.size() <= 6) {
                 // Circular layout for small graphs - shows connections clearly
                 layoutNodesInMaximalCircle(allNodes, minX, maxX, minY, maxY);
+                data.layout = "Circular";
             } else {
                 // Grid layout for larger graphs - space efficient
                 layoutNodesInGrid(allNodes, minX, maxX, minY, maxY);
+                data.layout = "Grid";
             }
         }
     }
     
     /**
-     * Arranges nodes in a column-based layout within specified bounds.
-     * Optimizes for readability by limiting to max 3 columns and maximizing spacing.
+     * Arranges nodes in layers along the data flow (Sugiyama-style).
+     * Input topics end up on the left, agents and their output topics in the
+     * following layers, so the drawing reads like the computation itself.
      * 
-     * Algorithm:
-     * 1. Calculate optimal rows/cols based on node count (max 3 columns)
-     * 2. Maximize spacing between nodes
-     * 3. Center single rows/columns within their area
+     * The canvas is at least the default size and grows with the number of
+     * layers (width) and the largest layer (height). Runs in near-linear time,
+     * see {@link LayeredLayout}.
      * 
-     * @param nodes Nodes to layout
-     * @param startX Left boundary
-     * @param endX Right boundary  
-     * @param minY Top boundary
-     * @param maxY Bottom boundary
+     * @param data Graph whose nodes are positioned and whose canvas size is set
      */
-    private static void layoutNodesInColumns(List<GraphNode> nodes, int startX, int endX, int minY, int maxY) {
-        if (nodes.isEmpty()) return;
-        
-        int usableHeight = maxY - minY;
-        int usableWidth = endX - startX;
-        
-        // Determine grid dimensions
-        // Limit to 3 columns max for readability, use sqrt for balanced aspect ratio
-        int cols = Math.max(1, Math.min((int)Math.ceil(Math.sqrt(nodes.size())), 3));
-        int rows = (int)Math.ceil((double)nodes.size() / cols);
-        
-        // Calculate spacing to maximize distance between nodes
-        int colSpacing = cols > 1 ? usableWidth / (cols - 1) : 0;
-        int rowSpacing = rows > 1 ? usableHeight / (rows - 1) : 0;
-        
-        // Center single column/row within available space
-        int startColOffset = cols == 1 ? usableWidth / 2 : 0;
-        int startRowOffset = rows == 1 ? usableHeight / 2 : 0;
+    static void layoutNodesInLayers(GraphData data) {
+        int edgeCount = data.edges.size();
+        int[] from = new int[edgeCount];
+        int[] to = new int[edgeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            from[i] = data.edges.get(i).fromIndex;
+            to[i] = data.edges.get(i).toIndex;
+        }
         
-        // Position each node in the grid
-        int nodeIndex = 0;
-        for (int row = 0; row < rows && nodeIndex < nodes.size(); row++) {
-            for (int col = 0; col < cols && nodeIndex < nodes.size(); col++) {
-                nodes.get(nodeIndex).x = startX + startColOffset + col * colSpacing;
-                nodes.get(nodeIndex).y = minY + startRowOffset + row * rowSpacing;
-                nodeIndex++;
-            }
+        LayeredLayout layout = LayeredLayout.compute(data.nodes.size(), from, to,
+                                                     DEFAULT_CANVAS_WIDTH, DEFAULT_CANVAS_HEIGHT);
+        for (GraphNode node : data.nodes) {
+            node.x = layout.x[node.index];
+            node.y = layout.y[node.index];
         }
+        data.width = layout.width;
+        data.height = layout.height;
     }
     
     /**
@@ -460,43 +579,20 @@ public class HtmlGraphWriter {
         }
     }
     
-    private static String generateGraphDataJson(GraphData data) {
-        StringBuilder json = new StringBuilder();
-        json.append("{\"nodes\":[");
-        
-        for (int i = 0; i < data.nodes.size(); i++) {
-            if (i > 0) json.append(",");
-            GraphNode node = data.nodes.get(i);
-            json.append(String.format(
-                "{\"id\":\"%s\",\"name\":\"%s\",\"type\":\"%s\",\"x\":%d,\"y\":%d}",
-                escapeJson(node.id), escapeJson(node.name), escapeJson(node.type), node.x, node.y
-            ));
-        }
-        
-        json.append("],\"edges\":[");
-        
-        for (int i = 0; i < data.edges.size(); i++) {
-            if (i > 0) json.append(",");
-            GraphEdge edge = data.edges.get(i);
-            json.append(String.format(
-                "{\"from\":\"%s\",\"to\":\"%s\"}",
-                escapeJson(edge.from), escapeJson(edge.to)
-            ));
+    /**
+     * Serializes a graph view to JSON.
+     * Cluster views additionally carry their own id, their parent's id and the
+     * canvas size so the page can navigate the hierarchy; cluster nodes carry
+     * their kind and member count, and aggregated edges their weight.
+     */
+    static String generateGraphDataJson(GraphData data) {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try {
+            GraphJsonWriter.write(data, json);
+            return json.toString("UTF-8");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        
-        json.append("]}");
-        return json.toString();
-    }
-    
-    private static String generateGraphInfo(GraphData data) {
-        long topicCount = data.nodes.stream().filter(n -> "topic".equals(n.type)).count();
-        long agentCount = data.nodes.stream().filter(n -> "agent".equals(n.type)).count();
-        
-        return String.format(
-            "Topics: %d | Agents: %d | Connections: %d<br>" +
-            "Layout: Circular | Status: Active",
-            topicCount, agentCount, data.edges.size()
-        );
     }
     
     private static List<String> generateFallbackHTML(Graph graph, String error) {
@@ -525,30 +621,40 @@ public class HtmlGraphWriter {
                   .replace("'", "&#39;");
     }
     
-    private static String escapeJson(String text) {
-        if (text == null) return "";
-        return text.replace("\\", "\\\\")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r")
-                  .replace("\t", "\\t");
-    }
-    
-    // Helper classes for graph data
-    private static class GraphData {
+    // Helper classes for graph data (shared with ClusterHierarchy)
+    static class GraphData {
         List<GraphNode> nodes = new ArrayList<>();
         List<GraphEdge> edges = new ArrayList<>();
+        int width = DEFAULT_CANVAS_WIDTH;
+        int height = DEFAULT_CANVAS_HEIGHT;
+        String layout = "Centered";
+        // Cluster view metadata (unset for a full graph)
+        String clusterId;
+        String parentId;
+        int totalNodes;
+        int externalEdges;
+        // Whole-graph summary, set on the top-level view only
+        int topics = -1;
+        int agents;
+        int connections;
     }
     
-    private static class GraphNode {
+    static class GraphNode {
+        int index;
         String id;
         String name;
         String type;
         int x, y;
+        // Cluster nodes only
+        String kind;
+        int count;
     }
     
-    private static class GraphEdge {
+    static class GraphEdge {
         String from;
         String to;
+        int fromIndex;
+        int toIndex;
+        int weight;
     }
 }
\ No newline at end of file
@@ -0,0 +1,312 @@
+package views;
+
+import configs.Graph;
+import configs.Node;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class HtmlGraphWriterTest {
+
+    /**
+     * Builds a synthetic configuration graph: chains of IncAgents fed by
+     * PlusAgents, alternating topic and agent nodes like createFromTopics().
+     */
+    static Graph buildChainGraph(int chains, int length) {
+        Graph graph = new Graph();
+        for (int c = 0; c < chains; c++) {
+            Node topic = new Node("TIn" + c);
+            graph.add(topic);
+            for (int i = 0; i < length; i++) {
+                Node agent = new Node("AIncAgent_" + c + "_" + i);
+                Node out = new Node("TC" + c + "_" + i);
+                topic.addEdge(agent);
+                agent.addEdge(out);
+                graph.add(agent);
+                graph.add(out);
+                topic = out;
+            }
+        }
+        return graph;
+    }
+
+    /** topic -> IncAgent -> TOut */
+    static Graph singleTopicGraph(String topicName) {
+        Graph graph = new Graph();
+        Node topic = new Node(topicName);
+        Node agent = new Node("AIncAgent_1");
+        Node out = new Node("TOut");
+        topic.addEdge(agent);
+        agent.addEdge(out);
+        graph.add(topic);
+        graph.add(agent);
+        graph.add(out);
+        return graph;
+    }
+
+    public static void testLayeredLayoutSmall() {
+        System.out.println("Test 1: Layered Layout on a Small Graph");
+
+        // A -> + -> C, B -> + ; C -> +1 -> D
+        int[] from = {0, 1, 2, 3, 4};
+        int[] to   = {2, 2, 3, 4, 5};
+        LayeredLayout layout = LayeredLayout.compute(6, from, to, 700, 500);
+
+        boolean ranksOk = layout.rank[0] == 0 && layout.rank[1] == 0 && layout.rank[2] == 1
+                       && layout.rank[3] == 2 && layout.rank[4] == 3 && layout.rank[5] == 4;
+        System.out.println((ranksOk ? "[PASS]" : "[FAIL]") + " Ranks follow the data flow: "
+                           + Arrays.toString(layout.rank));
+
+        boolean leftToRight = true;
+        for (int e = 0; e < from.length; e++) {
+            leftToRight &= layout.x[from[e]] < layout.x[to[e]];
+        }
+        System.out.println((leftToRight ? "[PASS]" : "[FAIL]") + " Every edge points to the right");
+
+        boolean separated = Math.abs(layout.y[0] - layout.y[1]) >= LayeredLayout.NODE_GAP;
+        System.out.println((separated ? "[PASS]" : "[FAIL]") + " Nodes in the same layer keep the gap");
+
+        boolean fits = layout.width == 700 && layout.height == 500;
+        System.out.println((fits ? "[PASS]" : "[FAIL]") + " Small graph keeps the default canvas: "
+                           + layout.width + "x" + layout.height);
+        System.out.println();
+    }
+
+    public static void testLayeredLayoutCycleFallback() {
+        System.out.println("Test 2: Layered Layout Terminates on Cycles");
+
+        // A cycle 0 -> 1 -> 2 -> 0 with a tail 2 -> 3
+        int[] from = {0, 1, 2, 2};
+        int[] to   = {1, 2, 0, 3};
+        int n = 4;
+        LayeredLayout layout = LayeredLayout.compute(n, from, to, 700, 500);
+        int layers = layout.layerCount();
+
+        boolean ranksOk = layers > 0 && layers <= n;
+        for (int v = 0; v < n; v++) {
+            ranksOk &= layout.rank[v] >= 0 && layout.rank[v] < layers;
+        }
+        System.out.println((ranksOk ? "[PASS]" : "[FAIL]") + " Every node ranked in [0, " + layers + "): "
+                           + Arrays.toString(layout.rank));
+
+        // Every node is in exactly one layer, the one of its rank
+        int[] seen = new int[n];
+        boolean layersOk = ranksOk;
+        for (int r = 0; layersOk && r < layers; r++) {
+            for (int v : layout.layer(r)) {
+                seen[v]++;
+                layersOk &= layout.rank[v] == r;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            layersOk &= seen[v] == 1;
+        }
+        System.out.println((layersOk ? "[PASS]" : "[FAIL]") + " Layers are disjoint and cover all nodes");
+
+        // One edge of the cycle is dropped as a back edge; all others point downward
+        int backEdges = 0;
+        boolean flat = false;
+        for (int e = 0; e < from.length; e++) {
+            if (layout.rank[to[e]] == layout.rank[from[e]]) {
+                flat = true;
+            } else if (layout.rank[to[e]] < layout.rank[from[e]]) {
+                backEdges++;
+            }
+        }
+        System.out.println((!flat && backEdges == 1 ? "[PASS]" : "[FAIL]") + " Non-back edges point to later layers ("
+                           + backEdges + " back edge)");
+        System.out.println();
+    }
+
+    public static void testLargeGraphPerformance() {
+        System.out.println("Test 3: Large Graph Layout Performance");
+
+        // 100 chains of 25 agents: 5,100 nodes
+        Graph graph = buildChainGraph(100, 25);
+
+        // Warm up once so the measurement is not dominated by class loading
+        HtmlGraphWriter.getGraphHTML(graph);
+
+        long start = System.nanoTime();
+        HtmlGraphWriter.getGraphHTML(graph);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println((elapsedMs < 1000 ? "[PASS]" : "[FAIL]") + " Laid out " + graph.size()
+                           + " nodes in " + elapsedMs + "ms (limit 1000ms)");
+
+        // Graphs that fit one view are drawn in full on a larger canvas
+        String mediumPage = String.join("\n", HtmlGraphWriter.getGraphHTML(buildChainGraph(10, 12)));
+        boolean grown = !mediumPage.contains("\"width\":700,") && mediumPage.contains("\"layout\":\"Layered\"");
+        System.out.println((grown ? "[PASS]" : "[FAIL]") + " Canvas grows beyond the default size");
+        System.out.println();
+    }
+
+    public static void testClusteredViews() {
+        System.out.println("Test 4: Clustering and Drill-down for Huge Graphs");
+
+        // 1,000 chains of 25 agents: 51,000 nodes
+        Graph graph = buildChainGraph(1000, 25);
+
+        long start = System.nanoTime();
+        GraphView graphView;
+        try {
+            graphView = GraphViewCache.get().render(graph);
+        } catch (Exception e) {
+            System.out.println("[FAIL] Rendering threw " + e);
+            return;
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        try {
+            graphView.writeJson(streamed);
+        } catch (IOException e) {
+            System.out.println("[FAIL] Streaming threw " + e);
+            return;
+        }
+        boolean bounded = streamed.size() < 200_000;
+        System.out.println((bounded ? "[PASS]" : "[FAIL]") + " Data for " + graph.size() + " nodes is "
+                           + streamed.size() + " bytes (rendered in " + elapsedMs + "ms)");
+
+        String root = graphView.getClusterViewJson(null);
+        boolean hasClusters = root != null && root.contains("\"type\":\"cluster\"");
+        System.out.println((hasClusters ? "[PASS]" : "[FAIL]") + " Top level consists of clusters");
+
+        // Follow the first cluster down until only graph nodes remain
+        String view = root;
+        int depth = 0;
+        int maxViewLength = 0;
+        while (view != null && view.contains("\"type\":\"cluster\"")) {
+            int at = view.indexOf("\"type\":\"cluster\"");
+            int idStart = view.lastIndexOf("\"id\":\"", at) + 6;
+            String id = view.substring(idStart, view.indexOf('"', idStart));
+            view = graphView.getClusterViewJson(id);
+            maxViewLength = Math.max(maxViewLength, view == null ? 0 : view.length());
+            depth++;
+        }
+        boolean reachedLeaves = view != null && view.contains("\"type\":\"topic\"");
+        System.out.println((reachedLeaves ? "[PASS]" : "[FAIL]") + " Drilled down " + depth
+                           + " levels to graph nodes (largest view " + maxViewLength + " chars)");
+
+        boolean unknown = graphView.getClusterViewJson("c99999999") == null;
+        System.out.println((unknown ? "[PASS]" : "[FAIL]") + " Unknown cluster id is rejected");
+
+        GraphViewCache.get().clear();
+        System.out.println();
+    }
+
+    public static void testViewCache() {
+        System.out.println("Test 5: Versioned View Cache and ETags");
+
+        GraphViewCache cache = GraphViewCache.get();
+        cache.clear();
+        try {
+            GraphView first = cache.render(buildChainGraph(3, 4));
+            long misses = cache.getMisses();
+
+            // Same structure under different agent instance names
+            Graph renamed = buildChainGraph(3, 4);
+            for (Node node : renamed) {
+                if (node.getName().startsWith("A")) {
+                    node.setName(node.getName().replace("_", "x_"));
+                }
+            }
+            GraphView again = cache.render(renamed);
+            boolean hit = again == first && cache.getMisses() == misses && cache.current() == first;
+            System.out.println((hit ? "[PASS]" : "[FAIL]") + " Identical structure is served from the cache");
+
+            GraphView other = cache.render(buildChainGraph(3, 5));
+            boolean distinct = other != first && !other.getETag().equals(first.getETag())
+                               && other.getVersion() > first.getVersion();
+            System.out.println((distinct ? "[PASS]" : "[FAIL]") + " Changed structure gets a new version and ETag: "
+                               + first.getETag() + " -> " + other.getETag());
+
+            boolean reused = cache.render(buildChainGraph(3, 4)) == first;
+            System.out.println((reused ? "[PASS]" : "[FAIL]") + " Earlier version is still cached");
+
+            // "Aa" and "BB" have the same String.hashCode()
+            GraphView aa = cache.render(singleTopicGraph("TAa"));
+            GraphView bb = cache.render(singleTopicGraph("TBB"));
+            boolean separate = aa != bb && !aa.getETag().equals(bb.getETag()) && cache.current() == bb;
+            System.out.println((separate ? "[PASS]" : "[FAIL]") + " Colliding names get separate views and ETags: "
+                               + aa.getETag() + " / " + bb.getETag());
+
+            cache.clear();
+            boolean cleared = cache.current() == null;
+            System.out.println((cleared ? "[PASS]" : "[FAIL]") + " Clear drops the current view");
+        } catch (Exception e) {
+            System.out.println("[FAIL] View cache threw " + e);
+        }
+        System.out.println();
+    }
+
+    public static void testStreamingJson() {
+        System.out.println("Test 6: Streaming JSON and Static Page");
+
+        try {
+            // Names that need escaping and multi-byte encoding
+            Graph graph = new Graph();
+            Node topic = new Node("Tq\"uote</script>");
+            Node agent = new Node("APlusAgent_1");
+            Node out = new Node("T\u00e9t\u00e9\uD83D\uDE00");
+            topic.addEdge(agent);
+            agent.addEdge(out);
+            graph.add(topic);
+            graph.add(agent);
+            graph.add(out);
+
+            GraphView view = GraphViewCache.get().render(graph);
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            view.writeJson(streamed);
+            String json = streamed.toString("UTF-8");
+
+            boolean escaped = json.contains("q\\\"uote\\u003c/script>") && !json.contains("</script>");
+            System.out.println((escaped ? "[PASS]" : "[FAIL]") + " Quotes and '<' are escaped: " + json.substring(0, 60) + "...");
+
+            boolean utf8 = json.contains("\u00e9t\u00e9\uD83D\uDE00");
+            System.out.println((utf8 ? "[PASS]" : "[FAIL]") + " Non-ASCII names survive UTF-8 encoding");
+
+            boolean summary = json.contains("\"topics\":2,\"agents\":1,\"connections\":2");
+            System.out.println((summary ? "[PASS]" : "[FAIL]") + " Top-level view carries the graph summary");
+
+            // Larger than the writer buffer: output must be flushed in pieces
+            GraphView large = GraphViewCache.get().render(buildChainGraph(10, 12));
+            ByteArrayOutputStream big = new ByteArrayOutputStream();
+            large.writeJson(big);
+            String bigJson = big.toString("UTF-8");
+            boolean complete = big.size() > GraphJsonWriter.BUFFER_SIZE && bigJson.endsWith("}]}")
+                               && bigJson.equals(HtmlGraphWriter.generateGraphDataJson(large.getRootView()));
+            System.out.println((complete ? "[PASS]" : "[FAIL]") + " Streamed " + big.size()
+                               + " bytes across buffer flushes");
+
+            byte[] page = HtmlGraphWriter.getGraphPage().getBytes();
+            String pageText = new String(page, StandardCharsets.UTF_8);
+            boolean staticPage = pageText.contains("let graphData = null;") && !pageText.contains("{{")
+                                 && HtmlGraphWriter.getGraphPage().getBytes() == page;
+            System.out.println((staticPage ? "[PASS]" : "[FAIL]") + " Served page is static and cached ("
+                               + page.length + " bytes)");
+
+            String embedded = String.join("\n", HtmlGraphWriter.getGraphHTML(graph));
+            boolean standalone = embedded.contains("let graphData = {\"cluster\"");
+            System.out.println((standalone ? "[PASS]" : "[FAIL]") + " Standalone page embeds its data");
+        } catch (IOException e) {
+            System.out.println("[FAIL] Streaming threw " + e);
+        }
+        GraphViewCache.get().clear();
+        System.out.println();
+    }
+
+    public static void main(String[] args) {
+        System.out.println("=== HtmlGraphWriter Test Suite ===\n");
+
+        testLayeredLayoutSmall();
+        testLayeredLayoutCycleFallback();
+        testLargeGraphPerformance();
+        testClusteredViews();
+        testViewCache();
+        testStreamingJson();
+
+        System.out.println("=== All tests completed ===");
+    }
+}
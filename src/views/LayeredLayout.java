@@ -0,0 +1,338 @@
+package views;
+
+import java.util.Arrays;
+
+/**
+ * Layered (Sugiyama-style) layout for directed computational graphs.
+ * Data flows left to right: sources in the first layer, sinks in the last.
+ *
+ * Phases:
+ * 1. Rank assignment - longest path from the sources (Kahn's algorithm)
+ * 2. Crossing minimisation - barycenter ordering with alternating sweeps
+ * 3. Coordinate assignment - each node is pulled towards its neighbours,
+ *    then the layer is packed so that no two nodes are closer than the gap
+ *
+ * Complexity:
+ * - Ranking and coordinate assignment: O(V + E)
+ * - Each ordering sweep: O(V log V + E), with a fixed number of sweeps
+ *
+ * All per-node state lives in primitive arrays indexed by node number and
+ * adjacency is stored in CSR form, so thousands of nodes are laid out in
+ * a few milliseconds without per-node object allocation.
+ *
+ * SOLID: Single Responsibility - Only computes positions. Node classification
+ * and HTML generation stay in HtmlGraphWriter.
+ *
+ * @author Advanced Programming Course
+ */
+final class LayeredLayout {
+    /** Horizontal distance between consecutive layers */
+    static final int LAYER_GAP = 110;
+    /** Minimum vertical distance between nodes of the same layer */
+    static final int NODE_GAP = 50;
+    /** Free space kept around the drawing */
+    static final int MARGIN = 60;
+    /** Number of down+up barycenter sweep pairs */
+    private static final int SWEEPS = 4;
+    /** Resolution of the barycenter keys (keys lie in [0, 1]) */
+    private static final double KEY_SCALE = 1 << 30;
+
+    /** Horizontal position of each node */
+    final int[] x;
+    /** Vertical position of each node */
+    final int[] y;
+    /** Layer index of each node */
+    final int[] rank;
+    /** Required canvas width */
+    final int width;
+    /** Required canvas height */
+    final int height;
+
+    private final int n;
+    private final int[] outStart, outAdj;
+    private final int[] inStart, inAdj;
+    private int layerCount;
+    private int[] layerStart;   // CSR offsets of the layers in 'order'
+    private int[] order;        // nodes grouped by layer, in drawing order
+    private final int[] pos;    // index of a node within its layer
+
+    private LayeredLayout(int n, int[] from, int[] to, int minWidth, int minHeight) {
+        this.n = n;
+        this.x = new int[n];
+        this.y = new int[n];
+        this.rank = new int[n];
+        this.pos = new int[n];
+
+        // Build out- and in-adjacency in CSR form
+        outStart = new int[n + 1];
+        inStart = new int[n + 1];
+        for (int e = 0; e < from.length; e++) {
+            outStart[from[e] + 1]++;
+            inStart[to[e] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            outStart[i + 1] += outStart[i];
+            inStart[i + 1] += inStart[i];
+        }
+        outAdj = new int[from.length];
+        inAdj = new int[from.length];
+        int[] outFill = Arrays.copyOf(outStart, n);
+        int[] inFill = Arrays.copyOf(inStart, n);
+        for (int e = 0; e < from.length; e++) {
+            outAdj[outFill[from[e]]++] = to[e];
+            inAdj[inFill[to[e]]++] = from[e];
+        }
+
+        int[] topoOrder = assignRanks();
+        buildLayers(topoOrder);
+        for (int i = 0; i < SWEEPS; i++) {
+            sweep(true);
+            sweep(false);
+        }
+
+        int[] size = assignCoordinates(minWidth, minHeight);
+        this.width = size[0];
+        this.height = size[1];
+    }
+
+    /**
+     * Computes a layered layout.
+     *
+     * @param n Number of nodes, numbered 0..n-1
+     * @param from Edge sources (parallel to {@code to})
+     * @param to Edge targets
+     * @param minWidth Smallest canvas width to report
+     * @param minHeight Smallest canvas height to report
+     * @return The computed positions and canvas size
+     */
+    static LayeredLayout compute(int n, int[] from, int[] to, int minWidth, int minHeight) {
+        return new LayeredLayout(n, from, to, minWidth, minHeight);
+    }
+
+    /** @return Number of layers */
+    int layerCount() {
+        return layerCount;
+    }
+
+    /** @return The nodes of layer r, in drawing order (a copy) */
+    int[] layer(int r) {
+        return Arrays.copyOfRange(order, layerStart[r], layerStart[r + 1]);
+    }
+
+    /**
+     * Phase 1: longest-path ranking in topological order.
+     *
+     * Cycles are rejected when a configuration is loaded, but the layout must
+     * not loop forever if one slips through: when the queue runs dry while
+     * nodes remain, the lowest-numbered remaining node is forced in and its
+     * unresolved in-edges are ignored.
+     *
+     * Sources are then moved right, next to their earliest consumer, so an
+     * input topic that feeds a deep agent does not produce a very long edge.
+     *
+     * @return Nodes in topological order
+     */
+    private int[] assignRanks() {
+        int[] indegree = new int[n];
+        for (int v = 0; v < n; v++) {
+            indegree[v] = inStart[v + 1] - inStart[v];
+        }
+
+        int[] queue = new int[n];
+        boolean[] done = new boolean[n];
+        int head = 0, tail = 0, next = 0;
+        for (int v = 0; v < n; v++) {
+            if (indegree[v] == 0) {
+                queue[tail++] = v;
+                done[v] = true;
+            }
+        }
+
+        while (head < n) {
+            if (head == tail) {
+                // Cycle fallback: force the next unprocessed node
+                while (done[next]) next++;
+                queue[tail++] = next;
+                done[next] = true;
+            }
+            int v = queue[head++];
+            for (int i = outStart[v]; i < outStart[v + 1]; i++) {
+                int w = outAdj[i];
+                if (done[w]) continue;
+                rank[w] = Math.max(rank[w], rank[v] + 1);
+                if (--indegree[w] == 0) {
+                    queue[tail++] = w;
+                    done[w] = true;
+                }
+            }
+        }
+
+        for (int v = 0; v < n; v++) {
+            if (inStart[v + 1] == inStart[v] && outStart[v + 1] > outStart[v]) {
+                int earliest = Integer.MAX_VALUE;
+                for (int i = outStart[v]; i < outStart[v + 1]; i++) {
+                    earliest = Math.min(earliest, rank[outAdj[i]]);
+                }
+                rank[v] = Math.max(rank[v], earliest - 1);
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Groups nodes by rank using a counting sort.
+     * The initial order inside each layer is the topological discovery order,
+     * which already keeps related nodes close together.
+     */
+    private void buildLayers(int[] topoOrder) {
+        int maxRank = 0;
+        for (int v = 0; v < n; v++) {
+            maxRank = Math.max(maxRank, rank[v]);
+        }
+        layerCount = n == 0 ? 0 : maxRank + 1;
+        layerStart = new int[layerCount + 1];
+        for (int v = 0; v < n; v++) {
+            layerStart[rank[v] + 1]++;
+        }
+        for (int r = 0; r < layerCount; r++) {
+            layerStart[r + 1] += layerStart[r];
+        }
+        order = new int[n];
+        int[] fill = Arrays.copyOf(layerStart, Math.max(layerCount, 1));
+        for (int v : topoOrder) {
+            int slot = fill[rank[v]]++;
+            order[slot] = v;
+            pos[v] = slot - layerStart[rank[v]];
+        }
+    }
+
+    /**
+     * Phase 2: one barycenter sweep.
+     * Each node is keyed by the mean relative position of its neighbours on
+     * the fixed side (predecessors when sweeping right, successors when
+     * sweeping left). Nodes without such neighbours keep their current slot.
+     * Positions are relative (slot / layer size) because edges may skip
+     * layers, so neighbours can sit in layers of different sizes.
+     *
+     * @param forward true to sweep left-to-right using predecessors
+     */
+    private void sweep(boolean forward) {
+        long[] packed = new long[n];
+        int[] scratch = new int[n];
+        for (int step = 1; step < layerCount; step++) {
+            int r = forward ? step : layerCount - 1 - step;
+            int start = layerStart[r];
+            int size = layerStart[r + 1] - start;
+            if (size < 2) continue;
+
+            for (int i = start; i < start + size; i++) {
+                int v = order[i];
+                int[] adjStart = forward ? inStart : outStart;
+                int[] adj = forward ? inAdj : outAdj;
+                double sum = 0;
+                int count = 0;
+                for (int k = adjStart[v]; k < adjStart[v + 1]; k++) {
+                    sum += relativePosition(adj[k]);
+                    count++;
+                }
+                double key = count > 0 ? sum / count : (double) pos[v] / (size - 1);
+                // Quantised key in the high word, current slot in the low word:
+                // a primitive sort then breaks ties by previous order
+                packed[i - start] = ((long) (key * KEY_SCALE) << 32) | (i - start);
+            }
+
+            Arrays.sort(packed, 0, size);
+            for (int i = 0; i < size; i++) {
+                scratch[i] = order[start + (int) packed[i]];
+            }
+            for (int i = 0; i < size; i++) {
+                order[start + i] = scratch[i];
+                pos[scratch[i]] = i;
+            }
+        }
+    }
+
+    private double relativePosition(int v) {
+        int size = layerStart[rank[v] + 1] - layerStart[rank[v]];
+        return size > 1 ? (double) pos[v] / (size - 1) : 0.5;
+    }
+
+    /**
+     * Phase 3: coordinate assignment.
+     *
+     * Nodes start evenly spaced. Then, layer by layer, each node gets a
+     * desired y equal to the mean y of its neighbours in earlier layers
+     * (a second pass uses later layers). The desired values are packed
+     * twice - pushing down from the top and up from the bottom - and the
+     * two packings are averaged. Both keep the gap, so their average does
+     * too, and the result stays as close as possible to the desired values.
+     *
+     * @return Canvas width and height
+     */
+    private int[] assignCoordinates(int minWidth, int minHeight) {
+        int maxLayer = 0;
+        for (int r = 0; r < layerCount; r++) {
+            maxLayer = Math.max(maxLayer, layerStart[r + 1] - layerStart[r]);
+        }
+        for (int r = 0; r < layerCount; r++) {
+            int start = layerStart[r];
+            int size = layerStart[r + 1] - start;
+            int offset = (maxLayer - size) * NODE_GAP / 2;
+            for (int i = 0; i < size; i++) {
+                y[order[start + i]] = offset + i * NODE_GAP;
+            }
+        }
+
+        int[] desired = new int[maxLayer];
+        int[] down = new int[maxLayer];
+        for (int pass = 0; pass < 2; pass++) {
+            boolean forward = pass == 0;
+            for (int step = 1; step < layerCount; step++) {
+                int r = forward ? step : layerCount - 1 - step;
+                int start = layerStart[r];
+                int size = layerStart[r + 1] - start;
+                int[] adjStart = forward ? inStart : outStart;
+                int[] adj = forward ? inAdj : outAdj;
+
+                for (int i = 0; i < size; i++) {
+                    int v = order[start + i];
+                    long sum = 0;
+                    int count = 0;
+                    for (int k = adjStart[v]; k < adjStart[v + 1]; k++) {
+                        sum += y[adj[k]];
+                        count++;
+                    }
+                    desired[i] = count > 0 ? (int) (sum / count) : y[v];
+                }
+
+                for (int i = 0; i < size; i++) {
+                    down[i] = i == 0 ? desired[i] : Math.max(desired[i], down[i - 1] + NODE_GAP);
+                }
+                int up = 0;
+                for (int i = size - 1; i >= 0; i--) {
+                    up = i == size - 1 ? desired[i] : Math.min(desired[i], up - NODE_GAP);
+                    y[order[start + i]] = (down[i] + up) / 2;
+                }
+            }
+        }
+
+        int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+        for (int v = 0; v < n; v++) {
+            minY = Math.min(minY, y[v]);
+            maxY = Math.max(maxY, y[v]);
+        }
+        int drawingWidth = Math.max(0, layerCount - 1) * LAYER_GAP;
+        int drawingHeight = n == 0 ? 0 : maxY - minY;
+        int width = Math.max(minWidth, drawingWidth + 2 * MARGIN);
+        int height = Math.max(minHeight, drawingHeight + 2 * MARGIN);
+
+        // Center the drawing when the canvas is larger than needed
+        int offsetX = (width - drawingWidth) / 2;
+        int offsetY = (height - drawingHeight) / 2 - (n == 0 ? 0 : minY);
+        for (int v = 0; v < n; v++) {
+            x[v] = offsetX + rank[v] * LAYER_GAP;
+            y[v] += offsetY;
+        }
+        return new int[] { width, height };
+    }
+}